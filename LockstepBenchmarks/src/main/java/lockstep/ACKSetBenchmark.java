@@ -0,0 +1,102 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import lockstep.messages.simulation.FrameACK;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the ACKSet shared by a receiver, pushing an ACK for each packet
+ * received from any of the senders, and a transmitter collecting the ACKs.
+ * Selective ACKs are shaped by the loss pattern over the window.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class ACKSetBenchmark
+{
+    static final int FIRST_FRAME = 100;
+    static final int SCHEDULES = 64;
+    
+    @Param({"1", "4", "11"})
+    int clientCount;
+    
+    @Param({"NONE", "UNIFORM", "BURST"})
+    LossPattern lossPattern;
+    
+    @Param({"10", "100"})
+    int windowSize;
+    
+    ACKSet ackSet;
+    int[][] selectiveACKs;
+    
+    //Receiver thread state
+    int nextSchedule;
+    int nextSender;
+    int cumulativeACK;
+    
+    @Setup(Level.Iteration)
+    public void setup()
+    {
+        ackSet = new ACKSet();
+        
+        Random rand = new Random(42);
+        selectiveACKs = new int[SCHEDULES][];
+        for(int i = 0; i < SCHEDULES; i++)
+        {
+            int[] offsets = lossPattern.selectiveOffsets(windowSize, rand);
+            if(offsets.length > 0)
+            {
+                selectiveACKs[i] = new int[offsets.length];
+                for(int j = 0; j < offsets.length; j++)
+                    selectiveACKs[i][j] = FIRST_FRAME + offsets[j];
+            }
+        }
+        
+        nextSchedule = 0;
+        nextSender = 0;
+        cumulativeACK = FIRST_FRAME - 1;
+    }
+    
+    @Benchmark
+    @Group("receiveTransmit")
+    @GroupThreads(1)
+    public void pushACK()
+    {
+        int senderID = nextSender++ % clientCount;
+        if(senderID == 0)
+            cumulativeACK++;
+        
+        ackSet.pushACK(new FrameACK(senderID, cumulativeACK, selectiveACKs[nextSchedule++ % SCHEDULES]));
+    }
+    
+    @Benchmark
+    @Group("receiveTransmit")
+    @GroupThreads(1)
+    public void getACKs(Blackhole bh)
+    {
+        bh.consume(ackSet.getACKs());
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import lockstep.messages.simulation.LockstepCommand;
+
+/**
+ * Minimal command carried by the frames in the data structure benchmarks.
+ */
+public class BenchmarkCommand implements LockstepCommand, Externalizable
+{
+    int value;
+    
+    public BenchmarkCommand()
+    {
+    }
+    
+    public BenchmarkCommand(int value)
+    {
+        this.value = value;
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException
+    {
+        out.writeInt(value);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException
+    {
+        value = in.readInt();
+    }
+}
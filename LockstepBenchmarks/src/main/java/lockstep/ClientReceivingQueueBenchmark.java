@@ -0,0 +1,121 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep;
+
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.infra.Control;
+
+/**
+ * Measures the client receiving queues under a concurrent receiver thread,
+ * pushing windows of frames for all the senders, and a consumer thread
+ * executing frames as the client core thread does.
+ * The receiver is kept within two windows of the consumer, as the lockstep
+ * protocol bounds the distance between received and executed frames.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class ClientReceivingQueueBenchmark
+{
+    static final int FIRST_FRAME = 100;
+    static final int SCHEDULES = 64;
+    static final BenchmarkCommand COMMAND = new BenchmarkCommand(1);
+    
+    @Param({"2", "4", "12"})
+    int clientCount;
+    
+    @Param({"NONE", "UNIFORM", "BURST"})
+    LossPattern lossPattern;
+    
+    @Param({"1", "10", "100"})
+    int windowSize;
+    
+    ClientReceivingQueue[] queues;
+    Semaphore executionSemaphore;
+    AtomicInteger executedFrames;
+    
+    //Receiver thread state
+    int[][] arrivalSchedules;
+    int nextSchedule;
+    int windowBase;
+    
+    @Setup(Level.Iteration)
+    public void setup()
+    {
+        executionSemaphore = new Semaphore(0);
+        queues = new ClientReceivingQueue[clientCount];
+        for(int i = 0; i < clientCount; i++)
+            queues[i] = new ClientReceivingQueue(FIRST_FRAME, i, executionSemaphore);
+        
+        Random rand = new Random(42);
+        arrivalSchedules = new int[SCHEDULES][];
+        for(int i = 0; i < SCHEDULES; i++)
+            arrivalSchedules[i] = lossPattern.arrivalOrder(windowSize, rand);
+        
+        nextSchedule = 0;
+        windowBase = FIRST_FRAME;
+        executedFrames = new AtomicInteger(FIRST_FRAME);
+    }
+    
+    @Benchmark
+    @Group("receiveExecute")
+    @GroupThreads(1)
+    public void receive(Control control, Blackhole bh)
+    {
+        while(windowBase - executedFrames.get() >= 2 * windowSize)
+        {
+            if(control.stopMeasurement)
+                return;
+            Thread.yield();
+        }
+        
+        for(ClientReceivingQueue queue : queues)
+        {
+            int[] arrivals = arrivalSchedules[nextSchedule++ % SCHEDULES];
+            for(int offset : arrivals)
+                bh.consume(queue.push(new FrameInput(windowBase + offset, COMMAND)));
+        }
+        windowBase += windowSize;
+    }
+    
+    @Benchmark
+    @Group("receiveExecute")
+    @GroupThreads(1)
+    public void execute(Control control, Blackhole bh)
+    {
+        while(!executionSemaphore.tryAcquire(clientCount))
+        {
+            if(control.stopMeasurement)
+                return;
+            Thread.yield();
+        }
+        
+        for(ClientReceivingQueue queue : queues)
+            bh.consume(queue.pop());
+        executedFrames.incrementAndGet();
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import lockstep.messages.simulation.FrameACK;
+import lockstep.messages.simulation.InputMessage;
+import lockstep.messages.simulation.InputMessageArray;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures encoding and decoding of the simulation messages through the
+ * MessageCodec, apart from socket I/O.
+ * Run with -prof gc to get the allocation per operation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CodecBenchmark
+{
+    static final int FIRST_FRAME = 100;
+    static final int SENDER_ID = 12345;
+    static final int ARRAY_FRAMES = 10;
+    static final int SELECTIVE_ACKS = 8;
+    
+    @Param({"MOSAIC", "XEVIOUS"})
+    CommandType command;
+    
+    InputMessage inputMessage;
+    InputMessageArray inputMessageArray;
+    FrameACK frameACK;
+    
+    byte[] inputMessagePayload;
+    byte[] inputMessageArrayPayload;
+    byte[] frameACKPayload;
+    
+    @Setup(Level.Trial)
+    public void setup() throws IOException
+    {
+        Random rand = new Random(42);
+        inputMessage = new InputMessage(SENDER_ID, command.frames(FIRST_FRAME, 1, rand)[0]);
+        inputMessageArray = new InputMessageArray(SENDER_ID, command.frames(FIRST_FRAME, ARRAY_FRAMES, rand));
+        
+        int[] selectiveACKs = new int[SELECTIVE_ACKS];
+        for(int i = 0; i < SELECTIVE_ACKS; i++)
+            selectiveACKs[i] = FIRST_FRAME + 2 + 2 * i;
+        frameACK = new FrameACK(SENDER_ID, FIRST_FRAME, selectiveACKs);
+        
+        inputMessagePayload = MessageCodec.encode(inputMessage);
+        inputMessageArrayPayload = MessageCodec.encode(inputMessageArray);
+        frameACKPayload = MessageCodec.encode(frameACK);
+    }
+    
+    @Benchmark
+    public byte[] encodeInputMessage(PayloadCounters counters) throws IOException
+    {
+        byte[] payload = MessageCodec.encode(inputMessage);
+        counters.count(payload.length);
+        return payload;
+    }
+    
+    @Benchmark
+    public Object decodeInputMessage(PayloadCounters counters) throws IOException, ClassNotFoundException
+    {
+        counters.count(inputMessagePayload.length);
+        return MessageCodec.decode(inputMessagePayload, 0, inputMessagePayload.length);
+    }
+    
+    @Benchmark
+    public byte[] encodeInputMessageArray(PayloadCounters counters) throws IOException
+    {
+        byte[] payload = MessageCodec.encode(inputMessageArray);
+        counters.count(payload.length);
+        return payload;
+    }
+    
+    @Benchmark
+    public Object decodeInputMessageArray(PayloadCounters counters) throws IOException, ClassNotFoundException
+    {
+        counters.count(inputMessageArrayPayload.length);
+        return MessageCodec.decode(inputMessageArrayPayload, 0, inputMessageArrayPayload.length);
+    }
+    
+    @Benchmark
+    public byte[] encodeFrameACK(PayloadCounters counters) throws IOException
+    {
+        byte[] payload = MessageCodec.encode(frameACK);
+        counters.count(payload.length);
+        return payload;
+    }
+    
+    @Benchmark
+    public Object decodeFrameACK(PayloadCounters counters) throws IOException, ClassNotFoundException
+    {
+        counters.count(frameACKPayload.length);
+        return MessageCodec.decode(frameACKPayload, 0, frameACKPayload.length);
+    }
+}
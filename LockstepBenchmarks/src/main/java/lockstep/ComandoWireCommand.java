@@ -0,0 +1,46 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import lockstep.messages.simulation.LockstepCommand;
+
+/**
+ * Command with the same wire format of xeviousvs.Comando, which can't be used
+ * directly as it belongs to the XeviousVS client.
+ */
+public class ComandoWireCommand implements LockstepCommand, Externalizable
+{
+    String username;
+    int comando;
+    
+    public ComandoWireCommand()
+    {
+    }
+    
+    public ComandoWireCommand(String username, int comando)
+    {
+        this.username = username;
+        this.comando = comando;
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException
+    {
+        out.writeUTF(username);
+        out.writeInt(comando);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException
+    {
+        username = in.readUTF();
+        comando = in.readInt();
+    }
+}
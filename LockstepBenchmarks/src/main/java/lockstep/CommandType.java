@@ -0,0 +1,49 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep;
+
+import java.util.Random;
+import lockstep.messages.simulation.LockstepCommand;
+
+/**
+ * Realistic commands used in the codec benchmarks, one per example application.
+ */
+public enum CommandType
+{
+    MOSAIC
+    {
+        @Override
+        LockstepCommand create(int frame, Random rand)
+        {
+            return new MosaicWireCommand(rand.nextDouble(), rand.nextDouble(), rand.nextDouble(), rand.nextInt(30), rand.nextInt(30), frame);
+        }
+    },
+    
+    XEVIOUS
+    {
+        @Override
+        LockstepCommand create(int frame, Random rand)
+        {
+            return new ComandoWireCommand("player" + rand.nextInt(100), rand.nextInt(8));
+        }
+    };
+    
+    abstract LockstepCommand create(int frame, Random rand);
+    
+    /**
+     * @param firstFrame number of the first frame
+     * @param length number of frames
+     * @param rand source of randomness, seeded by the caller
+     * @return consecutive frames carrying commands of this type
+     */
+    FrameInput[] frames(int firstFrame, int length, Random rand)
+    {
+        FrameInput[] frames = new FrameInput[length];
+        for(int i = 0; i < length; i++)
+            frames[i] = new FrameInput(firstFrame + i, create(firstFrame + i, rand));
+        return frames;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Loss patterns used to shape the arrival order of frames in the benchmarks.
+ * Lost frames are followed by a retransmission of the whole window tail,
+ * duplicates included, as the transmitter resends all unacked frames.
+ */
+public enum LossPattern
+{
+    /**
+     * Every frame arrives once, in order.
+     */
+    NONE(0, 0, 0),
+    
+    /**
+     * Independent losses with 5% probability.
+     */
+    UNIFORM(0.05, 0.05, 0),
+    
+    /**
+     * Gilbert-Elliott bursts: 2% probability of entering the bad state, 
+     * where 70% of packets are lost and the state persists with 70% probability.
+     */
+    BURST(0.02, 0.7, 0.7);
+    
+    private final double enterLossProbability;
+    private final double lossInBurstProbability;
+    private final double stayInBurstProbability;
+
+    private LossPattern(double enterLossProbability, double lossInBurstProbability, double stayInBurstProbability)
+    {
+        this.enterLossProbability = enterLossProbability;
+        this.lossInBurstProbability = lossInBurstProbability;
+        this.stayInBurstProbability = stayInBurstProbability;
+    }
+    
+    /**
+     * Produces the arrival order for a window of frames.
+     * 
+     * @param windowSize number of frames in the window
+     * @param rand source of randomness, seeded by the caller
+     * @return the offsets, relative to the window start, of the frames in
+     * arrival order
+     */
+    public int[] arrivalOrder(int windowSize, Random rand)
+    {
+        int[] arrivals = new int[windowSize * 2];
+        int arrived = 0;
+        int firstLost = -1;
+        boolean inBurst = false;
+        
+        for(int offset = 0; offset < windowSize; offset++)
+        {
+            if(inBurst)
+                inBurst = rand.nextDouble() < stayInBurstProbability;
+            else
+                inBurst = rand.nextDouble() < enterLossProbability;
+            
+            if(inBurst && rand.nextDouble() < lossInBurstProbability)
+            {
+                if(firstLost < 0)
+                    firstLost = offset;
+            }
+            else
+                arrivals[arrived++] = offset;
+        }
+        
+        if(firstLost >= 0)
+            for(int offset = firstLost; offset < windowSize; offset++)
+                arrivals[arrived++] = offset;
+        
+        return Arrays.copyOf(arrivals, arrived);
+    }
+    
+    /**
+     * Produces the selective ACKs for a window, that is the frames received
+     * after the first lost one.
+     * 
+     * @param windowSize number of frames in the window
+     * @param rand source of randomness, seeded by the caller
+     * @return the offsets, relative to the window start, of the frames 
+     * received after the first lost one
+     */
+    public int[] selectiveOffsets(int windowSize, Random rand)
+    {
+        int[] offsets = new int[windowSize];
+        int count = 0;
+        boolean gapFound = false;
+        boolean inBurst = false;
+        for(int offset = 0; offset < windowSize; offset++)
+        {
+            if(inBurst)
+                inBurst = rand.nextDouble() < stayInBurstProbability;
+            else
+                inBurst = rand.nextDouble() < enterLossProbability;
+            
+            if(inBurst && rand.nextDouble() < lossInBurstProbability)
+                gapFound = true;
+            else if(gapFound)
+                offsets[count++] = offset;
+        }
+        return Arrays.copyOf(offsets, count);
+    }
+}
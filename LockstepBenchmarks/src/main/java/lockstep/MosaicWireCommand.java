@@ -0,0 +1,68 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import lockstep.messages.simulation.LockstepCommand;
+
+/**
+ * Command with the same wire format of mosaicsimulation.MosaicCommand, which
+ * can't be used directly as it depends on JavaFX.
+ */
+public class MosaicWireCommand implements LockstepCommand, Externalizable
+{
+    double colorRed;
+    double colorGreen;
+    double colorBlue;
+    
+    int row;
+    int column;
+    
+    boolean nop;
+    int ownFrame;
+    
+    public MosaicWireCommand()
+    {
+    }
+    
+    public MosaicWireCommand(double colorRed, double colorGreen, double colorBlue, int row, int column, int ownFrame)
+    {
+        this.colorRed = colorRed;
+        this.colorGreen = colorGreen;
+        this.colorBlue = colorBlue;
+        this.row = row;
+        this.column = column;
+        this.nop = false;
+        this.ownFrame = ownFrame;
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException
+    {
+        out.writeDouble(colorRed);
+        out.writeDouble(colorGreen);
+        out.writeDouble(colorBlue);
+        out.writeInt(row);
+        out.writeInt(column);
+        out.writeBoolean(nop);
+        out.writeInt(ownFrame);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException
+    {
+        colorRed = in.readDouble();
+        colorGreen = in.readDouble();
+        colorBlue = in.readDouble();
+        row = in.readInt();
+        column = in.readInt();
+        nop = in.readBoolean();
+        ownFrame = in.readInt();
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the packetization of a transmission backlog in payloads within the
+ * maximum UDP payload length, as done at each transmitter tick.
+ * Run with -prof gc to get the allocation per operation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PacketizerBenchmark
+{
+    static final int FIRST_FRAME = 100;
+    static final int SENDER_ID = 12345;
+    
+    @Param({"MOSAIC", "XEVIOUS"})
+    CommandType command;
+    
+    @Param({"1", "10", "100", "500"})
+    int backlog;
+    
+    @Param({"300"})
+    int maxUDPPayloadLength;
+    
+    FrameInput[] frames;
+    
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        frames = command.frames(FIRST_FRAME, backlog, new Random(42));
+    }
+    
+    @Benchmark
+    public List<byte[]> packetizeInputs(PayloadCounters counters) throws IOException
+    {
+        List<byte[]> payloads = MessageCodec.packetizeInputs(SENDER_ID, frames, maxUDPPayloadLength);
+        for(byte[] payload : payloads)
+            counters.count(payload.length);
+        counters.messages += backlog - payloads.size();
+        return payloads;
+    }
+}
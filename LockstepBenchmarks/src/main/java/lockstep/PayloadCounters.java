@@ -0,0 +1,41 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Counters for the payloads produced or consumed by the codec benchmarks.
+ * They're reported per iteration alongside the throughput, so that bytes per
+ * message is bytes / messages.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.EVENTS)
+public class PayloadCounters
+{
+    public long bytes;
+    public long payloads;
+    public long messages;
+    
+    @Setup(Level.Iteration)
+    public void reset()
+    {
+        bytes = 0;
+        payloads = 0;
+        messages = 0;
+    }
+    
+    void count(int payloadBytes)
+    {
+        bytes += payloadBytes;
+        payloads++;
+        messages++;
+    }
+}
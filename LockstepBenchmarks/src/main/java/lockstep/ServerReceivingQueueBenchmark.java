@@ -0,0 +1,94 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep;
+
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the server receiving side: each operation pushes a window of frames
+ * for every client, in the arrival order given by the loss pattern, then drains
+ * the queues as the server core thread does.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ServerReceivingQueueBenchmark
+{
+    static final int FIRST_FRAME = 100;
+    static final int SCHEDULES = 64;
+    static final BenchmarkCommand COMMAND = new BenchmarkCommand(1);
+    
+    @Param({"2", "4", "12"})
+    int clientCount;
+    
+    @Param({"NONE", "UNIFORM", "BURST"})
+    LossPattern lossPattern;
+    
+    @Param({"1", "10", "100"})
+    int windowSize;
+    
+    ServerReceivingQueue[] queues;
+    Semaphore executionSemaphore;
+    int[][] arrivalSchedules;
+    int nextSchedule;
+    int windowBase;
+    
+    @Setup(Level.Iteration)
+    public void setup()
+    {
+        executionSemaphore = new Semaphore(0);
+        queues = new ServerReceivingQueue[clientCount];
+        for(int i = 0; i < clientCount; i++)
+            queues[i] = new ServerReceivingQueue(FIRST_FRAME, i, executionSemaphore);
+        
+        Random rand = new Random(42);
+        arrivalSchedules = new int[SCHEDULES][];
+        for(int i = 0; i < SCHEDULES; i++)
+            arrivalSchedules[i] = lossPattern.arrivalOrder(windowSize, rand);
+        
+        nextSchedule = 0;
+        windowBase = FIRST_FRAME;
+    }
+    
+    @Benchmark
+    public void pushPop(Blackhole bh)
+    {
+        for(ServerReceivingQueue queue : queues)
+        {
+            int[] arrivals = arrivalSchedules[nextSchedule++ % SCHEDULES];
+            for(int offset : arrivals)
+                bh.consume(queue.push(new FrameInput(windowBase + offset, COMMAND)));
+        }
+        
+        for(ServerReceivingQueue queue : queues)
+        {
+            FrameInput input;
+            while((input = queue.pop()) != null)
+                bh.consume(input);
+        }
+        
+        windowBase += windowSize;
+        executionSemaphore.drainPermits();
+    }
+}
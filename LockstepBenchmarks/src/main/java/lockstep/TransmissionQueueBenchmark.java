@@ -0,0 +1,105 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import lockstep.messages.simulation.FrameACK;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the transmission queues of a transmitter, one per sender, holding a
+ * backlog of unacked frames as large as the window.
+ * pop extracts the whole backlog, as done at each transmitter tick.
+ * pushAndACK pushes a new frame and processes an ACK sliding the window by one,
+ * with selective ACKs shaped by the loss pattern.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TransmissionQueueBenchmark
+{
+    static final int FIRST_FRAME = 100;
+    static final int SCHEDULES = 64;
+    static final BenchmarkCommand COMMAND = new BenchmarkCommand(1);
+    
+    @Param({"1", "4", "11"})
+    int clientCount;
+    
+    @Param({"NONE", "UNIFORM", "BURST"})
+    LossPattern lossPattern;
+    
+    @Param({"10", "100", "500"})
+    int windowSize;
+    
+    TransmissionQueue[] queues;
+    int[][] selectiveOffsets;
+    int nextSchedule;
+    int nextFrame;
+    
+    @Setup(Level.Iteration)
+    public void setup()
+    {
+        queues = new TransmissionQueue[clientCount];
+        for(int i = 0; i < clientCount; i++)
+        {
+            queues[i] = new TransmissionQueue(FIRST_FRAME, i);
+            for(int frame = FIRST_FRAME; frame < FIRST_FRAME + windowSize; frame++)
+                queues[i].push(new FrameInput(frame, COMMAND));
+        }
+        
+        Random rand = new Random(42);
+        selectiveOffsets = new int[SCHEDULES][];
+        for(int i = 0; i < SCHEDULES; i++)
+            selectiveOffsets[i] = lossPattern.selectiveOffsets(windowSize, rand);
+        
+        nextSchedule = 0;
+        nextFrame = FIRST_FRAME + windowSize;
+    }
+    
+    @Benchmark
+    public void pop(Blackhole bh)
+    {
+        for(TransmissionQueue queue : queues)
+            bh.consume(queue.pop());
+    }
+    
+    @Benchmark
+    public void pushAndACK()
+    {
+        int cumulativeACK = nextFrame - windowSize;
+        for(TransmissionQueue queue : queues)
+        {
+            queue.push(new FrameInput(nextFrame, COMMAND));
+            
+            int[] offsets = selectiveOffsets[nextSchedule++ % SCHEDULES];
+            int[] selectiveACKs = null;
+            if(offsets.length > 0)
+            {
+                selectiveACKs = new int[offsets.length];
+                for(int i = 0; i < offsets.length; i++)
+                    selectiveACKs[i] = cumulativeACK + 1 + offsets[i];
+            }
+            queue.processACK(new FrameACK(cumulativeACK, selectiveACKs));
+        }
+        nextFrame++;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep;
+
+/**
+ * When the ACKs collected by an ACKSet are sent back.
+ *
+ * An ACK reporting a new gap, i.e. frames received out of order, is sent at
+ * the next transmission, so that the peer learns early what is missing.
+ * Otherwise the ACK of a sender is held until k packets have been ACKed or
+ * t milliseconds have passed since the first of them, whichever comes first.
+ * An ACK equal to the last one sent is dropped, unless t milliseconds have
+ * passed since the sending: a peer retransmitting because it lost our ACK is
+ * ACKed again.
+ *
+ * Held ACKs leave anyway when the transmitter sends frame inputs, as they're
+ * piggybacked on them.
+ */
+public class ACKPolicy
+{
+    /**
+     * Every ACK is sent at the next transmission, as when no policy is set.
+     */
+    public static final ACKPolicy IMMEDIATE = new ACKPolicy(true, 1, 0);
+
+    private final boolean immediateOnGap;
+    private final int packetsPerACK;
+    private final int maxDelay;
+
+    public static class Builder
+    {
+        private boolean immediateOnGap = true;
+        private int packetsPerACK = 2;
+        private int maxDelay = 40;
+
+        private Builder()
+        {
+        }
+
+        public Builder immediateOnGap(final boolean value)
+        {
+            this.immediateOnGap = value;
+            return this;
+        }
+
+        /**
+         * Number of packets after which the ACK is sent, k.
+         */
+        public Builder packetsPerACK(final int value)
+        {
+            this.packetsPerACK = value;
+            return this;
+        }
+
+        /**
+         * Max time an ACK is held, t, in milliseconds.
+         */
+        public Builder maxDelay(final int value)
+        {
+            this.maxDelay = value;
+            return this;
+        }
+
+        public ACKPolicy build()
+        {
+            return new ACKPolicy(immediateOnGap, packetsPerACK, maxDelay);
+        }
+    }
+
+    public static ACKPolicy.Builder builder()
+    {
+        return new ACKPolicy.Builder();
+    }
+
+    public ACKPolicy(boolean immediateOnGap, int packetsPerACK, int maxDelay)
+    {
+        if(packetsPerACK <= 0)
+            throw new IllegalArgumentException("Packets per ACK must be an integer greater than 0");
+
+        if(maxDelay < 0)
+            throw new IllegalArgumentException("Max ACK delay must be non negative");
+
+        this.immediateOnGap = immediateOnGap;
+        this.packetsPerACK = packetsPerACK;
+        this.maxDelay = maxDelay;
+    }
+
+    public boolean isImmediateOnGap()
+    {
+        return immediateOnGap;
+    }
+
+    public int getPacketsPerACK()
+    {
+        return packetsPerACK;
+    }
+
+    public int getMaxDelay()
+    {
+        return maxDelay;
+    }
+}
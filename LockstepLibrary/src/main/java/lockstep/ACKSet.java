@@ -5,34 +5,360 @@
  */
 package lockstep;
 
-import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import lockstep.messages.simulation.FrameACK;
+import lockstep.messages.simulation.FrameNACK;
 
 /**
  * Used to store ACK to be sent back.
- * ACKs are inserted by the receiver and retrieved by the transmitter.
+ * ACKs are inserted by the receiver and retrieved by the transmitter, when
+ * the ACKPolicy says they're due. Only the latest ACK of each sender is kept.
  * 
+ * NACKs can't wait for the tick: the receiver wakes the transmitter through
+ * this set as soon as it has NACKs to send or NACKed frames to retransmit.
+ *
  * It is thread safe.
  */
 public class ACKSet {
-      ConcurrentSkipListMap<Integer, FrameACK> ackMap;
+
+    /**
+     * ACK state of a sender.
+     */
+    private static final class SenderACKs
+    {
+        FrameACK pending;
+        int packets;
+        long firstPushNanos;
+        boolean urgent;
+
+        boolean sent;
+        int sentCumulativeACK;
+        int[] sentSelectiveACKs;
+        long sentNanos;
+    }
+
+    private static final int[] NO_SELECTIVE_ACKS = new int[0];
+
+    private final ACKPolicy policy;
+    private final long maxDelayNanos;
+
+    /**
+     * Senders by ID, and in a list to be scanned without allocating.
+     */
+    private final Map<Integer, SenderACKs> sendersByID = new HashMap<>();
+    private final List<SenderACKs> senders = new ArrayList<>();
+
+    private long suppressedACKs;
+
+    private final List<FrameNACK> pendingNACKs = new ArrayList<>();
+    private volatile boolean wakeUpRequested;
+    
+    /**
+     * The wake ups of the transmitter, waited for by its wait strategy.
+     */
+    private final WaitStrategy.Signal wakeUpSignal = new WaitStrategy.Signal()
+    {
+        @Override
+        public boolean poll()
+        {
+            return pollWakeUp();
+        }
+
+        @Override
+        public void block() throws InterruptedException
+        {
+            awaitWakeUp();
+        }
+
+        @Override
+        public boolean block(long timeoutNanos) throws InterruptedException
+        {
+            return awaitWakeUp(timeoutNanos);
+        }
+    };
     
+    /**
+     * True while the transmitter waits with nothing to send, to be woken by
+     * any ACK or frame to send.
+     */
+    private volatile boolean transmitterIdle;
+
     public ACKSet()
     {
-        ackMap = new ConcurrentSkipListMap<>();
+        this(ACKPolicy.builder().build());
     }
-    
+
+    public ACKSet(ACKPolicy policy)
+    {
+        if(policy == null)
+            throw new IllegalArgumentException("ACK policy cannot be null");
+        else
+            this.policy = policy;
+
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(policy.getMaxDelay());
+    }
+
+    public ACKPolicy getPolicy()
+    {
+        return policy;
+    }
+
+    /**
+     * @return the ACKs dropped so far as equal to the last one sent
+     */
+    public synchronized long getSuppressedACKs()
+    {
+        return suppressedACKs;
+    }
+
+    /**
+     * Retrieves all the pending ACKs, due or not.
+     */
     public FrameACK[] getACKs()
     {
-        FrameACK[] acks = ackMap.values().toArray(new FrameACK[0]);
-        
-        ackMap.clear();
+        List<FrameACK> acks = new ArrayList<>();
+        drainACKs(acks);
+        return acks.toArray(new FrameACK[0]);
+    }
+
+    /**
+     * @return true if any ACK is pending, due or not
+     */
+    public synchronized boolean hasPendingACKs()
+    {
+        for(int i = 0; i < senders.size(); i++)
+        {
+            if(senders.get(i).pending != null)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Moves all the pending ACKs to the list passed, due or not, as done when
+     * they can be piggybacked. The list can be reused across calls.
+     *
+     * @param acks list the ACKs are appended to
+     * @return the number of ACKs appended
+     */
+    public int drainACKs(List<FrameACK> acks)
+    {
+        return drain(acks, true, System.nanoTime());
+    }
+
+    /**
+     * Moves to the list passed the ACKs due according to the policy.
+     *
+     * @param acks list the ACKs are appended to
+     * @return the number of ACKs appended
+     */
+    public int drainDueACKs(List<FrameACK> acks)
+    {
+        return drainDueACKs(acks, System.nanoTime());
+    }
+
+    int drainDueACKs(List<FrameACK> acks, long nowNanos)
+    {
+        return drain(acks, false, nowNanos);
+    }
+
+    private synchronized int drain(List<FrameACK> acks, boolean all, long nowNanos)
+    {
+        int drained = 0;
+        for(int i = 0; i < senders.size(); i++)
+        {
+            SenderACKs sender = senders.get(i);
+            if(sender.pending == null || !(all || isDue(sender, nowNanos)))
+                continue;
+
+            FrameACK ack = sender.pending;
+            acks.add(ack);
+            drained++;
+
+            sender.pending = null;
+            sender.packets = 0;
+            sender.urgent = false;
+            sender.sent = true;
+            sender.sentCumulativeACK = ack.cumulativeACK;
+            sender.sentSelectiveACKs = ack.selectiveACKs;
+            sender.sentNanos = nowNanos;
+        }
+        return drained;
+    }
+
+    private boolean isDue(SenderACKs sender, long nowNanos)
+    {
+        return sender.urgent || sender.packets >= policy.getPacketsPerACK()
+                || nowNanos - sender.firstPushNanos >= maxDelayNanos;
+    }
+
+    /**
+     * Stores the latest ACK for its sender, replacing the pending one.
+     * An ACK equal to the last one sent is dropped, unless the max delay has
+     * passed since the sending.
+     *
+     * @param ack the ACK, with the sender ID set
+     */
+    public void pushACK(FrameACK ack)
+    {
+        pushACK(ack, System.nanoTime());
+    }
+
+    synchronized void pushACK(FrameACK ack, long nowNanos)
+    {
+        SenderACKs sender = sendersByID.get(ack.senderID);
+        if(sender == null)
+        {
+            sender = new SenderACKs();
+            sendersByID.put(ack.senderID, sender);
+            senders.add(sender);
+        }
+
+        boolean sameSelectiveACKs = Arrays.equals(selectiveACKs(ack.selectiveACKs), selectiveACKs(sender.sentSelectiveACKs));
+        boolean equalToSent = sender.sent && ack.cumulativeACK == sender.sentCumulativeACK && sameSelectiveACKs;
+        if(sender.pending == null && equalToSent && nowNanos - sender.sentNanos < maxDelayNanos)
+        {
+            suppressedACKs++;
+            return;
+        }
+
+        if(sender.pending == null)
+            sender.firstPushNanos = nowNanos;
+        sender.pending = ack;
+        sender.packets++;
+
+        if(policy.isImmediateOnGap() && !sameSelectiveACKs && ack.selectiveACKs != null && ack.selectiveACKs.length > 0)
+            sender.urgent = true;
         
-        return acks;
+        if(transmitterIdle)
+            wakeTransmitter();
+    }
+
+    /**
+     * Stores a NACK and wakes the transmitter to send it.
+     *
+     * @param nack the NACK, with the sender ID set
+     */
+    public synchronized void pushNACK(FrameNACK nack)
+    {
+        pendingNACKs.add(nack);
+        wakeTransmitter();
+    }
+
+    /**
+     * Moves the NACKs to the list passed, which can be reused across calls.
+     *
+     * @param nacks list the NACKs are appended to
+     * @return the number of NACKs appended
+     */
+    public synchronized int drainNACKs(List<FrameNACK> nacks)
+    {
+        int drained = pendingNACKs.size();
+        nacks.addAll(pendingNACKs);
+        pendingNACKs.clear();
+        return drained;
+    }
+
+    /**
+     * Wakes the transmitter waiting for the next tick.
+     */
+    public synchronized void wakeTransmitter()
+    {
+        wakeUpRequested = true;
+        notifyAll();
+    }
+
+    /**
+     * Wakes the transmitter only if it's idle, as done when frames to send
+     * are queued.
+     */
+    public void wakeIdleTransmitter()
+    {
+        if(transmitterIdle)
+            wakeTransmitter();
     }
     
-    public void pushACK(FrameACK ack)
+    /**
+     * @return the wake ups of the transmitter, to wait for with a wait 
+     * strategy
+     */
+    WaitStrategy.Signal wakeUpSignal()
+    {
+        return wakeUpSignal;
+    }
+    
+    /**
+     * Consumes a wake up requested, without waiting.
+     * 
+     * @return true if a wake up was requested
+     */
+    boolean pollWakeUp()
+    {
+        if(!wakeUpRequested)
+            return false;
+        synchronized(this)
+        {
+            boolean requested = wakeUpRequested;
+            wakeUpRequested = false;
+            return requested;
+        }
+    }
+    
+    /**
+     * Marks the transmitter as idle, so that pushing an ACK or a frame to 
+     * send wakes it. To be set before checking for pending transmissions, 
+     * so that no wake up is lost.
+     * 
+     * @param idle true when the transmitter is about to wait with nothing
+     * to send
+     */
+    void setTransmitterIdle(boolean idle)
+    {
+        this.transmitterIdle = idle;
+    }
+    
+    /**
+     * Waits to be woken by wakeTransmitter, with no time limit.
+     * A wake up requested before the call returns at once.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized void awaitWakeUp() throws InterruptedException
+    {
+        while(!wakeUpRequested)
+            wait();
+        wakeUpRequested = false;
+    }
+
+    /**
+     * Waits to be woken by wakeTransmitter, at most for the time passed.
+     * A wake up requested before the call returns at once.
+     *
+     * @param timeoutNanos max time to wait
+     * @return true if woken, false if the time passed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized boolean awaitWakeUp(long timeoutNanos) throws InterruptedException
+    {
+        long deadline = System.nanoTime() + timeoutNanos;
+        while(!wakeUpRequested)
+        {
+            long remaining = deadline - System.nanoTime();
+            if(remaining <= 0)
+                return false;
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        wakeUpRequested = false;
+        return true;
+    }
+
+    private static int[] selectiveACKs(int[] selectiveACKs)
     {
-        ackMap.put(ack.senderID, ack);
+        return selectiveACKs == null ? NO_SELECTIVE_ACKS : selectiveACKs;
     }
 }
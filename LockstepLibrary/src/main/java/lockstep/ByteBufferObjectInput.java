@@ -0,0 +1,231 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.UTFDataFormatException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * ObjectInput reading straight from a ByteBuffer, counterpart of
+ * ByteBufferObjectOutput. Reading past the end of the message throws
+ * EOFException, as streams do.
+ *
+ * It's reused across messages by a single thread at a time.
+ */
+class ByteBufferObjectInput implements ObjectInput
+{
+    private ByteBuffer buffer;
+
+    /**
+     * Scratch space for the strings, grown as needed.
+     */
+    private char[] chars = new char[64];
+
+    void setBuffer(ByteBuffer buffer)
+    {
+        this.buffer = buffer;
+    }
+
+    @Override
+    public Object readObject() throws ClassNotFoundException, IOException
+    {
+        byte[] serialized = new byte[readInt()];
+        readFully(serialized);
+        try(ObjectInputStream oin = new ObjectInputStream(new ByteArrayInputStream(serialized)))
+        {
+            return oin.readObject();
+        }
+    }
+
+    @Override
+    public int read()
+    {
+        return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b)
+    {
+        return read(b, 0, b.length);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len)
+    {
+        if(len == 0)
+            return 0;
+        if(!buffer.hasRemaining())
+            return -1;
+
+        int count = Integer.min(len, buffer.remaining());
+        buffer.get(b, off, count);
+        return count;
+    }
+
+    @Override
+    public long skip(long n)
+    {
+        int count = (int) Long.min(n, buffer.remaining());
+        buffer.position(buffer.position() + count);
+        return count;
+    }
+
+    @Override
+    public int available()
+    {
+        return buffer.remaining();
+    }
+
+    @Override
+    public void readFully(byte[] b) throws IOException
+    {
+        readFully(b, 0, b.length);
+    }
+
+    @Override
+    public void readFully(byte[] b, int off, int len) throws IOException
+    {
+        ensure(len);
+        buffer.get(b, off, len);
+    }
+
+    @Override
+    public int skipBytes(int n)
+    {
+        return (int) skip(n);
+    }
+
+    @Override
+    public boolean readBoolean() throws IOException
+    {
+        return readByte() != 0;
+    }
+
+    @Override
+    public byte readByte() throws IOException
+    {
+        ensure(1);
+        return buffer.get();
+    }
+
+    @Override
+    public int readUnsignedByte() throws IOException
+    {
+        return readByte() & 0xFF;
+    }
+
+    @Override
+    public short readShort() throws IOException
+    {
+        ensure(2);
+        return buffer.getShort();
+    }
+
+    @Override
+    public int readUnsignedShort() throws IOException
+    {
+        return readShort() & 0xFFFF;
+    }
+
+    @Override
+    public char readChar() throws IOException
+    {
+        ensure(2);
+        return buffer.getChar();
+    }
+
+    @Override
+    public int readInt() throws IOException
+    {
+        ensure(4);
+        return buffer.getInt();
+    }
+
+    @Override
+    public long readLong() throws IOException
+    {
+        ensure(8);
+        return buffer.getLong();
+    }
+
+    @Override
+    public float readFloat() throws IOException
+    {
+        ensure(4);
+        return buffer.getFloat();
+    }
+
+    @Override
+    public double readDouble() throws IOException
+    {
+        ensure(8);
+        return buffer.getDouble();
+    }
+
+    /**
+     * Not supported, as by DataInputStream.
+     */
+    @Override
+    public String readLine()
+    {
+        throw new UnsupportedOperationException("readLine is not supported");
+    }
+
+    /**
+     * Reads a string in modified UTF-8, as DataInput does.
+     */
+    @Override
+    public String readUTF() throws IOException
+    {
+        int length = readUnsignedShort();
+        ensure(length);
+        if(chars.length < length)
+            chars = new char[length];
+
+        int end = buffer.position() + length;
+        int count = 0;
+        try
+        {
+            while(buffer.position() < end)
+            {
+                int b = buffer.get() & 0xFF;
+                if(b < 0x80)
+                    chars[count++] = (char) b;
+                else if((b & 0xE0) == 0xC0)
+                    chars[count++] = (char) (((b & 0x1F) << 6) | (buffer.get() & 0x3F));
+                else if((b & 0xF0) == 0xE0)
+                    chars[count++] = (char) (((b & 0x0F) << 12) | ((buffer.get() & 0x3F) << 6) | (buffer.get() & 0x3F));
+                else
+                    throw new UTFDataFormatException("Malformed input around byte " + buffer.position());
+            }
+        }
+        catch(BufferUnderflowException underflowEx)
+        {
+            throw new UTFDataFormatException("Malformed input: partial character at end");
+        }
+
+        if(buffer.position() != end)
+            throw new UTFDataFormatException("Malformed input: partial character at end");
+        return new String(chars, 0, count);
+    }
+
+    @Override
+    public void close()
+    {
+    }
+
+    private void ensure(int length) throws EOFException
+    {
+        if(buffer.remaining() < length)
+            throw new EOFException("Message truncated");
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+
+/**
+ * ObjectOutput writing straight into a ByteBuffer, used to encode
+ * Externalizable commands without a stream chain. Primitives follow the
+ * DataOutput format. Nested objects fall back to Java Serialization.
+ *
+ * It's reused across messages by a single thread at a time.
+ */
+class ByteBufferObjectOutput implements ObjectOutput
+{
+    private ByteBuffer buffer;
+
+    void setBuffer(ByteBuffer buffer)
+    {
+        this.buffer = buffer;
+    }
+
+    ByteBuffer getBuffer()
+    {
+        return buffer;
+    }
+
+    @Override
+    public void writeObject(Object obj) throws IOException
+    {
+        ByteArrayOutputStream baout = new ByteArrayOutputStream();
+        try(ObjectOutputStream oout = new ObjectOutputStream(baout))
+        {
+            oout.writeObject(obj);
+        }
+        buffer.putInt(baout.size());
+        buffer.put(baout.toByteArray());
+    }
+
+    @Override
+    public void write(int b)
+    {
+        buffer.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b)
+    {
+        buffer.put(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len)
+    {
+        buffer.put(b, off, len);
+    }
+
+    @Override
+    public void writeBoolean(boolean v)
+    {
+        buffer.put(v ? (byte) 1 : (byte) 0);
+    }
+
+    @Override
+    public void writeByte(int v)
+    {
+        buffer.put((byte) v);
+    }
+
+    @Override
+    public void writeShort(int v)
+    {
+        buffer.putShort((short) v);
+    }
+
+    @Override
+    public void writeChar(int v)
+    {
+        buffer.putChar((char) v);
+    }
+
+    @Override
+    public void writeInt(int v)
+    {
+        buffer.putInt(v);
+    }
+
+    @Override
+    public void writeLong(long v)
+    {
+        buffer.putLong(v);
+    }
+
+    @Override
+    public void writeFloat(float v)
+    {
+        buffer.putFloat(v);
+    }
+
+    @Override
+    public void writeDouble(double v)
+    {
+        buffer.putDouble(v);
+    }
+
+    @Override
+    public void writeBytes(String s)
+    {
+        for(int i = 0; i < s.length(); i++)
+            buffer.put((byte) s.charAt(i));
+    }
+
+    @Override
+    public void writeChars(String s)
+    {
+        for(int i = 0; i < s.length(); i++)
+            buffer.putChar(s.charAt(i));
+    }
+
+    /**
+     * Writes the string in modified UTF-8, as DataOutput does.
+     */
+    @Override
+    public void writeUTF(String s) throws IOException
+    {
+        int lengthPosition = buffer.position();
+        buffer.putShort((short) 0);
+        for(int i = 0; i < s.length(); i++)
+        {
+            char c = s.charAt(i);
+            if(c >= 0x0001 && c <= 0x007F)
+                buffer.put((byte) c);
+            else if(c <= 0x07FF)
+            {
+                buffer.put((byte) (0xC0 | ((c >> 6) & 0x1F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+            else
+            {
+                buffer.put((byte) (0xE0 | ((c >> 12) & 0x0F)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+
+        int length = buffer.position() - lengthPosition - 2;
+        if(length > 65535)
+            throw new UTFDataFormatException("Encoded string too long: " + length + " bytes");
+        buffer.putShort(lengthPosition, (short) length);
+    }
+
+    @Override
+    public void flush()
+    {
+    }
+
+    @Override
+    public void close()
+    {
+    }
+}
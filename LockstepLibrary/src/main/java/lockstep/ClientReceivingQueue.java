@@ -12,7 +12,6 @@ import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
 import lockstep.messages.simulation.FrameACK;
-import lockstep.messages.simulation.LockstepCommand;
 import org.apache.commons.lang3.ArrayUtils;
 
 /**
@@ -25,15 +24,27 @@ import org.apache.commons.lang3.ArrayUtils;
 class ClientReceivingQueue implements ReceivingQueue
 {
     private final int senderID;
+    private final int initialFrameNumber;
     
     AtomicInteger nextFrame;
-    ConcurrentSkipListMap<Integer, LockstepCommand> commandBuffer;
+    ConcurrentSkipListMap<Integer, FrameInput> frameBuffer;
     
     Semaphore executionSemaphore;
+    
+    /**
+     * Time the last frame that was missing when it became the next one 
+     * arrived, used to attribute the stalls.
+     */
+    volatile long nextFrameArrivalNanos;
     ReentrantLock semaphoreCheckingLock = new ReentrantLock();
         
     AtomicInteger lastInOrderACK;
     ConcurrentSkipListSet<Integer> selectiveACKsSet;
+    
+    /**
+     * Missing frames up to this one were already reported.
+     */
+    private int missingReportedUpTo;
             
      /**
      * Constructor.
@@ -50,13 +61,47 @@ class ClientReceivingQueue implements ReceivingQueue
     public ClientReceivingQueue(int initialFrameNumber, int senderID, Semaphore clientExecutionSemaphore)
     {
         this.senderID = senderID;
+        this.initialFrameNumber = initialFrameNumber;
 
         this.nextFrame = new AtomicInteger(initialFrameNumber);
-        this.commandBuffer = new ConcurrentSkipListMap<>();
+        this.frameBuffer = new ConcurrentSkipListMap<>();
         this.executionSemaphore = clientExecutionSemaphore;
         
         this.lastInOrderACK = new AtomicInteger(initialFrameNumber - 1);
         this.selectiveACKsSet = new ConcurrentSkipListSet<>();
+        this.missingReportedUpTo = initialFrameNumber - 1;
+    }
+    
+    public int getSenderID()
+    {
+        return senderID;
+    }
+    
+    public int getInitialFrameNumber()
+    {
+        return initialFrameNumber;
+    }
+    
+    /**
+     * Replaces the semaphore signaled when the next frame is available.
+     * Used to activate a queue that was filled while waiting for its first
+     * frame to be executed, such as the queue of a client joining a running
+     * session. If the next frame is already present, the new semaphore is 
+     * released.
+     * 
+     * @param clientExecutionSemaphore the semaphore of the client
+     */
+    void attachSemaphore(Semaphore clientExecutionSemaphore)
+    {
+        try{
+            semaphoreCheckingLock.lock();
+            this.executionSemaphore = clientExecutionSemaphore;
+            if(frameBuffer.containsKey(nextFrame.get()))
+                executionSemaphore.release();
+        }
+        finally{
+            semaphoreCheckingLock.unlock();
+        }
     }
     
     /**
@@ -69,29 +114,44 @@ class ClientReceivingQueue implements ReceivingQueue
     @Override
     public FrameInput pop()
     {
-        LockstepCommand nextCommand = this.commandBuffer.get(nextFrame.get());
         int frame = nextFrame.get();
-        FrameInput frameInput = null;
-        if( nextCommand != null )
+        FrameInput frameInput = this.frameBuffer.get(frame);
+        if( frameInput != null )
         {
-            frameInput = new FrameInput(frame, nextCommand);
-        
             try{
                 semaphoreCheckingLock.lock();
                 nextFrame.incrementAndGet();
-                if(commandBuffer.get(nextFrame.get()) != null)
+                if(frameBuffer.containsKey(nextFrame.get()))
                     executionSemaphore.release();
             }
             finally{
                 semaphoreCheckingLock.unlock();
             }
             
-            for(Integer key : commandBuffer.headMap(nextFrame.get()).keySet())
-                commandBuffer.remove(key);
+            //Frames before the next one are never accepted, only the
+            //extracted one has to be removed
+            frameBuffer.remove(frame);
         }
         return frameInput;
     }
     
+    /**
+     * @return true if the next in order frame input is present
+     */
+    boolean isNextFrameReady()
+    {
+        return frameBuffer.containsKey(nextFrame.get());
+    }
+    
+    /**
+     * @return the time the next frame arrived, if it was missing when it 
+     * became the next one. Valid only once the frame is ready
+     */
+    long getNextFrameArrivalNanos()
+    {
+        return nextFrameArrivalNanos;
+    }
+    
     /**
      * Shows the head of the buffer. This method won't modify the queue.
      * 
@@ -100,7 +160,7 @@ class ClientReceivingQueue implements ReceivingQueue
     @Override
     public FrameInput head()
     {
-        return new FrameInput(nextFrame.get(), commandBuffer.get(nextFrame.get()));
+        return frameBuffer.get(nextFrame.get());
     }
     
     /**
@@ -145,9 +205,12 @@ class ClientReceivingQueue implements ReceivingQueue
         {
             try{
                 semaphoreCheckingLock.lock();
-                commandBuffer.putIfAbsent(input.getFrameNumber(), input.getCommand());
+                frameBuffer.putIfAbsent(input.getFrameNumber(), input);
                 if(input.getFrameNumber() == this.nextFrame.get())
+                {
+                    nextFrameArrivalNanos = System.nanoTime();
                     executionSemaphore.release();
+                }
             } finally
             {
                 semaphoreCheckingLock.unlock();
@@ -170,6 +233,31 @@ class ClientReceivingQueue implements ReceivingQueue
         }
     }
 
+    /**
+     * Only frames received in order are accounted, as the others can't be
+     * extracted yet.
+     */
+    @Override
+    public int backlog()
+    {
+        return Integer.max(0, lastInOrderACK.get() - nextFrame.get() + 1);
+    }
+    
+    @Override
+    public int getLastInOrderACK()
+    {
+        return lastInOrderACK.get();
+    }
+    
+    @Override
+    public int[] newMissingRanges()
+    {
+        int[] ranges = MissingFrames.ranges(lastInOrderACK.get(), selectiveACKsSet, missingReportedUpTo);
+        if(ranges != null)
+            missingReportedUpTo = ranges[ranges.length - 1];
+        return ranges;
+    }
+    
     /**
      * @return the FrameACK to send back
      */
@@ -186,6 +274,9 @@ class ClientReceivingQueue implements ReceivingQueue
      */    
     private int[] _getSelectiveACKs()
     {
+        if(this.selectiveACKsSet.isEmpty())
+            return null;
+        
         Integer[] selectiveACKsIntegerArray = this.selectiveACKsSet.toArray(new Integer[0]);
         if(selectiveACKsIntegerArray.length > 0)
         {
@@ -202,7 +293,7 @@ class ClientReceivingQueue implements ReceivingQueue
         String string = new String();
         
         string += "ExecutionFrameQueue[" + senderID + "] = {";
-        for(Entry<Integer, LockstepCommand> entry : this.commandBuffer.entrySet())
+        for(Entry<Integer, FrameInput> entry : this.frameBuffer.entrySet())
         {
             string += " " + entry.getKey();
         }
@@ -0,0 +1,111 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Delays attributed to each client of a session: on the client, the time
+ * spent stalled waiting for the frames of each sender; on the server, how
+ * late each client delivers its frames with respect to the first client
+ * delivering the same frame.
+ *
+ * It is thread safe.
+ */
+public class DelayAttribution
+{
+    private static class Delays
+    {
+        final LongAdder count = new LongAdder();
+        final LongAdder totalNanos = new LongAdder();
+        final AtomicLong maxNanos = new AtomicLong();
+    }
+
+    private final ConcurrentHashMap<Integer, Delays> delays = new ConcurrentHashMap<>();
+
+    void record(int clientID, long nanos)
+    {
+        Delays clientDelays = delays.computeIfAbsent(clientID, (Integer id) -> new Delays());
+        clientDelays.count.increment();
+        clientDelays.totalNanos.add(nanos);
+
+        long currentMax = clientDelays.maxNanos.get();
+        while(nanos > currentMax && !clientDelays.maxNanos.compareAndSet(currentMax, nanos))
+            currentMax = clientDelays.maxNanos.get();
+    }
+
+    /**
+     * @return the IDs of the clients with at least one delay recorded
+     */
+    public Set<Integer> getClientIDs()
+    {
+        return Collections.unmodifiableSet(delays.keySet());
+    }
+
+    /**
+     * @param clientID ID of the client
+     * @return the number of delays attributed to the client
+     */
+    public long getCount(int clientID)
+    {
+        Delays clientDelays = delays.get(clientID);
+        return clientDelays == null ? 0 : clientDelays.count.sum();
+    }
+
+    /**
+     * @param clientID ID of the client
+     * @return the sum of the delays attributed to the client
+     */
+    public long getTotalNanos(int clientID)
+    {
+        Delays clientDelays = delays.get(clientID);
+        return clientDelays == null ? 0 : clientDelays.totalNanos.sum();
+    }
+
+    /**
+     * @param clientID ID of the client
+     * @return the mean of the delays attributed to the client, 0 if none
+     */
+    public long getMeanNanos(int clientID)
+    {
+        long count = getCount(clientID);
+        return count == 0 ? 0 : getTotalNanos(clientID) / count;
+    }
+
+    /**
+     * @param clientID ID of the client
+     * @return the longest delay attributed to the client
+     */
+    public long getMaxNanos(int clientID)
+    {
+        Delays clientDelays = delays.get(clientID);
+        return clientDelays == null ? 0 : clientDelays.maxNanos.get();
+    }
+
+    /**
+     * @return the ID of the client with the highest total delay, or null if
+     * no delay was recorded
+     */
+    public Integer getWorstClientID()
+    {
+        Integer worst = null;
+        long worstTotal = -1;
+        for(Integer clientID : delays.keySet())
+        {
+            long total = getTotalNanos(clientID);
+            if(total > worstTotal)
+            {
+                worst = clientID;
+                worstTotal = total;
+            }
+        }
+        return worst;
+    }
+}
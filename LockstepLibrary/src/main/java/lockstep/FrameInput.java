@@ -17,6 +17,7 @@ public class FrameInput implements Serializable
 {
     private final int frameNumber;
     private final LockstepCommand cmd;
+    private FrameTrace trace;
     
     public FrameInput(int frameNumber, LockstepCommand cmd)
     {
@@ -32,6 +33,17 @@ public class FrameInput implements Serializable
         return cmd;
     }    
 
+    /**
+     * @return the timestamps of the frame, or null if it's not sampled
+     */
+    public FrameTrace getTrace() {
+        return trace;
+    }
+
+    void setTrace(FrameTrace trace) {
+        this.trace = trace;
+    }
+
     @Override
     public boolean equals(Object obj)
     {
@@ -0,0 +1,102 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+/**
+ * Timestamps of a sampled frame along its path, attached to the frame by the
+ * sending client and carried through the server.
+ * All timestamps are nanoTime values translated on the server clock, zero
+ * when the frame hasn't reached that point yet.
+ * The reception on the receiving client is local to it, so it's not sent.
+ */
+public class FrameTrace implements Externalizable
+{
+    private long created;
+    private long transmitted;
+    private long serverReceived;
+    private long serverForwarded;
+    private transient long received;
+
+    /**
+     * Used by deserialization only.
+     */
+    public FrameTrace()
+    {
+    }
+
+    FrameTrace(long created)
+    {
+        this.created = created;
+    }
+
+    public long getCreated()
+    {
+        return created;
+    }
+
+    public long getTransmitted()
+    {
+        return transmitted;
+    }
+
+    public long getServerReceived()
+    {
+        return serverReceived;
+    }
+
+    public long getServerForwarded()
+    {
+        return serverForwarded;
+    }
+
+    public long getReceived()
+    {
+        return received;
+    }
+
+    void setTransmitted(long transmitted)
+    {
+        this.transmitted = transmitted;
+    }
+
+    void setServerReceived(long serverReceived)
+    {
+        this.serverReceived = serverReceived;
+    }
+
+    void setServerForwarded(long serverForwarded)
+    {
+        this.serverForwarded = serverForwarded;
+    }
+
+    void setReceived(long received)
+    {
+        this.received = received;
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException
+    {
+        out.writeLong(created);
+        out.writeLong(transmitted);
+        out.writeLong(serverReceived);
+        out.writeLong(serverForwarded);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException
+    {
+        created = in.readLong();
+        transmitted = in.readLong();
+        serverReceived = in.readLong();
+        serverForwarded = in.readLong();
+    }
+}
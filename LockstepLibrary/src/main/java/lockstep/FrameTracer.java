@@ -0,0 +1,164 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep;
+
+import lockstep.metrics.LockstepMetrics;
+import lockstep.metrics.TraceStage;
+
+/**
+ * Stamps the traces of sampled frames as they go through a node, and reports
+ * the stage durations of the frames executed.
+ *
+ * Timestamps are taken on the server clock: the client estimates the offset
+ * of its clock during the handshake, the server has none.
+ *
+ * It is thread safe, as long as each frame is stamped by a thread at a time.
+ */
+class FrameTracer
+{
+    private final boolean serverSide;
+    private final int samplingInterval;
+    private final LockstepMetrics metrics;
+
+    private volatile long clockOffset;
+
+    /**
+     * Constructor.
+     *
+     * @param serverSide true if the tracer belongs to the server, which
+     * forwards the frames
+     * @param samplingInterval a frame every samplingInterval is traced,
+     * 0 disables the sampling
+     * @param metrics recorder of the stage durations
+     */
+    public FrameTracer(boolean serverSide, int samplingInterval, LockstepMetrics metrics)
+    {
+        if(samplingInterval < 0)
+            throw new IllegalArgumentException("Sampling interval must be greater or equal than zero");
+        else
+            this.samplingInterval = samplingInterval;
+
+        if(metrics == null)
+            throw new IllegalArgumentException("Metrics cannot be null, use LockstepMetrics.NOOP");
+        else
+            this.metrics = metrics;
+
+        this.serverSide = serverSide;
+    }
+
+    /**
+     * Sets the clock offset from the NTP-like exchange of the handshake.
+     *
+     * @param requestSent client time when the request was sent
+     * @param requestReceived server time when the request was received
+     * @param replySent server time when the reply was sent
+     * @param replyReceived client time when the reply was received
+     */
+    public void synchronize(long requestSent, long requestReceived, long replySent, long replyReceived)
+    {
+        this.clockOffset = ((requestReceived - requestSent) + (replySent - replyReceived)) / 2;
+    }
+
+    /**
+     * Replaces the clock offset with a later estimate, as the keep alive
+     * probes refine the one of the handshake.
+     *
+     * @param clockOffset offset of the server clock from the local one
+     */
+    public void setClockOffset(long clockOffset)
+    {
+        if(!serverSide)
+            this.clockOffset = clockOffset;
+    }
+
+    /**
+     * @return the estimated offset between the server clock and the local one
+     */
+    public long getClockOffset()
+    {
+        return clockOffset;
+    }
+
+    /**
+     * @return the current time on the server clock
+     */
+    public long now()
+    {
+        return System.nanoTime() + clockOffset;
+    }
+
+    /**
+     * Attaches a trace to the frame just created, if it's sampled.
+     */
+    public void created(FrameInput frame)
+    {
+        if(samplingInterval > 0 && frame.getFrameNumber() % samplingInterval == 0)
+            frame.setTrace(new FrameTrace(now()));
+    }
+
+    /**
+     * Stamps the first transmission of the frames by the client that created
+     * them. Forwards and retransmissions are ignored.
+     */
+    public void transmitted(FrameInput[] frames)
+    {
+        for(FrameInput frame : frames)
+            transmitted(frame);
+    }
+
+    public void transmitted(FrameInput frame)
+    {
+        FrameTrace trace = frame.getTrace();
+        if(!serverSide && trace != null && trace.getTransmitted() == 0)
+            trace.setTransmitted(now());
+    }
+
+    public void received(FrameInput[] frames)
+    {
+        for(FrameInput frame : frames)
+            received(frame);
+    }
+
+    public void received(FrameInput frame)
+    {
+        FrameTrace trace = frame.getTrace();
+        if(trace == null)
+            return;
+
+        if(serverSide)
+            trace.setServerReceived(now());
+        else
+            trace.setReceived(now());
+    }
+
+    public void forwarded(FrameInput frame)
+    {
+        FrameTrace trace = frame.getTrace();
+        if(trace != null)
+            trace.setServerForwarded(now());
+    }
+
+    /**
+     * Reports the stages of a frame of another client, just executed.
+     *
+     * @param senderID ID of the client that created the frame
+     * @param frame the frame executed
+     */
+    public void executed(int senderID, FrameInput frame)
+    {
+        FrameTrace trace = frame.getTrace();
+        if(trace == null || trace.getReceived() == 0)
+            return;
+
+        long executed = now();
+        metrics.traceStage(senderID, TraceStage.TRANSMIT, trace.getTransmitted() - trace.getCreated());
+        metrics.traceStage(senderID, TraceStage.UPLINK, trace.getServerReceived() - trace.getTransmitted());
+        metrics.traceStage(senderID, TraceStage.SERVER, trace.getServerForwarded() - trace.getServerReceived());
+        metrics.traceStage(senderID, TraceStage.DOWNLINK, trace.getReceived() - trace.getServerForwarded());
+        metrics.traceStage(senderID, TraceStage.PLAYOUT, executed - trace.getReceived());
+        metrics.traceStage(senderID, TraceStage.END_TO_END, executed - trace.getCreated());
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Timer running the deadlines of all the links of the process, such as keep
+ * alives and connection timeouts, on a single thread.
+ *
+ * The timeouts are hashed by their deadline into the buckets of a wheel,
+ * which the thread visits one per tick: scheduling and cancelling are O(1),
+ * and a timeout expires within a tick after its deadline. A timeout further
+ * than a turn of the wheel waits for the rounds it's away.
+ *
+ * The thread is a daemon started by the first scheduling. Tasks run on it,
+ * so they must be short and must not block.
+ */
+public class HashedWheelTimer
+{
+    /**
+     * Tick of the timer shared by the links.
+     */
+    static final long DEFAULT_TICK_MILLIS = 10;
+
+    /**
+     * Buckets of the timer shared by the links, a turn of about 5 seconds.
+     */
+    static final int DEFAULT_WHEEL_SIZE = 512;
+
+    private static HashedWheelTimer shared;
+
+    private final long tickNanos;
+    private final Timeout[] wheel;
+    private final int mask;
+    private final String name;
+
+    private Thread worker;
+    private long startNanos;
+    private long nextTick;
+    private volatile boolean stopped;
+
+    private static final Logger LOG = LogManager.getLogger(HashedWheelTimer.class);
+
+    /**
+     * @return the timer shared by all the links of the process
+     */
+    public static synchronized HashedWheelTimer shared()
+    {
+        if(shared == null)
+            shared = new HashedWheelTimer(DEFAULT_TICK_MILLIS, TimeUnit.MILLISECONDS, DEFAULT_WHEEL_SIZE, "Lockstep-timer");
+        return shared;
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param tick duration of a tick, the resolution of the timer
+     * @param unit unit of the tick
+     * @param wheelSize number of buckets, a power of two
+     * @param name name of the thread of the timer
+     */
+    public HashedWheelTimer(long tick, TimeUnit unit, int wheelSize, String name)
+    {
+        if(tick <= 0)
+            throw new IllegalArgumentException("Tick must be positive");
+        else
+            this.tickNanos = unit.toNanos(tick);
+
+        if(wheelSize <= 0 || Integer.bitCount(wheelSize) != 1)
+            throw new IllegalArgumentException("Wheel size must be a power of two");
+        else
+        {
+            this.wheel = new Timeout[wheelSize];
+            this.mask = wheelSize - 1;
+        }
+
+        this.name = name;
+    }
+
+    /**
+     * A task scheduled on the timer.
+     */
+    public final class Timeout
+    {
+        private final Runnable task;
+        private long remainingRounds;
+        private int bucket = -1;
+        private Timeout previous;
+        private Timeout next;
+        private boolean expired;
+        private boolean cancelled;
+
+        private Timeout(Runnable task)
+        {
+            this.task = task;
+        }
+
+        /**
+         * Cancels the task, if it's not running or run yet.
+         *
+         * @return true if the task won't run
+         */
+        public boolean cancel()
+        {
+            synchronized(HashedWheelTimer.this)
+            {
+                if(expired)
+                    return false;
+                if(!cancelled)
+                {
+                    cancelled = true;
+                    unlink(this);
+                }
+                return true;
+            }
+        }
+
+        public boolean isExpired()
+        {
+            synchronized(HashedWheelTimer.this)
+            {
+                return expired;
+            }
+        }
+
+        public boolean isCancelled()
+        {
+            synchronized(HashedWheelTimer.this)
+            {
+                return cancelled;
+            }
+        }
+    }
+
+    /**
+     * Schedules a task to run once after the delay passed.
+     *
+     * @param task the task, run on the thread of the timer
+     * @param delay time to the deadline
+     * @param unit unit of the delay
+     * @return the handle to cancel the task
+     */
+    public synchronized Timeout schedule(Runnable task, long delay, TimeUnit unit)
+    {
+        if(task == null)
+            throw new IllegalArgumentException("Task cannot be null");
+        if(stopped)
+            throw new IllegalStateException("Timer stopped");
+        startWorker();
+
+        long deadline = System.nanoTime() + unit.toNanos(Long.max(0, delay));
+        Timeout timeout = new Timeout(task);
+
+        long tick = Long.max(nextTick, (deadline - startNanos + tickNanos - 1) / tickNanos);
+        timeout.remainingRounds = (tick - nextTick) / wheel.length;
+        timeout.bucket = (int) (tick & mask);
+        timeout.next = wheel[timeout.bucket];
+        if(timeout.next != null)
+            timeout.next.previous = timeout;
+        wheel[timeout.bucket] = timeout;
+        return timeout;
+    }
+
+    /**
+     * Stops the thread of the timer. Pending tasks are discarded.
+     */
+    public synchronized void stop()
+    {
+        stopped = true;
+        if(worker != null)
+            worker.interrupt();
+    }
+
+    private void startWorker()
+    {
+        if(worker != null)
+            return;
+
+        startNanos = System.nanoTime();
+        nextTick = 1;
+        worker = new Thread(this::run, name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    private void run()
+    {
+        List<Timeout> expired = new ArrayList<>();
+        long tick = 1;
+        while(!stopped)
+        {
+            long tickDeadline = startNanos + tick * tickNanos;
+            long remaining;
+            while((remaining = tickDeadline - System.nanoTime()) > 0 && !stopped)
+                LockSupport.parkNanos(this, remaining);
+            if(stopped)
+                return;
+
+            expire(tick, expired);
+            for(int i = 0; i < expired.size(); i++)
+            {
+                try
+                {
+                    expired.get(i).task.run();
+                }
+                catch(RuntimeException ex)
+                {
+                    LOG.error("Timer task failed", ex);
+                }
+            }
+            expired.clear();
+            tick++;
+        }
+    }
+
+    private synchronized void expire(long tick, List<Timeout> expired)
+    {
+        Timeout timeout = wheel[(int) (tick & mask)];
+        while(timeout != null)
+        {
+            Timeout next = timeout.next;
+            if(timeout.remainingRounds <= 0)
+            {
+                unlink(timeout);
+                timeout.expired = true;
+                expired.add(timeout);
+            }
+            else
+                timeout.remainingRounds--;
+            timeout = next;
+        }
+        nextTick = tick + 1;
+    }
+
+    private void unlink(Timeout timeout)
+    {
+        if(timeout.bucket < 0)
+            return;
+
+        if(timeout.previous != null)
+            timeout.previous.next = timeout.next;
+        else
+            wheel[timeout.bucket] = timeout.next;
+        if(timeout.next != null)
+            timeout.next.previous = timeout.previous;
+
+        timeout.previous = null;
+        timeout.next = null;
+        timeout.bucket = -1;
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep;
+
+/**
+ * Network conditions emulated on the outgoing datagrams of a transmitter.
+ * Set on the server it impairs the server to clients direction, set on a
+ * client the client to server one.
+ * 
+ * Losses follow a Gilbert-Elliott model: the link alternates between a good
+ * and a bad state, each with its own loss rate. Uniform loss is the special
+ * case of a link that never leaves the good state.
+ * Each datagram is delayed by the base latency plus a jitter drawn from the 
+ * chosen distribution; reordered datagrams get an additional delay, so that 
+ * the following ones overtake them. With a bandwidth cap, datagrams are 
+ * serialized on the link and dropped when the link queue exceeds its limit.
+ * 
+ * Random choices come from a generator with the given seed, so the same
+ * sequence of datagrams is impaired in the same way at each run.
+ */
+public class ImpairmentProfile
+{
+    public enum JitterDistribution
+    {
+        /**
+         * Uniform in [0, jitter]
+         */
+        UNIFORM,
+        
+        /**
+         * Absolute value of a normal distribution with jitter as standard 
+         * deviation
+         */
+        NORMAL,
+        
+        /**
+         * Exponential with jitter as mean, giving a long tail
+         */
+        EXPONENTIAL
+    }
+    
+    private final long seed;
+    
+    private final double goodLossRate;
+    private final double badLossRate;
+    private final double goodToBadProbability;
+    private final double badToGoodProbability;
+    
+    private final int latency;
+    private final int jitter;
+    private final JitterDistribution jitterDistribution;
+    
+    private final double duplicationRate;
+    private final double reorderRate;
+    private final int reorderDelay;
+    
+    private final long bandwidth;
+    private final int bandwidthQueue;
+    
+    public static class Builder
+    {
+        private long seed = 0;
+        private double goodLossRate = 0;
+        private double badLossRate = 0;
+        private double goodToBadProbability = 0;
+        private double badToGoodProbability = 1;
+        private int latency = 0;
+        private int jitter = 0;
+        private JitterDistribution jitterDistribution = JitterDistribution.UNIFORM;
+        private double duplicationRate = 0;
+        private double reorderRate = 0;
+        private int reorderDelay = 0;
+        private long bandwidth = 0;
+        private int bandwidthQueue = 1000;
+
+        private Builder()
+        {
+        }
+        
+        public Builder seed(final long value)
+        {
+            this.seed = value;
+            return this;
+        }
+        
+        /**
+         * Uniform loss rate, applied while the link is in the good state.
+         */
+        public Builder loss(final double value)
+        {
+            this.goodLossRate = value;
+            return this;
+        }
+        
+        /**
+         * Gilbert-Elliott burst losses.
+         * 
+         * @param goodToBad probability of entering the bad state at each datagram
+         * @param badToGood probability of leaving the bad state at each datagram
+         * @param badLossRate loss rate while in the bad state
+         */
+        public Builder burstLoss(final double goodToBad, final double badToGood, final double badLossRate)
+        {
+            this.goodToBadProbability = goodToBad;
+            this.badToGoodProbability = badToGood;
+            this.badLossRate = badLossRate;
+            return this;
+        }
+        
+        /**
+         * Base one-way latency, in milliseconds.
+         */
+        public Builder latency(final int value)
+        {
+            this.latency = value;
+            return this;
+        }
+        
+        /**
+         * Jitter in milliseconds, added to the base latency.
+         */
+        public Builder jitter(final int value, final JitterDistribution distribution)
+        {
+            this.jitter = value;
+            this.jitterDistribution = distribution;
+            return this;
+        }
+        
+        public Builder duplication(final double value)
+        {
+            this.duplicationRate = value;
+            return this;
+        }
+        
+        /**
+         * @param rate fraction of datagrams held back
+         * @param delay additional delay of the held back datagrams, in milliseconds
+         */
+        public Builder reorder(final double rate, final int delay)
+        {
+            this.reorderRate = rate;
+            this.reorderDelay = delay;
+            return this;
+        }
+        
+        /**
+         * @param bytesPerSecond link capacity, 0 for no cap
+         * @param queue max time a datagram can wait for the link, in 
+         * milliseconds, before being dropped
+         */
+        public Builder bandwidth(final long bytesPerSecond, final int queue)
+        {
+            this.bandwidth = bytesPerSecond;
+            this.bandwidthQueue = queue;
+            return this;
+        }
+        
+        public ImpairmentProfile build()
+        {
+            return new ImpairmentProfile(seed, goodLossRate, badLossRate, 
+                    goodToBadProbability, badToGoodProbability, latency, jitter,
+                    jitterDistribution, duplicationRate, reorderRate, 
+                    reorderDelay, bandwidth, bandwidthQueue);
+        }
+    }
+    
+    public static ImpairmentProfile.Builder builder()
+    {
+        return new ImpairmentProfile.Builder();
+    }
+    
+    public ImpairmentProfile(long seed, double goodLossRate, double badLossRate,
+            double goodToBadProbability, double badToGoodProbability, 
+            int latency, int jitter, JitterDistribution jitterDistribution,
+            double duplicationRate, double reorderRate, int reorderDelay,
+            long bandwidth, int bandwidthQueue)
+    {
+        checkProbability(goodLossRate, "Loss rate");
+        checkProbability(badLossRate, "Bad state loss rate");
+        checkProbability(goodToBadProbability, "Good to bad probability");
+        checkProbability(badToGoodProbability, "Bad to good probability");
+        checkProbability(duplicationRate, "Duplication rate");
+        checkProbability(reorderRate, "Reorder rate");
+        
+        if(latency < 0 || jitter < 0 || reorderDelay < 0)
+            throw new IllegalArgumentException("Delays must be non negative");
+        
+        if(jitterDistribution == null)
+            throw new IllegalArgumentException("Jitter distribution cannot be null");
+        
+        if(bandwidth < 0)
+            throw new IllegalArgumentException("Bandwidth must be non negative");
+        
+        if(bandwidthQueue <= 0)
+            throw new IllegalArgumentException("Bandwidth queue must be an integer greater than 0");
+        
+        this.seed = seed;
+        this.goodLossRate = goodLossRate;
+        this.badLossRate = badLossRate;
+        this.goodToBadProbability = goodToBadProbability;
+        this.badToGoodProbability = badToGoodProbability;
+        this.latency = latency;
+        this.jitter = jitter;
+        this.jitterDistribution = jitterDistribution;
+        this.duplicationRate = duplicationRate;
+        this.reorderRate = reorderRate;
+        this.reorderDelay = reorderDelay;
+        this.bandwidth = bandwidth;
+        this.bandwidthQueue = bandwidthQueue;
+    }
+    
+    private static void checkProbability(double value, String name)
+    {
+        if(value < 0 || value > 1)
+            throw new IllegalArgumentException(name + " must be in [0, 1]");
+    }
+    
+    /**
+     * @param seedOffset added to the seed, to impair differently the links
+     * sharing the same profile
+     * @return a copy of this profile with a different seed
+     */
+    public ImpairmentProfile withSeedOffset(long seedOffset)
+    {
+        return new ImpairmentProfile(seed + seedOffset, goodLossRate, badLossRate,
+                goodToBadProbability, badToGoodProbability, latency, jitter,
+                jitterDistribution, duplicationRate, reorderRate, reorderDelay,
+                bandwidth, bandwidthQueue);
+    }
+
+    public long getSeed()
+    {
+        return seed;
+    }
+
+    public double getGoodLossRate()
+    {
+        return goodLossRate;
+    }
+
+    public double getBadLossRate()
+    {
+        return badLossRate;
+    }
+
+    public double getGoodToBadProbability()
+    {
+        return goodToBadProbability;
+    }
+
+    public double getBadToGoodProbability()
+    {
+        return badToGoodProbability;
+    }
+
+    public int getLatency()
+    {
+        return latency;
+    }
+
+    public int getJitter()
+    {
+        return jitter;
+    }
+
+    public JitterDistribution getJitterDistribution()
+    {
+        return jitterDistribution;
+    }
+
+    public double getDuplicationRate()
+    {
+        return duplicationRate;
+    }
+
+    public double getReorderRate()
+    {
+        return reorderRate;
+    }
+
+    public int getReorderDelay()
+    {
+        return reorderDelay;
+    }
+
+    public long getBandwidth()
+    {
+        return bandwidth;
+    }
+
+    public int getBandwidthQueue()
+    {
+        return bandwidthQueue;
+    }
+}
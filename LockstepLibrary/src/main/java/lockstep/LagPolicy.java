@@ -0,0 +1,132 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep;
+
+/**
+ * Bound on the frames the server keeps for a client that doesn't ACK them,
+ * and what the server does to a client reaching it, so that a client lagging
+ * within the connection timeout can't grow the memory of the server without
+ * bound.
+ *
+ * The bound applies to each link: the frames of a sender queued for a
+ * recipient and not yet ACKed by it. It can't be lower than MIN_UNACKED_FRAMES,
+ * as healthy links always keep the frames in flight unACKed. When a recipient 
+ * reaches it the server either:
+ * - throttles the sender: its new frames are refused, and not ACKed, until
+ *   the recipient catches up. The frames stay queued on the sender, which
+ *   retransmits them, and the whole session slows down to the pace of the
+ *   lagging client;
+ * - demotes the recipient to spectator: the other clients are told it left,
+ *   as by a disconnection, its later inputs are ACKed and dropped, and it's 
+ *   fed the frames of the others from the history of the session at its own
+ *   pace, within the bound. Requires late joins, which keep the history: a 
+ *   spectator falling behind the retention of the history is disconnected;
+ * - disconnects the recipient.
+ * 
+ * Demotions and disconnections happen only once the link has stayed beyond
+ * the bound for the lag timeout, so that a burst of retransmissions doesn't
+ * trigger them.
+ */
+public class LagPolicy
+{
+    /**
+     * What the server does when a link reaches the bound.
+     */
+    public enum Action
+    {
+        THROTTLE,
+        SPECTATOR,
+        DISCONNECT
+    }
+
+    /**
+     * Lowest bound accepted, a second of frames at 60 fps.
+     */
+    public static final int MIN_UNACKED_FRAMES = 60;
+
+    private final int maxUnackedFrames;
+    private final int lagTimeout;
+    private final Action action;
+
+    public static class Builder
+    {
+        private int maxUnackedFrames = 600;
+        private int lagTimeout = 1000;
+        private Action action = Action.THROTTLE;
+
+        private Builder()
+        {
+        }
+
+        /**
+         * Frames of a sender queued for a recipient and not yet ACKed.
+         */
+        public Builder maxUnackedFrames(final int value)
+        {
+            this.maxUnackedFrames = value;
+            return this;
+        }
+
+        /**
+         * Milliseconds a link must stay beyond the bound before its 
+         * recipient is demoted or disconnected.
+         */
+        public Builder lagTimeout(final int value)
+        {
+            this.lagTimeout = value;
+            return this;
+        }
+
+        public Builder action(final Action value)
+        {
+            this.action = value;
+            return this;
+        }
+
+        public LagPolicy build()
+        {
+            return new LagPolicy(maxUnackedFrames, lagTimeout, action);
+        }
+    }
+
+    public static LagPolicy.Builder builder()
+    {
+        return new LagPolicy.Builder();
+    }
+
+    public LagPolicy(int maxUnackedFrames, int lagTimeout, Action action)
+    {
+        if(maxUnackedFrames < MIN_UNACKED_FRAMES)
+            throw new IllegalArgumentException("Max unacked frames must be at least " + MIN_UNACKED_FRAMES);
+        else
+            this.maxUnackedFrames = maxUnackedFrames;
+
+        if(lagTimeout < 0)
+            throw new IllegalArgumentException("Lag timeout must be greater or equal than zero");
+        else
+            this.lagTimeout = lagTimeout;
+
+        if(action == null)
+            throw new IllegalArgumentException("Action cannot be null");
+        else
+            this.action = action;
+    }
+
+    public int getMaxUnackedFrames()
+    {
+        return maxUnackedFrames;
+    }
+
+    public int getLagTimeout()
+    {
+        return lagTimeout;
+    }
+
+    public Action getAction()
+    {
+        return action;
+    }
+}
@@ -70,4 +70,27 @@ public interface LockstepApplication {
      * including the local client
      */
     abstract void signalDisconnection(int remainingClients);
+    
+    /**
+     * Signals to the application that a client joined the running session.
+     * Has the number of clients now partecipating, including the local client.
+     * 
+     * @param partecipatingClients the number of clients partecipating,
+     * including the local client
+     */
+    default void signalJoin(int partecipatingClients)
+    {
+    }
+    
+    /**
+     * Signals to the application that the client is fast forwarding through
+     * the history of a session it joined late, or that it has finished to.
+     * While catching up, commands are executed as fast as they're received,
+     * so the application should skip any rendering work.
+     * 
+     * @param catchingUp true when the fast forward starts, false when it ends
+     */
+    default void signalCatchUp(boolean catchingUp)
+    {
+    }
 }
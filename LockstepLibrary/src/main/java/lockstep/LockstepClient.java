@@ -9,17 +9,21 @@ import java.io.IOException;
 import lockstep.messages.handshake.*;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
-import java.net.DatagramSocket;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map.Entry;
-import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import lockstep.messages.simulation.DisconnectionSignal;
 import lockstep.messages.simulation.LockstepCommand;
+import lockstep.jfr.FrameEvents;
+import lockstep.metrics.LinkMetrics;
+import lockstep.metrics.LockstepMetrics;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
 
@@ -40,11 +44,25 @@ public class LockstepClient extends LockstepCoreThread
     
     int currentExecutionFrame;
     int currentUserFrame;
+    
+    /**
+     * First frame sent by the local client. When joining a running session, 
+     * the preceding frames are executed without pacing, to catch up.
+     */
+    int localJoinFrame;
     int frameExecutionDistance = 0;
     int maxExecutionDistance;
     int localClientID;
     
     ConcurrentSkipListMap<Integer, ClientReceivingQueue> executionFrameQueues; 
+    
+    /**
+     * Queues whose first frame has not been reached yet by the execution. 
+     * They're activated when the execution reaches their first frame.
+     */
+    ConcurrentSkipListMap<Integer, ClientReceivingQueue> pendingFrameQueues;
+    ConcurrentHashMap<Integer, ReceivingQueue> receivingExecutionQueues;
+    ClientReceivingQueue localFrameQueue;
     TransmissionQueue transmissionFrameQueue;
     
     InetSocketAddress serverTCPAddress;
@@ -52,13 +70,90 @@ public class LockstepClient extends LockstepCoreThread
     LockstepReceiver receiver;
     LockstepTransmitter transmitter;
     
-    DatagramSocket udpSocket;
+    DatagramChannel udpChannel;
     
     Semaphore executionSemaphore;
     int clientsNumber;
     final int tickrate;
     final int connectionTimeout;
+    final int resumeTimeout;
     final LockstepApplication lockstepApplication;
+    
+    /**
+     * Network conditions emulated on the datagrams sent to the server, or
+     * null if none.
+     */
+    final ImpairmentProfile impairment;
+    
+    final LockstepMetrics metrics;
+    
+    /**
+     * Traces a frame every traceSampling of the local ones, and reports the
+     * stages of the traced frames of the other clients.
+     */
+    final FrameTracer tracer;
+    
+    /**
+     * When the frames received from the server are ACKed.
+     */
+    final ACKPolicy ackPolicy;
+    
+    /**
+     * Whether the frame inputs sent to the server are protected by parity.
+     */
+    final boolean forwardErrorCorrection;
+    
+    /**
+     * Rate control of the link to the server, or null to send at the
+     * tickrate alone.
+     */
+    final RatePolicy ratePolicy;
+    
+    /**
+     * Dilation of the frame period hinted by the server, or null if the 
+     * client runs at the nominal framerate.
+     */
+    final TimeDilation timeDilation;
+    
+    /**
+     * Playout buffer smoothing the execution of the frames, or null if they're
+     * executed as soon as they're available.
+     */
+    final PlayoutBuffer playoutBuffer;
+    
+    /**
+     * How the client waits for the inputs of the frames and the frame 
+     * periods, and how its transmitter waits for its ticks.
+     */
+    final WaitStrategy executionWaitStrategy;
+    final WaitStrategy transmitterWaitStrategy;
+    
+    /**
+     * Availability of the inputs of all the clients for the next frame.
+     */
+    private WaitStrategy.Signal frameInputsSignal;
+    
+    /**
+     * Time the inputs of the last frame were collected for its execution.
+     */
+    private long frameExecutionNanos;
+    
+    /**
+     * Time spent stalled waiting for the frames of each client.
+     */
+    final DelayAttribution stallAttribution = new DelayAttribution();
+    
+    /**
+     * Round trip time and clock offset of the link to the server.
+     */
+    final RTTEstimator rttEstimator = new RTTEstimator();
+    
+    /**
+     * Inputs of the frame being executed, in sender ID order, with the queues
+     * they come from. Reused at each frame.
+     */
+    final ArrayList<FrameInput> frameInputs = new ArrayList<>();
+    final ArrayList<ClientReceivingQueue> frameInputQueues = new ArrayList<>();
 
     static final Logger LOG = LogManager.getLogger(LockstepClient.class);
     
@@ -66,6 +161,21 @@ public class LockstepClient extends LockstepCoreThread
             int tickrate, int fillTimeout, int maxUDPPayloadLength,
             int maxExecutionDistance, int connectionTimeout,
             LockstepApplication lockstepApplication)
+    {
+        this(serverTCPAddress, framerate, tickrate, fillTimeout, maxUDPPayloadLength,
+                maxExecutionDistance, connectionTimeout, 0, lockstepApplication, null,
+                LockstepMetrics.NOOP, 0, ACKPolicy.builder().build(), false, null, false, false,
+                WaitStrategy.blocking(), WaitStrategy.blocking());
+    }
+    
+    public LockstepClient(InetSocketAddress serverTCPAddress, int framerate, 
+            int tickrate, int fillTimeout, int maxUDPPayloadLength,
+            int maxExecutionDistance, int connectionTimeout, int resumeTimeout,
+            LockstepApplication lockstepApplication, ImpairmentProfile impairment,
+            LockstepMetrics metrics, int traceSampling, ACKPolicy ackPolicy,
+            boolean forwardErrorCorrection, RatePolicy ratePolicy,
+            boolean timeDilation, boolean playoutBuffer,
+            WaitStrategy executionWaitStrategy, WaitStrategy transmitterWaitStrategy)
     {
         if(serverTCPAddress.isUnresolved()) 
             throw new IllegalArgumentException("Server hostname is unresolved");
@@ -102,10 +212,45 @@ public class LockstepClient extends LockstepCoreThread
         else
             this.connectionTimeout = connectionTimeout;
         
+        if(resumeTimeout < 0)
+            throw new IllegalArgumentException("Resume timeout must be greater or equal than zero");
+        else
+            this.resumeTimeout = resumeTimeout;
+        
         if(lockstepApplication == null)
             throw new NullPointerException("LockstepApplication cannot be null");
         else
             this.lockstepApplication = lockstepApplication;
+        
+        this.impairment = impairment;
+        
+        if(metrics == null)
+            throw new IllegalArgumentException("Metrics cannot be null, use LockstepMetrics.NOOP");
+        else
+            this.metrics = metrics;
+        
+        if(traceSampling < 0)
+            throw new IllegalArgumentException("Trace sampling must be greater or equal than zero");
+        else
+            this.tracer = new FrameTracer(false, traceSampling, metrics);
+        
+        if(ackPolicy == null)
+            throw new IllegalArgumentException("ACK policy cannot be null, use ACKPolicy.IMMEDIATE");
+        else
+            this.ackPolicy = ackPolicy;
+        
+        this.forwardErrorCorrection = forwardErrorCorrection;
+        this.ratePolicy = ratePolicy;
+        this.timeDilation = timeDilation ? new TimeDilation() : null;
+        this.playoutBuffer = playoutBuffer ? new PlayoutBuffer(TimeUnit.MILLISECONDS.toNanos(1000/this.framerate)) : null;
+        
+        if(executionWaitStrategy == null || transmitterWaitStrategy == null)
+            throw new IllegalArgumentException("Wait strategies cannot be null, use WaitStrategy.blocking()");
+        else
+        {
+            this.executionWaitStrategy = executionWaitStrategy;
+            this.transmitterWaitStrategy = transmitterWaitStrategy;
+        }
     }
 
     public static class Builder {
@@ -117,7 +262,18 @@ public class LockstepClient extends LockstepCoreThread
         private InetSocketAddress serverTCPAddress;
         private int tickrate;
         private int connectionTimeout;
+        private int resumeTimeout;
         private LockstepApplication lockstepApplication;
+        private ImpairmentProfile impairment;
+        private LockstepMetrics metrics = LockstepMetrics.NOOP;
+        private int traceSampling;
+        private ACKPolicy ackPolicy = ACKPolicy.builder().build();
+        private boolean forwardErrorCorrection;
+        private RatePolicy ratePolicy;
+        private boolean timeDilation;
+        private boolean playoutBuffer;
+        private WaitStrategy executionWaitStrategy = WaitStrategy.blocking();
+        private WaitStrategy transmitterWaitStrategy = WaitStrategy.blocking();
 
         private Builder() {
         }
@@ -147,6 +303,11 @@ public class LockstepClient extends LockstepCoreThread
             return this;
         }
 
+        public Builder resumeTimeout(final int value) {
+            this.resumeTimeout = value;
+            return this;
+        }
+
         public Builder serverTCPAddress(final InetSocketAddress value) {
             this.serverTCPAddress = value;
             return this;
@@ -162,10 +323,95 @@ public class LockstepClient extends LockstepCoreThread
             return this;
         }
         
+        public Builder impairment(final ImpairmentProfile value) {
+            this.impairment = value;
+            return this;
+        }
+        
+        public Builder metrics(final LockstepMetrics value) {
+            this.metrics = value;
+            return this;
+        }
+        
+        /**
+         * Traces a frame every value local frames, 0 to disable tracing.
+         * The stages are reported to the metrics of the receiving clients.
+         */
+        public Builder traceSampling(final int value) {
+            this.traceSampling = value;
+            return this;
+        }
+        
+        public Builder ackPolicy(final ACKPolicy value) {
+            this.ackPolicy = value;
+            return this;
+        }
+        
+        /**
+         * Sends a parity datagram every few input datagrams, so that the
+         * server can rebuild a lost one without waiting for the 
+         * retransmission. Disabled by default.
+         */
+        public Builder forwardErrorCorrection(final boolean value) {
+            this.forwardErrorCorrection = value;
+            return this;
+        }
+        
+        /**
+         * Controls the sending rate on the link to the server. Disabled by 
+         * default.
+         */
+        public Builder ratePolicy(final RatePolicy value) {
+            this.ratePolicy = value;
+            return this;
+        }
+        
+        /**
+         * Speeds up or slows down the frame period, by up to 5%, so that the
+         * frames reach the server aligned with the ones of the other 
+         * clients. Disabled by default.
+         */
+        public Builder timeDilation(final boolean value) {
+            this.timeDilation = value;
+            return this;
+        }
+        
+        /**
+         * Executes each frame some time after the arrival of its last remote
+         * input, adapted to the jitter of the arrivals, instead of as soon as
+         * it's available: trades a few milliseconds of delay for fewer 
+         * stalls and a smoother cadence. Disabled by default.
+         */
+        public Builder playoutBuffer(final boolean value) {
+            this.playoutBuffer = value;
+            return this;
+        }
+        
+        /**
+         * How the client waits for the inputs of each frame and for the 
+         * frame period. Blocking by default.
+         */
+        public Builder executionWaitStrategy(final WaitStrategy value) {
+            this.executionWaitStrategy = value;
+            return this;
+        }
+        
+        /**
+         * How the transmitter to the server waits for its ticks and for the
+         * frames to send. Blocking by default.
+         */
+        public Builder transmitterWaitStrategy(final WaitStrategy value) {
+            this.transmitterWaitStrategy = value;
+            return this;
+        }
+        
         public LockstepClient build() {
             return new lockstep.LockstepClient(serverTCPAddress, framerate,
                     tickrate, fillTimeout, maxUDPPayloadLength, maxExecutionDistance,
-                    connectionTimeout, lockstepApplication);
+                    connectionTimeout, resumeTimeout, lockstepApplication, impairment,
+                    metrics, traceSampling, ackPolicy, forwardErrorCorrection,
+                    ratePolicy, timeDilation, playoutBuffer, executionWaitStrategy,
+                    transmitterWaitStrategy);
         }
     }
 
@@ -187,6 +433,9 @@ public class LockstepClient extends LockstepCoreThread
             return;
         }
         
+        if(currentExecutionFrame < localJoinFrame)
+            lockstepApplication.signalCatchUp(true);
+        
         while(true)
         {
             try
@@ -194,10 +443,19 @@ public class LockstepClient extends LockstepCoreThread
                 if(Thread.interrupted())
                     throw new InterruptedException();
                 
-                readUserInput();
+                activatePendingQueues();
+                
+                boolean catchingUp = currentExecutionFrame < localJoinFrame;
+                if(!catchingUp)
+                    readUserInput();
                 executeInputs();
                 currentExecutionFrame++;
-                Thread.sleep(1000/framerate);
+                
+                if(catchingUp && currentExecutionFrame == localJoinFrame)
+                    lockstepApplication.signalCatchUp(false);
+                
+                if(!catchingUp)
+                    waitFramePeriod();
             }
             catch(InterruptedException intEx)
             {
@@ -207,6 +465,29 @@ public class LockstepClient extends LockstepCoreThread
         }
     }
 
+    /**
+     * Waits for the frame period, dilated as hinted by the server and 
+     * corrected towards the target delay of the playout buffer.
+     */
+    private void waitFramePeriod() throws InterruptedException
+    {
+        long period = TimeUnit.MILLISECONDS.toNanos(1000/framerate);
+        if(timeDilation != null)
+            period = timeDilation.framePeriod(period);
+        if(playoutBuffer != null)
+        {
+            long lastArrival = playoutBuffer.lastArrival(currentExecutionFrame - 1);
+            if(lastArrival != Long.MIN_VALUE)
+            {
+                long buffered = frameExecutionNanos - lastArrival;
+                metrics.playoutDelay(buffered);
+                period = playoutBuffer.correctPeriod(buffered, period);
+            }
+        }
+        
+        executionWaitStrategy.sleepUntil(System.nanoTime() + period);
+    }
+
     private void clientHandshakeProtocol() throws ClassNotFoundException, IOException
     {
         LOG.info("Starting handshake");
@@ -218,43 +499,60 @@ public class LockstepClient extends LockstepCoreThread
         ObjectInputStream oin = new ObjectInputStream(tcpSocket.getInputStream());
             
         //Bind own UDP socket
-        udpSocket = new DatagramSocket();
-        LOG.info("Opened connection on " + udpSocket.getLocalAddress().getHostAddress() + ":" + udpSocket.getLocalPort());
+        udpChannel = DatagramChannel.open().bind(null);
+        LOG.info("Opened connection on " + udpChannel.getLocalAddress());
 
         //Send hello to server, with the bound UDP port
         LOG.info("Sending ClientHello message");
         ClientHello clientHello = new ClientHello();
-        clientHello.clientUDPPort = udpSocket.getLocalPort();
+        clientHello.clientUDPPort = udpChannel.socket().getLocalPort();
+        long helloSent = System.nanoTime();
         oout.writeObject(clientHello);
 
         //Receive and process first server reply
         LOG.info("Waiting for helloReply from server");
         ServerHelloReply helloReply = (ServerHelloReply) oin.readObject();
+        long helloReplyReceived = System.nanoTime();
+        if(helloReply.replySentNanos != 0)
+            tracer.synchronize(helloSent, helloReply.helloReceivedNanos, helloReply.replySentNanos, helloReplyReceived);
         localClientID = helloReply.assignedClientID;
         LOG.info("ID assigned = " + localClientID);
         currentExecutionFrame = helloReply.firstFrameNumber;
-        currentUserFrame = helloReply.firstFrameNumber;
+        currentUserFrame = helloReply.joinFrameNumber;
+        localJoinFrame = helloReply.joinFrameNumber;
 
-        clientsNumber = helloReply.clientsNumber;
         executionSemaphore = new Semaphore(0);
+        frameInputsSignal = WaitStrategy.Signal.of(executionSemaphore, () -> clientsNumber);
         executionFrameQueues = new ConcurrentSkipListMap<>();
-        executionFrameQueues.put(localClientID, new ClientReceivingQueue(helloReply.firstFrameNumber, localClientID, executionSemaphore));
+        pendingFrameQueues = new ConcurrentSkipListMap<>();
+        localFrameQueue = setupReceivingQueue(localClientID, localJoinFrame);
 
         //Network setup
         LOG.info("Setting up network threads and stub frames");
 
         InetSocketAddress serverUDPAddress = new InetSocketAddress(serverTCPAddress.getAddress(), helloReply.serverUDPPort);
-        udpSocket.connect(serverUDPAddress);
+        udpChannel.connect(serverUDPAddress);
 
-        ConcurrentHashMap<Integer, ReceivingQueue> receivingExecutionQueues = new ConcurrentHashMap<>();
-        transmissionFrameQueue = new TransmissionQueue(helloReply.firstFrameNumber, localClientID);
+        receivingExecutionQueues = new ConcurrentHashMap<>();
+        transmissionFrameQueue = new TransmissionQueue(localJoinFrame, localClientID);
+        LinkMetrics linkMetrics = metrics.link(LockstepReceiver.RECEIVER_FROM_SERVER_ID);
+        if(linkMetrics != LinkMetrics.NOOP)
+            transmissionFrameQueue.attachMetrics(linkMetrics);
         ConcurrentHashMap<Integer,TransmissionQueue> transmissionQueueWrapper = new ConcurrentHashMap<>();
         transmissionQueueWrapper.put(localClientID, transmissionFrameQueue);
 
-        ACKSet ackSet = new ACKSet();
+        ACKSet ackSet = new ACKSet(ackPolicy);
+        transmissionFrameQueue.attachWakeUp(ackSet);
+        ParityFEC fec = new ParityFEC();
+        RateController rateController = ratePolicy != null ? new RateController(ratePolicy) : null;
+        
+        ResumableSession session = null;
+        if(resumeTimeout > 0 && helloReply.sessionToken != 0)
+            session = new ResumableSession(localClientID, helloReply.sessionToken, resumeTimeout, true);
         
         receiver = LockstepReceiver.builder()
-                .dgramSocket(udpSocket)
+                .dgramChannel(udpChannel)
+                .maxUDPPayloadLength(maxUDPPayloadLength)
                 .coreThread(this)
                 .receivingQueues(receivingExecutionQueues)
                 .transmissionQueues(transmissionQueueWrapper)
@@ -262,15 +560,31 @@ public class LockstepClient extends LockstepCoreThread
                 .receiverID(LockstepReceiver.RECEIVER_FROM_SERVER_ID)
                 .ackSet(ackSet)
                 .connectionTimeout(connectionTimeout)
+                .session(session)
+                .metrics(linkMetrics)
+                .tracer(tracer)
+                .fec(fec)
+                .rateController(rateController)
+                .rttEstimator(rttEstimator)
+                .timeDilation(timeDilation)
+                .playoutBuffer(playoutBuffer)
                 .build();        
 
         transmitter = LockstepTransmitter.builder()
-                .dgramSocket(udpSocket)
+                .dgramChannel(udpChannel)
                 .tickrate(tickrate)
                 .maxUDPPayloadLength(maxUDPPayloadLength)
                 .transmissionQueues(transmissionQueueWrapper)
                 .name("Transmitter-from-"+localClientID)
                 .ackSet(ackSet)
+                .session(session)
+                .impairment(impairment)
+                .metrics(linkMetrics)
+                .tracer(tracer)
+                .fec(forwardErrorCorrection ? fec : null)
+                .rateController(rateController)
+                .rttEstimator(rttEstimator)
+                .waitStrategy(transmitterWaitStrategy)
                 .build();
                 
         insertFillCommands(lockstepApplication.bootstrapCommands());
@@ -281,15 +595,20 @@ public class LockstepClient extends LockstepCoreThread
         LOG.info("Waiting for list of clients from server");
         ClientsAnnouncement clientsAnnouncement = (ClientsAnnouncement) oin.readObject();
 
-        for(int clientID : clientsAnnouncement.clientIDs)
+        for(int i = 0; i < clientsAnnouncement.clientIDs.length; i++)
         {
+            int clientID = clientsAnnouncement.clientIDs[i];
             if(clientID != localClientID)
             {
-                ClientReceivingQueue executionFrameQueue = new ClientReceivingQueue(helloReply.firstFrameNumber, clientID, executionSemaphore);
-                executionFrameQueues.put(clientID, executionFrameQueue);
+                int firstFrameNumber = helloReply.firstFrameNumber;
+                if(clientsAnnouncement.firstFrameNumbers != null)
+                    firstFrameNumber = clientsAnnouncement.firstFrameNumbers[i];
+                
+                ClientReceivingQueue executionFrameQueue = setupReceivingQueue(clientID, firstFrameNumber);
                 receivingExecutionQueues.put(clientID, executionFrameQueue);
             }
         }
+        clientsNumber = executionFrameQueues.size();
 
         receiver.start();
 
@@ -299,6 +618,56 @@ public class LockstepClient extends LockstepCoreThread
         LOG.info("Simulation started");
     }
     
+    /**
+     * Creates the receiving queue for a client. If the execution has not yet
+     * reached the client first frame, the queue is left pending.
+     * 
+     * @param clientID ID of the sender
+     * @param firstFrameNumber first frame sent by the client
+     * @return the queue created
+     */
+    private ClientReceivingQueue setupReceivingQueue(int clientID, int firstFrameNumber)
+    {
+        ClientReceivingQueue executionFrameQueue;
+        if(firstFrameNumber <= currentExecutionFrame)
+        {
+            executionFrameQueue = new ClientReceivingQueue(firstFrameNumber, clientID, executionSemaphore);
+            executionFrameQueues.put(clientID, executionFrameQueue);
+        }
+        else
+        {
+            executionFrameQueue = new ClientReceivingQueue(firstFrameNumber, clientID, new Semaphore(0));
+            pendingFrameQueues.put(clientID, executionFrameQueue);
+        }
+        return executionFrameQueue;
+    }
+    
+    /**
+     * Moves to the execution the pending queues whose first frame is the one
+     * about to be executed.
+     */
+    void activatePendingQueues()
+    {
+        if(pendingFrameQueues.isEmpty())
+            return;
+        
+        for(ClientReceivingQueue pendingQueue : pendingFrameQueues.values())
+        {
+            if(pendingQueue.getInitialFrameNumber() <= currentExecutionFrame)
+            {
+                int clientID = pendingQueue.getSenderID();
+                pendingFrameQueues.remove(clientID);
+                executionFrameQueues.put(clientID, pendingQueue);
+                pendingQueue.attachSemaphore(executionSemaphore);
+                clientsNumber++;
+                LOG.info("Activated receiving queue for " + clientID);
+                
+                if(clientID != localClientID)
+                    lockstepApplication.signalJoin(clientsNumber);
+            }
+        }
+    }
+    
     private void insertFillCommands(LockstepCommand[] fillCommands)
     {
         for (LockstepCommand cmd : fillCommands)
@@ -306,7 +675,9 @@ public class LockstepClient extends LockstepCoreThread
             if(frameExecutionDistance < maxExecutionDistance)
             {
                 FrameInput newFrame = new FrameInput(currentUserFrame++, cmd);
-                executionFrameQueues.get(this.localClientID).push(newFrame);
+                FrameEvents.inputCreated(localClientID, newFrame.getFrameNumber());
+                tracer.created(newFrame);
+                localFrameQueue.push(newFrame);
                 if(transmissionFrameQueue != null)
                     transmissionFrameQueue.push(newFrame);
                 frameExecutionDistance++;
@@ -320,59 +691,134 @@ public class LockstepClient extends LockstepCoreThread
     {
         LockstepCommand cmd = lockstepApplication.readInput();
         FrameInput newFrame = new FrameInput(currentUserFrame++, cmd);
-        executionFrameQueues.get(this.localClientID).push(newFrame);
+        FrameEvents.inputCreated(localClientID, newFrame.getFrameNumber());
+        tracer.created(newFrame);
+        localFrameQueue.push(newFrame);
         if(transmissionFrameQueue != null)
             transmissionFrameQueue.push(newFrame);
     }
     
     private void executeInputs() throws InterruptedException
     {
-        if(!executionSemaphore.tryAcquire(clientsNumber))
+        if(!frameInputsSignal.poll())
         {
+            long stallStart = System.nanoTime();
+            List<ClientReceivingQueue> missingQueues = collectMissingQueues();
             lockstepApplication.suspendSimulation();
 
             if(fillTimeout > 0 && frameExecutionDistance < maxExecutionDistance)
             {
-                if(!executionSemaphore.tryAcquire(clientsNumber, fillTimeout, TimeUnit.MILLISECONDS))
+                long fillDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(fillTimeout);
+                if(!executionWaitStrategy.await(frameInputsSignal, fillDeadline))
                 {
                     insertFillCommands(lockstepApplication.fillCommands());
-                    executionSemaphore.acquire(clientsNumber);
+                    executionWaitStrategy.await(frameInputsSignal);
                 }
             }
             else
-                executionSemaphore.acquire(clientsNumber);
+                executionWaitStrategy.await(frameInputsSignal);
 
             lockstepApplication.resumeSimulation();
+            long stallEnd = System.nanoTime();
+            metrics.stall(stallEnd - stallStart);
+            attributeStall(missingQueues, stallStart, stallEnd);
         }
         
-        TreeMap<Integer, LockstepCommand> commands = collectCommands();
-        for(Entry<Integer, LockstepCommand> commandEntry : commands.entrySet())
+        frameExecutionNanos = System.nanoTime();
+        collectInputs();
+        for(int i = 0; i < frameInputs.size(); i++)
         {
-            LockstepCommand command = commandEntry.getValue();
-            int senderID = commandEntry.getKey();
+            FrameInput input = frameInputs.get(i);
+            LockstepCommand command = input.getCommand();
+            int senderID = frameInputQueues.get(i).getSenderID();
             
             if(command instanceof DisconnectionSignal)
                 disconnectReceivingQueues(senderID);
             else
+            {
+                Object execution = FrameEvents.beginExecution();
                 lockstepApplication.executeCommand(command);
+                FrameEvents.commandExecuted(execution, senderID, currentExecutionFrame);
+                tracer.executed(senderID, input);
+            }
         }
+        frameInputs.clear();
+        frameInputQueues.clear();
+        metrics.frameExecuted();
     }
 
-    private TreeMap<Integer, LockstepCommand> collectCommands()
+    private List<ClientReceivingQueue> collectMissingQueues()
+    {
+        List<ClientReceivingQueue> missingQueues = new ArrayList<>();
+        for(ClientReceivingQueue frameQueue : executionFrameQueues.values())
+        {
+            if(!frameQueue.isNextFrameReady())
+                missingQueues.add(frameQueue);
+        }
+        return missingQueues;
+    }
+    
+    /**
+     * Charges each client whose frame was missing with the part of the stall
+     * spent before its frame arrived.
+     */
+    private void attributeStall(List<ClientReceivingQueue> missingQueues, long stallStart, long stallEnd)
+    {
+        for(ClientReceivingQueue frameQueue : missingQueues)
+        {
+            long arrival = Math.min(Math.max(frameQueue.getNextFrameArrivalNanos(), stallStart), stallEnd);
+            stallAttribution.record(frameQueue.getSenderID(), arrival - stallStart);
+            metrics.stallCause(frameQueue.getSenderID(), arrival - stallStart);
+        }
+    }
+    
+    /**
+     * @return the time spent stalled waiting for the frames of each client,
+     * local client included
+     */
+    public DelayAttribution getStallAttribution()
+    {
+        return stallAttribution;
+    }
+    
+    /**
+     * @return the round trip time and clock offset estimates of the link to
+     * the server
+     */
+    public RTTEstimator getRTTEstimator()
+    {
+        return rttEstimator;
+    }
+    
+    /**
+     * @return the fraction the frame period is currently shortened by, 
+     * negative if lengthened, 0 without time dilation
+     */
+    public double getTimeDilation()
+    {
+        return timeDilation != null ? timeDilation.getDilation() : 0;
+    }
+    
+    /**
+     * @return the delay the playout buffer currently targets in nanoseconds,
+     * 0 without playout buffer
+     */
+    public long getPlayoutTargetDelay()
+    {
+        return playoutBuffer != null ? playoutBuffer.getTargetDelay() : 0;
+    }
+
+    private void collectInputs()
     {        
-        TreeMap<Integer, LockstepCommand> commands = new TreeMap<>();
-        
-        for(Entry<Integer, ClientReceivingQueue> frameQueueEntry : this.executionFrameQueues.entrySet())
+        for(ClientReceivingQueue frameQueue : this.executionFrameQueues.values())
         {
-            Integer senderID = frameQueueEntry.getKey();
-            ClientReceivingQueue frameQueue = frameQueueEntry.getValue();
-           
             FrameInput input = frameQueue.pop();
             if(input != null)
-                commands.put(senderID, input.getCommand());
+            {
+                frameInputs.add(input);
+                frameInputQueues.add(frameQueue);
+            }
         }
-                
-        return commands;
     }
     
     @Override
@@ -390,19 +836,38 @@ public class LockstepClient extends LockstepCoreThread
     void disconnectReceivingQueues(int nodeID)
     {
         executionFrameQueues.remove(nodeID);
+        if(playoutBuffer != null)
+            playoutBuffer.remove(nodeID);
         clientsNumber--;
         LOG.info("Disconnected receiving queue for " + nodeID);
         
         lockstepApplication.signalDisconnection(clientsNumber);
     }
     
+    /**
+     * Called by the receiver when the server announces a client joining the 
+     * session. The queue is left pending until its first frame is reached.
+     */
+    @Override
+    ReceivingQueue connectReceivingQueue(int nodeID, int firstFrameNumber)
+    {
+        ReceivingQueue receivingQueue = receivingExecutionQueues.get(nodeID);
+        if(receivingQueue != null)
+            return receivingQueue;
+        
+        LOG.info("Client " + nodeID + " joining at frame " + firstFrameNumber);
+        ClientReceivingQueue executionFrameQueue = new ClientReceivingQueue(firstFrameNumber, nodeID, new Semaphore(0));
+        pendingFrameQueues.put(nodeID, executionFrameQueue);
+        return executionFrameQueue;
+    }
+    
     void networkShutdown()
     {
         if(transmissionFrameQueue!=null)
         {
             DisconnectionSignal disconnectionSignal= new DisconnectionSignal();
             FrameInput disconnectionFrame = new FrameInput(currentUserFrame++, disconnectionSignal);
-            executionFrameQueues.get(this.localClientID).push(disconnectionFrame);
+            localFrameQueue.push(disconnectionFrame);
         }
         
         transmitter.interrupt();
@@ -29,6 +29,17 @@ abstract public class LockstepCoreThread extends Thread
      */
     abstract void disconnectReceivingQueues(int nodeID);
     
+    /**
+     * Called by the receiver when a node joins a running session.
+     * It creates, if not already present, the receiving queue for the node.
+     * 
+     * @param nodeID ID of the joined node
+     * @param firstFrameNumber first frame the joined node will send
+     * @return the receiving queue for the node, or null if the thread doesn't
+     * accept joining nodes
+     */
+    abstract ReceivingQueue connectReceivingQueue(int nodeID, int firstFrameNumber);
+    
     /**
      * This method will cause the thread to gracefully release all its resources
      * and stop processing.
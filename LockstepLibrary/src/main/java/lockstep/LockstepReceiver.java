@@ -7,17 +7,27 @@ package lockstep;
 
 import lockstep.messages.simulation.InputMessageArray;
 import lockstep.messages.simulation.InputMessage;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.SocketException;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.ConcurrentMap;
-import java.util.zip.GZIPInputStream;
+import lockstep.messages.simulation.ClientJoined;
 import lockstep.messages.simulation.DisconnectionSignal;
 import lockstep.messages.simulation.FrameACK;
+import lockstep.messages.simulation.FrameNACK;
+import lockstep.messages.simulation.FramePacing;
 import lockstep.messages.simulation.KeepAlive;
+import lockstep.messages.simulation.SessionResume;
+import lockstep.jfr.FrameEvents;
+import lockstep.metrics.LinkMetrics;
+import lockstep.metrics.MessageType;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
 
@@ -32,28 +42,95 @@ public class LockstepReceiver extends Thread
     
     int receiverID;
         
-    DatagramSocket dgramSocket;
+    DatagramChannel channel;
     ConcurrentMap<Integer, ReceivingQueue> receivingQueues;
     ConcurrentMap<Integer, TransmissionQueue> transmissionQueues;
     volatile ACKSet ackSet;
-    static final int MAX_PAYLOAD_LENGTH = 300;
+    
+    /**
+     * Interval of the check, on the shared timer, of the connection timeout
+     * and of the channel being closed by another thread: the receiver waits
+     * on the selector until a packet arrives or the check wakes it.
+     */
+    private static final long LIVENESS_CHECK_MILLIS = 100;
+    
+    /**
+     * Length of the receive buffer, from the maximum payload length of the
+     * peer. Frames longer than that are sent alone, in which case the buffer
+     * grows to the largest UDP payload.
+     */
+    private int receiveBufferLength;
     private int connectionTimeout;
+    
+    /**
+     * Timeout of the current reception, in milliseconds. Zero waits forever.
+     */
+    private volatile int receiveTimeout;
     private boolean firstPacketReceived = false;
     
+    /**
+     * Start of the current wait for a packet, read by the liveness check.
+     */
+    private volatile long waitStartNanos;
+    private volatile HashedWheelTimer.Timeout livenessCheck;
+    
+    /**
+     * Session to suspend at connection timeout, or null if the connection
+     * can't be resumed.
+     */
+    private final ResumableSession session;
+    
+    /**
+     * Address of the client before the session was suspended. Server side only.
+     */
+    private SocketAddress peerAddress;
+    
     private final LockstepCoreThread coreThread;
     private final String name;
+    private final LinkMetrics metrics;
+    private final FrameTracer tracer;
+    
+    /**
+     * Parity decoder of the input datagrams. Parity datagrams are read even
+     * if the peer is the only one protecting its datagrams.
+     */
+    private final ParityFEC fec;
+    
+    /**
+     * Controller of the sending rate of the link, fed with the ACKs and
+     * NACKs of the peer. Null without rate control.
+     */
+    private final RateController rateController;
+    
+    /**
+     * Estimator of the round trip time and of the clock offset of the link,
+     * fed with the keep alives of the peer.
+     */
+    private final RTTEstimator rttEstimator;
+    
+    /**
+     * Frame period dilation of the client, set by the hints of the server.
+     * Null if the client doesn't dilate its frame period.
+     */
+    private final TimeDilation timeDilation;
+    
+    /**
+     * Playout buffer of the client, fed with the arrivals of the frames.
+     * Null if the client executes the frames as soon as they're available.
+     */
+    private final PlayoutBuffer playoutBuffer;
     
     private static final Logger LOG = LogManager.getLogger(LockstepReceiver.class);
     
-    public LockstepReceiver(DatagramSocket socket, LockstepCoreThread coreThread, 
+    public LockstepReceiver(DatagramChannel channel, LockstepCoreThread coreThread, 
             ConcurrentMap<Integer, ReceivingQueue> receivingQueues, 
             ConcurrentMap<Integer, TransmissionQueue> transmissionQueues, 
             String name, int ownID, ACKSet ackQueue, int connectionTimeout)
     {
-        if(socket.isClosed())
-            throw new IllegalArgumentException("Socket is closed");
+        if(!channel.isOpen())
+            throw new IllegalArgumentException("Channel is closed");
         else
-            this.dgramSocket = socket;
+            this.channel = channel;
         
         if(coreThread == null)
             throw new IllegalArgumentException("Core Thread cannot be null");
@@ -89,11 +166,22 @@ public class LockstepReceiver extends Thread
             throw new IllegalArgumentException("Connection timeout must be greater or equal than zero");
         else
             this.connectionTimeout = connectionTimeout;
+        
+        this.receiveBufferLength = MessageCodec.MAX_PAYLOAD_LENGTH;
+        this.session = null;
+        this.metrics = LinkMetrics.NOOP;
+        this.tracer = null;
+        this.fec = new ParityFEC();
+        this.rateController = null;
+        this.rttEstimator = new RTTEstimator();
+        this.timeDilation = null;
+        this.playoutBuffer = null;
     }
 
     public static class Builder {
 
-        private DatagramSocket dgramSocket;
+        private DatagramChannel dgramChannel;
+        private int maxUDPPayloadLength = MessageCodec.MAX_PAYLOAD_LENGTH;
         private ConcurrentMap<Integer,ReceivingQueue> receivingQueues;
         private ConcurrentMap<Integer,TransmissionQueue> transmissionFrameQueues;
         private ACKSet ackQueue;
@@ -101,12 +189,25 @@ public class LockstepReceiver extends Thread
         private String name;
         private int receiverID;
         private int connectionTimeout;
+        private ResumableSession session;
+        private LinkMetrics metrics = LinkMetrics.NOOP;
+        private FrameTracer tracer;
+        private ParityFEC fec;
+        private RateController rateController;
+        private RTTEstimator rttEstimator;
+        private TimeDilation timeDilation;
+        private PlayoutBuffer playoutBuffer;
 
         private Builder() {
         }
 
-        public Builder dgramSocket(final DatagramSocket value) {
-            this.dgramSocket = value;
+        public Builder dgramChannel(final DatagramChannel value) {
+            this.dgramChannel = value;
+            return this;
+        }
+
+        public Builder maxUDPPayloadLength(final int value) {
+            this.maxUDPPayloadLength = value;
             return this;
         }
 
@@ -146,10 +247,60 @@ public class LockstepReceiver extends Thread
             return this;
         }
 
+        public Builder session(final ResumableSession value)
+        {
+            this.session = value;
+            return this;
+        }
+
+        public Builder metrics(final LinkMetrics value)
+        {
+            this.metrics = value;
+            return this;
+        }
+
+        Builder tracer(final FrameTracer value)
+        {
+            this.tracer = value;
+            return this;
+        }
+
+        Builder fec(final ParityFEC value)
+        {
+            this.fec = value;
+            return this;
+        }
+
+        Builder rateController(final RateController value)
+        {
+            this.rateController = value;
+            return this;
+        }
+
+        Builder rttEstimator(final RTTEstimator value)
+        {
+            this.rttEstimator = value;
+            return this;
+        }
+
+        Builder timeDilation(final TimeDilation value)
+        {
+            this.timeDilation = value;
+            return this;
+        }
+
+        Builder playoutBuffer(final PlayoutBuffer value)
+        {
+            this.playoutBuffer = value;
+            return this;
+        }
+
         public LockstepReceiver build() {
-            return new lockstep.LockstepReceiver(dgramSocket, receivingQueues, 
-                    transmissionFrameQueues, ackQueue, 
-                    coreThread, name, receiverID, connectionTimeout);
+            return new lockstep.LockstepReceiver(dgramChannel, maxUDPPayloadLength,
+                    receivingQueues, transmissionFrameQueues, ackQueue, 
+                    coreThread, name, receiverID, connectionTimeout, session,
+                    metrics, tracer, fec, rateController, rttEstimator,
+                    timeDilation, playoutBuffer);
         }
     }
 
@@ -157,13 +308,18 @@ public class LockstepReceiver extends Thread
         return new LockstepReceiver.Builder();
     }
 
-    private LockstepReceiver(final DatagramSocket dgramSocket, final ConcurrentMap<Integer,
+    private LockstepReceiver(final DatagramChannel dgramChannel,
+            final int maxUDPPayloadLength, final ConcurrentMap<Integer,
             ReceivingQueue> receivingQueues, final ConcurrentMap<Integer,
             TransmissionQueue> transmissionFrameQueues, final ACKSet ackQueue,
             final LockstepCoreThread coreThread, final String name,
-            final int receiverID, final int connectionTimeout) 
+            final int receiverID, final int connectionTimeout,
+            final ResumableSession session, final LinkMetrics metrics,
+            final FrameTracer tracer, final ParityFEC fec,
+            final RateController rateController, final RTTEstimator rttEstimator,
+            final TimeDilation timeDilation, final PlayoutBuffer playoutBuffer) 
     {
-        this.dgramSocket = dgramSocket;
+        this.channel = dgramChannel;
         this.receivingQueues = receivingQueues;
         this.transmissionQueues = transmissionFrameQueues;
         this.ackSet = ackQueue;
@@ -171,6 +327,24 @@ public class LockstepReceiver extends Thread
         this.name = name;
         this.receiverID = receiverID;
         this.connectionTimeout = connectionTimeout;
+        this.session = session;
+        
+        if(maxUDPPayloadLength <= 0 || maxUDPPayloadLength > MessageCodec.MAX_PAYLOAD_LENGTH)
+            throw new IllegalArgumentException("Maximum UDP payload length must be between 1 and " + MessageCodec.MAX_PAYLOAD_LENGTH);
+        else
+            this.receiveBufferLength = maxUDPPayloadLength;
+        
+        if(metrics == null)
+            throw new IllegalArgumentException("Metrics cannot be null, use LinkMetrics.NOOP");
+        else
+            this.metrics = metrics;
+        
+        this.tracer = tracer;
+        this.fec = fec != null ? fec : new ParityFEC();
+        this.rateController = rateController;
+        this.rttEstimator = rttEstimator != null ? rttEstimator : new RTTEstimator();
+        this.timeDilation = timeDilation;
+        this.playoutBuffer = playoutBuffer;
     }
     
     @Override
@@ -178,49 +352,110 @@ public class LockstepReceiver extends Thread
     {
         Thread.currentThread().setName(name);
         
+        Selector selector;
         try{
-            dgramSocket.setSoTimeout(connectionTimeout * 10);
+            channel.configureBlocking(false);
+            selector = Selector.open();
+            channel.register(selector, SelectionKey.OP_READ);
         }
-        catch(SocketException soEx)
+        catch(IOException ioEx)
         {
             LOG.info("Recevier entering termination phase: socket failure at startup");
-            dgramSocket.close();
+            closeChannel();
             signalDisconnection();
             handleDisconnection(receiverID);
             LOG.info("Receiver terminated");
             return;
         }
         
+        try
+        {
+            receiveLoop(selector);
+        }
+        finally
+        {
+            try
+            {
+                livenessCheck.cancel();
+                selector.close();
+            }
+            catch(IOException ioEx)
+            {
+                LOG.debug("Receiver failed to close the selector");
+            }
+        }
+    }
+    
+    private void receiveLoop(Selector selector)
+    {
+        //Packets are decoded in place before the next reception, so the 
+        //buffer and the ACK they're decoded in are reused
+        ByteBuffer buffer = ByteBuffer.allocateDirect(receiveBufferLength);
+        FrameACK receivedACK = new FrameACK();
+        receiveTimeout = connectionTimeout * 10;
+        waitStartNanos = System.nanoTime();
+        livenessCheck = HashedWheelTimer.shared().schedule(() -> checkLiveness(selector), LIVENESS_CHECK_MILLIS, TimeUnit.MILLISECONDS);
         while(true)
         {            
             try
             {
-                if(Thread.interrupted())
-                    throw new InterruptedException();
-                
-                DatagramPacket p = new DatagramPacket(new byte[MAX_PAYLOAD_LENGTH], MAX_PAYLOAD_LENGTH);
-                this.dgramSocket.receive(p);
+                SocketAddress sender = receive(selector, buffer);
                 
                 if(!firstPacketReceived)
                 {
-                    dgramSocket.setSoTimeout(connectionTimeout);
+                    receiveTimeout = connectionTimeout;
                     firstPacketReceived = true;
                 }
                 
-                try(
-                    ByteArrayInputStream bain = new ByteArrayInputStream(p.getData());
-                    GZIPInputStream gzin = new GZIPInputStream(bain);
-                    ObjectInputStream oin = new ObjectInputStream(gzin);
-                )
+                if(!buffer.hasRemaining() && buffer.capacity() < MessageCodec.MAX_PAYLOAD_LENGTH)
+                {
+                    //Possibly truncated: drop it and wait for the retransmission
+                    LOG.warn("Receiver got a datagram filling its " + buffer.capacity() + " bytes buffer, growing it");
+                    buffer = ByteBuffer.allocateDirect(MessageCodec.MAX_PAYLOAD_LENGTH);
+                    continue;
+                }
+                
+                buffer.flip();
+                if(MessageCodec.isParity(buffer))
+                {
+                    processParity(sender, buffer, receivedACK);
+                    continue;
+                }
+                
+                if(MessageCodec.hasInputHeader(buffer))
+                    fec.received(buffer);
+                processDatagram(sender, buffer, receivedACK);
+            }
+            catch(SocketTimeoutException timeoutException)
+            {
+                boolean suspended = false;
+                if(session != null && !session.isSuspended())
+                {
+                    try
+                    {
+                        suspendSession();
+                        suspended = true;
+                    }
+                    catch(IOException ioEx)
+                    {
+                        LOG.info("Receiver failed to suspend the session");
+                    }
+                }
+                
+                if(!suspended)
                 {
-                    Object obj = oin.readObject();
-                    messageSwitch(obj);
+                    LOG.info("Receiver entering termination phase: connection timed out");
+                    closeChannel();
+                    signalDisconnection();
+                    handleDisconnection(receiverID);
+                    LOG.info("Receiver terminated");
+                    return;
                 }
             }
             catch(IOException  disconnectionException)
             {
                 LOG.info("Receiver entering termination phase: disconnection detected");
-                dgramSocket.close();
+                closeChannel();
                 signalDisconnection();
                 handleDisconnection(receiverID);
                 LOG.info("Receiver terminated");
@@ -242,26 +477,221 @@ public class LockstepReceiver extends Thread
         }
     }
     
-    private void messageSwitch(Object obj) throws ClassNotFoundException
+    /**
+     * Processes a datagram received, or rebuilt from parity.
+     * 
+     * @param sender address of the sender
+     * @param buffer the datagram between position and limit
+     * @param receivedACK the ACK reused to decode ACKs in
+     */
+    void processDatagram(SocketAddress sender, ByteBuffer buffer, FrameACK receivedACK) throws IOException, ClassNotFoundException
+    {
+        int length = buffer.remaining();
+        processPiggybackedACKs(buffer, receivedACK);
+        if(dropDuplicate(buffer, length))
+            return;
+        
+        Object obj;
+        try
+        {
+            obj = MessageCodec.decode(buffer, receivedACK);
+        }
+        catch(IOException | ClassNotFoundException invalidPacketEx)
+        {
+            //While suspended the socket accepts packets from any address
+            if(session != null && session.isSuspended())
+                return;
+            throw invalidPacketEx;
+        }
+        
+        if(session != null && session.isSuspended() && !processSuspended(sender, obj))
+            return;
+        
+        metrics.packetReceived(MessageType.of(obj), length);
+        messageSwitch(obj, length);
+    }
+    
+    /**
+     * Rebuilds the input datagram lost in the group of a parity datagram,
+     * if possible, and processes it as if it had been received.
+     */
+    private void processParity(SocketAddress sender, ByteBuffer buffer, FrameACK receivedACK) throws IOException, ClassNotFoundException
+    {
+        //While suspended packets must be checked against the session
+        if(session != null && session.isSuspended())
+            return;
+        
+        metrics.packetReceived(MessageType.PARITY, buffer.remaining());
+        ByteBuffer recovered = fec.recover(buffer);
+        if(recovered == null)
+            return;
+        
+        metrics.parityRecovered(recovered.remaining());
+        processDatagram(sender, recovered, receivedACK);
+    }
+    
+    /**
+     * Processes the ACKs piggybacked on frame inputs, reading them in place.
+     * They're read even if the frames turn out to be duplicates.
+     */
+    private void processPiggybackedACKs(ByteBuffer buffer, FrameACK receivedACK) throws IOException
+    {
+        //While suspended packets must be checked against the session: the
+        //ACKs are refreshed at resumption anyway
+        if(!MessageCodec.hasInputHeader(buffer) || (session != null && session.isSuspended()))
+            return;
+        
+        int acksCount = MessageCodec.headerACKsCount(buffer);
+        int offset = MessageCodec.INPUT_HEADER_LENGTH;
+        for(int i = 0; i < acksCount; i++)
+        {
+            offset = MessageCodec.readPiggybackedACK(buffer, offset, receivedACK);
+            processACK(receivedACK);
+        }
+    }
+    
+    /**
+     * Drops frame inputs already received without decoding them, as happens
+     * with the redundant retransmissions. The sender gets the current ACK, so
+     * that it stops resending them.
+     * 
+     * @param buffer the buffer containing the datagram
+     * @param length length of the datagram
+     * @return true if the datagram was dropped
+     */
+    private boolean dropDuplicate(ByteBuffer buffer, int length)
+    {
+        //While suspended packets must be checked against the session
+        if(!MessageCodec.hasInputHeader(buffer) || (session != null && session.isSuspended()))
+            return false;
+        
+        int senderID = MessageCodec.headerSenderID(buffer);
+        ReceivingQueue receivingQueue = this.receivingQueues.get(senderID);
+        if(receivingQueue == null || MessageCodec.headerLastFrame(buffer) > receivingQueue.getLastInOrderACK())
+            return false;
+        
+        metrics.packetReceived(MessageCodec.headerType(buffer), length);
+        metrics.duplicateDropped(length);
+        FrameACK frameACK = receivingQueue.getACK();
+        frameACK.setSenderID(senderID);
+        ackSet.pushACK(frameACK);
+        return true;
+    }
+    
+    /**
+     * Receives the next datagram in the buffer, waiting at most the current 
+     * receive timeout.
+     * 
+     * @return the address of the sender
+     * @throws SocketTimeoutException if no datagram arrives in time
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    private SocketAddress receive(Selector selector, ByteBuffer buffer) throws IOException, InterruptedException
+    {
+        waitStartNanos = System.nanoTime();
+        while(true)
+        {
+            if(Thread.interrupted())
+                throw new InterruptedException();
+            
+            buffer.clear();
+            SocketAddress sender = channel.receive(buffer);
+            if(sender != null)
+                return sender;
+            if(!channel.isOpen())
+                throw new ClosedChannelException();
+            
+            int timeout = receiveTimeout;
+            if(timeout > 0 && System.nanoTime() - waitStartNanos >= TimeUnit.MILLISECONDS.toNanos(timeout))
+                throw new SocketTimeoutException();
+            
+            selector.select();
+            selector.selectedKeys().clear();
+        }
+    }
+    
+    /**
+     * Run on the shared timer: wakes the receiver when its reception timed
+     * out or its channel was closed, then schedules itself again until the
+     * receiver terminates.
+     */
+    private void checkLiveness(Selector selector)
+    {
+        if(!selector.isOpen())
+            return;
+        
+        long delay = TimeUnit.MILLISECONDS.toNanos(LIVENESS_CHECK_MILLIS);
+        int timeout = receiveTimeout;
+        if(timeout > 0)
+        {
+            long remaining = waitStartNanos + TimeUnit.MILLISECONDS.toNanos(timeout) - System.nanoTime();
+            if(remaining <= 0)
+                selector.wakeup();
+            else
+                delay = Long.min(delay, remaining);
+        }
+        if(!channel.isOpen())
+            selector.wakeup();
+        
+        livenessCheck = HashedWheelTimer.shared().schedule(() -> checkLiveness(selector), delay, TimeUnit.NANOSECONDS);
+    }
+    
+    private void closeChannel()
+    {
+        try
+        {
+            channel.close();
+        }
+        catch(IOException ioEx)
+        {
+            LOG.debug("Receiver failed to close the channel");
+        }
+    }
+    
+    private void messageSwitch(Object obj, int length) throws ClassNotFoundException
     {
         if(obj instanceof InputMessage)
         {
             InputMessage input = (InputMessage)obj;
+            FrameEvents.inputsReceived(input.senderID, input.frame.getFrameNumber(), 1, length);
             this.processInput(input);
         }
         else if(obj instanceof InputMessageArray)
         {
             InputMessageArray inputs = (InputMessageArray)obj;
+            FrameEvents.inputsReceived(inputs.senderID, inputs.frames[0].getFrameNumber(), inputs.frames.length, length);
             this.processInput(inputs);
         }
         else if(obj instanceof FrameACK)
         {
+            //Decoded in the ACK reused by the receiver, it's not retained
             FrameACK ack = (FrameACK)obj;
             this.processACK(ack);
         }
+        else if(obj instanceof FrameNACK)
+        {
+            FrameNACK nack = (FrameNACK)obj;
+            this.processNACK(nack);
+        }
+        else if(obj instanceof ClientJoined)
+        {
+            ClientJoined joined = (ClientJoined)obj;
+            this.processJoin(joined);
+        }
+        else if(obj instanceof SessionResume)
+        {
+            //The peer lost our packets for a while: refresh its view of our ACKs
+            pushACKs();
+        }
+        else if(obj instanceof FramePacing)
+        {
+            if(timeDilation != null)
+                timeDilation.setOffset(TimeUnit.MICROSECONDS.toNanos(((FramePacing) obj).offsetMicros));
+        }
         else if(obj instanceof KeepAlive)
         {   
             //Socket connection timeout is reset at packet reception
+            this.processProbe((KeepAlive) obj);
         }
         else 
         {
@@ -272,9 +702,19 @@ public class LockstepReceiver extends Thread
     private void processInput(InputMessage input)
     {
         ReceivingQueue receivingQueue = this.receivingQueues.get(input.senderID);
+        //Frames from a joining client may precede its announcement
+        if(receivingQueue == null)
+            return;
+        
+        if(tracer != null)
+            tracer.received(input.frame);
+        if(playoutBuffer != null)
+            playoutBuffer.arrived(input.senderID, input.frame, System.nanoTime());
         FrameACK frameACK = receivingQueue.push(input.frame);
         frameACK.setSenderID(input.senderID);
         ackSet.pushACK(frameACK);
+        reportMissingFrames(receivingQueue, input.senderID);
+        recordBacklog(receivingQueue);
 
         if(input.frame.getCommand() instanceof DisconnectionSignal)
             handleDisconnection(input.senderID);
@@ -283,18 +723,170 @@ public class LockstepReceiver extends Thread
     private void processInput(InputMessageArray inputs)
     {
         ReceivingQueue receivingQueue = this.receivingQueues.get(inputs.senderID);
+        if(receivingQueue == null)
+            return;
+        
+        if(tracer != null)
+            tracer.received(inputs.frames);
+        if(playoutBuffer != null)
+            playoutBuffer.arrived(inputs.senderID, inputs.frames, System.nanoTime());
         FrameACK frameACK = receivingQueue.push(inputs.frames);
         frameACK.setSenderID(inputs.senderID);
         ackSet.pushACK(frameACK);
+        reportMissingFrames(receivingQueue, inputs.senderID);
+        recordBacklog(receivingQueue);
         
         if(inputs.frames[inputs.frames.length - 1].getCommand() instanceof DisconnectionSignal)
             handleDisconnection(inputs.senderID);
     }
     
+    /**
+     * NACKs the frames found missing, so that the sender retransmits them
+     * without waiting for its tick: the missing frame blocks the execution.
+     */
+    private void reportMissingFrames(ReceivingQueue receivingQueue, int senderID)
+    {
+        int[] missingRanges = receivingQueue.newMissingRanges();
+        if(missingRanges != null)
+            ackSet.pushNACK(new FrameNACK(senderID, missingRanges));
+    }
+    
+    private void processNACK(FrameNACK nack)
+    {
+        TransmissionQueue transmissionFrameQueue = this.transmissionQueues.get(nack.senderID);
+        if(transmissionFrameQueue != null && transmissionFrameQueue.processNACK(nack.missingRanges))
+            ackSet.wakeTransmitter();
+        if(rateController != null)
+            rateController.nacked(System.nanoTime());
+    }
+    
+    /**
+     * Samples the round trip time from a keep alive echoing one of ours. The
+     * client refines the clock offset of its traces with the estimate.
+     */
+    private void processProbe(KeepAlive keepAlive)
+    {
+        long rtt = rttEstimator.received(keepAlive, System.nanoTime());
+        if(rtt < 0)
+            return;
+        
+        long clockOffset = rttEstimator.getClockOffset();
+        metrics.rttSampled(rtt, clockOffset);
+        if(tracer != null)
+            tracer.setClockOffset(clockOffset);
+    }
+    
+    private void recordBacklog(ReceivingQueue receivingQueue)
+    {
+        if(metrics != LinkMetrics.NOOP)
+            metrics.receivingBacklog(receivingQueue.backlog());
+    }
+    
+    /**
+     * Sets up the receiving queue for a client joining the session, then ACKs
+     * its current state to let the server know the announcement was received.
+     */
+    private void processJoin(ClientJoined joined)
+    {
+        ReceivingQueue receivingQueue = coreThread.connectReceivingQueue(joined.senderID, joined.firstFrameNumber);
+        if(receivingQueue == null)
+            return;
+        
+        receivingQueues.putIfAbsent(joined.senderID, receivingQueue);
+        FrameACK frameACK = receivingQueue.getACK();
+        frameACK.setSenderID(joined.senderID);
+        ackSet.pushACK(frameACK);
+    }
+    
+    /**
+     * Suspends the session after a connection timeout. The server side 
+     * disconnects its socket, to accept the resume request from any address.
+     */
+    private void suspendSession() throws IOException
+    {
+        synchronized(session)
+        {
+            session.suspend();
+            if(!session.isClientSide())
+            {
+                peerAddress = channel.getRemoteAddress();
+                channel.disconnect();
+            }
+        }
+        receiveTimeout = session.getResumeTimeout();
+        LOG.info("Receiver suspended the session: connection timed out");
+    }
+    
+    /**
+     * Handles a packet received while the session is suspended.
+     * The client resumes at any packet from the server. The server resumes
+     * at packets from the previous address, or at a valid resume request from
+     * any address, which becomes the new address of the client.
+     * 
+     * @param sender the address the packet was received from
+     * @param obj the message decoded from the packet
+     * @return true if the message must be processed as usual
+     */
+    private boolean processSuspended(SocketAddress sender, Object obj) throws IOException
+    {
+        if(session.isClientSide())
+        {
+            resumeSession(null);
+            return true;
+        }
+        
+        if(obj instanceof SessionResume)
+        {
+            SessionResume resume = (SessionResume)obj;
+            if(session.matches(resume.clientID, resume.sessionToken))
+                resumeSession(sender);
+            return false;
+        }
+        else if(sender.equals(peerAddress))
+        {
+            resumeSession(peerAddress);
+            return true;
+        }
+        else
+            return false;
+    }
+    
+    private void resumeSession(SocketAddress address) throws IOException
+    {
+        synchronized(session)
+        {
+            if(address != null)
+                channel.connect(address);
+            session.resume();
+        }
+        receiveTimeout = connectionTimeout;
+        LOG.info("Receiver resumed the session" + (address != null ? " from " + address : ""));
+        pushACKs();
+    }
+    
+    /**
+     * Pushes the current ACK of each receiving queue, letting the sender
+     * continue from the last cumulative ACK.
+     */
+    private void pushACKs()
+    {
+        for(Entry<Integer, ReceivingQueue> receivingQueueEntry : receivingQueues.entrySet())
+        {
+            FrameACK frameACK = receivingQueueEntry.getValue().getACK();
+            frameACK.setSenderID(receivingQueueEntry.getKey());
+            ackSet.pushACK(frameACK);
+        }
+    }
+    
     private void processACK(FrameACK ack)
     {
         TransmissionQueue transmissionFrameQueue = this.transmissionQueues.get(ack.senderID);
+        //ACKs may still arrive for a sender that left
+        if(transmissionFrameQueue == null)
+            return;
         transmissionFrameQueue.processACK(ack);
+        if(rateController != null)
+            rateController.acked(ack, System.nanoTime());
     }
     
     private void handleDisconnection(int disconnectedNode)
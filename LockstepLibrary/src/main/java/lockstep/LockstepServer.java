@@ -8,27 +8,34 @@ package lockstep;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
-import java.net.DatagramSocket;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.DatagramChannel;
+import java.security.SecureRandom;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Random;
-import java.util.TreeMap;
 import java.util.concurrent.BrokenBarrierException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import lockstep.messages.simulation.DisconnectionSignal;
+import lockstep.messages.simulation.LockstepCommand;
 
 import lockstep.messages.handshake.*;
+import lockstep.jfr.FrameEvents;
+import lockstep.metrics.LockstepMetrics;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
@@ -51,23 +58,44 @@ public class LockstepServer extends LockstepCoreThread
     ConcurrentHashMap<Integer, Map<Integer, TransmissionQueue>> transmissionFrameQueueTree;
     
     
-    HashMap<Integer, ACKSet> ackQueues;
+    ConcurrentHashMap<Integer, ACKSet> ackQueues;
+    
+    /**
+     * Parity codec of the link with each client, shared by its receiver and
+     * its transmitter.
+     */
+    ConcurrentHashMap<Integer, ParityFEC> parityCodecs;
+    
+    /**
+     * Rate controller of the link with each client, shared by its receiver
+     * and its transmitter. Empty without rate control.
+     */
+    ConcurrentHashMap<Integer, RateController> rateControllers;
+    
+    /**
+     * Round trip time and clock offset of the link with each client.
+     */
+    ConcurrentHashMap<Integer, RTTEstimator> rttEstimators;
     
     /**
      * Threads used for receiving frames. 
      * The key is the ID of the host from which the thread receives frames
      */
-    HashMap<Integer, Thread> receivers;
+    ConcurrentHashMap<Integer, Thread> receivers;
     
     /**
      * Threads used for transmitting frames.
      * The key is the ID of the host to which the frames are transmitted
      */
-    HashMap<Integer, Thread> transmitters;
+    ConcurrentHashMap<Integer, Thread> transmitters;
     
     Semaphore executionSemaphore;
 
-    private final List<DatagramSocket> openSockets;
+    /**
+     * Channels opened for the clients, added by the handshake and late join
+     * threads.
+     */
+    private final List<DatagramChannel> openChannels;
     
     int tcpPort;
     int clientsNumber;
@@ -76,6 +104,217 @@ public class LockstepServer extends LockstepCoreThread
     private final int maxUDPPayloadLength;
     private int connectionTimeout;
     
+    /**
+     * If true, clients can join the session after it has started. The server
+     * keeps the history of all the frames forwarded, to stream it to them.
+     */
+    private final boolean lateJoin;
+    
+    /**
+     * Frames of each sender kept in the history, zero to keep the whole 
+     * session. Once the history is trimmed late joins are refused, as the
+     * joining clients couldn't rebuild the state of the session.
+     */
+    private final int maxHistoryFrames;
+    
+    /**
+     * Set when the history is first trimmed. Guarded by forwardingLock.
+     */
+    private boolean historyTrimmed;
+    
+    /**
+     * Late joins admitted and not yet set up, during which the history is not
+     * trimmed. Guarded by forwardingLock.
+     */
+    private int pendingJoins;
+    
+    /**
+     * Grace period, in milliseconds, during which a timed out client can resume
+     * its session. Zero if sessions can't be resumed.
+     */
+    private final int resumeTimeout;
+    
+    /**
+     * Resumable sessions, the key is the ID of the client.
+     */
+    ConcurrentHashMap<Integer, ResumableSession> sessions;
+    
+    private final SecureRandom tokenGenerator = new SecureRandom();
+    
+    /**
+     * History of the frames forwarded, for each sender, within 
+     * maxHistoryFrames. Filled only if late joins are allowed.
+     */
+    ConcurrentHashMap<Integer, ConcurrentSkipListMap<Integer, LockstepCommand>> frameHistory;
+    
+    /**
+     * First frame sent by each client, which differs from the session first
+     * frame for clients joined late.
+     */
+    ConcurrentHashMap<Integer, Integer> firstFrameNumbers;
+    
+    /**
+     * Highest frame number forwarded so far. Guarded by forwardingLock.
+     */
+    private int lastForwardedFrame;
+    
+    /**
+     * Serializes frame forwarding with the setup of joining clients.
+     */
+    private final Object forwardingLock = new Object();
+    
+    /**
+     * Number of frames the forwarding time of the first client is kept for,
+     * to measure the lateness of the others. Frames later than that are not
+     * measured.
+     */
+    static final int FRAME_FRONT_WINDOW = 4096;
+    
+    /**
+     * Time each recent frame was first forwarded, from any client, in a ring
+     * indexed by frame number. Each slot holds the frame it was last used for,
+     * -1 if unused. Guarded by forwardingLock.
+     */
+    private final int[] frontFrames = new int[FRAME_FRONT_WINDOW];
+    private final long[] frontTimes = new long[FRAME_FRONT_WINDOW];
+    
+    /**
+     * Latest frame in the ring. Guarded by forwardingLock.
+     */
+    private int latestFrontFrame = 0;
+    
+    /**
+     * Inputs collected for forwarding, with the IDs of their senders. Used
+     * by the execution thread only, and reused at each collection.
+     */
+    private final ArrayList<FrameInput> frameInputs = new ArrayList<>();
+    private final ArrayList<Integer> frameInputSenders = new ArrayList<>();
+    
+    /**
+     * How late each client forwards its frames with respect to the first 
+     * client forwarding the same frame.
+     */
+    private final DelayAttribution lateness = new DelayAttribution();
+    
+    /**
+     * Weight of each frame in the smoothed lateness of its sender.
+     */
+    private static final int LATENESS_SMOOTHING = 32;
+    
+    /**
+     * Smoothed lateness of each connected client, spectators excluded, in 
+     * nanoseconds. Guarded by forwardingLock.
+     */
+    private final HashMap<Integer, long[]> smoothedLateness = new HashMap<>();
+    
+    /**
+     * Sum of the smoothed lateness of the clients, kept along with it.
+     * Guarded by forwardingLock.
+     */
+    private long latenessTotal;
+    
+    /**
+     * Latest frame the offsets were set at. Guarded by forwardingLock.
+     */
+    private int offsetsFrame = Integer.MIN_VALUE;
+    
+    /**
+     * Offset of the frames of each client from the average, hinted to the
+     * client so that it dilates its frame period.
+     */
+    ConcurrentHashMap<Integer, TimeDilation> timeDilations;
+    
+    /**
+     * Network conditions emulated on the datagrams sent to the clients, or
+     * null if none.
+     */
+    private final ImpairmentProfile impairment;
+    
+    private final LockstepMetrics metrics;
+    
+    /**
+     * When the frames received from the clients are ACKed.
+     */
+    private final ACKPolicy ackPolicy;
+    
+    /**
+     * Whether the frame inputs sent to the clients are protected by parity.
+     */
+    private final boolean forwardErrorCorrection;
+    
+    /**
+     * Rate control of the links to the clients, or null to send at the
+     * tickrate alone.
+     */
+    private final RatePolicy ratePolicy;
+    
+    /**
+     * Schedules the ticks of the transmitters to the clients, spreading them
+     * over the tick period if staggered, and records their bursts.
+     */
+    private final TransmitScheduler transmitScheduler;
+    
+    /**
+     * Whether the receivers forward the frames themselves, as soon as they
+     * arrive, rather than handing them to the server thread.
+     */
+    private final boolean cutThroughForwarding;
+    
+    /**
+     * How the server thread waits for the frames to forward, and how the 
+     * transmitters wait for their ticks.
+     */
+    private final WaitStrategy executionWaitStrategy;
+    private final WaitStrategy transmitterWaitStrategy;
+    
+    /**
+     * Availability of a frame to forward.
+     */
+    private final WaitStrategy.Signal frameAvailableSignal;
+    
+    /**
+     * Bound on the frames kept for clients not ACKing them, and the action on
+     * the clients lagging beyond it. Null if unbounded.
+     */
+    private final LagPolicy lagPolicy;
+    
+    /**
+     * Lagging clients demoted to spectators, fed from the history, with the
+     * frame of the disconnection signal forwarded for them. Their later 
+     * frames are not forwarded.
+     */
+    private final ConcurrentHashMap<Integer, Integer> spectators = new ConcurrentHashMap<>();
+    
+    /**
+     * Run on the shared timer every tick while there are spectators: only 
+     * asks the server thread to feed them.
+     */
+    private final Runnable spectatorFeedRequest = this::requestSpectatorFeed;
+    
+    /**
+     * Set by the timer when the spectators are due to be fed.
+     */
+    private volatile boolean spectatorFeedDue;
+    
+    /**
+     * Whether the feed request is scheduled on the timer. Guarded by 
+     * forwardingLock.
+     */
+    private boolean spectatorFeedScheduled;
+    
+    /**
+     * UDP channel of each client, closed to disconnect it when lagging.
+     */
+    private final ConcurrentHashMap<Integer, DatagramChannel> clientChannels = new ConcurrentHashMap<>();
+    
+    /**
+     * Stamps the traced frames crossing the server.
+     */
+    private final FrameTracer tracer;
+    
+    private ServerSocket tcpServerSocket;
+    private Thread joinAcceptor;
+    
   
     private static final Logger LOG = LogManager.getLogger(LockstepServer.class);
 
@@ -86,6 +325,19 @@ public class LockstepServer extends LockstepCoreThread
         private int tickrate;
         private int maxUDPPayloadLength;
         private int connectionTimeout;
+        private boolean lateJoin;
+        private int resumeTimeout;
+        private ImpairmentProfile impairment;
+        private LockstepMetrics metrics = LockstepMetrics.NOOP;
+        private ACKPolicy ackPolicy = ACKPolicy.builder().build();
+        private boolean forwardErrorCorrection;
+        private RatePolicy ratePolicy;
+        private boolean staggeredTransmission;
+        private boolean cutThroughForwarding;
+        private WaitStrategy executionWaitStrategy = WaitStrategy.blocking();
+        private WaitStrategy transmitterWaitStrategy = WaitStrategy.blocking();
+        private LagPolicy lagPolicy;
+        private int maxHistoryFrames;
 
         private Builder() {
         }
@@ -115,9 +367,113 @@ public class LockstepServer extends LockstepCoreThread
             return this;
         }
 
+        public Builder lateJoin(final boolean value) {
+            this.lateJoin = value;
+            return this;
+        }
+        
+        /**
+         * Frames of each sender kept in the history for late joins, zero to
+         * keep the whole session. Late joins are refused once it's trimmed.
+         */
+        public Builder maxHistoryFrames(final int value) {
+            this.maxHistoryFrames = value;
+            return this;
+        }
+
+        public Builder resumeTimeout(final int value) {
+            this.resumeTimeout = value;
+            return this;
+        }
+
+        public Builder impairment(final ImpairmentProfile value) {
+            this.impairment = value;
+            return this;
+        }
+
+        public Builder metrics(final LockstepMetrics value) {
+            this.metrics = value;
+            return this;
+        }
+
+        public Builder ackPolicy(final ACKPolicy value) {
+            this.ackPolicy = value;
+            return this;
+        }
+
+        /**
+         * Sends a parity datagram every few input datagrams, so that the
+         * clients can rebuild a lost one without waiting for the 
+         * retransmission. Disabled by default.
+         */
+        public Builder forwardErrorCorrection(final boolean value) {
+            this.forwardErrorCorrection = value;
+            return this;
+        }
+
+        /**
+         * Controls the sending rate on each link to a client. Disabled by 
+         * default.
+         */
+        public Builder ratePolicy(final RatePolicy value) {
+            this.ratePolicy = value;
+            return this;
+        }
+
+        /**
+         * Spreads the ticks of the transmitters to the clients evenly over 
+         * the tick period, instead of letting them send in bursts. Disabled
+         * by default.
+         */
+        public Builder staggeredTransmission(final boolean value) {
+            this.staggeredTransmission = value;
+            return this;
+        }
+
+        /**
+         * Forwards each frame to the transmission queues of its recipients
+         * from the receiver of its sender, as soon as the frames before it
+         * arrived, skipping the hand-off to the server thread. Disabled by 
+         * default.
+         */
+        public Builder cutThroughForwarding(final boolean value) {
+            this.cutThroughForwarding = value;
+            return this;
+        }
+
+        /**
+         * How the server thread waits for the frames to forward. Blocking 
+         * by default.
+         */
+        public Builder executionWaitStrategy(final WaitStrategy value) {
+            this.executionWaitStrategy = value;
+            return this;
+        }
+
+        /**
+         * How the transmitters to the clients wait for their ticks and for
+         * the frames to send. Blocking by default.
+         */
+        public Builder transmitterWaitStrategy(final WaitStrategy value) {
+            this.transmitterWaitStrategy = value;
+            return this;
+        }
+
+        /**
+         * Bounds the frames kept for each client not ACKing them. Unbounded
+         * by default.
+         */
+        public Builder lagPolicy(final LagPolicy value) {
+            this.lagPolicy = value;
+            return this;
+        }
+
         public LockstepServer build() {
             return new lockstep.LockstepServer(tcpPort, clientsNumber, tickrate,
-                    maxUDPPayloadLength, connectionTimeout);
+                    maxUDPPayloadLength, connectionTimeout, lateJoin, resumeTimeout,
+                    impairment, metrics, ackPolicy, forwardErrorCorrection, ratePolicy,
+                    staggeredTransmission, cutThroughForwarding, executionWaitStrategy,
+                    transmitterWaitStrategy, lagPolicy, maxHistoryFrames);
         }
     }
 
@@ -127,6 +483,17 @@ public class LockstepServer extends LockstepCoreThread
     
     public LockstepServer(int tcpPort, int clientsNumber, int tickrate,
             int maxUDPPayloadLength, int connectionTimeout)
+    {
+        this(tcpPort, clientsNumber, tickrate, maxUDPPayloadLength, connectionTimeout, false, 0, null, LockstepMetrics.NOOP, ACKPolicy.builder().build(), false, null, false, false, WaitStrategy.blocking(), WaitStrategy.blocking(), null, 0);
+    }
+    
+    public LockstepServer(int tcpPort, int clientsNumber, int tickrate,
+            int maxUDPPayloadLength, int connectionTimeout, boolean lateJoin,
+            int resumeTimeout, ImpairmentProfile impairment, LockstepMetrics metrics,
+            ACKPolicy ackPolicy, boolean forwardErrorCorrection, RatePolicy ratePolicy,
+            boolean staggeredTransmission, boolean cutThroughForwarding,
+            WaitStrategy executionWaitStrategy, WaitStrategy transmitterWaitStrategy,
+            LagPolicy lagPolicy, int maxHistoryFrames)
     {
         //late fail left to Socket class
         this.tcpPort = tcpPort;
@@ -151,15 +518,67 @@ public class LockstepServer extends LockstepCoreThread
         else
             this.connectionTimeout = connectionTimeout;
         
-        receivers = new HashMap<>();
-        transmitters = new HashMap<>();
+        this.lateJoin = lateJoin;
+        
+        if(maxHistoryFrames < 0)
+            throw new IllegalArgumentException("Max history frames must be greater or equal than zero");
+        else
+            this.maxHistoryFrames = maxHistoryFrames;
+        
+        if(resumeTimeout < 0)
+            throw new IllegalArgumentException("Resume timeout must be greater or equal than zero");
+        else
+            this.resumeTimeout = resumeTimeout;
+        
+        this.impairment = impairment;
+        
+        if(metrics == null)
+            throw new IllegalArgumentException("Metrics cannot be null, use LockstepMetrics.NOOP");
+        else
+            this.metrics = metrics;
+        
+        if(ackPolicy == null)
+            throw new IllegalArgumentException("ACK policy cannot be null, use ACKPolicy.IMMEDIATE");
+        else
+            this.ackPolicy = ackPolicy;
+        
+        this.forwardErrorCorrection = forwardErrorCorrection;
+        this.ratePolicy = ratePolicy;
+        this.transmitScheduler = new TransmitScheduler(tickrate, staggeredTransmission, metrics);
+        this.cutThroughForwarding = cutThroughForwarding;
+        
+        if(executionWaitStrategy == null || transmitterWaitStrategy == null)
+            throw new IllegalArgumentException("Wait strategies cannot be null, use WaitStrategy.blocking()");
+        else
+        {
+            this.executionWaitStrategy = executionWaitStrategy;
+            this.transmitterWaitStrategy = transmitterWaitStrategy;
+        }
+        
+        if(lagPolicy != null && lagPolicy.getAction() == LagPolicy.Action.SPECTATOR && !lateJoin)
+            throw new IllegalArgumentException("Spectators require late joins, which keep the history to feed them");
+        else
+            this.lagPolicy = lagPolicy;
+        
+        tracer = new FrameTracer(true, 0, metrics);
+        Arrays.fill(frontFrames, -1);
+        receivers = new ConcurrentHashMap<>();
+        transmitters = new ConcurrentHashMap<>();
         
         executionSemaphore = new Semaphore(0);
+        frameAvailableSignal = WaitStrategy.Signal.of(executionSemaphore, () -> 1);
         receivingQueues = new ConcurrentHashMap<>();
         transmissionFrameQueueTree = new ConcurrentHashMap<>();
-        ackQueues = new HashMap<>();
+        ackQueues = new ConcurrentHashMap<>();
         clientIDs = new ConcurrentSkipListSet<>();
-        openSockets = new ArrayList<>();
+        openChannels = new CopyOnWriteArrayList<>();
+        frameHistory = new ConcurrentHashMap<>();
+        firstFrameNumbers = new ConcurrentHashMap<>();
+        sessions = new ConcurrentHashMap<>();
+        parityCodecs = new ConcurrentHashMap<>();
+        rateControllers = new ConcurrentHashMap<>();
+        rttEstimators = new ConcurrentHashMap<>();
+        timeDilations = new ConcurrentHashMap<>();
     }
 
     /**
@@ -190,12 +609,15 @@ public class LockstepServer extends LockstepCoreThread
                 if(Thread.interrupted())
                     throw new InterruptedException();
                 
-                //Wait for any receveingQueue to have some frame to forward
-                executionSemaphore.acquire();
+                //Wait for any receveingQueue to have some frame to forward,
+                //never released when forwarding cut-through
+                executionWaitStrategy.await(frameAvailableSignal);
 
                 //Collect all the frames available and forward them
-                Map<Integer, FrameInput> frameInputs = collectFrameInputs();
-                forwardFrameInputs(frameInputs);
+                collectFrameInputs();
+                forwardFrameInputs();
+                if(spectatorFeedDue)
+                    feedSpectators();
             }
         }
         catch(InterruptedException intEx)
@@ -210,6 +632,17 @@ public class LockstepServer extends LockstepCoreThread
      */
     private void closeResources()
     {
+        try
+        {
+            if(tcpServerSocket != null)
+                tcpServerSocket.close();
+        }
+        catch(IOException ioEx)
+        {
+            LOG.error("Failure closing the handshake socket");
+            LOG.error(ioEx);
+        }
+        
         for(Thread transmitter : transmitters.values())
             transmitter.interrupt();
         
@@ -224,6 +657,9 @@ public class LockstepServer extends LockstepCoreThread
             {
                 transmitter.join();
             }
+            
+            if(joinAcceptor != null)
+                joinAcceptor.join();
         }
         catch(InterruptedException intEx)
         {
@@ -236,7 +672,8 @@ public class LockstepServer extends LockstepCoreThread
     /**
      * This method puts the server in waiting for client connections. It returns
      * when the expected number of clients have successfully completed the 
-     * handshake.
+     * handshake. If late joins are allowed, it then starts a thread accepting
+     * further clients.
      * Parallel threads are started to handle the handshakes.
      * In case of failure, all threads are interrupted and then the exception is
      * propagated.
@@ -248,13 +685,14 @@ public class LockstepServer extends LockstepCoreThread
      */
     private void handshakePhase() throws IOException, InterruptedException
     {
-        ServerSocket tcpServerSocket = new ServerSocket(tcpPort);
+        tcpServerSocket = new ServerSocket(tcpPort);
         
         CyclicBarrier barrier = new CyclicBarrier(this.clientsNumber);
         CountDownLatch latch = new CountDownLatch(this.clientsNumber);
 
         //Each session of the protocol starts with a different random frame number
         int firstFrameNumber = (new Random()).nextInt(1000) + 100;
+        lastForwardedFrame = firstFrameNumber - 1;
 
         Thread[] handshakeSessions = new Thread[clientsNumber];
         
@@ -277,6 +715,230 @@ public class LockstepServer extends LockstepCoreThread
             throw new InterruptedException();
         }        
         LOG.info("All handshakes completed");
+        
+        if(lateJoin)
+        {
+            joinAcceptor = new Thread(this::acceptLateJoins, "Join-acceptor");
+            joinAcceptor.start();
+        }
+        else
+            tcpServerSocket.close();
+    }
+    
+    /**
+     * Accepts connections from clients joining the running session, until the
+     * handshake socket is closed. Each join is handled in a separate thread.
+     */
+    private void acceptLateJoins()
+    {
+        try
+        {
+            while(true)
+            {
+                Socket tcpConnectionSocket = tcpServerSocket.accept();
+                LOG.info("Late join accepted from " +  tcpConnectionSocket.getInetAddress().getHostAddress());
+                Thread joinSession = new Thread(() -> serverLateJoinProtocol(tcpConnectionSocket));
+                joinSession.start();
+            }
+        }
+        catch(IOException ioEx)
+        {
+            LOG.info("Join acceptor terminated");
+        }
+    }
+    
+    /**
+     * Implements the handshake protocol for a client joining a running session.
+     * The client is assigned a join frame following the last frame forwarded,
+     * so that no other client has executed it yet. Its transmission queues are 
+     * filled with the history of the session, while the other clients are
+     * announced the new sender before receiving any frame after the join one.
+     * 
+     * @param tcpSocket Connection with the client, to be used in handshake only
+     */
+    private void serverLateJoinProtocol(Socket tcpSocket)
+    {
+        boolean joinPending = false;
+        try(ObjectOutputStream oout = new ObjectOutputStream(tcpSocket.getOutputStream());)
+        {
+            oout.flush();
+            try(ObjectInputStream oin = new ObjectInputStream(tcpSocket.getInputStream());)
+            {
+                ClientHello hello = (ClientHello) oin.readObject();
+                long helloReceived = System.nanoTime();
+                if(!admitJoin())
+                {
+                    //Closing the connection fails the handshake of the client
+                    LOG.warn("Late join refused to " + tcpSocket.getInetAddress().getHostAddress() + ", the history has been trimmed");
+                    return;
+                }
+                joinPending = true;
+                DatagramChannel udpChannel = DatagramChannel.open().bind(null);
+                openChannels.add(udpChannel);
+                InetSocketAddress clientUDPAddress = new InetSocketAddress(tcpSocket.getInetAddress().getHostAddress(), hello.clientUDPPort);
+                udpChannel.connect(clientUDPAddress);
+
+                int assignedClientID;
+                do{
+                    assignedClientID = (new Random()).nextInt(100000) + 10000;
+                }while(!this.clientIDs.add(assignedClientID));
+                long sessionToken = sessionSetup(assignedClientID);
+                
+                ConcurrentHashMap<Integer, TransmissionQueue> clientTransmissionFrameQueues = new ConcurrentHashMap<>();
+                ACKSet clientAckQueue = new ACKSet(ackPolicy);
+                ackQueues.put(assignedClientID, clientAckQueue);
+                parityCodecs.put(assignedClientID, new ParityFEC());
+                rttEstimators.put(assignedClientID, new RTTEstimator());
+                timeDilations.put(assignedClientID, new TimeDilation());
+                if(ratePolicy != null)
+                    rateControllers.put(assignedClientID, new RateController(ratePolicy));
+                
+                int joinFrameNumber;
+                int partecipatingClients;
+                int[] announcedIDs;
+                int[] announcedFirstFrames;
+                Map<Integer, TransmissionQueue> historyQueues = new HashMap<>();
+                synchronized(forwardingLock)
+                {
+                    joinFrameNumber = lastForwardedFrame + 1;
+                    
+                    for(Entry<Integer, Map<Integer, TransmissionQueue>> recipientEntry : transmissionFrameQueueTree.entrySet())
+                        recipientEntry.getValue().put(assignedClientID, newTransmissionQueue(recipientEntry.getKey(), joinFrameNumber, assignedClientID, false));
+                    
+                    announcedIDs = new int[firstFrameNumbers.size() + 1];
+                    announcedFirstFrames = new int[announcedIDs.length];
+                    int i = 0;
+                    for(Entry<Integer, Integer> firstFrameEntry : firstFrameNumbers.entrySet())
+                    {
+                        int senderID = firstFrameEntry.getKey();
+                        historyQueues.put(senderID, newTransmissionQueue(assignedClientID, firstFrameEntry.getValue(), senderID, true));
+                        announcedIDs[i] = senderID;
+                        announcedFirstFrames[i] = firstFrameEntry.getValue();
+                        i++;
+                    }
+                    
+                    //The history queues are published empty: from now on the
+                    //frames forwarded reach them directly
+                    clientTransmissionFrameQueues.putAll(historyQueues);
+                    this.transmissionFrameQueueTree.put(assignedClientID, clientTransmissionFrameQueues);
+                    announcedIDs[i] = assignedClientID;
+                    announcedFirstFrames[i] = joinFrameNumber;
+                    
+                    firstFrameNumbers.put(assignedClientID, joinFrameNumber);
+                    frameHistory.put(assignedClientID, new ConcurrentSkipListMap<>());
+                    clientReceiveSetup(assignedClientID, udpChannel, joinFrameNumber, clientTransmissionFrameQueues);
+                    clientsNumber++;
+                    partecipatingClients = clientsNumber;
+                }
+                
+                copyHistory(historyQueues, joinFrameNumber);
+                synchronized(forwardingLock)
+                {
+                    pendingJoins--;
+                    joinPending = false;
+                }
+                
+                LOG.info("Assigned hostID " + assignedClientID + " to " + tcpSocket.getInetAddress().getHostAddress() + " joining at frame " + joinFrameNumber);
+                ServerHelloReply helloReply = new ServerHelloReply(udpChannel.socket().getLocalPort(), assignedClientID, partecipatingClients, sessionFirstFrameOf(announcedFirstFrames), joinFrameNumber);
+                helloReply.sessionToken = sessionToken;
+                helloReply.helloReceivedNanos = helloReceived;
+                helloReply.replySentNanos = System.nanoTime();
+                oout.writeObject(helloReply);
+                
+                ClientsAnnouncement announcement = new ClientsAnnouncement();
+                announcement.clientIDs = announcedIDs;
+                announcement.firstFrameNumbers = announcedFirstFrames;
+                oout.writeObject(announcement);
+                
+                transmitterSetup(assignedClientID, udpChannel, clientTransmissionFrameQueues);
+                oout.writeObject(new SimulationStart());
+            }
+        } 
+        catch (IOException | ClassNotFoundException ioEx)
+        {
+            LOG.error("Exception at late join with client");
+            LOG.error(ioEx);
+        }
+        finally
+        {
+            if(joinPending)
+            {
+                synchronized(forwardingLock)
+                {
+                    pendingJoins--;
+                }
+            }
+        }
+    }
+    
+    /**
+     * Copies the history to the queues of a joining client, outside the
+     * forwarding lock. The frames forwarded before the queues were published
+     * precede the join frame, the ones after it reach the queues directly; 
+     * frames forwarded meanwhile are at worst pushed twice. The history is not 
+     * trimmed until the join is no longer pending.
+     * 
+     * @param historyQueues queues of the joining client, for each sender
+     * @param joinFrameNumber join frame of the client, bounding the copy
+     */
+    private void copyHistory(Map<Integer, TransmissionQueue> historyQueues, int joinFrameNumber)
+    {
+        for(Entry<Integer, TransmissionQueue> historyQueueEntry : historyQueues.entrySet())
+        {
+            TransmissionQueue historyQueue = historyQueueEntry.getValue();
+            for(Entry<Integer, LockstepCommand> historyEntry : frameHistory.get(historyQueueEntry.getKey()).headMap(joinFrameNumber).entrySet())
+                historyQueue.push(new FrameInput(historyEntry.getKey(), historyEntry.getValue()));
+        }
+    }
+    
+    /**
+     * Admits a late join if the history still starts at the first frame of 
+     * each sender, and holds its trimming until the join copies it.
+     * 
+     * @return false if the join is refused
+     */
+    private boolean admitJoin()
+    {
+        synchronized(forwardingLock)
+        {
+            if(historyTrimmed)
+                return false;
+            
+            pendingJoins++;
+            return true;
+        }
+    }
+    
+    /**
+     * Issues the session token for a client, if sessions can be resumed.
+     * 
+     * @param clientID ID of the client
+     * @return the session token, or zero if sessions can't be resumed
+     */
+    private long sessionSetup(int clientID)
+    {
+        if(resumeTimeout == 0)
+            return 0;
+        
+        long sessionToken;
+        do{
+            sessionToken = tokenGenerator.nextLong();
+        }while(sessionToken == 0);
+        
+        sessions.put(clientID, new ResumableSession(clientID, sessionToken, resumeTimeout, false));
+        return sessionToken;
+    }
+    
+    /**
+     * @return the first frame of the session, that is the lowest among the
+     * first frames of the clients
+     */
+    private static int sessionFirstFrameOf(int[] firstFrames)
+    {
+        int sessionFirstFrame = Integer.MAX_VALUE;
+        for(int firstFrame : firstFrames)
+            sessionFirstFrame = Integer.min(sessionFirstFrame, firstFrame);
+        return sessionFirstFrame;
     }
     
     /**
@@ -304,11 +966,12 @@ public class LockstepServer extends LockstepCoreThread
                 LOG.info("Waiting an hello from " + tcpSocket.getInetAddress().getHostAddress());
                 oout.flush();
                 ClientHello hello = (ClientHello) oin.readObject();
+                long helloReceived = System.nanoTime();
                 LOG.info("Received an hello from " + tcpSocket.getInetAddress().getHostAddress());
-                DatagramSocket udpSocket = new DatagramSocket();
-                openSockets.add(udpSocket);
+                DatagramChannel udpChannel = DatagramChannel.open().bind(null);
+                openChannels.add(udpChannel);
                 InetSocketAddress clientUDPAddress = new InetSocketAddress(tcpSocket.getInetAddress().getHostAddress(), hello.clientUDPPort);
-                udpSocket.connect(clientUDPAddress);
+                udpChannel.connect(clientUDPAddress);
 
                 int assignedClientID;
                 do{
@@ -316,16 +979,26 @@ public class LockstepServer extends LockstepCoreThread
                 }while(!this.clientIDs.add(assignedClientID));
 
                 LOG.info("Assigned hostID " + assignedClientID + " to " + tcpSocket.getInetAddress().getHostAddress() + ", sending helloReply");
-                ServerHelloReply helloReply = new ServerHelloReply(udpSocket.getLocalPort(), assignedClientID, clientsNumber, firstFrameNumber);
+                ServerHelloReply helloReply = new ServerHelloReply(udpChannel.socket().getLocalPort(), assignedClientID, clientsNumber, firstFrameNumber);
+                helloReply.sessionToken = sessionSetup(assignedClientID);
+                helloReply.helloReceivedNanos = helloReceived;
+                helloReply.replySentNanos = System.nanoTime();
                 oout.writeObject(helloReply);
 
                 ConcurrentHashMap<Integer, TransmissionQueue> clientTransmissionFrameQueues = new ConcurrentHashMap<>();
                 this.transmissionFrameQueueTree.put(assignedClientID, clientTransmissionFrameQueues);
                 
-                ACKSet clientAckQueue = new ACKSet();
+                ACKSet clientAckQueue = new ACKSet(ackPolicy);
                 ackQueues.put(assignedClientID, clientAckQueue);
+                parityCodecs.put(assignedClientID, new ParityFEC());
+                rttEstimators.put(assignedClientID, new RTTEstimator());
+                timeDilations.put(assignedClientID, new TimeDilation());
+                if(ratePolicy != null)
+                    rateControllers.put(assignedClientID, new RateController(ratePolicy));
                 
-                clientReceiveSetup(assignedClientID, udpSocket, firstFrameNumber, clientTransmissionFrameQueues);
+                firstFrameNumbers.put(assignedClientID, firstFrameNumber);
+                frameHistory.put(assignedClientID, new ConcurrentSkipListMap<>());
+                clientReceiveSetup(assignedClientID, udpChannel, firstFrameNumber, clientTransmissionFrameQueues);
 
                 barrier.await();
 
@@ -334,7 +1007,7 @@ public class LockstepServer extends LockstepCoreThread
                 announcement.clientIDs = ArrayUtils.toPrimitive(this.clientIDs.toArray(new Integer[0]));
                 oout.writeObject(announcement);
                 
-                clientTransmissionSetup(assignedClientID, firstFrameNumber, udpSocket, clientTransmissionFrameQueues);
+                clientTransmissionSetup(assignedClientID, firstFrameNumber, udpChannel, clientTransmissionFrameQueues);
 
                 //Wait for other handshakes to reach final step
                 barrier.await();
@@ -356,9 +1029,12 @@ public class LockstepServer extends LockstepCoreThread
         }            
     }
     
-    private void clientReceiveSetup(int clientID, DatagramSocket clientUDPSocket, int initialFrameNumber, ConcurrentMap<Integer, TransmissionQueue> transmissionFrameQueues)
+    private void clientReceiveSetup(int clientID, DatagramChannel clientUDPChannel, int initialFrameNumber, ConcurrentMap<Integer, TransmissionQueue> transmissionFrameQueues)
     {
-        ServerReceivingQueue receivingQueue = new ServerReceivingQueue(initialFrameNumber, clientID, executionSemaphore);
+        boolean throttling = lagPolicy != null && lagPolicy.getAction() == LagPolicy.Action.THROTTLE;
+        ServerReceivingQueue receivingQueue = new ServerReceivingQueue(initialFrameNumber, clientID, executionSemaphore,
+                cutThroughForwarding ? this::forwardCutThrough : null, throttling ? this::admits : null);
+        clientChannels.put(clientID, clientUDPChannel);
         this.receivingQueues.put(clientID, receivingQueue);
         ConcurrentHashMap<Integer,ReceivingQueue> receivingQueueWrapper = new ConcurrentHashMap<>();
         receivingQueueWrapper.put(clientID, receivingQueue);
@@ -366,7 +1042,8 @@ public class LockstepServer extends LockstepCoreThread
         LOG.info("Receiver AckQueue("+clientID+"): " + ackQueues.get(clientID));
         
         LockstepReceiver receiver = LockstepReceiver.builder()
-                .dgramSocket(clientUDPSocket)
+                .dgramChannel(clientUDPChannel)
+                .maxUDPPayloadLength(maxUDPPayloadLength)
                 .coreThread(this)
                 .receiverID(clientID)
                 .receivingQueues(receivingQueueWrapper)
@@ -374,49 +1051,84 @@ public class LockstepServer extends LockstepCoreThread
                 .name("Receiver-from-"+clientID)
                 .ackSet(ackQueues.get(clientID))
                 .connectionTimeout(connectionTimeout)
+                .session(sessions.get(clientID))
+                .metrics(metrics.link(clientID))
+                .tracer(tracer)
+                .fec(parityCodecs.get(clientID))
+                .rateController(rateControllers.get(clientID))
+                .rttEstimator(rttEstimators.get(clientID))
                 .build();
         
         receivers.put(clientID, receiver);
         receiver.start();
     }
     
-    private void clientTransmissionSetup(int clientID, int firstFrameNumber, DatagramSocket udpSocket, Map<Integer, TransmissionQueue> clientTransmissionFrameQueues)
+    private void clientTransmissionSetup(int clientID, int firstFrameNumber, DatagramChannel udpChannel, Map<Integer, TransmissionQueue> clientTransmissionFrameQueues)
     {
         for(int hostID : clientIDs)
         {
             if(hostID != clientID)
             {
-                TransmissionQueue transmissionFrameQueue = new TransmissionQueue(firstFrameNumber, hostID);
+                TransmissionQueue transmissionFrameQueue = newTransmissionQueue(clientID, firstFrameNumber, hostID, true);
                 clientTransmissionFrameQueues.put(hostID, transmissionFrameQueue);
             }
         }
 
+        transmitterSetup(clientID, udpChannel, clientTransmissionFrameQueues);
+    }
+    
+    /**
+     * Creates a queue transmitting the frames of a sender to a recipient,
+     * recording on the metrics of the recipient link and waking its 
+     * transmitter when idle.
+     */
+    private TransmissionQueue newTransmissionQueue(int recipientID, int initialFrameNumber, int senderID, boolean announced)
+    {
+        TransmissionQueue transmissionQueue = new TransmissionQueue(initialFrameNumber, senderID, announced);
+        if(metrics != LockstepMetrics.NOOP)
+            transmissionQueue.attachMetrics(metrics.link(recipientID));
+        ACKSet ackSet = ackQueues.get(recipientID);
+        if(ackSet != null)
+            transmissionQueue.attachWakeUp(ackSet);
+        return transmissionQueue;
+    }
+    
+    private void transmitterSetup(int clientID, DatagramChannel udpChannel, Map<Integer, TransmissionQueue> clientTransmissionFrameQueues)
+    {
         LOG.info("Transmitter AckQueue("+clientID+"): " + ackQueues.get(clientID));
         
         LockstepTransmitter transmitter = LockstepTransmitter.builder()
-                .dgramSocket(udpSocket)
+                .dgramChannel(udpChannel)
                 .tickrate(tickrate)
                 .maxUDPPayloadLength(maxUDPPayloadLength)
                 .transmissionQueues(clientTransmissionFrameQueues)
                 .name("Transmitter-to-"+clientID)
                 .ackSet(ackQueues.get(clientID))
+                .session(sessions.get(clientID))
+                .impairment(impairment != null ? impairment.withSeedOffset(clientID) : null)
+                .metrics(metrics.link(clientID))
+                .fec(forwardErrorCorrection ? parityCodecs.get(clientID) : null)
+                .timeDilation(timeDilations.get(clientID))
+                .rateController(rateControllers.get(clientID))
+                .rttEstimator(rttEstimators.get(clientID))
+                .scheduler(transmitScheduler)
+                .waitStrategy(transmitterWaitStrategy)
                 .build();
         
         transmitters.put(clientID, transmitter);
         transmitter.start();        
     }
     
-    private Map<Integer, FrameInput> collectFrameInputs()
+    void collectFrameInputs()
     {        
-        Map<Integer, FrameInput> nextCommands = new TreeMap<>();
         boolean foundFirstFrame = false;
-        for(Entry<Integer, ServerReceivingQueue> serverQueueEntry : this.receivingQueues.entrySet())
+        for(ServerReceivingQueue serverQueue : this.receivingQueues.values())
         {
-            Integer senderID = serverQueueEntry.getKey();
-            FrameInput frame = serverQueueEntry.getValue().pop();
+            FrameInput frame = serverQueue.pop();
             if(frame != null)
             {
-                nextCommands.put(senderID, frame);     
+                frameInputs.add(frame);
+                frameInputSenders.add(serverQueue.getSenderID());
                 if(!foundFirstFrame)
                 {
                     foundFirstFrame = true;
@@ -427,37 +1139,377 @@ public class LockstepServer extends LockstepCoreThread
                 }
             }
         }
-        return nextCommands;
     }
     
-    private void forwardFrameInputs(Map<Integer, FrameInput> nextFrameInputs)
+    void forwardFrameInputs()
+    {
+        synchronized(forwardingLock)
+        {
+            for(int i = 0; i < frameInputs.size(); i++)
+            {
+                if(isPlaying(frameInputSenders.get(i), frameInputs.get(i)))
+                    forwardFrameInput(frameInputSenders.get(i), frameInputs.get(i));
+            }
+        }
+        frameInputs.clear();
+        frameInputSenders.clear();
+    }
+    
+    /**
+     * Forwards a frame from the receiver of its sender, in cut-through mode.
+     * Pushing it wakes the transmitters of the recipients if idle.
+     */
+    void forwardCutThrough(int senderID, FrameInput input)
+    {
+        synchronized(forwardingLock)
+        {
+            if(isPlaying(senderID, input))
+            {
+                forwardFrameInput(senderID, input);
+                ServerReceivingQueue receivingQueue = receivingQueues.get(senderID);
+                if(receivingQueue != null)
+                    receivingQueue.forwarded(input.getFrameNumber());
+            }
+        }
+    }
+    
+    /**
+     * @return false for the frames of a spectator following its demotion
+     */
+    private boolean isPlaying(int senderID, FrameInput input)
+    {
+        Integer signalFrame = spectators.get(senderID);
+        return signalFrame == null || input.getFrameNumber() < signalFrame;
+    }
+    
+    private void forwardFrameInput(Integer senderID, FrameInput input)
     {
-        //For each command
-        for(Entry<Integer, FrameInput> frameEntry : nextFrameInputs.entrySet())
+        if(lateJoin)
+            recordHistory(senderID, input);
+        lastForwardedFrame = Integer.max(lastForwardedFrame, input.getFrameNumber());
+        metrics.frameForwarded();
+        tracer.forwarded(input);
+        recordLateness(senderID, input.getFrameNumber());
+        int recipients = 0;
+        
+        //For each client, take its tree of transmission queues
+        for(Entry<Integer, Map<Integer, TransmissionQueue>> transmissionFrameQueueMapEntry : this.transmissionFrameQueueTree.entrySet())
         {
-            Integer senderID = frameEntry.getKey();
-            FrameInput input = frameEntry.getValue();
+            Integer recipientID = transmissionFrameQueueMapEntry.getKey();
             
-            //For each client, take its tree of transmission queues
-            for(Entry<Integer, Map<Integer, TransmissionQueue>> transmissionFrameQueueMapEntry : this.transmissionFrameQueueTree.entrySet())
+            //If the frameInput doesn't come from that client, forward the frameInput though the correct transmission queue
+            if(!recipientID.equals(senderID))
             {
-                Integer recipientID = transmissionFrameQueueMapEntry.getKey();
-                
-                //If the frameInput doesn't come from that client, forward the frameInput though the correct transmission queue
-                if(!recipientID.equals(senderID))
+                Map<Integer, TransmissionQueue> recipientTransmissionQueueMap = transmissionFrameQueueMapEntry.getValue();
+                TransmissionQueue transmissionFrameQueueFromSender = recipientTransmissionQueueMap.get(senderID);
+                //Spectators are fed from the history at their own pace
+                if(transmissionFrameQueueFromSender != null && !spectators.containsKey(recipientID))
                 {
-                    Map<Integer, TransmissionQueue> recipientTransmissionQueueMap = transmissionFrameQueueMapEntry.getValue();
-                    TransmissionQueue transmissionFrameQueueFromSender = recipientTransmissionQueueMap.get(senderID);
                     transmissionFrameQueueFromSender.push(input);
-                
-                    if(input.getCommand() instanceof DisconnectionSignal)
-                    {
-                        if(receivingQueues.containsKey(senderID))
-                            disconnectReceivingQueues(senderID);
-                    }
+                    recipients++;
+                    if(lagPolicy != null && transmissionFrameQueueFromSender.timeOverBound(lagPolicy.getMaxUnackedFrames(), System.nanoTime()) >= TimeUnit.MILLISECONDS.toNanos(lagPolicy.getLagTimeout()))
+                        handleLagging(recipientID);
+                }
+            
+                //Spectators keep their queue, ACKing their inputs, until they leave
+                if(input.getCommand() instanceof DisconnectionSignal)
+                {
+                    if(receivingQueues.containsKey(senderID) && !spectators.containsKey(senderID))
+                        disconnectReceivingQueues(senderID);
                 }
             }
         }
+        FrameEvents.frameForwarded(senderID, input.getFrameNumber(), recipients);
+    }
+    
+    /**
+     * Adds a frame to the history of its sender, dropping the frames older 
+     * than the retention unless a late join is being set up. Called while
+     * forwarding.
+     */
+    void recordHistory(int senderID, FrameInput input)
+    {
+        ConcurrentSkipListMap<Integer, LockstepCommand> history = frameHistory.get(senderID);
+        history.put(input.getFrameNumber(), input.getCommand());
+        
+        int oldestKept = input.getFrameNumber() - maxHistoryFrames + 1;
+        if(maxHistoryFrames == 0 || pendingJoins > 0 || history.firstKey() >= oldestKept)
+            return;
+        
+        history.headMap(oldestKept).clear();
+        if(!historyTrimmed)
+        {
+            historyTrimmed = true;
+            LOG.info("History trimmed to " + maxHistoryFrames + " frames, late joins refused from now on");
+        }
+    }
+    
+    /**
+     * @return true if the history has been trimmed, and late joins are 
+     * refused
+     */
+    boolean isHistoryTrimmed()
+    {
+        synchronized(forwardingLock)
+        {
+            return historyTrimmed;
+        }
+    }
+    
+    /**
+     * Admits the new frames of a client only while all the recipients keep
+     * its frames unACKed within the bound, when throttling.
+     */
+    private boolean admits(int senderID)
+    {
+        for(Map<Integer, TransmissionQueue> recipientTransmissionQueueMap : transmissionFrameQueueTree.values())
+        {
+            TransmissionQueue transmissionQueue = recipientTransmissionQueueMap.get(senderID);
+            if(transmissionQueue != null && transmissionQueue.getUnackedFrames() >= lagPolicy.getMaxUnackedFrames())
+            {
+                metrics.frameThrottled(senderID);
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Demotes or disconnects a client leaving too many frames unACKed. 
+     * Throttling clients is left to the admission of their frames.
+     */
+    private void handleLagging(int clientID)
+    {
+        if(lagPolicy.getAction() == LagPolicy.Action.SPECTATOR)
+            demoteToSpectator(clientID);
+        else if(lagPolicy.getAction() == LagPolicy.Action.DISCONNECT)
+            disconnectLagging(clientID);
+    }
+    
+    /**
+     * Turns a lagging client into a spectator: the others are told it left,
+     * its later inputs are ACKed and dropped, and the frames of the others 
+     * are fed to it from the history. The disconnection signal follows its 
+     * last frame received in order, and the frames still buffered before it
+     * are forwarded first, so that the others get its frames without gaps.
+     * In cut-through mode it follows the last frame forwarded instead, as 
+     * the receiver forwards each frame before ACKing it.
+     * Called while forwarding.
+     */
+    void demoteToSpectator(int clientID)
+    {
+        ServerReceivingQueue receivingQueue = receivingQueues.get(clientID);
+        if(receivingQueue == null || spectators.containsKey(clientID))
+            return;
+        
+        LOG.warn("Client " + clientID + " lagging, demoted to spectator");
+        metrics.spectatorDemoted(clientID);
+        
+        //Frames before the signal were all received, so none is buffered later
+        int signalFrame = (cutThroughForwarding ? receivingQueue.getLastForwarded() : receivingQueue.getLastInOrderACK()) + 1;
+        spectators.put(clientID, signalFrame);
+        forgetLateness(clientID);
+        for(FrameInput input : receivingQueue.extractBefore(signalFrame))
+            forwardFrameInput(clientID, input);
+        forwardFrameInput(clientID, new FrameInput(signalFrame, new DisconnectionSignal()));
+        receivingQueue.discard();
+        
+        if(!spectatorFeedScheduled)
+        {
+            spectatorFeedScheduled = true;
+            scheduleSpectatorFeed();
+        }
+    }
+    
+    private void scheduleSpectatorFeed()
+    {
+        HashedWheelTimer.shared().schedule(spectatorFeedRequest, TimeUnit.SECONDS.toNanos(1) / tickrate, TimeUnit.NANOSECONDS);
+    }
+    
+    /**
+     * Hands the feeding of the spectators to the server thread, waking it
+     * up. Runs on the shared timer, so it neither allocates nor takes locks.
+     */
+    private void requestSpectatorFeed()
+    {
+        spectatorFeedDue = true;
+        executionSemaphore.release();
+    }
+    
+    /**
+     * Feeds the spectators on the server thread, and requests the next feed
+     * while any is left.
+     */
+    void feedSpectators()
+    {
+        spectatorFeedDue = false;
+        synchronized(forwardingLock)
+        {
+            for(Integer clientID : spectators.keySet())
+                feedSpectator(clientID);
+            
+            spectatorFeedScheduled = !spectators.isEmpty();
+            if(spectatorFeedScheduled)
+                scheduleSpectatorFeed();
+        }
+    }
+    
+    /**
+     * Tops up the transmission queues of a spectator from the history, in 
+     * order and within the bound, until it disconnects. A spectator needing
+     * frames already trimmed from the history is disconnected.
+     */
+    private void feedSpectator(int clientID)
+    {
+        Map<Integer, TransmissionQueue> spectatorTransmissionQueueMap = transmissionFrameQueueTree.get(clientID);
+        if(spectatorTransmissionQueueMap == null)
+            return;
+        
+        for(Entry<Integer, TransmissionQueue> transmissionQueueEntry : spectatorTransmissionQueueMap.entrySet())
+        {
+            ConcurrentSkipListMap<Integer, LockstepCommand> history = frameHistory.get(transmissionQueueEntry.getKey());
+            TransmissionQueue transmissionQueue = transmissionQueueEntry.getValue();
+            if(history == null)
+                continue;
+            
+            //Frames forwarded after a gap are fed once the gap is filled
+            int frameNumber = transmissionQueue.lastACKed.get() + 1;
+            while(transmissionQueue.getUnackedFrames() < lagPolicy.getMaxUnackedFrames())
+            {
+                if(!transmissionQueue.framesBuffer.containsKey(frameNumber))
+                {
+                    LockstepCommand command = history.get(frameNumber);
+                    if(command == null)
+                        break;
+                    transmissionQueue.push(new FrameInput(frameNumber, command));
+                }
+                frameNumber++;
+            }
+            
+            if(!history.isEmpty() && frameNumber < history.firstKey())
+            {
+                LOG.warn("Spectator " + clientID + " fell behind the history of " + transmissionQueueEntry.getKey());
+                disconnectLagging(clientID);
+                return;
+            }
+        }
+    }
+    
+    /**
+     * Disconnects a lagging client: its frames are dropped at once, and 
+     * closing its channel lets its receiver signal the disconnection to the
+     * others.
+     */
+    private void disconnectLagging(int clientID)
+    {
+        DatagramChannel channel = clientChannels.remove(clientID);
+        if(channel == null)
+            return;
+        
+        LOG.warn("Client " + clientID + " lagging, disconnecting it");
+        metrics.laggingDisconnected(clientID);
+        disconnectTransmittingQueues(clientID);
+        try
+        {
+            channel.close();
+        }
+        catch(IOException ioEx)
+        {
+            LOG.warn("Failed to close the channel of client " + clientID);
+        }
+    }
+    
+    void recordLateness(int senderID, int frameNumber)
+    {
+        //Older frames would take the slot of a frame in the window
+        if(frameNumber <= latestFrontFrame - FRAME_FRONT_WINDOW)
+            return;
+        
+        long now = System.nanoTime();
+        int slot = frameNumber % FRAME_FRONT_WINDOW;
+        long delay;
+        if(frontFrames[slot] == frameNumber)
+            delay = now - frontTimes[slot];
+        else
+        {
+            frontFrames[slot] = frameNumber;
+            frontTimes[slot] = now;
+            latestFrontFrame = Integer.max(latestFrontFrame, frameNumber);
+            delay = 0;
+        }
+        lateness.record(senderID, delay);
+        metrics.lateness(senderID, delay);
+        updateOffsets(senderID, frameNumber, delay);
+    }
+    
+    /**
+     * Smooths the lateness of the sender, and sets the offset of each client
+     * to its smoothed lateness minus the average of the connected clients.
+     * The offsets are set once per frame, as they move slowly.
+     */
+    private void updateOffsets(int senderID, int frameNumber, long delay)
+    {
+        if(!receivingQueues.containsKey(senderID) || spectators.containsKey(senderID))
+            return;
+        
+        long[] smoothed = smoothedLateness.get(senderID);
+        if(smoothed == null)
+        {
+            smoothedLateness.put(senderID, new long[] { delay });
+            latenessTotal += delay;
+        }
+        else
+        {
+            long step = (delay - smoothed[0]) / LATENESS_SMOOTHING;
+            smoothed[0] += step;
+            latenessTotal += step;
+        }
+        
+        if(frameNumber <= offsetsFrame)
+            return;
+        offsetsFrame = frameNumber;
+        
+        long average = latenessTotal / smoothedLateness.size();
+        for(Entry<Integer, long[]> entry : smoothedLateness.entrySet())
+        {
+            TimeDilation timeDilation = timeDilations.get(entry.getKey());
+            if(timeDilation != null)
+                timeDilation.setOffset(entry.getValue()[0] - average);
+        }
+    }
+    
+    /**
+     * Drops a client disconnected or demoted from the average lateness, and
+     * clears its offset.
+     */
+    private void forgetLateness(int clientID)
+    {
+        long[] smoothed = smoothedLateness.remove(clientID);
+        if(smoothed != null)
+            latenessTotal -= smoothed[0];
+        
+        TimeDilation timeDilation = timeDilations.get(clientID);
+        if(timeDilation != null)
+            timeDilation.setOffset(0);
+    }
+    
+    /**
+     * @return how late each client delivers its frames with respect to the
+     * first client delivering the same frame
+     */
+    public DelayAttribution getLateness()
+    {
+        return lateness;
+    }
+    
+    /**
+     * @param clientID ID of the client
+     * @return the round trip time and clock offset estimates of the link with
+     * the client, or null if the client never joined
+     */
+    public RTTEstimator getRTTEstimator(int clientID)
+    {
+        return rttEstimators.get(clientID);
     }
 
     /**
@@ -485,6 +1537,13 @@ public class LockstepServer extends LockstepCoreThread
     {
         transmissionFrameQueueTree.remove(nodeID);
         LOG.info("Disconnected transmission queues for " + nodeID);
+        
+        //The receiving queue of a spectator outlived its disconnection signal
+        synchronized(forwardingLock)
+        {
+            if(spectators.remove(nodeID) != null && receivingQueues.containsKey(nodeID))
+                disconnectReceivingQueues(nodeID);
+        }
     }
     
     /**
@@ -496,6 +1555,7 @@ public class LockstepServer extends LockstepCoreThread
     void disconnectReceivingQueues(int nodeID)
     { 
        receivingQueues.remove(nodeID);
+        forgetLateness(nodeID);
         LOG.info("Disconnected receiving queue for " + nodeID);
         
         clientsNumber--;
@@ -504,6 +1564,16 @@ public class LockstepServer extends LockstepCoreThread
         if(clientsNumber == 1)
             this.interrupt();
     }
+    
+    /**
+     * Clients never join through the receivers of the server, as the server
+     * itself handles the joins.
+     */
+    @Override
+    ReceivingQueue connectReceivingQueue(int nodeID, int firstFrameNumber)
+    {
+        return null;
+    }
 
     /**
      * Forces the server to free its resources and stop.
@@ -5,26 +5,32 @@
  */
 package lockstep;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.zip.GZIPOutputStream;
+import java.util.concurrent.TimeUnit;
+import lockstep.messages.simulation.ClientJoined;
 import lockstep.messages.simulation.FrameACK;
-import lockstep.messages.simulation.InputMessage;
-import lockstep.messages.simulation.InputMessageArray;
+import lockstep.messages.simulation.FrameNACK;
+import lockstep.messages.simulation.FramePacing;
 import lockstep.messages.simulation.KeepAlive;
+import lockstep.messages.simulation.SessionResume;
+import lockstep.jfr.FrameEvents;
+import lockstep.metrics.LinkMetrics;
+import lockstep.metrics.MessageType;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
 
 public class LockstepTransmitter extends Thread
 {
-    DatagramSocket dgramSocket;
+    DatagramChannel channel;
     Map<Integer, TransmissionQueue> transmissionQueues;
     ACKSet ackQueue;
     
@@ -37,20 +43,113 @@ public class LockstepTransmitter extends Thread
     
     boolean terminationPhase = false;
     
+    /**
+     * Session shared with the receiver, or null if the connection can't be
+     * resumed. While suspended, no frames are sent.
+     */
+    private final ResumableSession session;
+    
+    /**
+     * Emulator of the network conditions on the outgoing datagrams, or null
+     * to send them on the socket as they are.
+     */
+    private final NetworkEmulator networkEmulator;
+    
+    private final LinkMetrics metrics;
+    
+    private final FrameTracer tracer;
+    
+    /**
+     * Parity encoder of the input datagrams, or null if they're sent
+     * unprotected.
+     */
+    private final ParityFEC fec;
+    
+    /**
+     * Controller of the sending rate, or null to send at the tickrate alone.
+     */
+    private final RateController rateController;
+    
+    /**
+     * End of the current tick, by which the paced datagrams must leave.
+     */
+    private long tickDeadline;
+    
+    /**
+     * Index of the sender whose frames go first, rotated at each tick so that
+     * the rate is shared among the senders.
+     */
+    private int firstSender;
+    
+    /**
+     * Keep alives are sent at this interval even when there is traffic, as
+     * probes of the round trip time, and only at this interval when the link
+     * is idle.
+     */
+    static final long PROBE_INTERVAL = TimeUnit.MILLISECONDS.toNanos(250);
+    
+    /**
+     * Estimator of the round trip time of the link, whose last probe
+     * received is echoed by the keep alives.
+     */
+    private final RTTEstimator rttEstimator;
+    private long lastProbeNanos;
+    
+    /**
+     * Offset of the frames of the recipient, sent with the probes. Server 
+     * side only, null otherwise.
+     */
+    private final TimeDilation timeDilation;
+    
+    /**
+     * Scheduler of the ticks of the transmitters of the server, and recorder
+     * of their bursts. Null on the client, ticking from its own start.
+     */
+    private final TransmitScheduler scheduler;
+    private long tickPhase;
+    
+    /**
+     * How the transmitter waits for the next tick and for its wake ups.
+     */
+    private final WaitStrategy waitStrategy;
+    
+    /**
+     * Datagrams sent since the start of the tick.
+     */
+    private int tickDatagrams;
+    
+    /**
+     * Reused at each tick, to avoid allocating in steady state.
+     */
+    private final Map<Integer, FrameInput[]> framesToSend = new HashMap<>();
+    private final List<FrameACK> acksToSend = new ArrayList<>();
+    private final List<FrameNACK> nacksToSend = new ArrayList<>();
+    private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(MessageCodec.MAX_PAYLOAD_LENGTH);
+    
     public static class Builder {
 
-        private DatagramSocket dgramSocket;
+        private DatagramChannel dgramChannel;
         private Map<Integer,TransmissionQueue> transmissionQueues;
         private ACKSet ackQueue;
         private String name;
         private int tickrate;
         private int maxUDPPayloadLength;
+        private ResumableSession session;
+        private ImpairmentProfile impairment;
+        private LinkMetrics metrics = LinkMetrics.NOOP;
+        private FrameTracer tracer;
+        private ParityFEC fec;
+        private RateController rateController;
+        private RTTEstimator rttEstimator;
+        private TimeDilation timeDilation;
+        private TransmitScheduler scheduler;
+        private WaitStrategy waitStrategy;
 
         private Builder() {
         }
 
-        public Builder dgramSocket(final DatagramSocket value) {
-            this.dgramSocket = value;
+        public Builder dgramChannel(final DatagramChannel value) {
+            this.dgramChannel = value;
             return this;
         }
 
@@ -80,9 +179,69 @@ public class LockstepTransmitter extends Thread
             return this;
         }
         
+        public Builder session(final ResumableSession value)
+        {
+            this.session = value;
+            return this;
+        }
+        
+        public Builder impairment(final ImpairmentProfile value)
+        {
+            this.impairment = value;
+            return this;
+        }
+        
+        public Builder metrics(final LinkMetrics value)
+        {
+            this.metrics = value;
+            return this;
+        }
+        
+        Builder tracer(final FrameTracer value)
+        {
+            this.tracer = value;
+            return this;
+        }
+        
+        Builder fec(final ParityFEC value)
+        {
+            this.fec = value;
+            return this;
+        }
+        
+        Builder rateController(final RateController value)
+        {
+            this.rateController = value;
+            return this;
+        }
+        
+        Builder rttEstimator(final RTTEstimator value)
+        {
+            this.rttEstimator = value;
+            return this;
+        }
+        
+        Builder timeDilation(final TimeDilation value)
+        {
+            this.timeDilation = value;
+            return this;
+        }
+        
+        Builder scheduler(final TransmitScheduler value)
+        {
+            this.scheduler = value;
+            return this;
+        }
+        
+        public Builder waitStrategy(final WaitStrategy value)
+        {
+            this.waitStrategy = value;
+            return this;
+        }
+        
         public LockstepTransmitter build() {
-            return new LockstepTransmitter(dgramSocket, tickrate, maxUDPPayloadLength,
-                transmissionQueues, name, ackQueue);
+            return new LockstepTransmitter(dgramChannel, tickrate, maxUDPPayloadLength,
+                transmissionQueues, name, ackQueue, session, impairment, metrics, tracer, fec, rateController, rttEstimator, timeDilation, scheduler, waitStrategy);
         }
     }
 
@@ -90,20 +249,25 @@ public class LockstepTransmitter extends Thread
         return new LockstepTransmitter.Builder();
     }
     
-    public LockstepTransmitter(DatagramSocket socket, int tickrate, int maxUDPPayloadLength, Map<Integer, TransmissionQueue> transmissionQueues, String name, ACKSet ackQueue)
+    public LockstepTransmitter(DatagramChannel channel, int tickrate, int maxUDPPayloadLength, Map<Integer, TransmissionQueue> transmissionQueues, String name, ACKSet ackQueue)
+    {
+        this(channel, tickrate, maxUDPPayloadLength, transmissionQueues, name, ackQueue, null, null, LinkMetrics.NOOP, null, null, null, null, null, null, null);
+    }
+    
+    LockstepTransmitter(DatagramChannel channel, int tickrate, int maxUDPPayloadLength, Map<Integer, TransmissionQueue> transmissionQueues, String name, ACKSet ackQueue, ResumableSession session, ImpairmentProfile impairment, LinkMetrics metrics, FrameTracer tracer, ParityFEC fec, RateController rateController, RTTEstimator rttEstimator, TimeDilation timeDilation, TransmitScheduler scheduler, WaitStrategy waitStrategy)
     {
-        if(socket.isClosed())
-            throw new IllegalArgumentException("Socket is closed");
+        if(!channel.isOpen())
+            throw new IllegalArgumentException("Channel is closed");
         else
-            this.dgramSocket = socket;
+            this.channel = channel;
         
         if(tickrate <= 0)
             throw new IllegalArgumentException("Tickrate must be an integer greater than 0");
         else
             this.tickrate = tickrate;
         
-        if(maxUDPPayloadLength <= 0)
-            throw new IllegalArgumentException("Max UDP payload length must be an integer greater than 0");
+        if(maxUDPPayloadLength <= 0 || maxUDPPayloadLength > MessageCodec.MAX_PAYLOAD_LENGTH)
+            throw new IllegalArgumentException("Max UDP payload length must be between 1 and " + MessageCodec.MAX_PAYLOAD_LENGTH);
         else
             this.maxUDPPayloadLength = maxUDPPayloadLength;
                 
@@ -123,6 +287,25 @@ public class LockstepTransmitter extends Thread
             this.ackQueue = ackQueue;
         
         
+        this.session = session;
+        
+        if(impairment != null)
+            this.networkEmulator = new NetworkEmulator(channel, impairment, this.name + "-emulator");
+        else
+            this.networkEmulator = null;
+        
+        if(metrics == null)
+            throw new IllegalArgumentException("Metrics cannot be null, use LinkMetrics.NOOP");
+        else
+            this.metrics = metrics;
+        
+        this.tracer = tracer;
+        this.fec = fec;
+        this.rateController = rateController;
+        this.rttEstimator = rttEstimator != null ? rttEstimator : new RTTEstimator();
+        this.timeDilation = timeDilation;
+        this.scheduler = scheduler;
+        this.waitStrategy = waitStrategy != null ? waitStrategy : WaitStrategy.blocking();
         this.interTransmissionTimeout = 3*(1000/tickrate);
     }
     
@@ -130,238 +313,426 @@ public class LockstepTransmitter extends Thread
     public void run()
     {        
         Thread.currentThread().setName(name);
+        if(scheduler != null)
+            tickPhase = scheduler.register(this);
         
-        while(true)
+        try
         {
-            try
+            while(true)
             {
-                if(Thread.interrupted())
-                    throw new InterruptedException();
+                try
+                {
+                    if(Thread.interrupted())
+                        throw new InterruptedException();
                 
-                if(dgramSocket.isClosed())
-                    throw new SocketException();
+                    if(!channel.isOpen())
+                        throw new ClosedChannelException();
+                
+                    long tickStart = System.nanoTime();
+                    if(scheduler != null)
+                        tickDeadline = scheduler.nextTick(tickPhase, tickStart);
+                    else
+                        tickDeadline = tickStart + TimeUnit.SECONDS.toNanos(1) / tickrate;
+                    
+                    if(session != null && session.isSuspended())
+                    {
+                        if(session.isClientSide())
+                            sendResumeRequest();
+                    
+                        waitStrategy.sleepUntil(tickDeadline);
+                        continue;
+                    }
                                 
-                boolean sentCommands = processCommands();
-                boolean sentACKs = processACKs();
+                    tickDatagrams = 0;
+                    boolean sentCommands = processCommands();
+                    boolean sentACKs = processACKs(!sentCommands);
                 
-                boolean sentSomething = sentCommands || sentACKs;
+                    boolean sentSomething = sentCommands || sentACKs;
+                    boolean idle = !sentSomething && !terminationPhase && !hasFramesToSend();
                 
-                if(!sentSomething)
-                    sendKeepAlive();
+                    boolean probeDue = System.nanoTime() - lastProbeNanos >= PROBE_INTERVAL;
+                    if(probeDue && timeDilation != null)
+                        sendFramePacing();
+                    if(probeDue || (!sentSomething && !idle))
+                        sendKeepAlive();
+                    recordBurst(tickStart);
                 
-                Thread.sleep(1000/tickrate);
-            }
-            catch(InterruptedException intEx)
-            {                
-                LOG.info("Transmitter entering termination phase: interruption received");
-                if(dgramSocket.isClosed())
+                    if(idle)
+                        waitIdle();
+                    else
+                        waitNextTick();
+                }
+                catch(InterruptedException intEx)
+                {                
+                    LOG.info("Transmitter entering termination phase: interruption received");
+                    if(!channel.isOpen())
+                    {
+                        LOG.info("Transmitter terminating: connection already closed");
+                        return;
+                    }
+                    else
+                        terminationPhase = true;
+                }
+                catch(TransmissionCompletedException trEx)
                 {
-                    LOG.info("Transmitter terminating: connection already closed");
+                    LOG.info("Transmitter terminating: transimission completed. Proceding to close the socket");
+                    closeChannel();
                     return;
                 }
-                else
-                    terminationPhase = true;
-            }
-            catch(TransmissionCompletedException trEx)
-            {
-                LOG.info("Transmitter terminating: transimission completed. Proceding to close the socket");
-                dgramSocket.close();
-                return;
+                catch(IOException ioEx)
+                {
+                    LOG.info("Transmitter disconnected: socket failure");
+                    closeChannel(); //Forcing failure on receiver too
+                    return;
+                }            
             }
-            catch(IOException ioEx)
-            {
-                LOG.info("Transmitter disconnected: socket failure");
-                dgramSocket.close(); //Forcing failure on receiver too
+        }
+        finally
+        {
+            if(scheduler != null)
+                scheduler.release(this);
+            if(networkEmulator != null)
+                networkEmulator.close();
+        }
+    }
+    
+    /**
+     * Waits until the next tick. Meanwhile NACKs are sent, and NACKed frames
+     * retransmitted, as soon as the receiver signals them.
+     */
+    private void waitNextTick() throws IOException, InterruptedException
+    {
+        while(waitStrategy.await(ackQueue.wakeUpSignal(), tickDeadline))
+            processNACKs();
+    }
+    
+    /**
+     * Records the datagrams sent at the tick. Those sent between the ticks,
+     * in reply to NACKs, aren't part of its burst.
+     */
+    private void recordBurst(long tickStart)
+    {
+        if(tickDatagrams == 0)
+            return;
+        metrics.tickBurst(tickDatagrams);
+        if(scheduler != null)
+            scheduler.transmitted(tickDatagrams, tickStart);
+    }
+    
+    /**
+     * Waits, with nothing to send, until frames or ACKs are pushed or the 
+     * next probe is due on the shared timer, rather than waking every tick.
+     */
+    private void waitIdle() throws IOException, InterruptedException
+    {
+        ackQueue.setTransmitterIdle(true);
+        HashedWheelTimer.Timeout probe = HashedWheelTimer.shared().schedule(ackQueue::wakeTransmitter,
+                lastProbeNanos + PROBE_INTERVAL - System.nanoTime(), TimeUnit.NANOSECONDS);
+        try
+        {
+            //Pushes preceding the idle flag didn't wake the transmitter
+            if(hasFramesToSend() || ackQueue.hasPendingACKs())
                 return;
-            }            
+            
+            waitStrategy.await(ackQueue.wakeUpSignal());
+            processNACKs();
+        }
+        finally
+        {
+            ackQueue.setTransmitterIdle(false);
+            probe.cancel();
         }
     }
     
-    private void sendKeepAlive() throws IOException
+    private boolean hasFramesToSend()
+    {
+        for(TransmissionQueue transmissionQueue : transmissionQueues.values())
+        {
+            if(transmissionQueue.hasFramesToSend() || !transmissionQueue.isAnnounced())
+                return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Sends the pending NACKs, then the frames NACKed by the recipient.
+     */
+    private void processNACKs() throws IOException, InterruptedException
+    {
+        ackQueue.drainNACKs(nacksToSend);
+        for(int i = 0; i < nacksToSend.size(); i++)
+            send(MessageType.NACK, MessageCodec.encodeNACK(nacksToSend.get(i), maxUDPPayloadLength));
+        nacksToSend.clear();
+        
+        for(Entry<Integer, TransmissionQueue> transmissionQueueEntry : transmissionQueues.entrySet())
+        {
+            if(!transmissionQueueEntry.getValue().hasNACKedFrames())
+                continue;
+            
+            FrameInput[] frames = transmissionQueueEntry.getValue().popNACKed();
+            if(frames.length > 0)
+                sendInputs(transmissionQueueEntry.getKey(), frames);
+        }
+    }
+    
+    /**
+     * Sends a datagram to the connected peer. If the session gets suspended 
+     * meanwhile, the datagram is dropped.
+     * 
+     * @param type type of the message carried
+     * @param payload the datagram payload
+     */
+    private void send(MessageType type, byte[] payload) throws IOException
+    {
+        if(session == null)
+        {
+            transmit(type, payload);
+            return;
+        }
+        
+        synchronized(session)
+        {
+            if(!session.isSuspended())
+                transmit(type, payload);
+        }
+    }
+    
+    /**
+     * Sends a datagram through the network emulator, if any.
+     */
+    private void transmit(MessageType type, byte[] payload) throws IOException
+    {
+        metrics.packetSent(type, payload.length);
+        tickDatagrams++;
+        if(rateController != null)
+            rateController.sent(payload.length);
+        if(networkEmulator != null)
+            networkEmulator.send(payload);
+        else
+        {
+            //The channel is non-blocking: if the socket buffer is full the
+            //datagram is dropped, as the network would
+            sendBuffer.clear();
+            sendBuffer.put(payload);
+            sendBuffer.flip();
+            channel.write(sendBuffer);
+        }
+    }
+    
+    private void closeChannel()
     {
-        try(
-            ByteArrayOutputStream baout = new ByteArrayOutputStream();
-            GZIPOutputStream gzout = new GZIPOutputStream(baout);
-            ObjectOutputStream oout = new ObjectOutputStream(gzout);
-        )
+        try
         {
-            oout.writeObject(new KeepAlive());
-            oout.flush();
-            gzout.finish();
-            byte[] payload = baout.toByteArray();
-            dgramSocket.send(new DatagramPacket(payload, payload.length));
+            channel.close();
         }
         catch(IOException ioEx)
         {
-            throw ioEx;
+            LOG.debug("Transmitter failed to close the channel");
         }
-        LOG.info("Transmitter sent a keep alive");
     }
     
-
-    private boolean processCommands() throws IOException
+    private void sendResumeRequest() throws IOException
+    {
+        byte[] payload = MessageCodec.encode(new SessionResume(session.getClientID(), session.getSessionToken()));
+        transmit(MessageType.SESSION_RESUME, payload);
+        LOG.info("Transmitter sent a resume request");
+    }
+    
+    private void sendFramePacing() throws IOException
+    {
+        long offsetMicros = TimeUnit.NANOSECONDS.toMicros(timeDilation.getOffset());
+        offsetMicros = Long.max(Integer.MIN_VALUE, Long.min(Integer.MAX_VALUE, offsetMicros));
+        send(MessageType.FRAME_PACING, MessageCodec.encode(new FramePacing((int) offsetMicros)));
+    }
+    
+    private void sendKeepAlive() throws IOException
+    {
+        KeepAlive keepAlive = new KeepAlive();
+        lastProbeNanos = System.nanoTime();
+        rttEstimator.stamp(keepAlive, lastProbeNanos);
+        send(MessageType.KEEP_ALIVE, MessageCodec.encode(keepAlive));
+        LOG.debug("Transmitter sent a keep alive");
+    }
+    
+    private boolean processCommands() throws IOException, InterruptedException
     {
         boolean sentSomething = false;
+        framesToSend.clear();
         for(Entry<Integer, TransmissionQueue> transmissionQueueEntry : transmissionQueues.entrySet())
         {
             if(transmissionQueueEntry.getValue().hasFramesToSend())
+                framesToSend.put(transmissionQueueEntry.getKey(), transmissionQueueEntry.getValue().pop());
+        }
+        
+        //Announcements are checked after extraction: frames following a join
+        //can't reach the recipient before it knows about the joining client
+        int announcementBarrier = processAnnouncements();
+        if(announcementBarrier < Integer.MAX_VALUE)
+            sentSomething = true;
+        
+        //Pending ACKs ride on the frames, whether due or not
+        if(!framesToSend.isEmpty())
+            ackQueue.drainACKs(acksToSend);
+        
+        int first = 0;
+        if(rateController != null && !framesToSend.isEmpty())
+        {
+            metrics.sendingRate((long) rateController.getRate());
+            firstSender = (firstSender + 1) % framesToSend.size();
+            first = firstSender;
+        }
+        
+        boolean rateLimited = false;
+        for(int pass = 0; pass < 2 && !rateLimited; pass++)
+        {
+            int index = 0;
+            for(Entry<Integer, FrameInput[]> framesEntry : framesToSend.entrySet())
             {
-                sentSomething = true;
-                int senderID = transmissionQueueEntry.getKey();
+                boolean inPass = pass == 0 ? index >= first : index < first;
+                index++;
+                if(!inPass)
+                    continue;
                 
-                FrameInput[] frames = transmissionQueueEntry.getValue().pop();
+                int senderID = framesEntry.getKey();
+                FrameInput[] frames = framesEntry.getValue();
                 
-                if(frames.length == 1)
-                {
-                    InputMessage msg = new InputMessage(senderID, frames[0]);
-                    this.sendInput(msg);
-                }
-                else if(frames.length > 1)
+                if(announcementBarrier < Integer.MAX_VALUE)
+                    frames = framesBeforeBarrier(frames, announcementBarrier);
+                
+                if(frames.length > 0)
                 {
-                    this.sendInputs(senderID, frames);
+                    sentSomething = true;
+                    if(!this.sendInputs(senderID, frames))
+                    {
+                        metrics.rateLimited();
+                        rateLimited = true;
+                        break;
+                    }
                 }
             }
         }
         
+        framesToSend.clear();
+        
         if(!sentSomething && terminationPhase)
             throw new TransmissionCompletedException();
         
         return sentSomething;
     }
     
-    private boolean processACKs() throws IOException
+    /**
+     * Sends an announcement for each queue whose sender is not yet known to 
+     * the recipient.
+     * 
+     * @return the lowest first frame among the announced senders, or 
+     * Integer.MAX_VALUE if there's nothing to announce
+     */
+    private int processAnnouncements() throws IOException
     {
-        FrameACK[] acks = ackQueue.getACKs();
-        boolean sentSomething = false;
-        
-        for(FrameACK ack : acks)
+        int announcementBarrier = Integer.MAX_VALUE;
+        for(Entry<Integer, TransmissionQueue> transmissionQueueEntry : transmissionQueues.entrySet())
         {
-            sendACK(ack);
-            sentSomething = true;
+            TransmissionQueue transmissionQueue = transmissionQueueEntry.getValue();
+            if(!transmissionQueue.isAnnounced())
+            {
+                sendAnnouncement(new ClientJoined(transmissionQueueEntry.getKey(), transmissionQueue.getInitialFrameNumber()));
+                announcementBarrier = Integer.min(announcementBarrier, transmissionQueue.getInitialFrameNumber());
+            }
         }
-        
-        return sentSomething;
+        return announcementBarrier;
     }
     
-    private void sendACK(FrameACK frameACK) throws IOException
+    /**
+     * Holds back the frames a recipient can't receive until the announcements
+     * of a joining client are ACKed.
+     * 
+     * @param frames frames extracted from a transmission queue, in order
+     * @param announcementBarrier lowest first frame among the announced 
+     * senders
+     * @return the frames preceding the barrier
+     */
+    static FrameInput[] framesBeforeBarrier(FrameInput[] frames, int announcementBarrier)
     {
-        if(frameACK.selectiveACKs == null || frameACK.selectiveACKs.length == 0) 
-            sendSingleACK(frameACK);
-        else
-            sendSplitACKs(frameACK);
+        int framesBeforeBarrier = 0;
+        while(framesBeforeBarrier < frames.length && frames[framesBeforeBarrier].getFrameNumber() < announcementBarrier)
+            framesBeforeBarrier++;
+        return Arrays.copyOf(frames, framesBeforeBarrier);
     }
-
-    private void sendSingleACK(FrameACK frameACK) throws IOException
+    
+    /**
+     * Sends the ACKs left over from piggybacking and those due by the ACK 
+     * policy.
+     * 
+     * @param idle true if nothing else was sent in this tick: all the pending
+     * ACKs are sent, as they'd be replaced by a keep alive anyway
+     */
+    private boolean processACKs(boolean idle) throws IOException
     {
-        try(
-            ByteArrayOutputStream baout = new ByteArrayOutputStream();
-            GZIPOutputStream gzout = new GZIPOutputStream(baout);
-            ObjectOutputStream oout = new ObjectOutputStream(gzout);
-        ){
-            oout.writeObject(frameACK);
-            oout.flush();
-            gzout.finish();
-            byte[] data = baout.toByteArray();
-            this.dgramSocket.send(new DatagramPacket(data, data.length));
-        } catch (IOException ioEx)
-        {
-            throw ioEx;
-        }
+        if(idle)
+            ackQueue.drainACKs(acksToSend);
+        else
+            ackQueue.drainDueACKs(acksToSend);
+        boolean sentSomething = !acksToSend.isEmpty();
+        
+        for(int i = 0; i < acksToSend.size(); i++)
+            sendACK(acksToSend.get(i));
+        acksToSend.clear();
+        
+        return sentSomething;
     }
     
-    private void sendSplitACKs(FrameACK frameACK) throws IOException
+    private void sendACK(FrameACK frameACK) throws IOException
     {
-        int payloadLength = maxUDPPayloadLength + 1;
-        int[] selectiveACKs = frameACK.selectiveACKs;
-        int selectiveACKsToInclude = frameACK.selectiveACKs.length + 1;
-        byte[] payload = null;
-        while( payloadLength > maxUDPPayloadLength && selectiveACKsToInclude > 0)
-        {
-            try(
-                ByteArrayOutputStream baout = new ByteArrayOutputStream();
-                GZIPOutputStream gzout = new GZIPOutputStream(baout);
-                ObjectOutputStream oout = new ObjectOutputStream(gzout);
-            )
-            {
-                selectiveACKsToInclude--;
-                frameACK.selectiveACKs = Arrays.copyOf(selectiveACKs, selectiveACKsToInclude);
-                oout.writeObject(frameACK);
-                oout.flush();
-                gzout.finish();
-                payload = baout.toByteArray();
-                payloadLength = payload.length;
-            }
-            catch(IOException ioEx)
-            {
-                throw ioEx;
-            }
-        }
-        
-        this.dgramSocket.send(new DatagramPacket(payload, payload.length));
-
-        if(selectiveACKsToInclude < selectiveACKs.length)
-        {
-            frameACK.selectiveACKs = Arrays.copyOfRange(selectiveACKs, selectiveACKsToInclude, selectiveACKs.length);
-            sendSplitACKs(frameACK);
-        }
+        for(byte[] payload : MessageCodec.packetizeACK(frameACK, maxUDPPayloadLength))
+            send(MessageType.ACK, payload);
     }
     
-    private void sendInput(InputMessage msg) throws IOException
+    private void sendAnnouncement(ClientJoined announcement) throws IOException
     {
-        try(
-                ByteArrayOutputStream baout = new ByteArrayOutputStream();
-                GZIPOutputStream gzout = new GZIPOutputStream(baout);
-                ObjectOutputStream oout = new ObjectOutputStream(gzout);
-        )
-        {
-            oout.writeObject(msg);
-            oout.flush();
-            gzout.finish();
-            byte[] data = baout.toByteArray();
-            this.dgramSocket.send(new DatagramPacket(data, data.length));
-        }
-        catch(IOException ioEx)
-        {
-            throw ioEx;
-        }
-    }       
-
-    private void sendInputs(int senderID, FrameInput[] frames) throws IOException
+        send(MessageType.CLIENT_JOINED, MessageCodec.encode(announcement));
+        LOG.info("Transmitter announced client " + announcement.senderID);
+    }
+    
+    /**
+     * Sends the frames of a sender, piggybacking the pending ACKs that fit.
+     * 
+     * @return false if the rate control held back some of the frames
+     */
+    private boolean sendInputs(int senderID, FrameInput[] frames) throws IOException, InterruptedException
     {
-        int payloadLength = maxUDPPayloadLength + 1;
-        int framesToInclude = frames.length + 1;
-        byte[] payload = null;
-        InputMessageArray inputMessageArray;
-        while( payloadLength > maxUDPPayloadLength && framesToInclude > 0)
+        //Checked before packetizing, so that the ACKs stay pending if nothing 
+        //can be sent
+        if(rateController != null && !rateController.awaitSlot(tickDeadline))
+            return false;
+        
+        if(tracer != null)
+            tracer.transmitted(frames);
+        List<byte[]> payloads = MessageCodec.packetizeInputs(senderID, frames, acksToSend, maxUDPPayloadLength);
+        MessageType type = frames.length == 1 ? MessageType.INPUT : MessageType.INPUT_ARRAY;
+        int bytes = 0;
+        int sent = 0;
+        for(byte[] payload : payloads)
         {
-            try(
-                ByteArrayOutputStream baout = new ByteArrayOutputStream();
-                GZIPOutputStream gzout = new GZIPOutputStream(baout);
-                ObjectOutputStream oout = new ObjectOutputStream(gzout);
-            )
+            //Only the first payload carries ACKs
+            if(sent > 0 && rateController != null && !rateController.awaitSlot(tickDeadline))
+                break;
+            
+            send(type, payload);
+            sent++;
+            bytes += payload.length;
+            if(fec != null && payload.length <= ParityFEC.maxProtectedLength(maxUDPPayloadLength))
             {
-                framesToInclude--;
-                FrameInput[] framesToSend = Arrays.copyOf(frames, framesToInclude);
-                inputMessageArray = new InputMessageArray(senderID, framesToSend);
-                oout.writeObject(inputMessageArray);
-                oout.flush();
-                gzout.finish();
-                payload = baout.toByteArray();
-                payloadLength = payload.length;
-            }
-            catch(IOException ioEx)
-            {
-                throw ioEx;
+                byte[] parity = fec.protect(payload);
+                if(parity != null)
+                    send(MessageType.PARITY, parity);
             }
         }
-                
-        this.dgramSocket.send(new DatagramPacket(payload, payload.length));
+        FrameEvents.inputsSent(senderID, frames[0].getFrameNumber(), frames[frames.length - 1].getFrameNumber(), frames.length, sent, bytes);
         
-        if(framesToInclude < frames.length)
-        {
-            frames = Arrays.copyOfRange(frames, framesToInclude, frames.length);
-            sendInputs(senderID, frames);
-        }
+        if(sent < payloads.size())
+            return false;
+        if(rateController != null)
+            rateController.framesSent(senderID, frames[frames.length - 1].getFrameNumber(), System.nanoTime());
+        return true;
     }
 }
-
@@ -0,0 +1,748 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep;
+
+import java.io.EOFException;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import lockstep.messages.simulation.ClientJoined;
+import lockstep.messages.simulation.DisconnectionSignal;
+import lockstep.messages.simulation.FrameACK;
+import lockstep.messages.simulation.FrameNACK;
+import lockstep.messages.simulation.FramePacing;
+import lockstep.messages.simulation.InputMessage;
+import lockstep.messages.simulation.InputMessageArray;
+import lockstep.messages.simulation.KeepAlive;
+import lockstep.messages.simulation.LockstepCommand;
+import lockstep.messages.simulation.SessionResume;
+import lockstep.metrics.MessageType;
+
+/**
+ * Wire format of the messages exchanged during the simulation.
+ * Messages are written in a compact binary format, one message per datagram,
+ * starting with a byte identifying the type. Frame inputs and ACKs exceeding
+ * the maximum payload length are split across multiple datagrams.
+ *
+ * Frame inputs start with a fixed header: type, sender ID, first and last
+ * frame number, number of frames, number of ACKs. It can be read in place to
+ * drop duplicates without decoding the frames. The ACKs piggybacked on the
+ * frames follow the header, ahead of the frames.
+ *
+ * Externalizable commands are written through their writeExternal, after
+ * the name of their class, sent once per datagram. Other commands fall back
+ * to Java Serialization.
+ *
+ * Kept apart from transmitter and receiver so that its cost can be measured
+ * independently from socket I/O.
+ */
+public final class MessageCodec
+{
+    /**
+     * Largest UDP payload.
+     */
+    public static final int MAX_PAYLOAD_LENGTH = 65507;
+
+    static final byte INPUT = 1;
+    static final byte INPUT_ARRAY = 2;
+    static final byte FRAME_ACK = 3;
+    static final byte CLIENT_JOINED = 4;
+    static final byte SESSION_RESUME = 5;
+    static final byte KEEP_ALIVE = 6;
+    static final byte FRAME_NACK = 7;
+
+    /**
+     * Parity of the frame inputs, encoded and decoded by ParityFEC.
+     */
+    static final byte PARITY = 8;
+    static final byte FRAME_PACING = 9;
+
+    private static final byte DISCONNECTION_COMMAND = 0;
+    private static final byte EXTERNALIZABLE_COMMAND = 1;
+    private static final byte SERIALIZED_COMMAND = 2;
+
+    private static final byte TRACED = 1;
+
+    /**
+     * Length of the header of the frame inputs.
+     */
+    static final int INPUT_HEADER_LENGTH = 16;
+    private static final int HEADER_SENDER_OFFSET = 1;
+    private static final int HEADER_FIRST_FRAME_OFFSET = 5;
+    private static final int HEADER_LAST_FRAME_OFFSET = 9;
+    private static final int HEADER_FRAMES_OFFSET = 13;
+    private static final int HEADER_ACKS_OFFSET = 15;
+
+    /**
+     * Length of the header of an ACK: type, then sender, cumulative ACK and
+     * number of selective ACKs, which are the start of a piggybacked ACK.
+     */
+    private static final int ACK_HEADER_LENGTH = 11;
+    private static final int PIGGYBACKED_ACK_HEADER_LENGTH = ACK_HEADER_LENGTH - 1;
+
+    /**
+     * Length of the header of a NACK: type, sender and number of ranges.
+     */
+    private static final int NACK_HEADER_LENGTH = 7;
+
+    /**
+     * Most ACKs piggybacked on frame inputs, and the share of the payload
+     * they can take, so that frames still fit.
+     */
+    private static final int MAX_PIGGYBACKED_ACKS = 255;
+    private static final int PIGGYBACKED_ACKS_PAYLOAD_SHARE = 4;
+
+    /**
+     * Buffers and adapters of a thread, reused across messages.
+     */
+    private static final class CodecState
+    {
+        final ByteBuffer scratch = ByteBuffer.allocate(MAX_PAYLOAD_LENGTH);
+        final ByteBufferObjectOutput output = new ByteBufferObjectOutput();
+        final ByteBufferObjectInput input = new ByteBufferObjectInput();
+
+        /**
+         * Command classes of the datagram being encoded or decoded, in order
+         * of appearance.
+         */
+        final List<Class<?>> encodedClasses = new ArrayList<>();
+        final List<Constructor<? extends LockstepCommand>> decodedClasses = new ArrayList<>();
+    }
+
+    private static final ThreadLocal<CodecState> STATE = ThreadLocal.withInitial(CodecState::new);
+
+    /**
+     * No-arg constructors of the Externalizable commands received, by class
+     * name.
+     */
+    private static final ConcurrentHashMap<String, Constructor<? extends LockstepCommand>> COMMAND_CONSTRUCTORS = new ConcurrentHashMap<>();
+
+    private MessageCodec()
+    {
+    }
+
+    /**
+     * Encodes a message in a datagram payload.
+     *
+     * @param message the message to encode
+     * @return the payload
+     * @throws IOException if the message can't be encoded
+     */
+    public static byte[] encode(Object message) throws IOException
+    {
+        ByteBuffer scratch = STATE.get().scratch;
+        scratch.clear();
+        encode(message, scratch);
+        return Arrays.copyOf(scratch.array(), scratch.position());
+    }
+
+    /**
+     * Encodes a message at the position of the buffer, which is advanced
+     * past the message.
+     *
+     * @param message the message to encode
+     * @param buffer the buffer to write into
+     * @throws IOException if the message can't be encoded or doesn't fit in
+     * the buffer
+     */
+    public static void encode(Object message, ByteBuffer buffer) throws IOException
+    {
+        CodecState state = STATE.get();
+        state.encodedClasses.clear();
+        state.output.setBuffer(buffer);
+        try
+        {
+            if(message instanceof InputMessage)
+            {
+                InputMessage input = (InputMessage) message;
+                int frameNumber = input.frame.getFrameNumber();
+                putInputHeader(buffer, INPUT, input.senderID, frameNumber, frameNumber, 1);
+                encodeFrame(input.frame, state);
+            }
+            else if(message instanceof InputMessageArray)
+            {
+                InputMessageArray inputs = (InputMessageArray) message;
+                FrameInput[] frames = inputs.frames;
+                putInputHeader(buffer, INPUT_ARRAY, inputs.senderID, frames[0].getFrameNumber(),
+                        frames[frames.length - 1].getFrameNumber(), frames.length);
+                for(FrameInput frame : inputs.frames)
+                    encodeFrame(frame, state);
+            }
+            else if(message instanceof FrameACK)
+            {
+                FrameACK ack = (FrameACK) message;
+                buffer.put(FRAME_ACK);
+                putACKBody(buffer, ack);
+            }
+            else if(message instanceof FrameNACK)
+            {
+                FrameNACK nack = (FrameNACK) message;
+                buffer.put(FRAME_NACK);
+                buffer.putInt(nack.senderID);
+                buffer.putShort((short) (nack.missingRanges.length / 2));
+                for(int frameNumber : nack.missingRanges)
+                    buffer.putInt(frameNumber);
+            }
+            else if(message instanceof FramePacing)
+            {
+                buffer.put(FRAME_PACING);
+                buffer.putInt(((FramePacing) message).offsetMicros);
+            }
+            else if(message instanceof ClientJoined)
+            {
+                ClientJoined joined = (ClientJoined) message;
+                buffer.put(CLIENT_JOINED);
+                buffer.putInt(joined.senderID);
+                buffer.putInt(joined.firstFrameNumber);
+            }
+            else if(message instanceof SessionResume)
+            {
+                SessionResume resume = (SessionResume) message;
+                buffer.put(SESSION_RESUME);
+                buffer.putInt(resume.clientID);
+                buffer.putLong(resume.sessionToken);
+            }
+            else if(message instanceof KeepAlive)
+            {
+                KeepAlive keepAlive = (KeepAlive) message;
+                buffer.put(KEEP_ALIVE);
+                buffer.putLong(keepAlive.sentNanos);
+                buffer.putLong(keepAlive.echoedSentNanos);
+                buffer.putLong(keepAlive.echoReceivedNanos);
+            }
+            else
+                throw new IOException("Unsupported message " + message.getClass().getName());
+        }
+        catch(BufferOverflowException overflowEx)
+        {
+            throw new IOException("Message exceeds the buffer length of " + buffer.capacity() + " bytes");
+        }
+    }
+
+    private static void putInputHeader(ByteBuffer buffer, byte type, int senderID, int firstFrame, int lastFrame, int frames)
+    {
+        buffer.put(type);
+        buffer.putInt(senderID);
+        buffer.putInt(firstFrame);
+        buffer.putInt(lastFrame);
+        buffer.putShort((short) frames);
+        buffer.put((byte) 0);
+    }
+
+    /**
+     * Tells if the message between position and limit of the buffer carries
+     * frame inputs, whose header can be read with the other methods.
+     */
+    static boolean hasInputHeader(ByteBuffer buffer)
+    {
+        if(buffer.remaining() < INPUT_HEADER_LENGTH)
+            return false;
+        byte type = buffer.get(buffer.position());
+        return type == INPUT || type == INPUT_ARRAY;
+    }
+
+    /**
+     * Tells if the message between position and limit of the buffer is a
+     * parity datagram, to be passed to ParityFEC.
+     */
+    static boolean isParity(ByteBuffer buffer)
+    {
+        return buffer.hasRemaining() && buffer.get(buffer.position()) == PARITY;
+    }
+
+    static MessageType headerType(ByteBuffer buffer)
+    {
+        return buffer.get(buffer.position()) == INPUT ? MessageType.INPUT : MessageType.INPUT_ARRAY;
+    }
+
+    static int headerSenderID(ByteBuffer buffer)
+    {
+        return buffer.getInt(buffer.position() + HEADER_SENDER_OFFSET);
+    }
+
+    static int headerFirstFrame(ByteBuffer buffer)
+    {
+        return buffer.getInt(buffer.position() + HEADER_FIRST_FRAME_OFFSET);
+    }
+
+    static int headerLastFrame(ByteBuffer buffer)
+    {
+        return buffer.getInt(buffer.position() + HEADER_LAST_FRAME_OFFSET);
+    }
+
+    static int headerACKsCount(ByteBuffer buffer)
+    {
+        return buffer.get(buffer.position() + HEADER_ACKS_OFFSET) & 0xFF;
+    }
+
+    /**
+     * Reads in place a piggybacked ACK of a frame inputs message, leaving the
+     * position of the buffer untouched. The first ACK starts at
+     * INPUT_HEADER_LENGTH, each one at the offset returned for the previous.
+     *
+     * @param buffer the buffer containing the message from its position
+     * @param offset offset of the ACK from the position
+     * @param ack instance the ACK is decoded in
+     * @return the offset following the ACK
+     * @throws IOException if the ACK is truncated or corrupted
+     */
+    static int readPiggybackedACK(ByteBuffer buffer, int offset, FrameACK ack) throws IOException
+    {
+        int start = buffer.position() + offset;
+        if(buffer.limit() - start < PIGGYBACKED_ACK_HEADER_LENGTH)
+            throw new EOFException("Message truncated");
+
+        ack.senderID = buffer.getInt(start);
+        ack.cumulativeACK = buffer.getInt(start + 4);
+        int selectiveACKsCount = buffer.getShort(start + 8);
+        if(selectiveACKsCount < 0)
+            throw new IOException("Invalid number of selective ACKs: " + selectiveACKsCount);
+        if(buffer.limit() - start < PIGGYBACKED_ACK_HEADER_LENGTH + selectiveACKsCount * Integer.BYTES)
+            throw new EOFException("Message truncated");
+
+        ack.selectiveACKs = selectiveACKsCount == 0 ? null : new int[selectiveACKsCount];
+        for(int i = 0; i < selectiveACKsCount; i++)
+            ack.selectiveACKs[i] = buffer.getInt(start + PIGGYBACKED_ACK_HEADER_LENGTH + i * Integer.BYTES);
+        return offset + PIGGYBACKED_ACK_HEADER_LENGTH + selectiveACKsCount * Integer.BYTES;
+    }
+
+    private static void putACKBody(ByteBuffer buffer, FrameACK ack)
+    {
+        buffer.putInt(ack.senderID);
+        buffer.putInt(ack.cumulativeACK);
+        if(ack.selectiveACKs == null)
+            buffer.putShort((short) 0);
+        else
+        {
+            buffer.putShort((short) ack.selectiveACKs.length);
+            for(int selectiveACK : ack.selectiveACKs)
+                buffer.putInt(selectiveACK);
+        }
+    }
+
+    private static void encodeFrame(FrameInput frame, CodecState state) throws IOException
+    {
+        ByteBuffer buffer = state.output.getBuffer();
+        buffer.putInt(frame.getFrameNumber());
+
+        FrameTrace trace = frame.getTrace();
+        if(trace == null)
+            buffer.put((byte) 0);
+        else
+        {
+            buffer.put(TRACED);
+            buffer.putLong(trace.getCreated());
+            buffer.putLong(trace.getTransmitted());
+            buffer.putLong(trace.getServerReceived());
+            buffer.putLong(trace.getServerForwarded());
+        }
+
+        LockstepCommand command = frame.getCommand();
+        if(command instanceof DisconnectionSignal)
+            buffer.put(DISCONNECTION_COMMAND);
+        else if(command instanceof Externalizable)
+        {
+            buffer.put(EXTERNALIZABLE_COMMAND);
+            Class<?> commandClass = command.getClass();
+            int classIndex = state.encodedClasses.indexOf(commandClass);
+            if(classIndex < 0)
+            {
+                buffer.putShort((short) state.encodedClasses.size());
+                state.output.writeUTF(commandClass.getName());
+                state.encodedClasses.add(commandClass);
+            }
+            else
+                buffer.putShort((short) classIndex);
+            ((Externalizable) command).writeExternal(state.output);
+        }
+        else
+        {
+            buffer.put(SERIALIZED_COMMAND);
+            state.output.writeObject(command);
+        }
+    }
+
+    /**
+     * Decodes a message from a datagram payload.
+     *
+     * @param payload buffer containing the payload
+     * @param offset start of the payload in the buffer
+     * @param length length of the payload
+     * @return the message decoded
+     * @throws IOException if the payload is corrupted
+     * @throws ClassNotFoundException if the payload contains an unknown class
+     */
+    public static Object decode(byte[] payload, int offset, int length) throws IOException, ClassNotFoundException
+    {
+        return decode(ByteBuffer.wrap(payload, offset, length), null);
+    }
+
+    /**
+     * Decodes the message between position and limit of the buffer, reading
+     * it in place.
+     *
+     * @param buffer the buffer containing the payload
+     * @param reusedACK if not null, ACKs are decoded in it instead of a new
+     * instance, so that they can be processed without allocating
+     * @return the message decoded
+     * @throws IOException if the payload is corrupted
+     * @throws ClassNotFoundException if the payload contains an unknown class
+     */
+    public static Object decode(ByteBuffer buffer, FrameACK reusedACK) throws IOException, ClassNotFoundException
+    {
+        CodecState state = STATE.get();
+        state.decodedClasses.clear();
+        state.input.setBuffer(buffer);
+        try
+        {
+            Object message;
+            byte type = buffer.get();
+            switch(type)
+            {
+                case INPUT:
+                case INPUT_ARRAY:
+                {
+                    int senderID = buffer.getInt();
+                    int firstFrame = buffer.getInt();
+                    int lastFrame = buffer.getInt();
+                    int framesCount = buffer.getShort();
+                    if(framesCount <= 0 || (type == INPUT && framesCount != 1))
+                        throw new IOException("Invalid number of frames: " + framesCount);
+                    //Piggybacked ACKs are read in place by the receiver
+                    int acksCount = buffer.get() & 0xFF;
+                    for(int i = 0; i < acksCount; i++)
+                    {
+                        skip(buffer, 2 * Integer.BYTES);
+                        int selectiveACKsCount = buffer.getShort();
+                        if(selectiveACKsCount < 0)
+                            throw new IOException("Invalid number of selective ACKs: " + selectiveACKsCount);
+                        skip(buffer, selectiveACKsCount * Integer.BYTES);
+                    }
+                    FrameInput[] frames = new FrameInput[framesCount];
+                    for(int i = 0; i < framesCount; i++)
+                        frames[i] = decodeFrame(buffer, state);
+                    if(frames[0].getFrameNumber() != firstFrame || frames[framesCount - 1].getFrameNumber() != lastFrame)
+                        throw new IOException("Frames " + firstFrame + "-" + lastFrame + " in the header don't match the payload");
+                    
+                    if(type == INPUT)
+                        message = new InputMessage(senderID, frames[0]);
+                    else
+                        message = new InputMessageArray(senderID, frames);
+                    break;
+                }
+                case FRAME_ACK:
+                {
+                    FrameACK ack = reusedACK != null ? reusedACK : new FrameACK();
+                    ack.senderID = buffer.getInt();
+                    ack.cumulativeACK = buffer.getInt();
+                    int selectiveACKsCount = buffer.getShort();
+                    if(selectiveACKsCount < 0)
+                        throw new IOException("Invalid number of selective ACKs: " + selectiveACKsCount);
+                    ack.selectiveACKs = selectiveACKsCount == 0 ? null : new int[selectiveACKsCount];
+                    for(int i = 0; i < selectiveACKsCount; i++)
+                        ack.selectiveACKs[i] = buffer.getInt();
+                    message = ack;
+                    break;
+                }
+                case FRAME_NACK:
+                {
+                    int senderID = buffer.getInt();
+                    int rangesCount = buffer.getShort();
+                    if(rangesCount <= 0)
+                        throw new IOException("Invalid number of missing ranges: " + rangesCount);
+                    int[] missingRanges = new int[2 * rangesCount];
+                    for(int i = 0; i < missingRanges.length; i++)
+                        missingRanges[i] = buffer.getInt();
+                    message = new FrameNACK(senderID, missingRanges);
+                    break;
+                }
+                case FRAME_PACING:
+                    message = new FramePacing(buffer.getInt());
+                    break;
+                case CLIENT_JOINED:
+                    message = new ClientJoined(buffer.getInt(), buffer.getInt());
+                    break;
+                case SESSION_RESUME:
+                    message = new SessionResume(buffer.getInt(), buffer.getLong());
+                    break;
+                case KEEP_ALIVE:
+                    message = new KeepAlive(buffer.getLong(), buffer.getLong(), buffer.getLong());
+                    break;
+                default:
+                    throw new IOException("Unknown message type " + type);
+            }
+
+            if(buffer.hasRemaining())
+                throw new IOException(buffer.remaining() + " bytes left after the message");
+            return message;
+        }
+        catch(BufferUnderflowException underflowEx)
+        {
+            throw new EOFException("Message truncated");
+        }
+    }
+
+    private static void skip(ByteBuffer buffer, int length)
+    {
+        if(buffer.remaining() < length)
+            throw new BufferUnderflowException();
+        buffer.position(buffer.position() + length);
+    }
+
+    private static FrameInput decodeFrame(ByteBuffer buffer, CodecState state) throws IOException, ClassNotFoundException
+    {
+        int frameNumber = buffer.getInt();
+
+        FrameTrace trace = null;
+        if(buffer.get() == TRACED)
+        {
+            trace = new FrameTrace(buffer.getLong());
+            trace.setTransmitted(buffer.getLong());
+            trace.setServerReceived(buffer.getLong());
+            trace.setServerForwarded(buffer.getLong());
+        }
+
+        LockstepCommand command;
+        byte commandKind = buffer.get();
+        switch(commandKind)
+        {
+            case DISCONNECTION_COMMAND:
+                command = new DisconnectionSignal();
+                break;
+            case EXTERNALIZABLE_COMMAND:
+            {
+                int classIndex = buffer.getShort();
+                if(classIndex == state.decodedClasses.size())
+                    state.decodedClasses.add(commandConstructor(state.input.readUTF()));
+                else if(classIndex < 0 || classIndex > state.decodedClasses.size())
+                    throw new IOException("Invalid command class index " + classIndex);
+
+                command = instantiate(state.decodedClasses.get(classIndex));
+                ((Externalizable) command).readExternal(state.input);
+                break;
+            }
+            case SERIALIZED_COMMAND:
+            {
+                Object object = state.input.readObject();
+                if(!(object instanceof LockstepCommand))
+                    throw new ClassNotFoundException("Not a command: " + object.getClass().getName());
+                command = (LockstepCommand) object;
+                break;
+            }
+            default:
+                throw new IOException("Unknown command kind " + commandKind);
+        }
+
+        FrameInput frame = new FrameInput(frameNumber, command);
+        if(trace != null)
+            frame.setTrace(trace);
+        return frame;
+    }
+
+    private static Constructor<? extends LockstepCommand> commandConstructor(String className) throws ClassNotFoundException
+    {
+        Constructor<? extends LockstepCommand> constructor = COMMAND_CONSTRUCTORS.get(className);
+        if(constructor != null)
+            return constructor;
+
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        if(loader == null)
+            loader = MessageCodec.class.getClassLoader();
+
+        //Not initialized until it's known to be a command
+        Class<?> loadedClass = Class.forName(className, false, loader);
+        if(!LockstepCommand.class.isAssignableFrom(loadedClass) || !Externalizable.class.isAssignableFrom(loadedClass))
+            throw new ClassNotFoundException("Not an Externalizable command: " + className);
+
+        try
+        {
+            constructor = loadedClass.asSubclass(LockstepCommand.class).getConstructor();
+        }
+        catch(NoSuchMethodException noConstructorEx)
+        {
+            throw new ClassNotFoundException("No public no-arg constructor in " + className);
+        }
+
+        COMMAND_CONSTRUCTORS.putIfAbsent(className, constructor);
+        return constructor;
+    }
+
+    private static LockstepCommand instantiate(Constructor<? extends LockstepCommand> constructor) throws ClassNotFoundException
+    {
+        try
+        {
+            return constructor.newInstance();
+        }
+        catch(InstantiationException | IllegalAccessException | InvocationTargetException instantiationEx)
+        {
+            throw new ClassNotFoundException("Cannot instantiate " + constructor.getDeclaringClass().getName(), instantiationEx);
+        }
+    }
+
+    /**
+     * Splits frame inputs in as few payloads as possible, each within the
+     * maximum length. Frames are kept in order, and each payload includes
+     * the longest prefix of the remaining frames that fits.
+     * A single frame exceeding the maximum length is sent alone.
+     *
+     * @param senderID ID of the client that generated the frames
+     * @param frames the frames to send
+     * @param maxPayloadLength maximum length of each payload
+     * @return the payloads, each containing an InputMessageArray
+     * @throws IOException if the frames can't be encoded
+     */
+    public static List<byte[]> packetizeInputs(int senderID, FrameInput[] frames, int maxPayloadLength) throws IOException
+    {
+        return packetizeInputs(senderID, frames, null, maxPayloadLength);
+    }
+
+    /**
+     * Splits frame inputs as packetizeInputs(int, FrameInput[], int), 
+     * piggybacking ACKs on the first payload. ACKs are taken in order while
+     * they fit in a quarter of the maximum length; those piggybacked are
+     * removed from the list, the others are left to be sent on their own.
+     * A single frame is sent as an InputMessage.
+     *
+     * @param senderID ID of the client that generated the frames
+     * @param frames the frames to send
+     * @param acks ACKs to piggyback, or null
+     * @param maxPayloadLength maximum length of each payload
+     * @return the payloads, each containing an InputMessage or an
+     * InputMessageArray
+     * @throws IOException if the frames can't be encoded
+     */
+    public static List<byte[]> packetizeInputs(int senderID, FrameInput[] frames, List<FrameACK> acks, int maxPayloadLength) throws IOException
+    {
+        List<byte[]> payloads = new ArrayList<>();
+        CodecState state = STATE.get();
+        ByteBuffer buffer = state.scratch;
+        state.output.setBuffer(buffer);
+
+        int framesIncluded = 0;
+        try
+        {
+            for(int i = 0; i < frames.length; i++)
+            {
+                if(framesIncluded == 0)
+                {
+                    buffer.clear();
+                    state.encodedClasses.clear();
+                    //Last frame and count are known when the payload is closed
+                    putInputHeader(buffer, frames.length == 1 ? INPUT : INPUT_ARRAY, senderID, frames[i].getFrameNumber(), 0, 0);
+                    if(payloads.isEmpty() && acks != null)
+                        putPiggybackedACKs(buffer, acks, maxPayloadLength / PIGGYBACKED_ACKS_PAYLOAD_SHARE);
+                }
+
+                int framePosition = buffer.position();
+                encodeFrame(frames[i], state);
+                if(buffer.position() > maxPayloadLength && framesIncluded > 0)
+                {
+                    //Close the payload without this frame, which starts the next
+                    buffer.position(framePosition);
+                    payloads.add(closeInputsPayload(buffer, frames[i - 1], framesIncluded));
+                    framesIncluded = 0;
+                    i--;
+                }
+                else
+                    framesIncluded++;
+            }
+        }
+        catch(BufferOverflowException overflowEx)
+        {
+            throw new IOException("Frame exceeds the maximum UDP payload length");
+        }
+
+        if(framesIncluded > 0)
+            payloads.add(closeInputsPayload(buffer, frames[frames.length - 1], framesIncluded));
+
+        return payloads;
+    }
+
+    private static void putPiggybackedACKs(ByteBuffer buffer, List<FrameACK> acks, int maxLength)
+    {
+        int piggybacked = 0;
+        int length = 0;
+        while(piggybacked < acks.size() && piggybacked < MAX_PIGGYBACKED_ACKS)
+        {
+            FrameACK ack = acks.get(piggybacked);
+            int selectiveACKsCount = ack.selectiveACKs == null ? 0 : ack.selectiveACKs.length;
+            length += PIGGYBACKED_ACK_HEADER_LENGTH + selectiveACKsCount * Integer.BYTES;
+            if(length > maxLength)
+                break;
+            
+            putACKBody(buffer, ack);
+            piggybacked++;
+        }
+        
+        buffer.put(HEADER_ACKS_OFFSET, (byte) piggybacked);
+        acks.subList(0, piggybacked).clear();
+    }
+
+    private static byte[] closeInputsPayload(ByteBuffer buffer, FrameInput lastFrame, int framesIncluded)
+    {
+        buffer.putInt(HEADER_LAST_FRAME_OFFSET, lastFrame.getFrameNumber());
+        buffer.putShort(HEADER_FRAMES_OFFSET, (short) framesIncluded);
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    /**
+     * Splits an ACK in as few payloads as possible, each within the maximum
+     * length. Each payload carries the cumulative ACK and the longest prefix
+     * of the remaining selective ACKs that fits.
+     *
+     * @param frameACK the ACK to send
+     * @param maxPayloadLength maximum length of each payload
+     * @return the payloads, each containing a FrameACK
+     * @throws IOException if the ACK can't be encoded
+     */
+    public static List<byte[]> packetizeACK(FrameACK frameACK, int maxPayloadLength) throws IOException
+    {
+        List<byte[]> payloads = new ArrayList<>();
+        int[] selectiveACKs = frameACK.selectiveACKs;
+
+        if(selectiveACKs == null || selectiveACKs.length == 0)
+        {
+            payloads.add(encode(frameACK));
+            return payloads;
+        }
+
+        int selectiveACKsPerPayload = Integer.max(1, (maxPayloadLength - ACK_HEADER_LENGTH) / Integer.BYTES);
+        for(int first = 0; first < selectiveACKs.length; first += selectiveACKsPerPayload)
+        {
+            int last = Integer.min(selectiveACKs.length, first + selectiveACKsPerPayload);
+            payloads.add(encode(new FrameACK(frameACK.senderID, frameACK.cumulativeACK, Arrays.copyOfRange(selectiveACKs, first, last))));
+        }
+
+        return payloads;
+    }
+
+    /**
+     * Encodes a NACK in a single payload. If its ranges don't fit in the 
+     * maximum length, only the lowest ones are sent: the frames they miss are
+     * the first needed, the others follow with the periodic retransmission.
+     *
+     * @param nack the NACK to send
+     * @param maxPayloadLength maximum length of the payload
+     * @return the payload, containing a FrameNACK
+     * @throws IOException if the NACK can't be encoded
+     */
+    public static byte[] encodeNACK(FrameNACK nack, int maxPayloadLength) throws IOException
+    {
+        int rangesPerPayload = Integer.max(1, (maxPayloadLength - NACK_HEADER_LENGTH) / (2 * Integer.BYTES));
+        if(nack.missingRanges.length / 2 <= rangesPerPayload)
+            return encode(nack);
+        
+        return encode(new FrameNACK(nack.senderID, Arrays.copyOf(nack.missingRanges, 2 * rangesPerPayload)));
+    }
+}
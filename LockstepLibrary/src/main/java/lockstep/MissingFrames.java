@@ -0,0 +1,54 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep;
+
+import java.util.Arrays;
+import java.util.NavigableSet;
+
+/**
+ * Finds the frames missing behind the ones received out of order, as done by
+ * the receiving queues to NACK them.
+ */
+final class MissingFrames
+{
+    private MissingFrames()
+    {
+    }
+
+    /**
+     * Lists the missing frames following both the last in order frame and 
+     * the last frame already reported.
+     * 
+     * @param lastInOrderACK last frame received with all the previous ones
+     * @param outOfOrder frames received out of order
+     * @param reportedUpTo frames up to this one were already reported
+     * @return pairs of first and last missing frame, both included, or null
+     * if no new frame is missing
+     */
+    static int[] ranges(int lastInOrderACK, NavigableSet<Integer> outOfOrder, int reportedUpTo)
+    {
+        if(outOfOrder.isEmpty() || outOfOrder.last() <= reportedUpTo)
+            return null;
+        
+        int from = Integer.max(lastInOrderACK, reportedUpTo);
+        int[] ranges = new int[8];
+        int count = 0;
+        int expected = from + 1;
+        for(int received : outOfOrder.tailSet(from, false))
+        {
+            if(received > expected)
+            {
+                if(count == ranges.length)
+                    ranges = Arrays.copyOf(ranges, 2 * count);
+                ranges[count++] = expected;
+                ranges[count++] = received - 1;
+            }
+            expected = received + 1;
+        }
+        
+        return count == 0 ? null : Arrays.copyOf(ranges, count);
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Sends datagrams on a connected socket applying an ImpairmentProfile.
+ * Delayed datagrams are sent by a dedicated daemon thread, so the caller never
+ * blocks on the emulated latency.
+ * 
+ * It is thread safe.
+ */
+class NetworkEmulator
+{
+    private static final Logger LOG = LogManager.getLogger(NetworkEmulator.class);
+    
+    private final DatagramChannel channel;
+    private final ImpairmentProfile profile;
+    private final Random rand;
+    private final ScheduledExecutorService scheduler;
+    
+    private boolean badState = false;
+    private long linkFreeNanos = 0;
+    
+    /**
+     * Constructor.
+     * 
+     * @param channel connected channel the datagrams are sent on
+     * @param profile conditions to emulate
+     * @param name name of the thread sending the delayed datagrams
+     */
+    public NetworkEmulator(DatagramChannel channel, ImpairmentProfile profile, String name)
+    {
+        if(channel == null)
+            throw new IllegalArgumentException("Channel cannot be null");
+        if(profile == null)
+            throw new IllegalArgumentException("Profile cannot be null");
+        
+        this.channel = channel;
+        this.profile = profile;
+        this.rand = new Random(profile.getSeed());
+        
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, (Runnable r) -> {
+            Thread thread = new Thread(r, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        this.scheduler = executor;
+    }
+    
+    /**
+     * Sends the payload, unless it's lost, after the emulated delay.
+     * 
+     * @param payload the datagram payload
+     * @throws IOException if the datagram is sent immediately and the socket fails
+     */
+    public synchronized void send(byte[] payload) throws IOException
+    {
+        if(isLost())
+            return;
+        
+        int copies = rand.nextDouble() < profile.getDuplicationRate() ? 2 : 1;
+        for(int i = 0; i < copies; i++)
+        {
+            long delayNanos = nextDelayNanos(payload.length);
+            if(delayNanos < 0)
+                continue;
+            
+            if(delayNanos == 0)
+                channel.write(ByteBuffer.wrap(payload));
+            else
+                scheduler.schedule(() -> sendDelayed(payload), delayNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+    
+    private void sendDelayed(byte[] payload)
+    {
+        try
+        {
+            if(channel.isOpen())
+                channel.write(ByteBuffer.wrap(payload));
+        }
+        catch(IOException ioEx)
+        {
+            LOG.debug("Emulated link failed to send a delayed datagram");
+        }
+    }
+    
+    private boolean isLost()
+    {
+        if(badState)
+        {
+            if(rand.nextDouble() < profile.getBadToGoodProbability())
+                badState = false;
+        }
+        else if(rand.nextDouble() < profile.getGoodToBadProbability())
+            badState = true;
+        
+        double lossRate = badState ? profile.getBadLossRate() : profile.getGoodLossRate();
+        return rand.nextDouble() < lossRate;
+    }
+    
+    /**
+     * @return the delay of the next datagram, or -1 if it's dropped by the
+     * link queue
+     */
+    private long nextDelayNanos(int length)
+    {
+        long delayNanos = TimeUnit.MILLISECONDS.toNanos(profile.getLatency()) + jitterNanos();
+        if(rand.nextDouble() < profile.getReorderRate())
+            delayNanos += TimeUnit.MILLISECONDS.toNanos(profile.getReorderDelay());
+        
+        if(profile.getBandwidth() > 0)
+        {
+            long now = System.nanoTime();
+            long queueingNanos = Math.max(0, linkFreeNanos - now);
+            if(queueingNanos > TimeUnit.MILLISECONDS.toNanos(profile.getBandwidthQueue()))
+                return -1;
+            
+            long transmissionNanos = length * 1_000_000_000L / profile.getBandwidth();
+            linkFreeNanos = now + queueingNanos + transmissionNanos;
+            delayNanos += queueingNanos + transmissionNanos;
+        }
+        
+        return delayNanos;
+    }
+    
+    private long jitterNanos()
+    {
+        if(profile.getJitter() == 0)
+            return 0;
+        
+        double jitterMillis;
+        switch(profile.getJitterDistribution())
+        {
+            case NORMAL:
+                jitterMillis = Math.abs(rand.nextGaussian()) * profile.getJitter();
+                break;
+            case EXPONENTIAL:
+                jitterMillis = -Math.log(1 - rand.nextDouble()) * profile.getJitter();
+                break;
+            default:
+                jitterMillis = rand.nextDouble() * profile.getJitter();
+        }
+        return (long) (jitterMillis * 1_000_000);
+    }
+    
+    /**
+     * Discards the datagrams still in flight and stops the sending thread.
+     */
+    public void close()
+    {
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * XOR parity forward error correction of the frame inputs sent on a link.
+ * After every k input datagrams the transmitter sends a parity datagram, the
+ * XOR of the k payloads, so that the receiver can rebuild a single lost one
+ * without waiting for its retransmission.
+ *
+ * The parity datagram lists the CRC32 and the length of each protected
+ * payload, then the XOR of the payloads, padded with zeros to the longest:
+ * type, k, loss, k times CRC and length, parity bytes. The receiver keeps a
+ * copy of the last input datagrams received, and finds the protected ones by
+ * their CRC. The rebuilt payload is checked against its CRC.
+ *
+ * k follows the loss the peer observes on the link, which it reports in its
+ * own parity datagrams: the higher the loss, the smaller the groups.
+ *
+ * The encoder is used by the transmitter thread and the decoder by the
+ * receiver thread of the link.
+ */
+class ParityFEC
+{
+    static final int MIN_GROUP = 2;
+    static final int MAX_GROUP = 16;
+
+    /**
+     * Group size until the peer reports the loss.
+     */
+    static final int DEFAULT_GROUP = 8;
+
+    /**
+     * Expected losses per group the group size is chosen for.
+     */
+    private static final double LOSSES_PER_GROUP = 0.1;
+
+    /**
+     * Weight of each group in the loss estimate.
+     */
+    private static final double LOSS_SMOOTHING = 1.0 / 16;
+
+    private static final int LOSS_SCALE = 10000;
+    private static final int HEADER_LENGTH = 4;
+    private static final int ENTRY_LENGTH = 6;
+
+    /**
+     * Input datagrams kept by the decoder: some more than a group, for the
+     * parity overtaken by later datagrams.
+     */
+    private static final int RECEIVED_SLOTS = 4 * MAX_GROUP;
+
+    //Encoder state
+    private final CRC32 encoderCRC = new CRC32();
+    private int groupSize;
+    private int grouped;
+    private final int[] groupCRCs = new int[MAX_GROUP];
+    private final int[] groupLengths = new int[MAX_GROUP];
+    private byte[] parity = new byte[256];
+    private int parityLength;
+
+    //Decoder state
+    private final CRC32 decoderCRC = new CRC32();
+    private boolean active;
+    private final int[] receivedCRCs = new int[RECEIVED_SLOTS];
+    private final int[] receivedLengths = new int[RECEIVED_SLOTS];
+    private final byte[][] receivedPayloads = new byte[RECEIVED_SLOTS][];
+    private int nextSlot;
+    private ByteBuffer recovered = ByteBuffer.allocate(256);
+
+    /**
+     * Loss of the datagrams sent by the peer, as observed by the decoder.
+     */
+    private volatile double incomingLoss;
+
+    /**
+     * Loss of the datagrams sent to the peer, as reported by the peer.
+     * Negative until the first report.
+     */
+    private volatile double outgoingLoss = -1;
+
+    /**
+     * @return the loss estimated on the datagrams received from the peer
+     */
+    double getIncomingLoss()
+    {
+        return incomingLoss;
+    }
+
+    /**
+     * @return the loss reported by the peer on the datagrams sent to it, or
+     * a negative value if not yet reported
+     */
+    double getOutgoingLoss()
+    {
+        return outgoingLoss;
+    }
+
+    /**
+     * @param maxPayloadLength maximum length of the datagrams on the link
+     * @return the maximum length of the payloads that can be protected, so
+     * that the parity datagram doesn't exceed the maximum length
+     */
+    static int maxProtectedLength(int maxPayloadLength)
+    {
+        return maxPayloadLength - HEADER_LENGTH - MAX_GROUP * ENTRY_LENGTH;
+    }
+
+    /**
+     * @param loss loss rate of the datagrams sent, negative if unknown
+     * @return the number of datagrams protected by each parity datagram
+     */
+    static int groupSize(double loss)
+    {
+        if(loss < 0)
+            return DEFAULT_GROUP;
+        if(loss == 0)
+            return MAX_GROUP;
+        return (int) Math.max(MIN_GROUP, Math.min(MAX_GROUP, LOSSES_PER_GROUP / loss));
+    }
+
+    /**
+     * Adds an input datagram sent to the current group.
+     *
+     * @param payload the payload of the datagram
+     * @return the parity datagram closing the group, or null if the group
+     * is not complete
+     */
+    byte[] protect(byte[] payload)
+    {
+        if(grouped == 0)
+        {
+            groupSize = groupSize(outgoingLoss);
+            parityLength = 0;
+        }
+
+        encoderCRC.reset();
+        encoderCRC.update(payload, 0, payload.length);
+        groupCRCs[grouped] = (int) encoderCRC.getValue();
+        groupLengths[grouped] = payload.length;
+        grouped++;
+
+        if(parity.length < payload.length)
+            parity = Arrays.copyOf(parity, payload.length);
+        for(int i = 0; i < payload.length; i++)
+            parity[i] ^= payload[i];
+        parityLength = Integer.max(parityLength, payload.length);
+
+        if(grouped < groupSize)
+            return null;
+
+        ByteBuffer datagram = ByteBuffer.allocate(HEADER_LENGTH + grouped * ENTRY_LENGTH + parityLength);
+        datagram.put(MessageCodec.PARITY);
+        datagram.put((byte) grouped);
+        datagram.putShort((short) Math.round(incomingLoss * LOSS_SCALE));
+        for(int i = 0; i < grouped; i++)
+        {
+            datagram.putInt(groupCRCs[i]);
+            datagram.putShort((short) groupLengths[i]);
+        }
+        datagram.put(parity, 0, parityLength);
+
+        Arrays.fill(parity, 0, parityLength, (byte) 0);
+        grouped = 0;
+        return datagram.array();
+    }
+
+    /**
+     * Keeps a copy of an input datagram received, in case it's needed to
+     * rebuild another one. Nothing is kept until the peer sends parity.
+     *
+     * @param datagram the payload between position and limit, left untouched
+     */
+    void received(ByteBuffer datagram)
+    {
+        if(!active)
+            return;
+
+        int length = datagram.remaining();
+        int slot = nextSlot;
+        nextSlot = (nextSlot + 1) % RECEIVED_SLOTS;
+        if(receivedPayloads[slot] == null || receivedPayloads[slot].length < length)
+            receivedPayloads[slot] = new byte[Integer.max(length, 256)];
+
+        datagram.mark();
+        datagram.get(receivedPayloads[slot], 0, length);
+        datagram.reset();
+
+        decoderCRC.reset();
+        decoderCRC.update(receivedPayloads[slot], 0, length);
+        receivedCRCs[slot] = (int) decoderCRC.getValue();
+        receivedLengths[slot] = length;
+    }
+
+    /**
+     * Rebuilds the datagram lost in the group of a parity datagram, if it's
+     * the only one lost, and updates the loss estimates.
+     *
+     * @param datagram the parity payload between position and limit
+     * @return the rebuilt payload between position and limit, valid until
+     * the next call, or null if nothing can be rebuilt
+     */
+    ByteBuffer recover(ByteBuffer datagram)
+    {
+        int start = datagram.position();
+        if(datagram.remaining() < HEADER_LENGTH)
+            return null;
+
+        int group = datagram.get(start + 1) & 0xFF;
+        int entries = start + HEADER_LENGTH;
+        int parityStart = entries + group * ENTRY_LENGTH;
+        if(group == 0 || datagram.limit() < parityStart)
+            return null;
+        outgoingLoss = (datagram.getShort(start + 2) & 0xFFFF) / (double) LOSS_SCALE;
+
+        //The datagrams of the first group weren't kept
+        if(!active)
+        {
+            active = true;
+            return null;
+        }
+
+        int missing = -1;
+        int missingCount = 0;
+        for(int i = 0; i < group; i++)
+        {
+            if(findReceived(datagram.getInt(entries + i * ENTRY_LENGTH), datagram.getShort(entries + i * ENTRY_LENGTH + 4) & 0xFFFF) < 0)
+            {
+                missing = i;
+                missingCount++;
+            }
+        }
+        incomingLoss += LOSS_SMOOTHING * ((double) missingCount / group - incomingLoss);
+
+        if(missingCount != 1)
+            return null;
+
+        int missingCRC = datagram.getInt(entries + missing * ENTRY_LENGTH);
+        int missingLength = datagram.getShort(entries + missing * ENTRY_LENGTH + 4) & 0xFFFF;
+        if(datagram.limit() - parityStart < missingLength)
+            return null;
+
+        if(recovered.capacity() < missingLength)
+            recovered = ByteBuffer.allocate(missingLength);
+        recovered.clear();
+        byte[] rebuilt = recovered.array();
+        for(int i = 0; i < missingLength; i++)
+            rebuilt[i] = datagram.get(parityStart + i);
+        for(int i = 0; i < group; i++)
+        {
+            if(i == missing)
+                continue;
+            int slot = findReceived(datagram.getInt(entries + i * ENTRY_LENGTH), datagram.getShort(entries + i * ENTRY_LENGTH + 4) & 0xFFFF);
+            byte[] payload = receivedPayloads[slot];
+            int length = Integer.min(missingLength, receivedLengths[slot]);
+            for(int j = 0; j < length; j++)
+                rebuilt[j] ^= payload[j];
+        }
+
+        decoderCRC.reset();
+        decoderCRC.update(rebuilt, 0, missingLength);
+        if((int) decoderCRC.getValue() != missingCRC)
+            return null;
+
+        recovered.limit(missingLength);
+        return recovered;
+    }
+
+    private int findReceived(int crcValue, int length)
+    {
+        for(int slot = 0; slot < RECEIVED_SLOTS; slot++)
+        {
+            if(receivedPayloads[slot] != null && receivedCRCs[slot] == crcValue && receivedLengths[slot] == length)
+                return slot;
+        }
+        return -1;
+    }
+}
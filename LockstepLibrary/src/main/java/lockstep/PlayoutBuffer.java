@@ -0,0 +1,187 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adaptive playout buffer of the client: keeps the execution of each frame a
+ * target delay behind the arrival of its last remote input, so that the
+ * jitter of the arrivals is absorbed instead of stalling the simulation.
+ *
+ * The inter-arrival jitter of each sender is estimated as in RFC 3550, from
+ * the transit of its frames against their nominal frame times; the target
+ * delay is JITTER_MULTIPLIER times the largest one, within MAX_TARGET_DELAY.
+ * After each frame the client corrects the next frame period towards the
+ * target: it slows down at once when the buffer is short, right after a
+ * stall, and speeds up by at most MAX_SPEEDUP when it's long, so the cadence
+ * stays smooth.
+ *
+ * The receiver thread records the arrivals, the client thread reads the
+ * estimates.
+ */
+class PlayoutBuffer
+{
+    /**
+     * Target delay in jitters.
+     */
+    static final int JITTER_MULTIPLIER = 3;
+
+    /**
+     * Upper bound of the target delay.
+     */
+    static final long MAX_TARGET_DELAY = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * Largest shortening of the frame period, as a fraction of the nominal
+     * one.
+     */
+    static final double MAX_SPEEDUP = 0.05;
+
+    /**
+     * Frames whose arrival is remembered for each sender.
+     */
+    static final int ARRIVAL_WINDOW = 128;
+
+    private final long framePeriodNanos;
+    private final Map<Integer, Sender> senders = new HashMap<>();
+
+    private static class Sender
+    {
+        final int[] frames = new int[ARRIVAL_WINDOW];
+        final long[] arrivals = new long[ARRIVAL_WINDOW];
+        boolean first = true;
+        long lastTransit;
+        long jitter;
+
+        Sender()
+        {
+            Arrays.fill(frames, Integer.MIN_VALUE);
+        }
+    }
+
+    /**
+     * @param framePeriodNanos nominal frame period
+     */
+    PlayoutBuffer(long framePeriodNanos)
+    {
+        if(framePeriodNanos <= 0)
+            throw new IllegalArgumentException("Frame period must be positive");
+        this.framePeriodNanos = framePeriodNanos;
+    }
+
+    /**
+     * Records the arrival of frames of a remote sender. Duplicates and frames
+     * older than the window are ignored.
+     *
+     * @param senderID ID of the client that generated the frames
+     * @param frames the frames received
+     * @param nowNanos time of the reception
+     */
+    synchronized void arrived(int senderID, FrameInput[] frames, long nowNanos)
+    {
+        Sender sender = senders.computeIfAbsent(senderID, (Integer id) -> new Sender());
+        for(FrameInput frame : frames)
+            arrived(sender, frame.getFrameNumber(), nowNanos);
+    }
+
+    /**
+     * Records the arrival of a single frame of a remote sender.
+     *
+     * @param senderID ID of the client that generated the frame
+     * @param frame the frame received
+     * @param nowNanos time of the reception
+     */
+    synchronized void arrived(int senderID, FrameInput frame, long nowNanos)
+    {
+        Sender sender = senders.computeIfAbsent(senderID, (Integer id) -> new Sender());
+        arrived(sender, frame.getFrameNumber(), nowNanos);
+    }
+
+    private void arrived(Sender sender, int frameNumber, long nowNanos)
+    {
+        int slot = Math.floorMod(frameNumber, ARRIVAL_WINDOW);
+        if(frameNumber <= sender.frames[slot])
+            return;
+        sender.frames[slot] = frameNumber;
+        sender.arrivals[slot] = nowNanos;
+
+        long transit = nowNanos - frameNumber * framePeriodNanos;
+        if(sender.first)
+            sender.first = false;
+        else
+            sender.jitter += (Math.abs(transit - sender.lastTransit) - sender.jitter) / 16;
+        sender.lastTransit = transit;
+    }
+
+    /**
+     * Forgets a sender that left the session.
+     *
+     * @param senderID ID of the client
+     */
+    synchronized void remove(int senderID)
+    {
+        senders.remove(senderID);
+    }
+
+    /**
+     * @return the inter-arrival jitter of the most jittery sender in
+     * nanoseconds
+     */
+    synchronized long getJitter()
+    {
+        long jitter = 0;
+        for(Sender sender : senders.values())
+            jitter = Long.max(jitter, sender.jitter);
+        return jitter;
+    }
+
+    /**
+     * @return the delay the frames are executed with after their last input
+     * arrives, in nanoseconds
+     */
+    long getTargetDelay()
+    {
+        return Long.min(MAX_TARGET_DELAY, JITTER_MULTIPLIER * getJitter());
+    }
+
+    /**
+     * @param frameNumber the frame
+     * @return the arrival time of the last remote input of the frame, or
+     * Long.MIN_VALUE if none is known
+     */
+    synchronized long lastArrival(int frameNumber)
+    {
+        int slot = Math.floorMod(frameNumber, ARRIVAL_WINDOW);
+        long lastArrival = Long.MIN_VALUE;
+        for(Sender sender : senders.values())
+        {
+            if(sender.frames[slot] == frameNumber)
+                lastArrival = Long.max(lastArrival, sender.arrivals[slot]);
+        }
+        return lastArrival;
+    }
+
+    /**
+     * Corrects the period before the next frame, so that the buffered delay
+     * converges to the target one.
+     *
+     * @param bufferedNanos time the last input of the frame just executed
+     * waited before its execution
+     * @param periodNanos period before the next frame, without correction
+     * @return the corrected period
+     */
+    long correctPeriod(long bufferedNanos, long periodNanos)
+    {
+        long correction = (getTargetDelay() - bufferedNanos) / 4;
+        correction = Long.min(correction, periodNanos / 2);
+        correction = Long.max(correction, (long) (-periodNanos * MAX_SPEEDUP));
+        return periodNanos + correction;
+    }
+}
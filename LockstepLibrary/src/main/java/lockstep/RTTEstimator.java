@@ -0,0 +1,167 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import lockstep.messages.simulation.KeepAlive;
+
+/**
+ * Round trip time and clock offset of a link, estimated NTP-style from the
+ * timestamps of the keep alives exchanged with the peer.
+ *
+ * Each keep alive carries the time it was sent and echoes the last one
+ * received from the peer, with the time it was received: t1 and t4 on the
+ * local clock, t2 and t3 on the peer clock give
+ * rtt = (t4 - t1) - (t3 - t2) and offset = ((t2 - t1) + (t3 - t4)) / 2.
+ * The smoothed RTT and its variation follow RFC 6298; the offset is the one
+ * of the sample with the lowest RTT among the last ones, the least affected
+ * by queueing.
+ *
+ * The receiver thread of the link records the probes, the transmitter thread
+ * echoes them, any thread can read the estimates.
+ */
+public class RTTEstimator
+{
+    /**
+     * Samples the offset is chosen among.
+     */
+    static final int OFFSET_FILTER = 8;
+
+    private static final long MIN_RTO = TimeUnit.MILLISECONDS.toNanos(200);
+    private static final long INITIAL_RTO = TimeUnit.SECONDS.toNanos(1);
+
+    //Last probe received, echoed by the next one sent
+    private long peerSentNanos = KeepAlive.NO_ECHO;
+    private long receivedNanos;
+
+    private long samples;
+    private long smoothedRTT;
+    private long rttVariation;
+    private long minRTT = Long.MAX_VALUE;
+    private final long[] filterRTTs = new long[OFFSET_FILTER];
+    private final long[] filterOffsets = new long[OFFSET_FILTER];
+    private long clockOffset;
+
+    /**
+     * Fills the timestamps of a probe about to be sent.
+     *
+     * @param probe the keep alive to send
+     * @param nowNanos local time of the sending
+     */
+    synchronized void stamp(KeepAlive probe, long nowNanos)
+    {
+        probe.sentNanos = nowNanos;
+        probe.echoedSentNanos = peerSentNanos;
+        probe.echoReceivedNanos = receivedNanos;
+    }
+
+    /**
+     * Records a probe received from the peer, and takes a sample if it echoes
+     * one of ours.
+     *
+     * @param probe the keep alive received
+     * @param nowNanos local time of the reception
+     * @return the round trip time sampled in nanoseconds, or -1 if none
+     */
+    synchronized long received(KeepAlive probe, long nowNanos)
+    {
+        peerSentNanos = probe.sentNanos;
+        receivedNanos = nowNanos;
+
+        if(probe.echoedSentNanos == KeepAlive.NO_ECHO)
+            return -1;
+
+        long rtt = (nowNanos - probe.echoedSentNanos) - (probe.sentNanos - probe.echoReceivedNanos);
+        if(rtt < 0)
+            return -1;
+        long offset = ((probe.echoReceivedNanos - probe.echoedSentNanos) + (probe.sentNanos - nowNanos)) / 2;
+        sample(rtt, offset);
+        return rtt;
+    }
+
+    private void sample(long rtt, long offset)
+    {
+        if(samples == 0)
+        {
+            smoothedRTT = rtt;
+            rttVariation = rtt / 2;
+            Arrays.fill(filterRTTs, Long.MAX_VALUE);
+        }
+        else
+        {
+            rttVariation += (Math.abs(smoothedRTT - rtt) - rttVariation) / 4;
+            smoothedRTT += (rtt - smoothedRTT) / 8;
+        }
+        minRTT = Long.min(minRTT, rtt);
+
+        int slot = (int) (samples % OFFSET_FILTER);
+        filterRTTs[slot] = rtt;
+        filterOffsets[slot] = offset;
+        int best = 0;
+        for(int i = 1; i < OFFSET_FILTER; i++)
+        {
+            if(filterRTTs[i] < filterRTTs[best])
+                best = i;
+        }
+        clockOffset = filterOffsets[best];
+        samples++;
+    }
+
+    /**
+     * @return the number of samples taken
+     */
+    public synchronized long getSamples()
+    {
+        return samples;
+    }
+
+    /**
+     * @return the smoothed round trip time in nanoseconds, 0 before the first
+     * sample
+     */
+    public synchronized long getSmoothedRTT()
+    {
+        return smoothedRTT;
+    }
+
+    /**
+     * @return the mean deviation of the round trip time in nanoseconds
+     */
+    public synchronized long getRTTVariation()
+    {
+        return rttVariation;
+    }
+
+    /**
+     * @return the lowest round trip time sampled in nanoseconds, 0 before
+     * the first sample
+     */
+    public synchronized long getMinRTT()
+    {
+        return samples == 0 ? 0 : minRTT;
+    }
+
+    /**
+     * @return the retransmission timeout in nanoseconds: the smoothed RTT
+     * plus four times its variation, at least 200 ms
+     */
+    public synchronized long getRetransmissionTimeout()
+    {
+        if(samples == 0)
+            return INITIAL_RTO;
+        return Long.max(MIN_RTO, smoothedRTT + 4 * rttVariation);
+    }
+
+    /**
+     * @return the offset of the peer clock from the local one in nanoseconds,
+     * i.e. the value to add to the local System.nanoTime() to get the peer's
+     */
+    public synchronized long getClockOffset()
+    {
+        return clockOffset;
+    }
+}
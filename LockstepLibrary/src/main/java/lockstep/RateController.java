@@ -0,0 +1,252 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import lockstep.messages.simulation.FrameACK;
+
+/**
+ * AIMD control of the sending rate of a link, following a RatePolicy.
+ *
+ * The transmitter paces its datagrams on a virtual clock advanced by the
+ * transmission time of each datagram at the current rate. The receiver feeds
+ * back the ACKs and NACKs of the peer. The round trip time is sampled on the
+ * first transmission of the newest frame of each sender, and compared to the
+ * minimum of the last two windows to estimate the queueing delay.
+ *
+ * Pacing is used by the transmitter thread only, the feedback by the
+ * receiver thread.
+ */
+class RateController
+{
+    /**
+     * IPv4 and UDP headers, charged on each datagram.
+     */
+    static final int DATAGRAM_OVERHEAD = 28;
+
+    /**
+     * Bytes that can be sent back to back after an idle period.
+     */
+    static final int BURST_BYTES = 3000;
+
+    private static final long MIN_DECREASE_INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long MIN_RTT_WINDOW = TimeUnit.SECONDS.toNanos(10);
+    private static final long MAX_INCREASE_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    private final RatePolicy policy;
+    private final long delayThreshold;
+
+    private volatile double rate;
+
+    /**
+     * Set by the transmitter when the rate held back a datagram.
+     */
+    private volatile boolean limited;
+
+    //Transmitter state
+    private long nextSendNanos;
+
+    //Feedback state, guarded by this
+    private final Map<Integer, long[]> probes = new HashMap<>();
+    private long smoothedRTT = -1;
+    private long minRTT = Long.MAX_VALUE;
+    private long previousWindowMinRTT = Long.MAX_VALUE;
+    private long windowMinRTT = Long.MAX_VALUE;
+    private long windowStartNanos;
+    private long lastIncreaseNanos;
+    private long lastDecreaseNanos;
+
+    RateController(RatePolicy policy)
+    {
+        if(policy == null)
+            throw new IllegalArgumentException("Rate policy cannot be null");
+
+        this.policy = policy;
+        this.delayThreshold = TimeUnit.MILLISECONDS.toNanos(policy.getDelayThreshold());
+        this.rate = policy.getInitialRate();
+        long now = System.nanoTime();
+        this.nextSendNanos = now;
+        this.windowStartNanos = now;
+        this.lastIncreaseNanos = now;
+        this.lastDecreaseNanos = now - MIN_DECREASE_INTERVAL;
+    }
+
+    /**
+     * @return the current rate, in bytes per second
+     */
+    double getRate()
+    {
+        return rate;
+    }
+
+    /**
+     * @return the smoothed round trip time in nanoseconds, or -1 if not yet
+     * sampled
+     */
+    synchronized long getSmoothedRTT()
+    {
+        return smoothedRTT;
+    }
+
+    /**
+     * Waits until the next datagram can be sent at the current rate.
+     *
+     * @param deadlineNanos time the datagram must leave by, usually the end
+     * of the tick
+     * @return false if the datagram can't leave by the deadline
+     * @throws InterruptedException if interrupted while waiting
+     */
+    boolean awaitSlot(long deadlineNanos) throws InterruptedException
+    {
+        refill(System.nanoTime());
+        if(nextSendNanos - deadlineNanos > 0)
+        {
+            limited = true;
+            return false;
+        }
+
+        long wait;
+        while((wait = nextSendNanos - System.nanoTime()) > 0)
+        {
+            limited = true;
+            LockSupport.parkNanos(wait);
+            if(Thread.interrupted())
+                throw new InterruptedException();
+        }
+        return true;
+    }
+
+    /**
+     * Charges a datagram sent on the pacing clock.
+     *
+     * @param bytes length of the datagram payload
+     */
+    void sent(int bytes)
+    {
+        refill(System.nanoTime());
+        nextSendNanos += (long) ((bytes + DATAGRAM_OVERHEAD) * 1e9 / rate);
+    }
+
+    private void refill(long now)
+    {
+        long floor = now - (long) (BURST_BYTES * 1e9 / rate);
+        if(nextSendNanos - floor < 0)
+            nextSendNanos = floor;
+    }
+
+    /**
+     * Starts a round trip time sample on the newest frame of a sender, if
+     * none is in progress. Frames sent before aren't sampled, as their ACK
+     * could be of a retransmission.
+     *
+     * @param senderID sender of the frames
+     * @param newestFrame number of the newest frame sent
+     * @param nowNanos time of the transmission
+     */
+    synchronized void framesSent(int senderID, int newestFrame, long nowNanos)
+    {
+        long[] probe = probes.get(senderID);
+        if(probe == null)
+        {
+            probes.put(senderID, new long[] { newestFrame, nowNanos, newestFrame });
+            return;
+        }
+
+        //probe: frame sampled (-1 if none), its transmission time, newest frame sent
+        if(probe[0] < 0 && newestFrame > probe[2])
+        {
+            probe[0] = newestFrame;
+            probe[1] = nowNanos;
+        }
+        probe[2] = Long.max(probe[2], newestFrame);
+    }
+
+    /**
+     * Processes an ACK of the peer: completes the round trip time sample it
+     * covers, and grows the rate if it held back the sending.
+     */
+    synchronized void acked(FrameACK ack, long nowNanos)
+    {
+        long[] probe = probes.get(ack.senderID);
+        if(probe != null && probe[0] >= 0 && covers(ack, (int) probe[0]))
+        {
+            sampleRTT(nowNanos - probe[1], nowNanos);
+            probe[0] = -1;
+        }
+
+        if(smoothedRTT >= 0 && smoothedRTT - minRTT > delayThreshold)
+        {
+            congestion(nowNanos);
+            return;
+        }
+
+        if(limited)
+        {
+            long elapsed = Long.min(nowNanos - lastIncreaseNanos, MAX_INCREASE_INTERVAL);
+            rate = Math.min(policy.getMaxRate(), rate + policy.getAdditiveIncrease() * (elapsed / 1e9));
+            limited = false;
+        }
+        lastIncreaseNanos = nowNanos;
+    }
+
+    /**
+     * Processes a NACK of the peer. Losses reduce the rate only while the
+     * queueing delay is rising, as they may be due to the medium.
+     */
+    synchronized void nacked(long nowNanos)
+    {
+        if(smoothedRTT >= 0 && smoothedRTT - minRTT > delayThreshold / 2)
+            congestion(nowNanos);
+    }
+
+    private void congestion(long nowNanos)
+    {
+        //Once per round trip: the datagrams already sent can't benefit
+        if(nowNanos - lastDecreaseNanos < Long.max(smoothedRTT, MIN_DECREASE_INTERVAL))
+            return;
+
+        rate = Math.max(policy.getMinRate(), rate * policy.getDecreaseFactor());
+        lastDecreaseNanos = nowNanos;
+        lastIncreaseNanos = nowNanos;
+        limited = false;
+    }
+
+    private void sampleRTT(long rtt, long nowNanos)
+    {
+        if(smoothedRTT < 0)
+            smoothedRTT = rtt;
+        else
+            smoothedRTT += (rtt - smoothedRTT) / 8;
+
+        if(nowNanos - windowStartNanos > MIN_RTT_WINDOW)
+        {
+            previousWindowMinRTT = windowMinRTT;
+            windowMinRTT = Long.MAX_VALUE;
+            windowStartNanos = nowNanos;
+        }
+        windowMinRTT = Long.min(windowMinRTT, rtt);
+        minRTT = Long.min(previousWindowMinRTT, windowMinRTT);
+    }
+
+    private static boolean covers(FrameACK ack, int frameNumber)
+    {
+        if(frameNumber <= ack.cumulativeACK)
+            return true;
+
+        if(ack.selectiveACKs != null)
+        {
+            for(int selectiveACK : ack.selectiveACKs)
+            {
+                if(selectiveACK == frameNumber)
+                    return true;
+            }
+        }
+        return false;
+    }
+}
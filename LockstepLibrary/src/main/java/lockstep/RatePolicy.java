@@ -0,0 +1,160 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep;
+
+/**
+ * How fast a transmitter may send on its link, in bytes per second including
+ * the UDP/IP headers.
+ *
+ * The rate grows by a fixed amount per second while the peer keeps ACKing
+ * and the sending is held back by the rate, and is multiplied by the
+ * decrease factor when the link shows congestion: the round trip time rising
+ * above its minimum by more than the delay threshold, or frames NACKed while
+ * the round trip time is rising. Losses alone, as on wireless links, don't
+ * reduce the rate.
+ *
+ * The datagrams are paced within the tick. Frame inputs exceeding the rate
+ * are left to the following ticks, as they're resent until ACKed anyway;
+ * ACKs and keep alives are never held back.
+ */
+public class RatePolicy
+{
+    private final int initialRate;
+    private final int minRate;
+    private final int maxRate;
+    private final int additiveIncrease;
+    private final double decreaseFactor;
+    private final int delayThreshold;
+
+    public static class Builder
+    {
+        private int initialRate = 64000;
+        private int minRate = 8000;
+        private int maxRate = 2000000;
+        private int additiveIncrease = 16000;
+        private double decreaseFactor = 0.75;
+        private int delayThreshold = 100;
+
+        private Builder()
+        {
+        }
+
+        public Builder initialRate(final int value)
+        {
+            this.initialRate = value;
+            return this;
+        }
+
+        public Builder minRate(final int value)
+        {
+            this.minRate = value;
+            return this;
+        }
+
+        public Builder maxRate(final int value)
+        {
+            this.maxRate = value;
+            return this;
+        }
+
+        /**
+         * Bytes per second the rate grows each second without congestion.
+         */
+        public Builder additiveIncrease(final int value)
+        {
+            this.additiveIncrease = value;
+            return this;
+        }
+
+        /**
+         * Factor applied to the rate at congestion, between 0 and 1.
+         */
+        public Builder decreaseFactor(final double value)
+        {
+            this.decreaseFactor = value;
+            return this;
+        }
+
+        /**
+         * Queueing delay signalling congestion, in milliseconds. It must
+         * exceed the time the peer holds its ACKs, as set by its ACK policy
+         * and tickrate.
+         */
+        public Builder delayThreshold(final int value)
+        {
+            this.delayThreshold = value;
+            return this;
+        }
+
+        public RatePolicy build()
+        {
+            return new RatePolicy(initialRate, minRate, maxRate, additiveIncrease, decreaseFactor, delayThreshold);
+        }
+    }
+
+    public static RatePolicy.Builder builder()
+    {
+        return new RatePolicy.Builder();
+    }
+
+    public RatePolicy(int initialRate, int minRate, int maxRate, int additiveIncrease, double decreaseFactor, int delayThreshold)
+    {
+        if(minRate <= 0)
+            throw new IllegalArgumentException("Min rate must be an integer greater than 0");
+
+        if(maxRate < minRate)
+            throw new IllegalArgumentException("Max rate must be greater or equal than the min rate");
+
+        if(initialRate < minRate || initialRate > maxRate)
+            throw new IllegalArgumentException("Initial rate must be between the min and the max rate");
+
+        if(additiveIncrease < 0)
+            throw new IllegalArgumentException("Additive increase must be non negative");
+
+        if(decreaseFactor <= 0 || decreaseFactor >= 1)
+            throw new IllegalArgumentException("Decrease factor must be between 0 and 1");
+
+        if(delayThreshold <= 0)
+            throw new IllegalArgumentException("Delay threshold must be an integer greater than 0");
+
+        this.initialRate = initialRate;
+        this.minRate = minRate;
+        this.maxRate = maxRate;
+        this.additiveIncrease = additiveIncrease;
+        this.decreaseFactor = decreaseFactor;
+        this.delayThreshold = delayThreshold;
+    }
+
+    public int getInitialRate()
+    {
+        return initialRate;
+    }
+
+    public int getMinRate()
+    {
+        return minRate;
+    }
+
+    public int getMaxRate()
+    {
+        return maxRate;
+    }
+
+    public int getAdditiveIncrease()
+    {
+        return additiveIncrease;
+    }
+
+    public double getDecreaseFactor()
+    {
+        return decreaseFactor;
+    }
+
+    public int getDelayThreshold()
+    {
+        return delayThreshold;
+    }
+}
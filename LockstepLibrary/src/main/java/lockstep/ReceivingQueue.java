@@ -25,4 +25,24 @@ public interface ReceivingQueue {
     public FrameACK push(FrameInput[] inputs);
     
     public FrameACK push(FrameInput input);
+    
+    /**
+     * @return number of frames received and waiting to be extracted
+     */
+    public int backlog();
+    
+    /**
+     * @return the last frame received with all the previous ones, so that
+     * any frame up to it is a duplicate
+     */
+    public int getLastInOrderACK();
+    
+    /**
+     * Reports the frames found missing since the last call, behind the ones 
+     * received out of order. Each missing frame is reported once.
+     * 
+     * @return pairs of first and last missing frame, both included, or null
+     * if no new frame is missing
+     */
+    public int[] newMissingRanges();
 }
@@ -0,0 +1,91 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep;
+
+/**
+ * State of a resumable UDP session, shared by the receiver and the transmitter
+ * of the same connection.
+ * When the receiver hits the connection timeout, the session is suspended for
+ * a grace period instead of being disconnected: the transmitter stops sending 
+ * frames and, on the client, sends resume requests carrying the session token.
+ * 
+ * It is thread safe.
+ */
+class ResumableSession
+{
+    private final int clientID;
+    private final long sessionToken;
+    private final int resumeTimeout;
+    private final boolean clientSide;
+    
+    private volatile boolean suspended = false;
+    
+    /**
+     * Constructor.
+     * 
+     * @param clientID ID of the client the session belongs to
+     * @param sessionToken token issued by the server during the handshake
+     * @param resumeTimeout grace period, in milliseconds, during which the 
+     * session can be resumed
+     * @param clientSide true if the session is held by the client, which is in
+     * charge of requesting the resume
+     */
+    public ResumableSession(int clientID, long sessionToken, int resumeTimeout, boolean clientSide)
+    {
+        if(resumeTimeout <= 0)
+            throw new IllegalArgumentException("Resume timeout must be an integer greater than 0");
+        
+        this.clientID = clientID;
+        this.sessionToken = sessionToken;
+        this.resumeTimeout = resumeTimeout;
+        this.clientSide = clientSide;
+    }
+
+    public int getClientID()
+    {
+        return clientID;
+    }
+
+    public long getSessionToken()
+    {
+        return sessionToken;
+    }
+
+    public int getResumeTimeout()
+    {
+        return resumeTimeout;
+    }
+    
+    public boolean isClientSide()
+    {
+        return clientSide;
+    }
+    
+    public boolean isSuspended()
+    {
+        return suspended;
+    }
+    
+    /**
+     * @param clientID ID claimed by a resume request
+     * @param sessionToken token carried by a resume request
+     * @return true if the request belongs to this session
+     */
+    public boolean matches(int clientID, long sessionToken)
+    {
+        return this.clientID == clientID && this.sessionToken == sessionToken;
+    }
+    
+    void suspend()
+    {
+        suspended = true;
+    }
+    
+    void resume()
+    {
+        suspended = false;
+    }
+}
@@ -11,8 +11,8 @@ import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicInteger;
+import lockstep.messages.simulation.DisconnectionSignal;
 import lockstep.messages.simulation.FrameACK;
-import lockstep.messages.simulation.LockstepCommand;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
@@ -22,20 +22,71 @@ import org.apache.logging.log4j.LogManager;
  * extraction of the first available frame. 
  * A semaphore is released when a frame input is available.
  * 
+ * In cut-through mode the frames are handed to a forwarder on the receiving
+ * thread, in order: each one as soon as the frames before it were received.
+ * Only the frames received out of order are stored, until the gap is filled.
+ * 
+ * New frames can be refused, neither stored nor ACKed, to throttle the 
+ * sender, and are ACKed and dropped once the sender is demoted to spectator.
+ * 
  * It is thread safe.
  */
 class ServerReceivingQueue implements ReceivingQueue {
     
     private final int senderID;
     
-    ConcurrentSkipListMap<Integer, LockstepCommand> commandBuffer;
+    ConcurrentSkipListMap<Integer, FrameInput> frameBuffer;
     Semaphore executionSemaphore;
+    
+    /**
+     * Receives each new frame in cut-through mode, null otherwise.
+     */
+    private final FrameForwarder forwarder;
+    
+    /**
+     * Admits the new frames of the sender, or null to admit them all.
+     */
+    private final Admission admission;
+    
+    /**
+     * True once the sender is demoted to spectator: its frames are ACKed and
+     * dropped.
+     */
+    private volatile boolean discarding;
+    
+    /**
+     * Last frame forwarded in cut-through mode, set by the server under its
+     * forwarding lock.
+     */
+    private int lastForwarded;
         
     AtomicInteger lastInOrderACK;
     ConcurrentSkipListSet<Integer> selectiveACKsSet;
+    
+    /**
+     * Missing frames up to this one were already reported.
+     */
+    private int missingReportedUpTo;
         
     private static final Logger LOG = LogManager.getLogger(ClientReceivingQueue.class);
     
+    /**
+     * Forwards the frames of a sender as soon as they're received.
+     */
+    interface FrameForwarder
+    {
+        void forward(int senderID, FrameInput input);
+    }
+    
+    /**
+     * Decides whether new frames of a sender are accepted, to throttle it.
+     * Disconnection signals are always accepted.
+     */
+    interface Admission
+    {
+        boolean admits(int senderID);
+    }
+    
     /**
      * Constructor.
      * 
@@ -49,14 +100,85 @@ class ServerReceivingQueue implements ReceivingQueue {
      * queues are ready before collecting the next frame inputs
      */
     public ServerReceivingQueue(int initialFrameNumber, int senderID, Semaphore serverExecutionSemaphore)
+    {
+        this(initialFrameNumber, senderID, serverExecutionSemaphore, null, null);
+    }
+    
+    /**
+     * Constructor.
+     * 
+     * @param initialFrameNumber First frame's number
+     * @param senderID ID of the client whose frames are received
+     * @param serverExecutionSemaphore semaphore released when frames are 
+     * stored, unused in cut-through mode
+     * @param forwarder receiver of each new frame, on the thread pushing it,
+     * or null to store the frames for extraction
+     * @param admission decides whether new frames are accepted, or null to 
+     * accept them all
+     */
+    ServerReceivingQueue(int initialFrameNumber, int senderID, Semaphore serverExecutionSemaphore, FrameForwarder forwarder, Admission admission)
     {
         this.senderID = senderID;
+        this.forwarder = forwarder;
+        this.admission = admission;
     
-        this.commandBuffer = new ConcurrentSkipListMap<>();
+        this.frameBuffer = new ConcurrentSkipListMap<>();
         this.executionSemaphore = serverExecutionSemaphore;
 
         this.lastInOrderACK = new AtomicInteger(initialFrameNumber - 1);
+        this.lastForwarded = initialFrameNumber - 1;
         this.selectiveACKsSet = new ConcurrentSkipListSet<>();
+        this.missingReportedUpTo = initialFrameNumber - 1;
+    }
+    
+    public int getSenderID()
+    {
+        return senderID;
+    }
+    
+    /**
+     * Extracts the buffered frames preceding a frame, in order, without 
+     * acquiring the semaphore.
+     * 
+     * @param frameNumber the first frame left in the buffer
+     * @return the frames extracted, possibly none
+     */
+    FrameInput[] extractBefore(int frameNumber)
+    {
+        Map<Integer, FrameInput> preceding = frameBuffer.headMap(frameNumber);
+        FrameInput[] frames = preceding.values().toArray(new FrameInput[0]);
+        for(FrameInput frame : frames)
+            frameBuffer.remove(frame.getFrameNumber());
+        return frames;
+    }
+    
+    /**
+     * Records a frame forwarded in cut-through mode. The frames are forwarded
+     * before they're ACKed, so this may run ahead of the last in order ACK.
+     * 
+     * @param frameNumber the frame forwarded
+     */
+    void forwarded(int frameNumber)
+    {
+        lastForwarded = frameNumber;
+    }
+    
+    /**
+     * @return the last frame forwarded in cut-through mode
+     */
+    int getLastForwarded()
+    {
+        return lastForwarded;
+    }
+    
+    /**
+     * Drops the frames still buffered and those received from now on, still
+     * ACKing them, as the sender was demoted to spectator.
+     */
+    void discard()
+    {
+        discarding = true;
+        frameBuffer.clear();
     }
     
     /**
@@ -68,14 +190,14 @@ class ServerReceivingQueue implements ReceivingQueue {
     @Override
     public FrameInput pop()
     {        
-        Entry<Integer, LockstepCommand> firstFrameEntry = commandBuffer.pollFirstEntry();
+        Entry<Integer, FrameInput> firstFrameEntry = frameBuffer.pollFirstEntry();
         
         if( firstFrameEntry != null )
         {
-            if(commandBuffer.firstEntry() != null)
+            if(!frameBuffer.isEmpty())
                 executionSemaphore.release();
             
-            return new FrameInput(firstFrameEntry.getKey(), firstFrameEntry.getValue());
+            return firstFrameEntry.getValue();
         }
         else
         {
@@ -90,8 +212,8 @@ class ServerReceivingQueue implements ReceivingQueue {
     @Override
     public FrameInput head()
     {
-        Entry<Integer, LockstepCommand> firstFrame = commandBuffer.firstEntry();
-        return new FrameInput(firstFrame.getKey(), firstFrame.getValue());
+        Entry<Integer, FrameInput> firstFrame = frameBuffer.firstEntry();
+        return firstFrame != null ? firstFrame.getValue() : null;
     }
     
     /**
@@ -106,7 +228,8 @@ class ServerReceivingQueue implements ReceivingQueue {
         for(FrameInput input : inputs)
             _push(input);
         
-        executionSemaphore.release();
+        if(forwarder == null && !discarding)
+            executionSemaphore.release();
         
         return getACK();
     }
@@ -123,7 +246,8 @@ class ServerReceivingQueue implements ReceivingQueue {
     {
         _push(input);
         
-        executionSemaphore.release(); //let sem know there is something new
+        if(forwarder == null && !discarding)
+            executionSemaphore.release(); //let sem know there is something new
         return getACK();
     }
             
@@ -136,7 +260,18 @@ class ServerReceivingQueue implements ReceivingQueue {
     {
         if(input.getFrameNumber() > lastInOrderACK.get() && !selectiveACKsSet.contains(input.getFrameNumber())) 
         {
-            commandBuffer.putIfAbsent(input.getFrameNumber(), input.getCommand());
+            //Refused frames aren't ACKed, so the sender retransmits them
+            if(admission != null && !(input.getCommand() instanceof DisconnectionSignal) && !admission.admits(senderID))
+                return;
+            
+            //Frames of spectators are only ACKed
+            if(!discarding)
+            {
+                if(forwarder != null && input.getFrameNumber() == this.lastInOrderACK.get() + 1)
+                    forwarder.forward(senderID, input);
+                else
+                    frameBuffer.putIfAbsent(input.getFrameNumber(), input);
+            }
             if(input.getFrameNumber() == this.lastInOrderACK.get() + 1)
             {
                 lastInOrderACK.incrementAndGet();
@@ -145,6 +280,8 @@ class ServerReceivingQueue implements ReceivingQueue {
                 {
                     this.lastInOrderACK.incrementAndGet();
                     this.selectiveACKsSet.removeAll(this.selectiveACKsSet.headSet(lastInOrderACK.get(), true));
+                    if(forwarder != null)
+                        forwardHeld(lastInOrderACK.get());
                 }
             }
             else
@@ -154,6 +291,41 @@ class ServerReceivingQueue implements ReceivingQueue {
         }
     }
         
+    /**
+     * Forwards a frame held in cut-through mode, now that the frames before
+     * it were forwarded. Nothing is held once discarding.
+     */
+    private void forwardHeld(int frameNumber)
+    {
+        FrameInput held = frameBuffer.remove(frameNumber);
+        if(held != null)
+            forwarder.forward(senderID, held);
+    }
+    
+    @Override
+    public int getLastInOrderACK()
+    {
+        return lastInOrderACK.get();
+    }
+    
+    @Override
+    public int[] newMissingRanges()
+    {
+        int[] ranges = MissingFrames.ranges(lastInOrderACK.get(), selectiveACKsSet, missingReportedUpTo);
+        if(ranges != null)
+            missingReportedUpTo = ranges[ranges.length - 1];
+        return ranges;
+    }
+    
+    /**
+     * Takes time linear in the backlog.
+     */
+    @Override
+    public int backlog()
+    {
+        return frameBuffer.size();
+    }
+    
     @Override
     public FrameACK getACK()
     {
@@ -167,6 +339,9 @@ class ServerReceivingQueue implements ReceivingQueue {
      */
     private int[] _getSelectiveACKs()
     {
+        if(this.selectiveACKsSet.isEmpty())
+            return null;
+        
         Integer[] selectiveACKsIntegerArray = this.selectiveACKsSet.toArray(new Integer[0]);
         if(selectiveACKsIntegerArray.length > 0)
         {
@@ -183,7 +358,7 @@ class ServerReceivingQueue implements ReceivingQueue {
         String string = new String();
         
         string += "ExecutionFrameQueue[" + senderID + "] = {";
-        for(Map.Entry<Integer, LockstepCommand> entry : this.commandBuffer.entrySet())
+        for(Map.Entry<Integer, FrameInput> entry : this.frameBuffer.entrySet())
         {
             string += " " + entry.getKey();
         }
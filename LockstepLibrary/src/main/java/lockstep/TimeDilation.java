@@ -0,0 +1,67 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How late the frames of a client reach the server with respect to the
+ * average of the clients, and the frame period the client runs at to
+ * converge: a client behind shortens its period, one ahead lengthens it, by
+ * the fraction of the offset to recover per second of correction, within
+ * MAX_DILATION.
+ *
+ * On the server it's written by the server thread and read by the
+ * transmitter sending the hints; on the client it's written by the receiver
+ * and read by the client thread.
+ */
+class TimeDilation
+{
+    /**
+     * Largest change of the frame period, as a fraction of the nominal one.
+     */
+    static final double MAX_DILATION = 0.05;
+
+    /**
+     * Time the offset is recovered in, when within the maximum dilation.
+     */
+    static final long CORRECTION_TIME = TimeUnit.SECONDS.toNanos(2);
+
+    private volatile long offsetNanos;
+
+    /**
+     * @param offsetNanos how late the frames of the client are, negative if
+     * they're early
+     */
+    void setOffset(long offsetNanos)
+    {
+        this.offsetNanos = offsetNanos;
+    }
+
+    long getOffset()
+    {
+        return offsetNanos;
+    }
+
+    /**
+     * @return the fraction the frame period is shortened by, negative if
+     * lengthened
+     */
+    double getDilation()
+    {
+        double dilation = (double) offsetNanos / CORRECTION_TIME;
+        return Math.max(-MAX_DILATION, Math.min(MAX_DILATION, dilation));
+    }
+
+    /**
+     * @param nominalNanos the frame period at the nominal framerate
+     * @return the dilated frame period
+     */
+    long framePeriod(long nominalNanos)
+    {
+        return (long) (nominalNanos * (1 - getDilation()));
+    }
+}
@@ -5,13 +5,15 @@
  */
 package lockstep;
 
-import java.util.ArrayList;
 import java.util.Map.Entry;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.atomic.AtomicInteger;
 import lockstep.messages.simulation.FrameACK;
-import lockstep.messages.simulation.LockstepCommand;
+import lockstep.jfr.FrameEvents;
+import lockstep.metrics.LinkMetrics;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
 
@@ -25,11 +27,52 @@ import org.apache.logging.log4j.LogManager;
 
 public class TransmissionQueue
 {    
-    ConcurrentSkipListMap<Integer, LockstepCommand> commandsBuffer;
+    ConcurrentSkipListMap<Integer, FrameInput> framesBuffer;
     AtomicInteger lastACKed;
+    
+    /**
+     * Frames in the buffer, as the size of the skip list is linear to count.
+     */
+    private final AtomicInteger unackedFrames = new AtomicInteger();
+    
+    /**
+     * Time the unacked frames went beyond a bound, valid while overBound.
+     */
+    private long overBoundSince;
+    private boolean overBound;
         
     private static final Logger LOG = LogManager.getLogger(TransmissionQueue.class);
     private final int senderID;
+    private final int initialFrameNumber;
+    
+    /**
+     * False while the recipient has not yet acknowledged the existence of the 
+     * sender, as happens for clients joining a running session.
+     */
+    private volatile boolean announced;
+    
+    /**
+     * Recorder of the link the frames are transmitted on.
+     */
+    private volatile LinkMetrics metrics = LinkMetrics.NOOP;
+    
+    /**
+     * For each frame extracted and not yet ACKed, the time of its first
+     * extraction and the number of extractions. Filled only if metrics are
+     * attached.
+     */
+    private final ConcurrentSkipListMap<Integer, long[]> transmissions = new ConcurrentSkipListMap<>();
+    
+    /**
+     * Frames NACKed by the recipient, to be retransmitted ahead of the tick.
+     */
+    private final ConcurrentSkipListSet<Integer> nackedFrames = new ConcurrentSkipListSet<>();
+    
+    /**
+     * ACK set of the link, through which an idle transmitter is woken when
+     * frames are pushed.
+     */
+    private volatile ACKSet transmitterWakeUp;
 
     /**
      * Constructor.
@@ -39,9 +82,57 @@ public class TransmissionQueue
      */
     public TransmissionQueue(int initialFrameNumber, int senderID)
     {
-        this.commandsBuffer = new ConcurrentSkipListMap<>();
+        this(initialFrameNumber, senderID, true);
+    }
+    
+    /**
+     * Constructor.
+     * @param initialFrameNumber First frame's number for the sender
+     * @param senderID ID of the client whose frames are collected by this queue
+     * @param announced false if the recipient doesn't know the sender yet, and
+     * must be notified before receiving its frames
+     */
+    public TransmissionQueue(int initialFrameNumber, int senderID, boolean announced)
+    {
+        this.framesBuffer = new ConcurrentSkipListMap<>();
         this.lastACKed = new AtomicInteger(initialFrameNumber - 1);
         this.senderID = senderID;
+        this.initialFrameNumber = initialFrameNumber;
+        this.announced = announced;
+    }
+    
+    public int getInitialFrameNumber()
+    {
+        return initialFrameNumber;
+    }
+    
+    /**
+     * @return true if the recipient is aware of the sender of this queue
+     */
+    public boolean isAnnounced()
+    {
+        return announced;
+    }
+    
+    /**
+     * Starts recording the transmissions of the frames and their ACK latency.
+     * 
+     * @param metrics recorder of the link the frames are transmitted on
+     */
+    public void attachMetrics(LinkMetrics metrics)
+    {
+        this.metrics = metrics;
+    }
+    
+    /**
+     * Wakes the transmitter of the link, when idle, whenever frames are 
+     * pushed.
+     * 
+     * @param ackSet the ACK set of the link the frames are transmitted on
+     */
+    public void attachWakeUp(ACKSet ackSet)
+    {
+        this.transmitterWakeUp = ackSet;
     }
     
     /**
@@ -52,7 +143,11 @@ public class TransmissionQueue
      */
     public void push(FrameInput frameInput)
     {
-        commandsBuffer.putIfAbsent(frameInput.getFrameNumber(), frameInput.getCommand());
+        if(framesBuffer.putIfAbsent(frameInput.getFrameNumber(), frameInput) == null)
+            unackedFrames.incrementAndGet();
+        ACKSet wakeUp = transmitterWakeUp;
+        if(wakeUp != null)
+            wakeUp.wakeIdleTransmitter();
     }
     
     /**
@@ -68,7 +163,40 @@ public class TransmissionQueue
     
     public boolean hasFramesToSend()
     {
-        return !this.commandsBuffer.isEmpty();
+        return !this.framesBuffer.isEmpty();
+    }
+    
+    /**
+     * @return the frames pushed and not yet ACKed
+     */
+    public int getUnackedFrames()
+    {
+        return unackedFrames.get();
+    }
+    
+    /**
+     * Tracks how long the unacked frames have stayed beyond a bound. To be
+     * called by a single thread.
+     * 
+     * @param maxUnackedFrames the bound
+     * @param now current time, as of System.nanoTime
+     * @return the nanoseconds since the frames went beyond the bound, or -1
+     * if they're within it
+     */
+    long timeOverBound(int maxUnackedFrames, long now)
+    {
+        if(unackedFrames.get() <= maxUnackedFrames)
+        {
+            overBound = false;
+            return -1;
+        }
+        
+        if(!overBound)
+        {
+            overBound = true;
+            overBoundSince = now;
+        }
+        return now - overBoundSince;
     }
     
     /**
@@ -83,15 +211,64 @@ public class TransmissionQueue
      */
     public FrameInput[] pop()
     {
-        Set<Entry<Integer, LockstepCommand>> commandEntries = commandsBuffer.entrySet();
-        ArrayList<FrameInput> toRet = new ArrayList<>();        
-        for (Entry<Integer, LockstepCommand> commandEntry : commandEntries) {
-            int frameNumber = commandEntry.getKey();
-            LockstepCommand command = commandEntry.getValue();
-            toRet.add(new FrameInput(frameNumber, command));
+        FrameInput[] toRet = framesBuffer.values().toArray(new FrameInput[0]);
+        
+        if(metrics != LinkMetrics.NOOP)
+            recordTransmissions(toRet);
+        
+        return toRet;
+    }
+    
+    /**
+     * Marks the NACKed frames still waiting for their ACK to be retransmitted
+     * at once.
+     * 
+     * @param missingRanges pairs of first and last missing frame, both 
+     * included
+     * @return true if some of the frames are to be retransmitted
+     */
+    public boolean processNACK(int[] missingRanges)
+    {
+        boolean marked = false;
+        for(int i = 0; i + 1 < missingRanges.length; i += 2)
+        {
+            for(Integer frameNumber : framesBuffer.subMap(missingRanges[i], true, missingRanges[i + 1], true).keySet())
+                marked |= nackedFrames.add(frameNumber);
+        }
+        return marked;
+    }
+    
+    /**
+     * @return true if there are NACKed frames to retransmit
+     */
+    public boolean hasNACKedFrames()
+    {
+        return !nackedFrames.isEmpty();
+    }
+    
+    /**
+     * Extracts the NACKed frames still waiting for their ACK. Unlike pop(), 
+     * the request is consumed: they're sent again only by the periodic
+     * transmission or by a new NACK.
+     * 
+     * @return the frames to retransmit, in order, possibly none
+     */
+    public FrameInput[] popNACKed()
+    {
+        List<FrameInput> frames = new ArrayList<>();
+        Integer frameNumber;
+        while((frameNumber = nackedFrames.pollFirst()) != null)
+        {
+            FrameInput frame = framesBuffer.get(frameNumber);
+            if(frame != null)
+                frames.add(frame);
         }
         
-        return toRet.toArray(new FrameInput[0]);
+        FrameInput[] toRet = frames.toArray(new FrameInput[0]);
+        if(metrics != LinkMetrics.NOOP)
+            recordTransmissions(toRet);
+        
+        return toRet;
     }
     
     /**
@@ -106,14 +283,61 @@ public class TransmissionQueue
      */
     public void processACK(FrameACK ack)
     {
-        for(Integer key : commandsBuffer.headMap(ack.cumulativeACK, true).keySet())
-            commandsBuffer.remove(key);
+        announced = true;
+        FrameEvents.frameACKed(senderID, ack);
+        
+        //Only this method removes frames, so the first key can't vanish
+        //between the checks
+        while(!framesBuffer.isEmpty() && framesBuffer.firstKey() <= ack.cumulativeACK)
+        {
+            Integer key = framesBuffer.firstKey();
+            framesBuffer.remove(key);
+            unackedFrames.decrementAndGet();
+            recordACK(key);
+        }
         
-        lastACKed.set(ack.cumulativeACK);
+        //Stale ACKs, reordered by the network, don't move it back
+        lastACKed.accumulateAndGet(ack.cumulativeACK, Math::max);
         
         if(ack.selectiveACKs != null)
             for(int frameNumber : ack.selectiveACKs)
-                commandsBuffer.remove(frameNumber);
+            {
+                if(framesBuffer.remove(frameNumber) != null)
+                {
+                    unackedFrames.decrementAndGet();
+                    recordACK(frameNumber);
+                }
+            }
+        
+        if(!transmissions.isEmpty())
+            transmissions.headMap(ack.cumulativeACK, true).clear();
+        
+        if(!nackedFrames.isEmpty())
+            nackedFrames.headSet(ack.cumulativeACK, true).clear();
+
+    }
+    
+    private void recordTransmissions(FrameInput[] frames)
+    {
+        long now = System.nanoTime();
+        for(FrameInput frame : frames)
+        {
+            long[] transmission = transmissions.get(frame.getFrameNumber());
+            if(transmission == null)
+                transmissions.put(frame.getFrameNumber(), new long[] { now, 1 });
+            else
+                transmission[1]++;
+        }
+    }
+    
+    private void recordACK(int frameNumber)
+    {
+        if(transmissions.isEmpty())
+            return;
+        
+        long[] transmission = transmissions.remove(frameNumber);
+        if(transmission != null)
+            metrics.frameACKed((int) transmission[1], System.nanoTime() - transmission[0]);
     }
     
     @Override
@@ -122,7 +346,7 @@ public class TransmissionQueue
         String string = new String();
         
         string += "TransmissionFrameQueue[" + senderID + "] = {";
-        for(Entry<Integer, LockstepCommand> entry : this.commandsBuffer.entrySet())
+        for(Entry<Integer, FrameInput> entry : this.framesBuffer.entrySet())
         {
             string += " " + entry.getKey();
         }
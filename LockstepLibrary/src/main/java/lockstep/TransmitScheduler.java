@@ -0,0 +1,140 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import lockstep.metrics.LockstepMetrics;
+
+/**
+ * Schedules the ticks of the transmitters of the server, which would
+ * otherwise fire together and send their datagrams in bursts at every tick.
+ *
+ * When staggered, each link takes a slot, and the ticks of slot i are offset
+ * from a common epoch by the bit reversed fraction of i of the tick period:
+ * 0, 1/2, 1/4, 3/4, 1/8... The links are thus evenly spread whatever their
+ * number, each new one falling in the largest gap, and the slots of the links
+ * leaving are reused.
+ *
+ * It also measures the bursts: the datagrams sent by all the links within
+ * each BURST_WINDOW, staggered or not.
+ */
+class TransmitScheduler
+{
+    /**
+     * Span of time the datagrams sent count as a single burst.
+     */
+    static final long BURST_WINDOW = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final long periodNanos;
+    private final boolean staggered;
+    private final LockstepMetrics metrics;
+    private final long epochNanos = System.nanoTime();
+
+    private final Map<LockstepTransmitter, Integer> slots = new HashMap<>();
+    private final BitSet usedSlots = new BitSet();
+
+    private long burstWindow = Long.MIN_VALUE;
+    private int burstDatagrams;
+
+    /**
+     * Constructor.
+     *
+     * @param tickrate ticks per second of the transmitters
+     * @param staggered true to spread the ticks of the links over the period,
+     * false to let each transmitter tick from its own start
+     * @param metrics recorder of the bursts
+     */
+    TransmitScheduler(int tickrate, boolean staggered, LockstepMetrics metrics)
+    {
+        if(tickrate <= 0)
+            throw new IllegalArgumentException("Tickrate must be an integer greater than 0");
+        else
+            this.periodNanos = TimeUnit.MILLISECONDS.toNanos(1000/tickrate);
+
+        this.staggered = staggered;
+
+        if(metrics == null)
+            throw new IllegalArgumentException("Metrics cannot be null, use LockstepMetrics.NOOP");
+        else
+            this.metrics = metrics;
+    }
+
+    /**
+     * Assigns a slot to a transmitter starting.
+     *
+     * @param transmitter the transmitter
+     * @return the offset of its ticks from the epoch, in nanoseconds
+     */
+    synchronized long register(LockstepTransmitter transmitter)
+    {
+        Integer slot = slots.get(transmitter);
+        if(slot == null)
+        {
+            slot = usedSlots.nextClearBit(0);
+            usedSlots.set(slot);
+            slots.put(transmitter, slot);
+        }
+        return phase(slot);
+    }
+
+    /**
+     * Frees the slot of a transmitter terminating.
+     *
+     * @param transmitter the transmitter
+     */
+    synchronized void release(LockstepTransmitter transmitter)
+    {
+        Integer slot = slots.remove(transmitter);
+        if(slot != null)
+            usedSlots.clear(slot);
+    }
+
+    /**
+     * @param slot the slot
+     * @return the offset of the ticks of the slot from the epoch
+     */
+    long phase(int slot)
+    {
+        return (periodNanos * (Integer.reverse(slot) >>> 1)) >>> 31;
+    }
+
+    /**
+     * @param phaseNanos offset of the ticks of the transmitter
+     * @param nowNanos the current time
+     * @return the deadline of the next tick of the transmitter
+     */
+    long nextTick(long phaseNanos, long nowNanos)
+    {
+        if(!staggered)
+            return nowNanos + periodNanos;
+
+        long ticks = Math.floorDiv(nowNanos - epochNanos - phaseNanos, periodNanos) + 1;
+        return epochNanos + phaseNanos + ticks * periodNanos;
+    }
+
+    /**
+     * Accounts the datagrams sent by a transmitter at a tick.
+     *
+     * @param datagrams the datagrams sent
+     * @param tickNanos the start of the tick
+     */
+    synchronized void transmitted(int datagrams, long tickNanos)
+    {
+        long window = Math.floorDiv(tickNanos - epochNanos, BURST_WINDOW);
+        //Late reports of past windows are merged in the current one
+        if(window > burstWindow)
+        {
+            if(burstDatagrams > 0)
+                metrics.transmitBurst(burstDatagrams);
+            burstWindow = window;
+            burstDatagrams = 0;
+        }
+        burstDatagrams += datagrams;
+    }
+}
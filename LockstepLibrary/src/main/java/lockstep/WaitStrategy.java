@@ -0,0 +1,300 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntSupplier;
+
+/**
+ * How a loop of the protocol waits for its next event: the inputs of a frame,
+ * a frame to forward, the next tick or a wake up of a transmitter.
+ *
+ * Blocking, the default, costs no CPU but wakes up tens of microseconds to
+ * milliseconds late. The other strategies poll the event instead: parking
+ * sleeps a fixed time between the polls, yielding spins a little and then
+ * yields the CPU, busy-spinning never lets the CPU go and backs off only to
+ * lower the contention on the polled state. They trade CPU for latency, and
+ * are meant for machines dedicated to the matches.
+ */
+public abstract class WaitStrategy
+{
+    /**
+     * Polls of the yielding strategy before it starts yielding.
+     */
+    static final int SPIN_TRIES = 100;
+
+    /**
+     * Largest back-off of the busy-spinning strategy, as a power of two of
+     * the spins between polls.
+     */
+    static final int MAX_BACKOFF_SHIFT = 6;
+
+    private static final WaitStrategy BLOCKING = new Blocking();
+    private static final WaitStrategy YIELDING = new Yielding();
+    private static final WaitStrategy BUSY_SPIN = new BusySpin();
+
+    /**
+     * Event waited for.
+     */
+    interface Signal
+    {
+        /**
+         * Consumes the event if it occurred, without waiting.
+         *
+         * @return true if consumed
+         */
+        boolean poll();
+
+        /**
+         * Blocks until the event occurs, then consumes it.
+         */
+        void block() throws InterruptedException;
+
+        /**
+         * Blocks until the event occurs, then consumes it, or until the time
+         * passed.
+         *
+         * @param timeoutNanos max time to wait
+         * @return true if consumed, false if the time passed
+         */
+        boolean block(long timeoutNanos) throws InterruptedException;
+
+        /**
+         * @param semaphore the semaphore
+         * @param permits the permits to acquire, read at each attempt
+         * @return the acquisition of the permits from the semaphore
+         */
+        static Signal of(Semaphore semaphore, IntSupplier permits)
+        {
+            return new Signal()
+            {
+                @Override
+                public boolean poll()
+                {
+                    return semaphore.tryAcquire(permits.getAsInt());
+                }
+
+                @Override
+                public void block() throws InterruptedException
+                {
+                    semaphore.acquire(permits.getAsInt());
+                }
+
+                @Override
+                public boolean block(long timeoutNanos) throws InterruptedException
+                {
+                    return semaphore.tryAcquire(permits.getAsInt(), timeoutNanos, TimeUnit.NANOSECONDS);
+                }
+            };
+        }
+    }
+
+    /**
+     * An event that never occurs, to wait for a deadline alone.
+     */
+    private static final Signal NEVER = new Signal()
+    {
+        @Override
+        public boolean poll()
+        {
+            return false;
+        }
+
+        @Override
+        public void block() throws InterruptedException
+        {
+            throw new IllegalStateException("Waiting for no event without a deadline");
+        }
+
+        @Override
+        public boolean block(long timeoutNanos) throws InterruptedException
+        {
+            //Sleep rounds to milliseconds, too coarse for the frame periods
+            long deadline = System.nanoTime() + timeoutNanos;
+            long remaining;
+            while((remaining = deadline - System.nanoTime()) > 0)
+            {
+                LockSupport.parkNanos(remaining);
+                if(Thread.interrupted())
+                    throw new InterruptedException();
+            }
+            return false;
+        }
+    };
+
+    WaitStrategy()
+    {
+    }
+
+    /**
+     * @return the strategy blocking on the event, the default
+     */
+    public static WaitStrategy blocking()
+    {
+        return BLOCKING;
+    }
+
+    /**
+     * @param parkTime time slept between the polls of the event
+     * @param unit unit of the time
+     * @return the strategy polling the event at fixed intervals
+     */
+    public static WaitStrategy parking(long parkTime, TimeUnit unit)
+    {
+        return new Parking(unit.toNanos(parkTime));
+    }
+
+    /**
+     * @return the strategy polling the event and yielding the CPU after
+     * SPIN_TRIES polls
+     */
+    public static WaitStrategy yielding()
+    {
+        return YIELDING;
+    }
+
+    /**
+     * @return the strategy polling the event without ever yielding the CPU
+     */
+    public static WaitStrategy busySpin()
+    {
+        return BUSY_SPIN;
+    }
+
+    /**
+     * Waits for an event with no time limit.
+     *
+     * @param signal the event
+     * @throws InterruptedException if interrupted while waiting
+     */
+    abstract void await(Signal signal) throws InterruptedException;
+
+    /**
+     * Waits for an event until a deadline.
+     *
+     * @param signal the event
+     * @param deadlineNanos the deadline, as of System.nanoTime
+     * @return true if the event occurred, false if the deadline passed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    abstract boolean await(Signal signal, long deadlineNanos) throws InterruptedException;
+
+    /**
+     * Waits until a deadline.
+     *
+     * @param deadlineNanos the deadline, as of System.nanoTime
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void sleepUntil(long deadlineNanos) throws InterruptedException
+    {
+        await(NEVER, deadlineNanos);
+    }
+
+    private static class Blocking extends WaitStrategy
+    {
+        @Override
+        void await(Signal signal) throws InterruptedException
+        {
+            signal.block();
+        }
+
+        @Override
+        boolean await(Signal signal, long deadlineNanos) throws InterruptedException
+        {
+            long remaining = deadlineNanos - System.nanoTime();
+            if(remaining <= 0)
+                return signal.poll();
+            return signal.block(remaining);
+        }
+    }
+
+    /**
+     * Strategies polling the event, idling in their own way between polls.
+     */
+    private abstract static class Polling extends WaitStrategy
+    {
+        /**
+         * Idles between two polls.
+         *
+         * @param polls failed polls so far
+         * @param remainingNanos time to the deadline
+         */
+        abstract void idle(int polls, long remainingNanos);
+
+        @Override
+        void await(Signal signal) throws InterruptedException
+        {
+            int polls = 0;
+            while(!signal.poll())
+            {
+                if(Thread.interrupted())
+                    throw new InterruptedException();
+                idle(polls++, Long.MAX_VALUE);
+            }
+        }
+
+        @Override
+        boolean await(Signal signal, long deadlineNanos) throws InterruptedException
+        {
+            int polls = 0;
+            while(!signal.poll())
+            {
+                long remaining = deadlineNanos - System.nanoTime();
+                if(remaining <= 0)
+                    return false;
+                if(Thread.interrupted())
+                    throw new InterruptedException();
+                idle(polls++, remaining);
+            }
+            return true;
+        }
+    }
+
+    private static class Parking extends Polling
+    {
+        private final long parkNanos;
+
+        Parking(long parkNanos)
+        {
+            if(parkNanos <= 0)
+                throw new IllegalArgumentException("Park time must be positive");
+            this.parkNanos = parkNanos;
+        }
+
+        @Override
+        void idle(int polls, long remainingNanos)
+        {
+            LockSupport.parkNanos(Long.min(parkNanos, remainingNanos));
+        }
+    }
+
+    private static class Yielding extends Polling
+    {
+        @Override
+        void idle(int polls, long remainingNanos)
+        {
+            if(polls >= SPIN_TRIES)
+                Thread.yield();
+        }
+    }
+
+    private static class BusySpin extends Polling
+    {
+        /**
+         * Read while backing off, so that the spins aren't optimized away.
+         */
+        private static volatile int spinSink;
+
+        @Override
+        void idle(int polls, long remainingNanos)
+        {
+            for(int spins = 1 << Integer.min(polls, MAX_BACKOFF_SHIFT); spins > 0; spins--)
+                spinSink += 0;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("lockstep.CommandExecuted")
+@Label("Command Executed")
+@Category("Lockstep")
+@Description("The application executed the command of a sender, the duration is the one of executeCommand")
+@Enabled(false)
+@StackTrace(false)
+public class CommandExecutedEvent extends Event
+{
+    @Label("Sender ID")
+    int senderID;
+    
+    @Label("Frame Number")
+    int frameNumber;
+}
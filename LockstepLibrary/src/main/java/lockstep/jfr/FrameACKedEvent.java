@@ -0,0 +1,32 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("lockstep.FrameACKed")
+@Label("Frames ACKed")
+@Category("Lockstep")
+@Description("A transmission queue processed an ACK of the frames of a sender")
+@Enabled(false)
+@StackTrace(false)
+public class FrameACKedEvent extends Event
+{
+    @Label("Sender ID")
+    int senderID;
+    
+    @Label("Cumulative ACK")
+    int cumulativeACK;
+    
+    @Label("Selective ACKs")
+    int selectiveACKs;
+}
@@ -0,0 +1,107 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep.jfr;
+
+import lockstep.messages.simulation.FrameACK;
+
+/**
+ * Emits the Java Flight Recorder events of the frame lifecycle.
+ * 
+ * The events are disabled by default: enable them in the recording settings,
+ * e.g. with a .jfc file enabling "lockstep.*" events. When they're disabled
+ * JFR makes the checks constant, so the cost is close to zero.
+ * On JVMs without Flight Recorder the events are never touched.
+ */
+public final class FrameEvents
+{
+    private static final boolean AVAILABLE = isJFRAvailable();
+    
+    private FrameEvents()
+    {
+    }
+    
+    private static boolean isJFRAvailable()
+    {
+        try
+        {
+            Class.forName("jdk.jfr.Event", false, FrameEvents.class.getClassLoader());
+            return true;
+        }
+        catch(ClassNotFoundException | LinkageError notAvailable)
+        {
+            return false;
+        }
+    }
+    
+    /**
+     * @return true if the JVM supports Flight Recorder events
+     */
+    public static boolean isAvailable()
+    {
+        return AVAILABLE;
+    }
+    
+    public static void inputCreated(int senderID, int frameNumber)
+    {
+        if(AVAILABLE)
+            JFRFrameEvents.inputCreated(senderID, frameNumber);
+    }
+    
+    /**
+     * @param senderID ID of the client the frames come from
+     * @param firstFrameNumber number of the first frame sent
+     * @param lastFrameNumber number of the last frame sent
+     * @param frames number of frames sent
+     * @param datagrams number of datagrams the frames were split in
+     * @param bytes total payload length of the datagrams
+     */
+    public static void inputsSent(int senderID, int firstFrameNumber, int lastFrameNumber, int frames, int datagrams, int bytes)
+    {
+        if(AVAILABLE)
+            JFRFrameEvents.inputsSent(senderID, firstFrameNumber, lastFrameNumber, frames, datagrams, bytes);
+    }
+    
+    public static void inputsReceived(int senderID, int firstFrameNumber, int frames, int bytes)
+    {
+        if(AVAILABLE)
+            JFRFrameEvents.inputsReceived(senderID, firstFrameNumber, frames, bytes);
+    }
+    
+    public static void frameForwarded(int senderID, int frameNumber, int recipients)
+    {
+        if(AVAILABLE)
+            JFRFrameEvents.frameForwarded(senderID, frameNumber, recipients);
+    }
+    
+    public static void frameACKed(int senderID, FrameACK ack)
+    {
+        if(AVAILABLE)
+            JFRFrameEvents.frameACKed(senderID, ack);
+    }
+    
+    /**
+     * Starts timing the execution of a command.
+     * 
+     * @return handle to pass to commandExecuted()
+     */
+    public static Object beginExecution()
+    {
+        if(AVAILABLE)
+            return JFRFrameEvents.beginExecution();
+        return null;
+    }
+    
+    /**
+     * @param handle returned by beginExecution()
+     * @param senderID ID of the client the command comes from
+     * @param frameNumber number of the frame executed
+     */
+    public static void commandExecuted(Object handle, int senderID, int frameNumber)
+    {
+        if(AVAILABLE)
+            JFRFrameEvents.commandExecuted(handle, senderID, frameNumber);
+    }
+}
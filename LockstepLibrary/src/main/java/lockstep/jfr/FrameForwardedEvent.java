@@ -0,0 +1,32 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("lockstep.FrameForwarded")
+@Label("Frame Forwarded")
+@Category("Lockstep")
+@Description("The server queued the frame of a sender for transmission to the other clients")
+@Enabled(false)
+@StackTrace(false)
+public class FrameForwardedEvent extends Event
+{
+    @Label("Sender ID")
+    int senderID;
+    
+    @Label("Frame Number")
+    int frameNumber;
+    
+    @Label("Recipients")
+    int recipients;
+}
@@ -0,0 +1,29 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("lockstep.InputCreated")
+@Label("Input Created")
+@Category("Lockstep")
+@Description("The client read a user input and queued it for transmission")
+@Enabled(false)
+@StackTrace(false)
+public class InputCreatedEvent extends Event
+{
+    @Label("Sender ID")
+    int senderID;
+    
+    @Label("Frame Number")
+    int frameNumber;
+}
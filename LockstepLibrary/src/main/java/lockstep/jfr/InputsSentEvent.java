@@ -0,0 +1,43 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("lockstep.InputsSent")
+@Label("Inputs Sent")
+@Category("Lockstep")
+@Description("The transmitter sent the pending frames of a sender")
+@Enabled(false)
+@StackTrace(false)
+public class InputsSentEvent extends Event
+{
+    @Label("Sender ID")
+    int senderID;
+    
+    @Label("First Frame Number")
+    int firstFrameNumber;
+    
+    @Label("Last Frame Number")
+    int lastFrameNumber;
+    
+    @Label("Frames")
+    int frames;
+    
+    @Label("Datagrams")
+    int datagrams;
+    
+    @Label("Size")
+    @DataAmount
+    int bytes;
+}
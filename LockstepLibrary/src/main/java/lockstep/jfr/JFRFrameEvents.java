@@ -0,0 +1,107 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep.jfr;
+
+import lockstep.messages.simulation.FrameACK;
+
+/**
+ * Creates and commits the events. Kept apart from FrameEvents, so that the
+ * jdk.jfr classes are loaded only if available.
+ */
+final class JFRFrameEvents
+{
+    private JFRFrameEvents()
+    {
+    }
+    
+    static void inputCreated(int senderID, int frameNumber)
+    {
+        InputCreatedEvent event = new InputCreatedEvent();
+        if(event.shouldCommit())
+        {
+            event.senderID = senderID;
+            event.frameNumber = frameNumber;
+            event.commit();
+        }
+    }
+    
+    static void inputsSent(int senderID, int firstFrameNumber, int lastFrameNumber, int frames, int datagrams, int bytes)
+    {
+        InputsSentEvent event = new InputsSentEvent();
+        if(event.shouldCommit())
+        {
+            event.senderID = senderID;
+            event.firstFrameNumber = firstFrameNumber;
+            event.lastFrameNumber = lastFrameNumber;
+            event.frames = frames;
+            event.datagrams = datagrams;
+            event.bytes = bytes;
+            event.commit();
+        }
+    }
+    
+    static void inputsReceived(int senderID, int firstFrameNumber, int frames, int bytes)
+    {
+        InputsReceivedEvent event = new InputsReceivedEvent();
+        if(event.shouldCommit())
+        {
+            event.senderID = senderID;
+            event.firstFrameNumber = firstFrameNumber;
+            event.frames = frames;
+            event.bytes = bytes;
+            event.commit();
+        }
+    }
+    
+    static void frameForwarded(int senderID, int frameNumber, int recipients)
+    {
+        FrameForwardedEvent event = new FrameForwardedEvent();
+        if(event.shouldCommit())
+        {
+            event.senderID = senderID;
+            event.frameNumber = frameNumber;
+            event.recipients = recipients;
+            event.commit();
+        }
+    }
+    
+    static void frameACKed(int senderID, FrameACK ack)
+    {
+        FrameACKedEvent event = new FrameACKedEvent();
+        if(event.shouldCommit())
+        {
+            event.senderID = senderID;
+            event.cumulativeACK = ack.cumulativeACK;
+            event.selectiveACKs = ack.selectiveACKs != null ? ack.selectiveACKs.length : 0;
+            event.commit();
+        }
+    }
+    
+    static Object beginExecution()
+    {
+        CommandExecutedEvent event = new CommandExecutedEvent();
+        if(!event.isEnabled())
+            return null;
+        
+        event.begin();
+        return event;
+    }
+    
+    static void commandExecuted(Object handle, int senderID, int frameNumber)
+    {
+        if(handle == null)
+            return;
+        
+        CommandExecutedEvent event = (CommandExecutedEvent) handle;
+        event.end();
+        if(event.shouldCommit())
+        {
+            event.senderID = senderID;
+            event.frameNumber = frameNumber;
+            event.commit();
+        }
+    }
+}
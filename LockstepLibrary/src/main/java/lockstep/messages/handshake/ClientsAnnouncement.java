@@ -9,9 +9,12 @@ import java.io.Serializable;
 
 /**
  * Third message of the handshake protocol, from server to client.
- * It contains the IDs of all the clients partecipating.
+ * It contains the IDs of all the clients partecipating and, for clients
+ * joining a running session, the first frame number of each of them.
+ * The firstFrameNumbers array can be null, meaning all clients started together.
  */
 public class ClientsAnnouncement implements Serializable
 {
     public int[] clientIDs;
+    public int[] firstFrameNumbers;
 }
@@ -10,7 +10,11 @@ import java.io.Serializable;
 /**
  * Second message of the handshake protocol, from server to client.
  * It contains the udp port to use during simulation, the assigned clientID,
- * the number of clients that will partecipate and the initial frame number
+ * the number of clients that will partecipate and the initial frame number.
+ * For clients joining a running session, the join frame number is the first
+ * frame the client will send, while the previous ones are streamed as history.
+ * The session token, if not zero, allows the client to resume the UDP session
+ * after a transient loss of connectivity.
  */
 public class ServerHelloReply implements Serializable
 {
@@ -18,12 +22,27 @@ public class ServerHelloReply implements Serializable
     public int assignedClientID;
     public int clientsNumber;
     public int firstFrameNumber;
+    public int joinFrameNumber;
+    public long sessionToken;
+    
+    /**
+     * Server nanoTime at the hello reception and at the reply, for the client
+     * to estimate its clock offset. Zero if not set.
+     */
+    public long helloReceivedNanos;
+    public long replySentNanos;
 
     public ServerHelloReply(int serverUDPPort, int assignedClientID, int clientsNumber, int firstFrameNumber)
+    {
+        this(serverUDPPort, assignedClientID, clientsNumber, firstFrameNumber, firstFrameNumber);
+    }
+    
+    public ServerHelloReply(int serverUDPPort, int assignedClientID, int clientsNumber, int firstFrameNumber, int joinFrameNumber)
     {
         this.serverUDPPort = serverUDPPort;
         this.assignedClientID = assignedClientID;
         this.clientsNumber = clientsNumber;
         this.firstFrameNumber = firstFrameNumber;
+        this.joinFrameNumber = joinFrameNumber;
     }
 }
@@ -0,0 +1,48 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep.messages.simulation;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+/**
+ * Announcement, from server to client, of a client joining a running session.
+ * It contains the ID of the new client and the first frame it will send.
+ * It's repeated by the server until the recipient ACKs the new sender.
+ */
+public class ClientJoined implements Externalizable
+{
+    public int senderID;
+    public int firstFrameNumber;
+    
+    public ClientJoined()
+    {
+        this.senderID = 0;
+        this.firstFrameNumber = 0;
+    }
+    
+    public ClientJoined(int senderID, int firstFrameNumber)
+    {
+        this.senderID = senderID;
+        this.firstFrameNumber = firstFrameNumber;
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException
+    {
+        out.writeInt(senderID);
+        out.writeInt(firstFrameNumber);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException
+    {
+        senderID = in.readInt();
+        firstFrameNumber = in.readInt();
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep.messages.simulation;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+/**
+ * Negative ACKnowledgement, sent as soon as the receiver detects frames
+ * missing behind the ones received out of order. The missing frames are
+ * listed as ranges: missingRanges holds pairs of first and last frame number,
+ * both included, in ascending order.
+ */
+public class FrameNACK implements Externalizable
+{
+    public int senderID;
+    public int[] missingRanges;
+
+    public FrameNACK()
+    {
+        this.senderID = 0;
+        this.missingRanges = new int[0];
+    }
+
+    public FrameNACK(int senderID, int[] missingRanges)
+    {
+        this.senderID = senderID;
+        this.missingRanges = missingRanges;
+    }
+
+    public int getSenderID()
+    {
+        return senderID;
+    }
+
+    public void setSenderID(int senderID)
+    {
+        this.senderID = senderID;
+    }
+
+    /**
+     * @return the number of missing frames listed
+     */
+    public int missingFrames()
+    {
+        int count = 0;
+        for(int i = 0; i < missingRanges.length; i += 2)
+            count += missingRanges[i + 1] - missingRanges[i] + 1;
+        return count;
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException
+    {
+        out.writeInt(senderID);
+        out.writeObject(missingRanges);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException
+    {
+        senderID = in.readInt();
+        missingRanges = (int[]) in.readObject();
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep.messages.simulation;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+/**
+ * Hint, from server to client, of how late the frames of the client reach
+ * the server with respect to the average of the clients, in microseconds.
+ * Negative if the client is ahead. It's sent periodically, so that the client
+ * can dilate its frame period to converge.
+ */
+public class FramePacing implements Externalizable
+{
+    public int offsetMicros;
+
+    public FramePacing()
+    {
+        this.offsetMicros = 0;
+    }
+
+    public FramePacing(int offsetMicros)
+    {
+        this.offsetMicros = offsetMicros;
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException
+    {
+        out.writeInt(offsetMicros);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException
+    {
+        offsetMicros = in.readInt();
+    }
+}
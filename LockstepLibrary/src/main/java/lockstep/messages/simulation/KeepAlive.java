@@ -8,9 +8,31 @@ package lockstep.messages.simulation;
 import java.io.Serializable;
 
 /**
- * Void message to be sent in order to keep the connection alive while there is
- * nothing else to send
+ * Message sent in order to keep the connection alive while there is nothing
+ * else to send, and periodically as a probe of the round trip time and of the
+ * clock offset: it carries the time it was sent, and echoes the last keep
+ * alive received from the peer with the time it was received.
+ * Times are System.nanoTime() of the node taking them.
  */
 public class KeepAlive implements Serializable {
-    
+
+    /**
+     * Value of echoedSentNanos when no keep alive was received yet.
+     */
+    public static final long NO_ECHO = Long.MIN_VALUE;
+
+    public long sentNanos;
+    public long echoedSentNanos = NO_ECHO;
+    public long echoReceivedNanos;
+
+    public KeepAlive()
+    {
+    }
+
+    public KeepAlive(long sentNanos, long echoedSentNanos, long echoReceivedNanos)
+    {
+        this.sentNanos = sentNanos;
+        this.echoedSentNanos = echoedSentNanos;
+        this.echoReceivedNanos = echoReceivedNanos;
+    }
 }
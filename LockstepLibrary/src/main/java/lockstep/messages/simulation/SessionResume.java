@@ -0,0 +1,48 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep.messages.simulation;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+/**
+ * Message sent by a client whose connection is suspended, to resume its 
+ * session. It contains the client ID and the session token obtained during the
+ * handshake, allowing the server to accept it from a new address or port.
+ */
+public class SessionResume implements Externalizable
+{
+    public int clientID;
+    public long sessionToken;
+    
+    public SessionResume()
+    {
+        this.clientID = 0;
+        this.sessionToken = 0;
+    }
+    
+    public SessionResume(int clientID, long sessionToken)
+    {
+        this.clientID = clientID;
+        this.sessionToken = sessionToken;
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException
+    {
+        out.writeInt(clientID);
+        out.writeLong(sessionToken);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException
+    {
+        clientID = in.readInt();
+        sessionToken = in.readLong();
+    }
+}
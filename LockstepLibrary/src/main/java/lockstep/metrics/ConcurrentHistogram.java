@@ -0,0 +1,132 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free log-linear histogram of non negative values, in the style of
+ * HdrHistogram: each power of two is split in 16 buckets, which bounds the
+ * relative error of the percentiles to 1/16 over the whole long range.
+ * 
+ * It is thread safe.
+ */
+public class ConcurrentHistogram
+{
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+    
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+    
+    public void record(long value)
+    {
+        if(value < 0)
+            value = 0;
+        
+        counts.incrementAndGet(indexOf(value));
+        count.increment();
+        sum.add(value);
+        
+        long currentMax = max.get();
+        while(value > currentMax && !max.compareAndSet(currentMax, value))
+            currentMax = max.get();
+    }
+    
+    /**
+     * Adds the values of another histogram. Values recorded concurrently in
+     * the other histogram may or may not be added.
+     * 
+     * @param other the histogram to add
+     */
+    public void merge(ConcurrentHistogram other)
+    {
+        for(int i = 0; i < BUCKETS; i++)
+        {
+            long bucketCount = other.counts.get(i);
+            if(bucketCount > 0)
+                counts.addAndGet(i, bucketCount);
+        }
+        count.add(other.count.sum());
+        sum.add(other.sum.sum());
+        
+        long otherMax = other.max.get();
+        long currentMax = max.get();
+        while(otherMax > currentMax && !max.compareAndSet(currentMax, otherMax))
+            currentMax = max.get();
+    }
+    
+    public long getCount()
+    {
+        return count.sum();
+    }
+    
+    public long getMax()
+    {
+        return max.get();
+    }
+    
+    public double getMean()
+    {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+    
+    /**
+     * Values recorded concurrently may or may not be accounted.
+     * 
+     * @param percentile in the range [0, 100]
+     * @return the upper bound of the bucket holding the percentile, 0 if the
+     * histogram is empty
+     */
+    public long getPercentile(double percentile)
+    {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for(int i = 0; i < BUCKETS; i++)
+        {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if(total == 0)
+            return 0;
+        
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; i++)
+        {
+            seen += snapshot[i];
+            if(seen >= rank)
+                return Math.min(upperBoundOf(i), max.get());
+        }
+        return max.get();
+    }
+    
+    static int indexOf(long value)
+    {
+        if(value < SUB_BUCKETS)
+            return (int) value;
+        
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+    
+    static long upperBoundOf(int index)
+    {
+        if(index < SUB_BUCKETS)
+            return index;
+        
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = index % SUB_BUCKETS;
+        return ((SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep.metrics;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free recorder of the traffic of a link, based on striped counters and
+ * concurrent histograms. Durations are recorded in microseconds.
+ * 
+ * It is thread safe.
+ */
+public class DefaultLinkMetrics implements LinkMetrics
+{
+    private static final MessageType[] TYPES = MessageType.values();
+    
+    private final LongAdder[] packetsSent = newCounters();
+    private final LongAdder[] bytesSent = newCounters();
+    private final LongAdder[] packetsReceived = newCounters();
+    private final LongAdder[] bytesReceived = newCounters();
+    
+    private final LongAdder resends = new LongAdder();
+    private final LongAdder duplicatesDropped = new LongAdder();
+    private final LongAdder duplicateBytesDropped = new LongAdder();
+    private final LongAdder parityRecovered = new LongAdder();
+    private final LongAdder parityBytesRecovered = new LongAdder();
+    private final LongAdder rateLimited = new LongAdder();
+    private final ConcurrentHistogram sendingRate = new ConcurrentHistogram();
+    private final ConcurrentHistogram tickBursts = new ConcurrentHistogram();
+    private final ConcurrentHistogram rtt = new ConcurrentHistogram();
+    private volatile long clockOffset;
+    private final ConcurrentHistogram transmissionsPerFrame = new ConcurrentHistogram();
+    private final ConcurrentHistogram ackLatency = new ConcurrentHistogram();
+    private final ConcurrentHistogram receivingBacklog = new ConcurrentHistogram();
+    
+    private static LongAdder[] newCounters()
+    {
+        LongAdder[] counters = new LongAdder[TYPES.length];
+        for(int i = 0; i < counters.length; i++)
+            counters[i] = new LongAdder();
+        return counters;
+    }
+
+    @Override
+    public void packetSent(MessageType type, int bytes)
+    {
+        packetsSent[type.ordinal()].increment();
+        bytesSent[type.ordinal()].add(bytes);
+    }
+
+    @Override
+    public void packetReceived(MessageType type, int bytes)
+    {
+        packetsReceived[type.ordinal()].increment();
+        bytesReceived[type.ordinal()].add(bytes);
+    }
+
+    @Override
+    public void duplicateDropped(int bytes)
+    {
+        duplicatesDropped.increment();
+        duplicateBytesDropped.add(bytes);
+    }
+
+    @Override
+    public void parityRecovered(int bytes)
+    {
+        parityRecovered.increment();
+        parityBytesRecovered.add(bytes);
+    }
+
+    @Override
+    public void rateLimited()
+    {
+        rateLimited.increment();
+    }
+
+    @Override
+    public void sendingRate(long bytesPerSecond)
+    {
+        sendingRate.record(bytesPerSecond);
+    }
+
+    @Override
+    public void tickBurst(int datagrams)
+    {
+        tickBursts.record(datagrams);
+    }
+
+    @Override
+    public void rttSampled(long rttNanos, long clockOffsetNanos)
+    {
+        rtt.record(TimeUnit.NANOSECONDS.toMicros(rttNanos));
+        clockOffset = clockOffsetNanos;
+    }
+
+    @Override
+    public void frameACKed(int transmissions, long ackLatencyNanos)
+    {
+        if(transmissions > 1)
+            resends.add(transmissions - 1);
+        transmissionsPerFrame.record(transmissions);
+        ackLatency.record(TimeUnit.NANOSECONDS.toMicros(ackLatencyNanos));
+    }
+
+    @Override
+    public void receivingBacklog(int frames)
+    {
+        receivingBacklog.record(frames);
+    }
+    
+    public long getPacketsSent(MessageType type)
+    {
+        return packetsSent[type.ordinal()].sum();
+    }
+    
+    public long getBytesSent(MessageType type)
+    {
+        return bytesSent[type.ordinal()].sum();
+    }
+    
+    public long getPacketsReceived(MessageType type)
+    {
+        return packetsReceived[type.ordinal()].sum();
+    }
+    
+    public long getBytesReceived(MessageType type)
+    {
+        return bytesReceived[type.ordinal()].sum();
+    }
+    
+    public long getPacketsSent()
+    {
+        return sum(packetsSent);
+    }
+    
+    public long getBytesSent()
+    {
+        return sum(bytesSent);
+    }
+    
+    public long getPacketsReceived()
+    {
+        return sum(packetsReceived);
+    }
+    
+    public long getBytesReceived()
+    {
+        return sum(bytesReceived);
+    }
+    
+    private static long sum(LongAdder[] counters)
+    {
+        long total = 0;
+        for(LongAdder counter : counters)
+            total += counter.sum();
+        return total;
+    }
+
+    public long getResends()
+    {
+        return resends.sum();
+    }
+
+    public long getDuplicatesDropped()
+    {
+        return duplicatesDropped.sum();
+    }
+
+    public long getDuplicateBytesDropped()
+    {
+        return duplicateBytesDropped.sum();
+    }
+
+    public long getParityRecovered()
+    {
+        return parityRecovered.sum();
+    }
+
+    public long getParityBytesRecovered()
+    {
+        return parityBytesRecovered.sum();
+    }
+
+    public long getRateLimited()
+    {
+        return rateLimited.sum();
+    }
+
+    public ConcurrentHistogram getSendingRate()
+    {
+        return sendingRate;
+    }
+
+    /**
+     * @return the datagrams sent at each tick of the transmitter
+     */
+    public ConcurrentHistogram getTickBursts()
+    {
+        return tickBursts;
+    }
+
+    /**
+     * @return the round trip times sampled, in microseconds
+     */
+    public ConcurrentHistogram getRTT()
+    {
+        return rtt;
+    }
+
+    /**
+     * @return the last estimate of the offset of the peer clock, in 
+     * nanoseconds
+     */
+    public long getClockOffset()
+    {
+        return clockOffset;
+    }
+
+    public ConcurrentHistogram getTransmissionsPerFrame()
+    {
+        return transmissionsPerFrame;
+    }
+
+    public ConcurrentHistogram getACKLatency()
+    {
+        return ackLatency;
+    }
+
+    public ConcurrentHistogram getReceivingBacklog()
+    {
+        return receivingBacklog;
+    }
+    
+    void snapshot(String prefix, Map<String, Number> values)
+    {
+        for(MessageType type : TYPES)
+        {
+            String suffix = "." + type.name().toLowerCase();
+            values.put(prefix + "packetsSent" + suffix, getPacketsSent(type));
+            values.put(prefix + "bytesSent" + suffix, getBytesSent(type));
+            values.put(prefix + "packetsReceived" + suffix, getPacketsReceived(type));
+            values.put(prefix + "bytesReceived" + suffix, getBytesReceived(type));
+        }
+        values.put(prefix + "resends", getResends());
+        values.put(prefix + "duplicatesDropped", getDuplicatesDropped());
+        values.put(prefix + "duplicateBytesDropped", getDuplicateBytesDropped());
+        values.put(prefix + "parityRecovered", getParityRecovered());
+        values.put(prefix + "parityBytesRecovered", getParityBytesRecovered());
+        values.put(prefix + "rateLimited", getRateLimited());
+        values.put(prefix + "clockOffsetMicros", TimeUnit.NANOSECONDS.toMicros(getClockOffset()));
+        DefaultLockstepMetrics.snapshot(prefix + "transmissionsPerFrame", transmissionsPerFrame, values);
+        DefaultLockstepMetrics.snapshot(prefix + "ackLatencyMicros", ackLatency, values);
+        DefaultLockstepMetrics.snapshot(prefix + "receivingBacklog", receivingBacklog, values);
+        DefaultLockstepMetrics.snapshot(prefix + "sendingRate", sendingRate, values);
+        DefaultLockstepMetrics.snapshot(prefix + "tickBurst", tickBursts, values);
+        DefaultLockstepMetrics.snapshot(prefix + "rttMicros", rtt, values);
+    }
+}
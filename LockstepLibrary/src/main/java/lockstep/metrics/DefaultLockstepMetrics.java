@@ -0,0 +1,291 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Lock-free implementation of LockstepMetrics, keeping a DefaultLinkMetrics
+ * for each peer. Durations are recorded in microseconds.
+ * 
+ * The values can be exposed through JMX, with registerMBean(), or as plain
+ * text, with toText(). Both are built from snapshot(), which flattens all the
+ * metrics in dotted names such as "link.3.packetsSent.input".
+ * 
+ * It is thread safe.
+ */
+public class DefaultLockstepMetrics implements LockstepMetrics
+{
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+    
+    private final ConcurrentHashMap<Integer, DefaultLinkMetrics> links = new ConcurrentHashMap<>();
+    private final LongAdder framesExecuted = new LongAdder();
+    private final LongAdder framesForwarded = new LongAdder();
+    private final LongAdder framesThrottled = new LongAdder();
+    private final LongAdder spectatorDemotions = new LongAdder();
+    private final LongAdder laggingDisconnections = new LongAdder();
+    private final ConcurrentHistogram stalls = new ConcurrentHistogram();
+    private final ConcurrentHistogram playoutDelays = new ConcurrentHistogram();
+    private final ConcurrentHistogram transmitBursts = new ConcurrentHistogram();
+    private final ConcurrentHashMap<Integer, ConcurrentHistogram> stallCauses = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, ConcurrentHistogram> lateness = new ConcurrentHashMap<>();
+    private final Map<TraceStage, ConcurrentHistogram> traceStages = new EnumMap<>(TraceStage.class);
+    private final long startNanos = System.nanoTime();
+    
+    public DefaultLockstepMetrics()
+    {
+        for(TraceStage stage : TraceStage.values())
+            traceStages.put(stage, new ConcurrentHistogram());
+    }
+    
+    @Override
+    public DefaultLinkMetrics link(int peerID)
+    {
+        return links.computeIfAbsent(peerID, (Integer id) -> new DefaultLinkMetrics());
+    }
+
+    @Override
+    public void frameExecuted()
+    {
+        framesExecuted.increment();
+    }
+
+    @Override
+    public void playoutDelay(long nanos)
+    {
+        playoutDelays.record(TimeUnit.NANOSECONDS.toMicros(Long.max(0, nanos)));
+    }
+
+    @Override
+    public void transmitBurst(int datagrams)
+    {
+        transmitBursts.record(datagrams);
+    }
+
+    @Override
+    public void frameForwarded()
+    {
+        framesForwarded.increment();
+    }
+
+    @Override
+    public void frameThrottled(int senderID)
+    {
+        framesThrottled.increment();
+    }
+
+    @Override
+    public void spectatorDemoted(int clientID)
+    {
+        spectatorDemotions.increment();
+    }
+
+    @Override
+    public void laggingDisconnected(int clientID)
+    {
+        laggingDisconnections.increment();
+    }
+
+    @Override
+    public void stall(long nanos)
+    {
+        stalls.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    @Override
+    public void stallCause(int senderID, long nanos)
+    {
+        stallCauses.computeIfAbsent(senderID, (Integer id) -> new ConcurrentHistogram()).record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    @Override
+    public void lateness(int clientID, long nanos)
+    {
+        lateness.computeIfAbsent(clientID, (Integer id) -> new ConcurrentHistogram()).record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    @Override
+    public void traceStage(int senderID, TraceStage stage, long nanos)
+    {
+        traceStages.get(stage).record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+    
+    /**
+     * @return the recorders of the links, by peer ID
+     */
+    public Map<Integer, DefaultLinkMetrics> getLinks()
+    {
+        return Collections.unmodifiableMap(links);
+    }
+
+    public long getFramesExecuted()
+    {
+        return framesExecuted.sum();
+    }
+
+    public long getFramesForwarded()
+    {
+        return framesForwarded.sum();
+    }
+    
+    /**
+     * @return the frames refused by the server to throttle their senders
+     */
+    public long getFramesThrottled()
+    {
+        return framesThrottled.sum();
+    }
+    
+    /**
+     * @return the lagging clients demoted to spectators by the server
+     */
+    public long getSpectatorDemotions()
+    {
+        return spectatorDemotions.sum();
+    }
+    
+    /**
+     * @return the lagging clients disconnected by the server
+     */
+    public long getLaggingDisconnections()
+    {
+        return laggingDisconnections.sum();
+    }
+
+    public ConcurrentHistogram getStalls()
+    {
+        return stalls;
+    }
+    
+    /**
+     * @return the time the last remote input of each frame was buffered 
+     * before its execution, with the playout buffer
+     */
+    public ConcurrentHistogram getPlayoutDelays()
+    {
+        return playoutDelays;
+    }
+    
+    /**
+     * @return the datagrams sent to the clients by the server within each
+     * millisecond with transmissions
+     */
+    public ConcurrentHistogram getTransmitBursts()
+    {
+        return transmitBursts;
+    }
+    
+    /**
+     * @return the time spent stalled waiting for each client, by client ID
+     */
+    public Map<Integer, ConcurrentHistogram> getStallCauses()
+    {
+        return Collections.unmodifiableMap(stallCauses);
+    }
+    
+    /**
+     * @return the lateness of each client on the server, by client ID
+     */
+    public Map<Integer, ConcurrentHistogram> getLateness()
+    {
+        return Collections.unmodifiableMap(lateness);
+    }
+    
+    /**
+     * @param stage the stage
+     * @return the durations of the stage over all traced frames
+     */
+    public ConcurrentHistogram getTraceStage(TraceStage stage)
+    {
+        return traceStages.get(stage);
+    }
+    
+    /**
+     * @return all the metrics, by dotted name
+     */
+    public SortedMap<String, Number> snapshot()
+    {
+        SortedMap<String, Number> values = new TreeMap<>();
+        double uptime = (System.nanoTime() - startNanos) / 1e9;
+        
+        values.put("uptimeSeconds", uptime);
+        values.put("framesExecuted", getFramesExecuted());
+        values.put("framesExecutedPerSecond", getFramesExecuted() / uptime);
+        values.put("framesForwarded", getFramesForwarded());
+        values.put("framesForwardedPerSecond", getFramesForwarded() / uptime);
+        values.put("framesThrottled", getFramesThrottled());
+        values.put("spectatorDemotions", getSpectatorDemotions());
+        values.put("laggingDisconnections", getLaggingDisconnections());
+        snapshot("stallMicros", stalls, values);
+        if(playoutDelays.getCount() > 0)
+            snapshot("playoutDelayMicros", playoutDelays, values);
+        if(transmitBursts.getCount() > 0)
+            snapshot("transmitBurst", transmitBursts, values);
+        for(Entry<Integer, ConcurrentHistogram> stallCause : stallCauses.entrySet())
+            snapshot("stallCauseMicros." + stallCause.getKey(), stallCause.getValue(), values);
+        for(Entry<Integer, ConcurrentHistogram> clientLateness : lateness.entrySet())
+            snapshot("latenessMicros." + clientLateness.getKey(), clientLateness.getValue(), values);
+        for(Entry<TraceStage, ConcurrentHistogram> stage : traceStages.entrySet())
+        {
+            if(stage.getValue().getCount() > 0)
+                snapshot("trace." + stage.getKey().metricName() + "Micros", stage.getValue(), values);
+        }
+        
+        for(Entry<Integer, DefaultLinkMetrics> link : links.entrySet())
+            link.getValue().snapshot("link." + link.getKey() + ".", values);
+        
+        return values;
+    }
+    
+    static void snapshot(String name, ConcurrentHistogram histogram, Map<String, Number> values)
+    {
+        values.put(name + ".count", histogram.getCount());
+        values.put(name + ".mean", histogram.getMean());
+        for(double percentile : PERCENTILES)
+        {
+            String label = percentile == Math.rint(percentile) ? Integer.toString((int) percentile) : Double.toString(percentile).replace('.', '_');
+            values.put(name + ".p" + label, histogram.getPercentile(percentile));
+        }
+        values.put(name + ".max", histogram.getMax());
+    }
+    
+    /**
+     * @return the snapshot of the metrics, one "name value" pair per line
+     */
+    public String toText()
+    {
+        StringBuilder text = new StringBuilder();
+        for(Entry<String, Number> value : snapshot().entrySet())
+            text.append(value.getKey()).append(' ').append(value.getValue()).append('\n');
+        return text.toString();
+    }
+    
+    /**
+     * Registers the metrics in the platform MBean server, as read only
+     * attributes named as in the snapshot.
+     * 
+     * @param name the name of the node, such as "server" or "client-3"
+     * @return the name the MBean was registered with
+     * @throws JMException if the registration fails
+     */
+    public ObjectName registerMBean(String name) throws JMException
+    {
+        ObjectName objectName = new ObjectName("lockstep:type=Metrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(this), objectName);
+        return objectName;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep.metrics;
+
+/**
+ * Records the traffic of the link with a single peer. It is called by the
+ * receiver and transmitter threads of the link, so implementations must be
+ * thread safe and cheap.
+ */
+public interface LinkMetrics
+{
+    /**
+     * Recorder that discards everything. The library skips the bookkeeping
+     * needed by the per frame metrics when it's in use.
+     */
+    LinkMetrics NOOP = new LinkMetrics() {};
+    
+    /**
+     * A datagram has been sent to the peer.
+     * 
+     * @param type type of the message carried
+     * @param bytes length of the datagram payload
+     */
+    default void packetSent(MessageType type, int bytes)
+    {
+    }
+    
+    /**
+     * A datagram has been received from the peer.
+     * 
+     * @param type type of the message carried
+     * @param bytes length of the datagram payload
+     */
+    default void packetReceived(MessageType type, int bytes)
+    {
+    }
+    
+    /**
+     * A datagram received from the peer carried only frames already 
+     * received, and was dropped without decoding it. It's also accounted by
+     * packetReceived.
+     * 
+     * @param bytes length of the datagram payload
+     */
+    default void duplicateDropped(int bytes)
+    {
+    }
+    
+    /**
+     * A datagram lost by the peer has been rebuilt from a parity datagram.
+     * It's also accounted by packetReceived, as if it had arrived.
+     * 
+     * @param bytes length of the datagram payload
+     */
+    default void parityRecovered(int bytes)
+    {
+    }
+    
+    /**
+     * A transmission has been cut short by the rate control: the frames left
+     * are sent at the following ticks.
+     */
+    default void rateLimited()
+    {
+    }
+    
+    /**
+     * The sending rate of the link at a transmission, with rate control.
+     * 
+     * @param bytesPerSecond the rate, including the UDP/IP headers
+     */
+    default void sendingRate(long bytesPerSecond)
+    {
+    }
+    
+    /**
+     * A tick of the transmitter of the link sent some datagrams.
+     * 
+     * @param datagrams number of datagrams sent at the tick
+     */
+    default void tickBurst(int datagrams)
+    {
+    }
+    
+    /**
+     * The round trip time of the link has been sampled by a keep alive.
+     * 
+     * @param rttNanos the round trip time sampled
+     * @param clockOffsetNanos the current estimate of the offset of the peer
+     * clock from the local one
+     */
+    default void rttSampled(long rttNanos, long clockOffsetNanos)
+    {
+    }
+    
+    /**
+     * A frame sent to the peer has been acknowledged.
+     * 
+     * @param transmissions number of times the frame was sent, 1 if it was
+     * never resent
+     * @param ackLatencyNanos time elapsed between the first transmission and
+     * the acknowledgement
+     */
+    default void frameACKed(int transmissions, long ackLatencyNanos)
+    {
+    }
+    
+    /**
+     * Frames received from the peer have been pushed in a receiving queue.
+     * 
+     * @param frames number of frames received in order and still waiting to
+     * be extracted
+     */
+    default void receivingBacklog(int frames)
+    {
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep.metrics;
+
+/**
+ * Service provider interface for the metrics of a lockstep node, client or
+ * server. Implementations must be thread safe, as they're called by the
+ * networking threads of all the links and by the node thread.
+ * 
+ * All methods have an empty default implementation, so implementations can
+ * record only what they're interested in.
+ */
+public interface LockstepMetrics
+{
+    /**
+     * Recorder that discards everything, used when no metrics are configured.
+     */
+    LockstepMetrics NOOP = new LockstepMetrics() {};
+    
+    /**
+     * Called once per link, when it's set up.
+     * 
+     * @param peerID ID of the peer: the client ID on the server, 
+     * LockstepReceiver.RECEIVER_FROM_SERVER_ID on the client
+     * @return the recorder for the link
+     */
+    default LinkMetrics link(int peerID)
+    {
+        return LinkMetrics.NOOP;
+    }
+    
+    /**
+     * The client executed a frame.
+     */
+    default void frameExecuted()
+    {
+    }
+    
+    /**
+     * The client executed a frame, with the playout buffer, some time after 
+     * the arrival of its last remote input.
+     * 
+     * @param nanos time the last remote input of the frame was buffered
+     */
+    default void playoutDelay(long nanos)
+    {
+    }
+    
+    /**
+     * The server forwarded a frame of a client.
+     */
+    default void frameForwarded()
+    {
+    }
+    
+    /**
+     * The client execution was suspended waiting for the inputs of a frame.
+     * 
+     * @param nanos duration of the suspension
+     */
+    default void stall(long nanos)
+    {
+    }
+    
+    /**
+     * Part of a stall spent waiting for the frame of a client. Called after
+     * each stall for every client whose frame was missing when the stall 
+     * started.
+     * 
+     * @param senderID ID of the client whose frame was missing
+     * @param nanos time from the start of the stall to the frame arrival
+     */
+    default void stallCause(int senderID, long nanos)
+    {
+    }
+    
+    /**
+     * The transmitters of the server sent a burst of datagrams to the 
+     * clients: all those sent at the ticks starting within the same 
+     * millisecond.
+     * 
+     * @param datagrams number of datagrams of the burst
+     */
+    default void transmitBurst(int datagrams)
+    {
+    }
+    
+    /**
+     * The server refused a frame of a client, as a recipient of its frames
+     * left the max unacked frames of the lag policy unACKed.
+     * 
+     * @param senderID ID of the throttled client
+     */
+    default void frameThrottled(int senderID)
+    {
+    }
+    
+    /**
+     * The server demoted a lagging client to spectator.
+     * 
+     * @param clientID ID of the client
+     */
+    default void spectatorDemoted(int clientID)
+    {
+    }
+    
+    /**
+     * The server disconnected a lagging client.
+     * 
+     * @param clientID ID of the client
+     */
+    default void laggingDisconnected(int clientID)
+    {
+    }
+    
+    /**
+     * The server forwarded a frame of a client after the same frame of the
+     * first client delivering it.
+     * 
+     * @param clientID ID of the client
+     * @param nanos delay from the first delivery of the frame, 0 if the 
+     * client was the first
+     */
+    default void lateness(int clientID, long nanos)
+    {
+    }
+    
+    /**
+     * A traced frame went through a stage. Durations are measured on the 
+     * server clock, so stages crossing the network carry the error of the 
+     * clock offset estimate and may even be negative.
+     * 
+     * @param senderID ID of the client that generated the frame
+     * @param stage the stage
+     * @param nanos duration of the stage
+     */
+    default void traceStage(int senderID, TraceStage stage, long nanos)
+    {
+    }
+}
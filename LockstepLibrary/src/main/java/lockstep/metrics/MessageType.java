@@ -0,0 +1,59 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep.metrics;
+
+import lockstep.messages.simulation.ClientJoined;
+import lockstep.messages.simulation.FrameACK;
+import lockstep.messages.simulation.FrameNACK;
+import lockstep.messages.simulation.FramePacing;
+import lockstep.messages.simulation.InputMessage;
+import lockstep.messages.simulation.InputMessageArray;
+import lockstep.messages.simulation.KeepAlive;
+import lockstep.messages.simulation.SessionResume;
+
+/**
+ * Types of the datagrams exchanged during the simulation, as accounted by the
+ * metrics.
+ */
+public enum MessageType
+{
+    INPUT,
+    INPUT_ARRAY,
+    ACK,
+    NACK,
+    PARITY,
+    FRAME_PACING,
+    KEEP_ALIVE,
+    CLIENT_JOINED,
+    SESSION_RESUME,
+    OTHER;
+    
+    /**
+     * @param message a decoded message
+     * @return the type of the message
+     */
+    public static MessageType of(Object message)
+    {
+        if(message instanceof InputMessage)
+            return INPUT;
+        else if(message instanceof InputMessageArray)
+            return INPUT_ARRAY;
+        else if(message instanceof FrameACK)
+            return ACK;
+        else if(message instanceof FrameNACK)
+            return NACK;
+        else if(message instanceof FramePacing)
+            return FRAME_PACING;
+        else if(message instanceof KeepAlive)
+            return KEEP_ALIVE;
+        else if(message instanceof ClientJoined)
+            return CLIENT_JOINED;
+        else if(message instanceof SessionResume)
+            return SESSION_RESUME;
+        else
+            return OTHER;
+    }
+}
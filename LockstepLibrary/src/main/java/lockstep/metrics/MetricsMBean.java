@@ -0,0 +1,84 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep.metrics;
+
+import java.util.Map;
+import java.util.Map.Entry;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+
+/**
+ * Read only view of a DefaultLockstepMetrics snapshot. Links appear as they're
+ * set up, so the attributes are rebuilt at each request of the MBeanInfo.
+ */
+class MetricsMBean implements DynamicMBean
+{
+    private final DefaultLockstepMetrics metrics;
+
+    MetricsMBean(DefaultLockstepMetrics metrics)
+    {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException
+    {
+        Number value = metrics.snapshot().get(attribute);
+        if(value == null)
+            throw new AttributeNotFoundException(attribute);
+        return value.doubleValue();
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes)
+    {
+        Map<String, Number> snapshot = metrics.snapshot();
+        AttributeList list = new AttributeList();
+        for(String attribute : attributes)
+        {
+            Number value = snapshot.get(attribute);
+            if(value != null)
+                list.add(new Attribute(attribute, value.doubleValue()));
+        }
+        return list;
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo()
+    {
+        Map<String, Number> snapshot = metrics.snapshot();
+        MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[snapshot.size()];
+        int i = 0;
+        for(Entry<String, Number> value : snapshot.entrySet())
+            attributes[i++] = new MBeanAttributeInfo(value.getKey(), "double", value.getKey(), true, false, false);
+        
+        return new MBeanInfo(DefaultLockstepMetrics.class.getName(), "Lockstep metrics",
+                attributes, null, new MBeanOperationInfo[0], null);
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException
+    {
+        throw new AttributeNotFoundException("Metrics are read only");
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes)
+    {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature)
+    {
+        throw new UnsupportedOperationException("No operations available");
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep.metrics;
+
+/**
+ * Stages of the path of a traced frame, from the user input on the sending
+ * client to the command execution on a receiving client.
+ */
+public enum TraceStage
+{
+    /**
+     * From the input read to the first transmission: the sender transmitter
+     * tick.
+     */
+    TRANSMIT,
+
+    /**
+     * From the first transmission to the reception on the server.
+     */
+    UPLINK,
+
+    /**
+     * From the reception on the server to the forwarding, which waits for
+     * the previous frames of the same client.
+     */
+    SERVER,
+
+    /**
+     * From the forwarding to the reception on the receiving client, including
+     * the server transmitter tick.
+     */
+    DOWNLINK,
+
+    /**
+     * From the reception to the execution, waiting for the other clients and
+     * for the frames executed before.
+     */
+    PLAYOUT,
+
+    /**
+     * From the input read to the execution.
+     */
+    END_TO_END;
+
+    /**
+     * @return the name used in the metrics, such as "endToEnd"
+     */
+    public String metricName()
+    {
+        String[] words = name().toLowerCase().split("_");
+        StringBuilder metricName = new StringBuilder(words[0]);
+        for(int i = 1; i < words.length; i++)
+            metricName.append(Character.toUpperCase(words[i].charAt(0))).append(words[i].substring(1));
+        return metricName.toString();
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import lockstep.messages.simulation.FrameACK;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ACKSetTest {
+
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final ACKSet ackSet = new ACKSet(ACKPolicy.builder().packetsPerACK(3).maxDelay(40).build());
+    private final List<FrameACK> drained = new ArrayList<>();
+
+    @Test
+    public void heldUntilPacketsOrDelay()
+    {
+        ackSet.pushACK(ack(10), 0);
+        ackSet.pushACK(ack(11), MILLIS);
+        assertEquals(0, ackSet.drainDueACKs(drained, 2 * MILLIS));
+
+        ackSet.pushACK(ack(12), 3 * MILLIS);
+        assertEquals(1, ackSet.drainDueACKs(drained, 3 * MILLIS));
+        assertEquals(12, drained.get(0).cumulativeACK);
+
+        ackSet.pushACK(ack(13), 10 * MILLIS);
+        assertEquals(0, ackSet.drainDueACKs(drained, 49 * MILLIS));
+        assertEquals(1, ackSet.drainDueACKs(drained, 50 * MILLIS));
+    }
+
+    @Test
+    public void gapSentImmediately()
+    {
+        ackSet.pushACK(new FrameACK(7, 10, new int[] { 13 }), 0);
+        assertEquals(1, ackSet.drainDueACKs(drained, 0));
+
+        //Gap already reported
+        ackSet.pushACK(new FrameACK(7, 11, new int[] { 13 }), MILLIS);
+        assertEquals(0, ackSet.drainDueACKs(drained, MILLIS));
+
+        ackSet.pushACK(new FrameACK(7, 11, new int[] { 13, 15 }), 2 * MILLIS);
+        assertEquals(1, ackSet.drainDueACKs(drained, 2 * MILLIS));
+    }
+
+    @Test
+    public void redundantSuppressedUntilDelay()
+    {
+        ackSet.pushACK(ack(10), 0);
+        assertEquals(1, ackSet.drainACKs(drained));
+        long sent = System.nanoTime();
+
+        ackSet.pushACK(ack(10), sent + MILLIS);
+        assertEquals(1, ackSet.getSuppressedACKs());
+        assertEquals(0, ackSet.drainACKs(drained));
+
+        //The peer keeps retransmitting, it lost our ACK
+        ackSet.pushACK(ack(10), sent + 41 * MILLIS);
+        assertEquals(1, ackSet.drainACKs(drained));
+    }
+
+    @Test
+    public void immediatePolicySendsEveryACK()
+    {
+        ACKSet immediate = new ACKSet(ACKPolicy.IMMEDIATE);
+        immediate.pushACK(ack(10), 0);
+        assertEquals(1, immediate.drainDueACKs(drained, 0));
+        immediate.pushACK(ack(10), 0);
+        assertEquals(1, immediate.drainDueACKs(drained, 0));
+    }
+
+    @Test
+    public void receiverIgnoresACKsForUnknownSenders() throws Exception
+    {
+        TransmissionQueue transmissionQueue = new TransmissionQueue(10, 7);
+        for(int frame = 10; frame < 13; frame++)
+            transmissionQueue.push(new FrameInput(frame, new Command(0, 0)));
+        transmissionQueue.pop();
+        ConcurrentMap<Integer, TransmissionQueue> transmissionQueues = new ConcurrentHashMap<>();
+        transmissionQueues.put(7, transmissionQueue);
+        ConcurrentMap<Integer, ReceivingQueue> receivingQueues = new ConcurrentHashMap<>();
+        ClientReceivingQueue receivingQueue = new ClientReceivingQueue(20, 3, new Semaphore(0));
+        receivingQueues.put(3, receivingQueue);
+
+        try(DatagramChannel channel = DatagramChannel.open())
+        {
+            LockstepReceiver receiver = LockstepReceiver.builder()
+                    .dgramChannel(channel)
+                    .maxUDPPayloadLength(512)
+                    .receivingQueues(receivingQueues)
+                    .transmissionQueues(transmissionQueues)
+                    .ackSet(ackSet)
+                    .receiverID(3)
+                    .build();
+            FrameACK receivedACK = new FrameACK();
+
+            byte[] standalone = MessageCodec.packetizeACK(new FrameACK(9, 11, null), 512).get(0);
+            receiver.processDatagram(null, ByteBuffer.wrap(standalone), receivedACK);
+
+            List<FrameACK> piggybacked = new ArrayList<>();
+            piggybacked.add(new FrameACK(9, 12, null));
+            piggybacked.add(new FrameACK(7, 11, null));
+            FrameInput[] frames = { new FrameInput(20, new MessageCodecTest.MoveCommand(1, "p")) };
+            byte[] input = MessageCodec.packetizeInputs(3, frames, piggybacked, 512).get(0);
+            receiver.processDatagram(null, ByteBuffer.wrap(input), receivedACK);
+        }
+
+        assertEquals(1, transmissionQueue.getUnackedFrames());
+        assertEquals(20, receivingQueue.getLastInOrderACK());
+    }
+
+    private static FrameACK ack(int cumulativeACK)
+    {
+        return new FrameACK(7, cumulativeACK, null);
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import lockstep.messages.simulation.DisconnectionSignal;
+import lockstep.messages.simulation.FrameACK;
+import lockstep.messages.simulation.LockstepCommand;
+import lockstep.metrics.DefaultLockstepMetrics;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Bytes allocated per frame by the steady state of the queues, measured on
+ * the current thread. Budgets include the skip list nodes and the boxed frame
+ * numbers, which can't be avoided; they fail when something more is
+ * allocated per frame.
+ */
+public class AllocationBudgetTest {
+
+    private static final int WARMUP_FRAMES = 50_000;
+    private static final int MEASURED_FRAMES = 20_000;
+
+    private static final LockstepCoreThread IDLE_CORE_THREAD = new LockstepCoreThread()
+    {
+        @Override
+        public void disconnectTransmittingQueues(int nodeID)
+        {
+        }
+
+        @Override
+        void disconnectReceivingQueues(int nodeID)
+        {
+        }
+
+        @Override
+        ReceivingQueue connectReceivingQueue(int nodeID, int firstFrameNumber)
+        {
+            return null;
+        }
+
+        @Override
+        public void abort()
+        {
+        }
+    };
+
+    private com.sun.management.ThreadMXBean threadBean;
+
+    @Before
+    public void setUp()
+    {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    /**
+     * Push, pop and ACK of a receiving queue on the client. The ACK returned
+     * by each push is the only message allocated.
+     */
+    @Test
+    public void clientReceivingQueue()
+    {
+        ClientReceivingQueue queue = new ClientReceivingQueue(0, 7, new Semaphore(0));
+        FrameInput[] frames = frames(WARMUP_FRAMES + MEASURED_FRAMES);
+
+        for(int i = 0; i < WARMUP_FRAMES; i++)
+        {
+            queue.push(frames[i]);
+            queue.pop();
+        }
+
+        long before = allocatedBytes();
+        for(int i = WARMUP_FRAMES; i < frames.length; i++)
+        {
+            queue.push(frames[i]);
+            queue.pop();
+        }
+        assertWithinBudget("ClientReceivingQueue", before, 200);
+    }
+
+    @Test
+    public void transmissionQueue()
+    {
+        TransmissionQueue queue = new TransmissionQueue(0, 7);
+        FrameInput[] frames = frames(WARMUP_FRAMES + MEASURED_FRAMES);
+        FrameACK[] acks = new FrameACK[frames.length];
+        for(int i = 0; i < acks.length; i++)
+            acks[i] = new FrameACK(i, null);
+
+        for(int i = 0; i < WARMUP_FRAMES; i++)
+        {
+            queue.push(frames[i]);
+            queue.pop();
+            queue.processACK(acks[i]);
+        }
+
+        long before = allocatedBytes();
+        for(int i = WARMUP_FRAMES; i < frames.length; i++)
+        {
+            queue.push(frames[i]);
+            queue.pop();
+            queue.processACK(acks[i]);
+        }
+        assertWithinBudget("TransmissionQueue", before, 320);
+    }
+
+    @Test
+    public void ackSet()
+    {
+        ACKSet ackSet = new ACKSet();
+        List<FrameACK> drained = new ArrayList<>();
+        FrameACK[] acks = new FrameACK[WARMUP_FRAMES + MEASURED_FRAMES];
+        for(int i = 0; i < acks.length; i++)
+        {
+            acks[i] = new FrameACK(i, null);
+            acks[i].setSenderID(i % 4);
+        }
+
+        for(int i = 0; i < WARMUP_FRAMES; i++)
+        {
+            ackSet.pushACK(acks[i]);
+            ackSet.drainACKs(drained);
+            drained.clear();
+        }
+
+        long before = allocatedBytes();
+        for(int i = WARMUP_FRAMES; i < acks.length; i++)
+        {
+            ackSet.pushACK(acks[i]);
+            ackSet.drainACKs(drained);
+            drained.clear();
+        }
+        assertWithinBudget("ACKSet", before, 120);
+    }
+
+    /**
+     * Collection and forwarding of the frames of two clients by the server,
+     * lateness measurement included, then transmission and ACK of the
+     * forwarded frames.
+     */
+    @Test
+    public void serverForwarding()
+    {
+        LockstepServer server = LockstepServer.builder()
+                .clientsNumber(2)
+                .tickrate(30)
+                .maxUDPPayloadLength(512)
+                .metrics(new DefaultLockstepMetrics())
+                .build();
+        List<TransmissionQueue> transmissionQueues = new ArrayList<>();
+        for(int clientID = 1; clientID <= 2; clientID++)
+        {
+            server.receivingQueues.put(clientID, new ServerReceivingQueue(0, clientID, server.executionSemaphore));
+            server.timeDilations.put(clientID, new TimeDilation());
+            int senderID = 3 - clientID;
+            TransmissionQueue transmissionQueue = new TransmissionQueue(0, senderID);
+            Map<Integer, TransmissionQueue> recipientQueues = new HashMap<>();
+            recipientQueues.put(senderID, transmissionQueue);
+            server.transmissionFrameQueueTree.put(clientID, recipientQueues);
+            transmissionQueues.add(transmissionQueue);
+        }
+        FrameInput[] frames = frames(WARMUP_FRAMES + MEASURED_FRAMES, new Command(0, 0));
+        FrameACK[] acks = new FrameACK[frames.length];
+        for(int i = 0; i < acks.length; i++)
+            acks[i] = new FrameACK(i, null);
+
+        for(int i = 0; i < WARMUP_FRAMES; i++)
+            forward(server, transmissionQueues, frames[i], acks[i]);
+
+        long before = allocatedBytes();
+        for(int i = WARMUP_FRAMES; i < frames.length; i++)
+            forward(server, transmissionQueues, frames[i], acks[i]);
+        assertWithinBudget("Server forwarding", before, 1300);
+    }
+
+    private static void forward(LockstepServer server, List<TransmissionQueue> transmissionQueues, FrameInput frame, FrameACK ack)
+    {
+        for(ServerReceivingQueue receivingQueue : server.receivingQueues.values())
+            receivingQueue.push(frame);
+        server.collectFrameInputs();
+        server.forwardFrameInputs();
+        for(TransmissionQueue transmissionQueue : transmissionQueues)
+        {
+            transmissionQueue.pop();
+            transmissionQueue.processACK(ack);
+        }
+    }
+
+    /**
+     * Decoding and queueing of the single frame datagrams received by a
+     * client, with the playout buffer on.
+     */
+    @Test
+    public void receiverDecoding() throws Exception
+    {
+        ClientReceivingQueue queue = new ClientReceivingQueue(0, 7, new Semaphore(0));
+        ConcurrentMap<Integer, ReceivingQueue> receivingQueues = new ConcurrentHashMap<>();
+        receivingQueues.put(7, queue);
+        ACKSet ackSet = new ACKSet();
+        List<FrameACK> drained = new ArrayList<>();
+        try(DatagramChannel channel = DatagramChannel.open())
+        {
+            LockstepReceiver receiver = LockstepReceiver.builder()
+                    .dgramChannel(channel)
+                    .maxUDPPayloadLength(512)
+                    .receivingQueues(receivingQueues)
+                    .transmissionQueues(new ConcurrentHashMap<>())
+                    .ackSet(ackSet)
+                    .coreThread(IDLE_CORE_THREAD)
+                    .receiverID(7)
+                    .playoutBuffer(new PlayoutBuffer(TimeUnit.MILLISECONDS.toNanos(33)))
+                    .build();
+            FrameInput[] frames = frames(WARMUP_FRAMES + MEASURED_FRAMES, new MessageCodecTest.MoveCommand(1, "p"));
+            ByteBuffer[] datagrams = new ByteBuffer[frames.length];
+            for(int i = 0; i < frames.length; i++)
+                datagrams[i] = ByteBuffer.wrap(MessageCodec.packetizeInputs(7, new FrameInput[] { frames[i] }, 512).get(0));
+            FrameACK receivedACK = new FrameACK(0, null);
+
+            for(int i = 0; i < WARMUP_FRAMES; i++)
+            {
+                receiver.processDatagram(null, datagrams[i], receivedACK);
+                queue.pop();
+                ackSet.drainACKs(drained);
+                drained.clear();
+            }
+
+            long before = allocatedBytes();
+            for(int i = WARMUP_FRAMES; i < frames.length; i++)
+            {
+                receiver.processDatagram(null, datagrams[i], receivedACK);
+                queue.pop();
+                ackSet.drainACKs(drained);
+                drained.clear();
+            }
+            assertWithinBudget("Receiver decoding", before, 520);
+        }
+    }
+
+    private static FrameInput[] frames(int count)
+    {
+        return frames(count, new DisconnectionSignal());
+    }
+
+    private static FrameInput[] frames(int count, LockstepCommand command)
+    {
+        FrameInput[] frames = new FrameInput[count];
+        for(int i = 0; i < count; i++)
+            frames[i] = new FrameInput(i, command);
+        return frames;
+    }
+
+    private long allocatedBytes()
+    {
+        return threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private void assertWithinBudget(String name, long before, long budgetPerFrame)
+    {
+        long perFrame = (allocatedBytes() - before) / MEASURED_FRAMES;
+        assertTrue(name + " allocates " + perFrame + " bytes per frame, budget is " + budgetPerFrame,
+            perFrame <= budgetPerFrame);
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import lockstep.messages.simulation.FrameACK;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class CutThroughForwardingTest {
+
+    private final Semaphore semaphore = new Semaphore(0);
+    private final List<Integer> forwarded = new ArrayList<>();
+    private final ServerReceivingQueue queue = new ServerReceivingQueue(1, 7, semaphore,
+            (int senderID, FrameInput input) -> {
+                assertEquals(7, senderID);
+                forwarded.add(input.getFrameNumber());
+            }, null);
+
+    @Test
+    public void newFramesAreForwardedOnce()
+    {
+        queue.push(new FrameInput(2, new Command(0, 0)));
+        queue.push(new FrameInput[]{
+            new FrameInput(1, new Command(0, 0)),
+            new FrameInput(2, new Command(0, 0))});
+        FrameACK ack = queue.push(new FrameInput(1, new Command(0, 0)));
+
+        assertEquals(Arrays.asList(1, 2), forwarded);
+        assertEquals(2, ack.cumulativeACK);
+    }
+
+    @Test
+    public void framesAfterAGapAreHeldUntilItsFilled()
+    {
+        queue.push(new FrameInput(3, new Command(0, 0)));
+        queue.push(new FrameInput(5, new Command(0, 0)));
+        queue.push(new FrameInput(2, new Command(0, 0)));
+        assertTrue(forwarded.isEmpty());
+        assertEquals(3, queue.backlog());
+
+        FrameACK ack = queue.push(new FrameInput(1, new Command(0, 0)));
+        assertEquals(Arrays.asList(1, 2, 3), forwarded);
+        assertEquals(3, ack.cumulativeACK);
+        assertEquals(1, queue.backlog());
+
+        queue.push(new FrameInput(4, new Command(0, 0)));
+        assertEquals(Arrays.asList(1, 2, 3, 4, 5), forwarded);
+        assertEquals(0, queue.backlog());
+    }
+
+    @Test
+    public void framesAreNotStored()
+    {
+        queue.push(new FrameInput(1, new Command(0, 0)));
+
+        assertNull(queue.pop());
+        assertEquals(0, semaphore.availablePermits());
+    }
+}
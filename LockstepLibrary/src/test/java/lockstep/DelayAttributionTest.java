@@ -0,0 +1,54 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class DelayAttributionTest {
+
+    @Test
+    public void perClientStatistics()
+    {
+        DelayAttribution attribution = new DelayAttribution();
+        attribution.record(1, 10);
+        attribution.record(1, 30);
+        attribution.record(2, 100);
+
+        assertEquals(2, attribution.getCount(1));
+        assertEquals(40, attribution.getTotalNanos(1));
+        assertEquals(20, attribution.getMeanNanos(1));
+        assertEquals(30, attribution.getMaxNanos(1));
+        assertEquals(0, attribution.getCount(3));
+        assertEquals(Integer.valueOf(2), attribution.getWorstClientID());
+    }
+
+    @Test
+    public void serverMeasuresLatenessWithinTheWindow() throws Exception
+    {
+        LockstepServer server = LockstepServer.builder()
+                .clientsNumber(2)
+                .tickrate(30)
+                .maxUDPPayloadLength(512)
+                .build();
+        DelayAttribution lateness = server.getLateness();
+
+        server.recordLateness(1, 10);
+        Thread.sleep(2);
+        server.recordLateness(2, 10);
+        assertEquals(0, lateness.getMaxNanos(1));
+        assertTrue(lateness.getMaxNanos(2) >= TimeUnit.MILLISECONDS.toNanos(2));
+
+        //Frame 10 + window reuses the slot of frame 10, which falls out
+        server.recordLateness(1, 10 + LockstepServer.FRAME_FRONT_WINDOW);
+        server.recordLateness(2, 10);
+        assertEquals(1, lateness.getCount(2));
+        server.recordLateness(2, 10 + LockstepServer.FRAME_FRONT_WINDOW);
+        assertEquals(2, lateness.getCount(2));
+        assertTrue(lateness.getMaxNanos(2) < TimeUnit.SECONDS.toNanos(1));
+    }
+}
@@ -76,6 +76,18 @@ public class ExecutionFrameQueueTest {
         assertSame("Check in order pop", frame.getCommand(), efq.pop().getCommand());
     }
     
+    @Test
+    public void nextFrameArrival()
+    {
+        efq.push(createFrame(5,1,1));
+        assertFalse("Check missing next frame", efq.isNextFrameReady());
+        
+        long beforeArrival = System.nanoTime();
+        efq.push(createFrame(4,1,1));
+        assertTrue("Check next frame ready", efq.isNextFrameReady());
+        assertTrue("Check next frame arrival", efq.getNextFrameArrivalNanos() >= beforeArrival);
+    }
+    
     @Test
     public void inOrderAck()
     {
@@ -112,6 +124,17 @@ public class ExecutionFrameQueueTest {
         assertArrayEquals("Check selective ACKs", null, ack.selectiveACKs);    
     }
     
+    @Test
+    public void missingFramesReportedOnce()
+    {
+        efq.push(new FrameInput[]{ createFrame(4,1,1), createFrame(7,1,1), createFrame(10,1,1) });
+        assertArrayEquals("Check missing ranges", new int[]{5,6,8,9}, efq.newMissingRanges());
+        assertNull("Check no new gap", efq.newMissingRanges());
+        
+        efq.push(createFrame(13,1,1));
+        assertArrayEquals("Check new missing range", new int[]{11,12}, efq.newMissingRanges());
+    }
+    
     private FrameInput createFrame(int n, int upd,int rl)
     {
         return new FrameInput(n, new Command(upd, rl));
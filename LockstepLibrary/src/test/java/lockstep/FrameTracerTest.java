@@ -0,0 +1,92 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep;
+
+import java.util.concurrent.Semaphore;
+import lockstep.messages.simulation.DisconnectionSignal;
+import lockstep.messages.simulation.InputMessageArray;
+import lockstep.metrics.DefaultLockstepMetrics;
+import lockstep.metrics.LockstepMetrics;
+import lockstep.metrics.TraceStage;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class FrameTracerTest {
+
+    @Test
+    public void clockOffsetFromHandshake()
+    {
+        FrameTracer tracer = new FrameTracer(false, 0, LockstepMetrics.NOOP);
+
+        //Server clock 1000 ahead, 10 each way, 5 spent on the server
+        tracer.synchronize(0, 1010, 1015, 25);
+        assertEquals(1000, tracer.getClockOffset());
+    }
+
+    @Test
+    public void sampledFramesOnly()
+    {
+        FrameTracer tracer = new FrameTracer(false, 10, LockstepMetrics.NOOP);
+        FrameInput sampled = new FrameInput(20, new DisconnectionSignal());
+        FrameInput other = new FrameInput(21, new DisconnectionSignal());
+
+        tracer.created(sampled);
+        tracer.created(other);
+
+        assertNotNull(sampled.getTrace());
+        assertNull(other.getTrace());
+    }
+
+    /**
+     * Follows a traced frame through the queues and the codec of the sender,
+     * the server and the recipient, then checks all the stages are reported.
+     */
+    @Test
+    public void traceSurvivesQueuesAndCodec() throws Exception
+    {
+        FrameTracer sender = new FrameTracer(false, 1, LockstepMetrics.NOOP);
+        FrameTracer server = new FrameTracer(true, 0, LockstepMetrics.NOOP);
+        DefaultLockstepMetrics recipientMetrics = new DefaultLockstepMetrics();
+        FrameTracer recipient = new FrameTracer(false, 0, recipientMetrics);
+
+        FrameInput created = new FrameInput(0, new DisconnectionSignal());
+        sender.created(created);
+        TransmissionQueue senderQueue = new TransmissionQueue(0, 7);
+        senderQueue.push(created);
+        FrameInput[] sent = senderQueue.pop();
+        sender.transmitted(sent);
+
+        FrameInput[] serverReceived = relay(sent);
+        server.received(serverReceived);
+        ServerReceivingQueue serverQueue = new ServerReceivingQueue(0, 7, new Semaphore(0));
+        serverQueue.push(serverReceived);
+        FrameInput forwarded = serverQueue.pop();
+        server.forwarded(forwarded);
+        TransmissionQueue serverTransmissionQueue = new TransmissionQueue(0, 7);
+        serverTransmissionQueue.push(forwarded);
+
+        FrameInput[] recipientReceived = relay(serverTransmissionQueue.pop());
+        recipient.received(recipientReceived);
+        ClientReceivingQueue recipientQueue = new ClientReceivingQueue(0, 7, new Semaphore(0));
+        recipientQueue.push(recipientReceived);
+        FrameInput executed = recipientQueue.pop();
+        recipient.executed(7, executed);
+
+        FrameTrace trace = executed.getTrace();
+        assertTrue(trace.getCreated() <= trace.getTransmitted());
+        assertTrue(trace.getTransmitted() <= trace.getServerReceived());
+        assertTrue(trace.getServerReceived() <= trace.getServerForwarded());
+        assertTrue(trace.getServerForwarded() <= trace.getReceived());
+        for(TraceStage stage : TraceStage.values())
+            assertEquals(1, recipientMetrics.getTraceStage(stage).getCount());
+    }
+
+    private static FrameInput[] relay(FrameInput[] frames) throws Exception
+    {
+        byte[] payload = MessageCodec.encode(new InputMessageArray(7, frames));
+        return ((InputMessageArray) MessageCodec.decode(payload, 0, payload.length)).frames;
+    }
+}
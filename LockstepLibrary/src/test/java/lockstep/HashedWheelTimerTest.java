@@ -0,0 +1,61 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class HashedWheelTimerTest {
+
+    //A turn of 80 ms, so that some timeouts are rounds away
+    private final HashedWheelTimer timer = new HashedWheelTimer(5, TimeUnit.MILLISECONDS, 16, "Test-timer");
+
+    @After
+    public void tearDown()
+    {
+        timer.stop();
+    }
+
+    @Test
+    public void expiresAfterDeadline() throws Exception
+    {
+        long[] delays = { 0, 12, 50, 130, 260 };
+        CountDownLatch latch = new CountDownLatch(delays.length);
+        AtomicLong early = new AtomicLong();
+        for(long delay : delays)
+        {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+            timer.schedule(() -> {
+                if(System.nanoTime() < deadline)
+                    early.incrementAndGet();
+                latch.countDown();
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+        assertEquals(0, early.get());
+    }
+
+    @Test
+    public void cancelledTaskDoesNotRun() throws Exception
+    {
+        AtomicLong runs = new AtomicLong();
+        HashedWheelTimer.Timeout cancelled = timer.schedule(runs::incrementAndGet, 20, TimeUnit.MILLISECONDS);
+        CountDownLatch latch = new CountDownLatch(1);
+        HashedWheelTimer.Timeout kept = timer.schedule(latch::countDown, 40, TimeUnit.MILLISECONDS);
+
+        assertTrue(cancelled.cancel());
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+        assertEquals(0, runs.get());
+        assertTrue(cancelled.isCancelled());
+        assertTrue(kept.isExpired());
+        assertFalse(kept.cancel());
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import lockstep.messages.simulation.DisconnectionSignal;
+import lockstep.messages.simulation.FrameACK;
+import lockstep.messages.simulation.LockstepCommand;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class LagPolicyTest {
+
+    private boolean admitting = true;
+    private final List<Integer> forwarded = new ArrayList<>();
+    private final ServerReceivingQueue queue = new ServerReceivingQueue(1, 7, new Semaphore(0),
+            (int senderID, FrameInput input) -> forwarded.add(input.getFrameNumber()),
+            (int senderID) -> admitting);
+
+    @Test(expected = IllegalArgumentException.class)
+    public void boundMustCoverTheFramesInFlight()
+    {
+        LagPolicy.builder().maxUnackedFrames(LagPolicy.MIN_UNACKED_FRAMES - 1).build();
+    }
+
+    @Test
+    public void timeOverBoundIsContinuous()
+    {
+        TransmissionQueue transmissionQueue = new TransmissionQueue(1, 7);
+        for(int frameNumber = 1; frameNumber <= 3; frameNumber++)
+            transmissionQueue.push(new FrameInput(frameNumber, new Command(0, 0)));
+
+        assertEquals(-1, transmissionQueue.timeOverBound(3, 100));
+        assertEquals(0, transmissionQueue.timeOverBound(2, 100));
+        assertEquals(50, transmissionQueue.timeOverBound(2, 150));
+
+        transmissionQueue.processACK(new FrameACK(1, null));
+        assertEquals(-1, transmissionQueue.timeOverBound(2, 200));
+        transmissionQueue.push(new FrameInput(4, new Command(0, 0)));
+        assertEquals(0, transmissionQueue.timeOverBound(2, 300));
+    }
+
+    @Test
+    public void staleACKsDontMoveTheLastACKedBack()
+    {
+        TransmissionQueue transmissionQueue = new TransmissionQueue(1, 7);
+        transmissionQueue.processACK(new FrameACK(5, null));
+        transmissionQueue.processACK(new FrameACK(3, null));
+
+        assertEquals(5, transmissionQueue.lastACKed.get());
+    }
+
+    @Test
+    public void unackedFramesAreCounted()
+    {
+        TransmissionQueue transmissionQueue = new TransmissionQueue(1, 7);
+        for(int frameNumber = 1; frameNumber <= 5; frameNumber++)
+            transmissionQueue.push(new FrameInput(frameNumber, new Command(0, 0)));
+        transmissionQueue.push(new FrameInput(3, new Command(0, 0)));
+        assertEquals(5, transmissionQueue.getUnackedFrames());
+
+        transmissionQueue.processACK(new FrameACK(2, new int[] { 4 }));
+        assertEquals(2, transmissionQueue.getUnackedFrames());
+    }
+
+    @Test
+    public void throttledFramesAreNotACKed()
+    {
+        queue.push(new FrameInput(1, new Command(0, 0)));
+        admitting = false;
+        FrameACK ack = queue.push(new FrameInput(2, new Command(0, 0)));
+
+        assertEquals(1, ack.cumulativeACK);
+        assertNull(ack.selectiveACKs);
+
+        ack = queue.push(new FrameInput(2, new DisconnectionSignal()));
+        assertEquals(2, ack.cumulativeACK);
+
+        admitting = true;
+        queue.push(new FrameInput(3, new Command(0, 0)));
+        assertEquals(3, forwarded.size());
+    }
+
+    @Test
+    public void spectatorFramesAreACKedAndDropped()
+    {
+        queue.push(new FrameInput(1, new Command(0, 0)));
+        queue.discard();
+        FrameACK ack = queue.push(new FrameInput(2, new Command(0, 0)));
+
+        assertEquals(2, ack.cumulativeACK);
+        assertEquals(1, forwarded.size());
+    }
+
+    @Test
+    public void demotionForwardsTheBufferedFramesBeforeTheSignal()
+    {
+        LockstepServer server = LockstepServer.builder()
+                .clientsNumber(3)
+                .tickrate(30)
+                .maxUDPPayloadLength(512)
+                .lateJoin(true)
+                .lagPolicy(LagPolicy.builder().action(LagPolicy.Action.SPECTATOR).build())
+                .build();
+        ServerReceivingQueue laggingQueue = new ServerReceivingQueue(1, 1, server.executionSemaphore);
+        server.receivingQueues.put(1, laggingQueue);
+        TransmissionQueue toOther = new TransmissionQueue(1, 1);
+        Map<Integer, TransmissionQueue> otherQueues = new HashMap<>();
+        otherQueues.put(1, toOther);
+        server.transmissionFrameQueueTree.put(2, otherQueues);
+        server.transmissionFrameQueueTree.put(1, new HashMap<>());
+        server.frameHistory.put(1, new ConcurrentSkipListMap<>());
+
+        //Frame 4 is missing, 1 was already forwarded
+        for(int frameNumber : new int[] { 1, 2, 3, 5 })
+            laggingQueue.push(new FrameInput(frameNumber, new Command(0, 0)));
+        toOther.push(laggingQueue.pop());
+
+        server.demoteToSpectator(1);
+
+        FrameInput[] stream = toOther.pop();
+        assertEquals(4, stream.length);
+        for(int i = 0; i < stream.length; i++)
+            assertEquals(i + 1, stream[i].getFrameNumber());
+        assertTrue(stream[3].getCommand() instanceof DisconnectionSignal);
+
+        //The spectator's inputs are still ACKed, and it still counts as
+        //connected until it leaves
+        FrameACK ack = laggingQueue.push(new FrameInput(4, new Command(0, 0)));
+        assertEquals(5, ack.cumulativeACK);
+        assertNull(laggingQueue.pop());
+        assertSame(laggingQueue, server.receivingQueues.get(1));
+        assertEquals(3, server.clientsNumber);
+
+        server.disconnectTransmittingQueues(1);
+        assertNull(server.receivingQueues.get(1));
+        assertEquals(2, server.clientsNumber);
+    }
+
+    @Test
+    public void cutThroughDemotionSignalsAfterTheLastFrameForwarded()
+    {
+        LockstepServer server = LockstepServer.builder()
+                .clientsNumber(3)
+                .tickrate(30)
+                .maxUDPPayloadLength(512)
+                .lateJoin(true)
+                .cutThroughForwarding(true)
+                .lagPolicy(LagPolicy.builder().action(LagPolicy.Action.SPECTATOR).build())
+                .build();
+        //Demoted while forwarding frame 3, before the receiver ACKs it
+        ServerReceivingQueue laggingQueue = new ServerReceivingQueue(1, 1, server.executionSemaphore,
+                (int senderID, FrameInput input) -> {
+                    server.forwardCutThrough(senderID, input);
+                    if(input.getFrameNumber() == 3)
+                        server.demoteToSpectator(senderID);
+                }, null);
+        server.receivingQueues.put(1, laggingQueue);
+        TransmissionQueue toOther = new TransmissionQueue(1, 1);
+        Map<Integer, TransmissionQueue> otherQueues = new HashMap<>();
+        otherQueues.put(1, toOther);
+        server.transmissionFrameQueueTree.put(2, otherQueues);
+        server.transmissionFrameQueueTree.put(1, new HashMap<>());
+        server.frameHistory.put(1, new ConcurrentSkipListMap<>());
+
+        //Frame 5 is held, waiting for 4
+        for(int frameNumber : new int[] { 1, 2, 5, 3 })
+            laggingQueue.push(new FrameInput(frameNumber, new Command(0, 0)));
+
+        FrameInput[] stream = toOther.pop();
+        assertEquals(4, stream.length);
+        for(int i = 0; i < stream.length; i++)
+            assertEquals(i + 1, stream[i].getFrameNumber());
+        assertTrue(stream[3].getCommand() instanceof DisconnectionSignal);
+
+        //Filling the gap releases nothing once demoted
+        FrameACK ack = laggingQueue.push(new FrameInput(4, new Command(0, 0)));
+        assertEquals(5, ack.cumulativeACK);
+        assertEquals(4, toOther.getUnackedFrames());
+        server.disconnectTransmittingQueues(1);
+    }
+
+    @Test
+    public void spectatorsAreFedOnTheServerThreadWhenTheTimerAsks() throws Exception
+    {
+        LockstepServer server = LockstepServer.builder()
+                .clientsNumber(2)
+                .tickrate(2000)
+                .maxUDPPayloadLength(512)
+                .lateJoin(true)
+                .lagPolicy(LagPolicy.builder().action(LagPolicy.Action.SPECTATOR).build())
+                .build();
+        server.receivingQueues.put(1, new ServerReceivingQueue(1, 1, server.executionSemaphore));
+        TransmissionQueue toSpectator = new TransmissionQueue(1, 2);
+        Map<Integer, TransmissionQueue> spectatorQueues = new HashMap<>();
+        spectatorQueues.put(2, toSpectator);
+        server.transmissionFrameQueueTree.put(1, spectatorQueues);
+        server.transmissionFrameQueueTree.put(2, new HashMap<>());
+        server.frameHistory.put(1, new ConcurrentSkipListMap<>());
+        ConcurrentSkipListMap<Integer, LockstepCommand> history = new ConcurrentSkipListMap<>();
+        for(int frameNumber = 1; frameNumber <= 3; frameNumber++)
+            history.put(frameNumber, new Command(0, 0));
+        server.frameHistory.put(2, history);
+
+        server.demoteToSpectator(1);
+        assertEquals(0, toSpectator.getUnackedFrames());
+
+        //The timer only wakes the server thread up
+        assertTrue(server.executionSemaphore.tryAcquire(1, TimeUnit.SECONDS));
+        assertEquals(0, toSpectator.getUnackedFrames());
+        server.feedSpectators();
+        assertEquals(3, toSpectator.getUnackedFrames());
+
+        server.disconnectTransmittingQueues(1);
+    }
+}
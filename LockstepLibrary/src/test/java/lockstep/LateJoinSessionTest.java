@@ -0,0 +1,278 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import lockstep.messages.simulation.LockstepCommand;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Runs whole sessions on the loopback interface, with clients joining while
+ * the server is forwarding.
+ */
+public class LateJoinSessionTest {
+
+    private static final int FRAMERATE = 30;
+    private static final int CONNECTION_TIMEOUT = 500;
+    private static final int EXECUTED_AFTER_JOIN = 30;
+
+    private LockstepServer server;
+    private final List<LockstepClient> clients = new ArrayList<>();
+
+    private static class Tick implements LockstepCommand
+    {
+        final int value;
+
+        Tick(int value)
+        {
+            this.value = value;
+        }
+    }
+
+    /**
+     * Tags each command with the client issuing it, and records the commands
+     * executed in order.
+     */
+    private static class RecordingApplication implements LockstepApplication
+    {
+        private final int tag;
+        private int next;
+        private final List<Integer> executed = new ArrayList<>();
+        private volatile boolean handshakeFailed;
+
+        RecordingApplication(int tag)
+        {
+            this.tag = tag;
+        }
+
+        @Override
+        public LockstepCommand readInput()
+        {
+            return new Tick(tag * 100000 + next++);
+        }
+
+        @Override
+        public void suspendSimulation()
+        {
+        }
+
+        @Override
+        public void resumeSimulation()
+        {
+        }
+
+        @Override
+        public void executeCommand(LockstepCommand c)
+        {
+            synchronized(executed)
+            {
+                executed.add(((Tick) c).value);
+            }
+        }
+
+        @Override
+        public LockstepCommand[] fillCommands()
+        {
+            return new LockstepCommand[0];
+        }
+
+        @Override
+        public LockstepCommand[] bootstrapCommands()
+        {
+            return new LockstepCommand[] { readInput(), readInput(), readInput() };
+        }
+
+        @Override
+        public void signalHandshakeFailure()
+        {
+            handshakeFailed = true;
+        }
+
+        @Override
+        public void signalDisconnection(int remainingClients)
+        {
+        }
+
+        int executedCount()
+        {
+            synchronized(executed)
+            {
+                return executed.size();
+            }
+        }
+
+        List<Integer> executed()
+        {
+            synchronized(executed)
+            {
+                return new ArrayList<>(executed);
+            }
+        }
+
+        boolean issuedAny(List<Integer> commands)
+        {
+            for(int command : commands)
+            {
+                if(command / 100000 == tag)
+                    return true;
+            }
+            return false;
+        }
+    }
+
+    private static int freePort() throws IOException
+    {
+        try(ServerSocket socket = new ServerSocket(0))
+        {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static boolean eventually(BooleanSupplier condition) throws InterruptedException
+    {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while(!condition.getAsBoolean())
+        {
+            if(System.nanoTime() - deadline >= 0)
+                return false;
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    private void startServer(int port, int clientsNumber)
+    {
+        server = LockstepServer.builder()
+                .tcpPort(port)
+                .clientsNumber(clientsNumber)
+                .tickrate(FRAMERATE)
+                .maxUDPPayloadLength(300)
+                .connectionTimeout(CONNECTION_TIMEOUT)
+                .lateJoin(true)
+                .build();
+        server.start();
+    }
+
+    private LockstepClient startClient(int port, RecordingApplication application) throws InterruptedException
+    {
+        LockstepClient client;
+        //The server may not be listening yet
+        do
+        {
+            application.handshakeFailed = false;
+            client = LockstepClient.builder()
+                    .serverTCPAddress(new InetSocketAddress(InetAddress.getLoopbackAddress(), port))
+                    .framerate(FRAMERATE)
+                    .tickrate(FRAMERATE)
+                    .fillTimeout(100)
+                    .maxUDPPayloadLength(300)
+                    .maxExecutionDistance(20)
+                    .connectionTimeout(CONNECTION_TIMEOUT)
+                    .lockstepApplication(application)
+                    .build();
+            client.start();
+            client.join(100);
+        }while(!client.isAlive() && application.handshakeFailed);
+        clients.add(client);
+        return client;
+    }
+
+    /**
+     * Simulates the loss of the UDP path of a client: its packets stop
+     * reaching the server, which eventually times it out.
+     */
+    private static void losePath(LockstepClient client) throws IOException
+    {
+        client.udpChannel.close();
+    }
+
+    /**
+     * Checks that the executions recorded agree on their common prefix.
+     */
+    private static void assertSameExecution(RecordingApplication... applications)
+    {
+        List<Integer> reference = applications[0].executed();
+        for(RecordingApplication application : applications)
+        {
+            List<Integer> executed = application.executed();
+            int common = Integer.min(reference.size(), executed.size());
+            assertEquals(reference.subList(0, common), executed.subList(0, common));
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        for(LockstepClient client : clients)
+            client.interrupt();
+        for(LockstepClient client : clients)
+            client.join(5000);
+        if(server != null)
+        {
+            server.abort();
+            server.join(5000);
+        }
+    }
+
+    @Test
+    public void joiningClientReachesTheStateOfTheOthers() throws Exception
+    {
+        int port = freePort();
+        startServer(port, 2);
+        RecordingApplication first = new RecordingApplication(1);
+        RecordingApplication second = new RecordingApplication(2);
+        startClient(port, first);
+        startClient(port, second);
+        assertTrue(eventually(() -> first.executedCount() >= 20 && second.executedCount() >= 20));
+
+        RecordingApplication joining = new RecordingApplication(3);
+        startClient(port, joining);
+        int target = first.executedCount() + EXECUTED_AFTER_JOIN;
+        assertTrue(eventually(() -> joining.executedCount() >= target));
+
+        assertSameExecution(first, second, joining);
+        assertTrue(joining.issuedAny(first.executed()));
+        assertTrue(joining.issuedAny(joining.executed()));
+    }
+
+    @Test
+    public void clientRejoinsAfterLosingItsPath() throws Exception
+    {
+        int port = freePort();
+        startServer(port, 3);
+        RecordingApplication first = new RecordingApplication(1);
+        RecordingApplication lost = new RecordingApplication(2);
+        RecordingApplication third = new RecordingApplication(3);
+        startClient(port, first);
+        LockstepClient lostClient = startClient(port, lost);
+        startClient(port, third);
+        assertTrue(eventually(() -> first.executedCount() >= 30 && lost.executedCount() >= 30 && third.executedCount() >= 30));
+
+        losePath(lostClient);
+        //The others stall on the lost client until the server times it out
+        int stalled = first.executedCount();
+        assertTrue(eventually(() -> first.executedCount() >= stalled + EXECUTED_AFTER_JOIN));
+
+        RecordingApplication rejoined = new RecordingApplication(4);
+        startClient(port, rejoined);
+        int target = first.executedCount() + EXECUTED_AFTER_JOIN;
+        assertTrue(eventually(() -> rejoined.executedCount() >= target && third.executedCount() >= target));
+
+        assertSameExecution(first, third, rejoined);
+        assertTrue(first.issuedAny(rejoined.executed()));
+        assertTrue(lost.issuedAny(rejoined.executed()));
+        assertTrue(rejoined.issuedAny(first.executed()));
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Semaphore;
+import lockstep.messages.simulation.FrameACK;
+import lockstep.messages.simulation.LockstepCommand;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class LateJoinTest {
+
+    private int joins;
+
+    private final LockstepApplication application = new LockstepApplication()
+    {
+        @Override
+        public LockstepCommand readInput()
+        {
+            return new Command(0, 0);
+        }
+
+        @Override
+        public void suspendSimulation()
+        {
+        }
+
+        @Override
+        public void resumeSimulation()
+        {
+        }
+
+        @Override
+        public void executeCommand(LockstepCommand c)
+        {
+        }
+
+        @Override
+        public LockstepCommand[] fillCommands()
+        {
+            return new LockstepCommand[0];
+        }
+
+        @Override
+        public LockstepCommand[] bootstrapCommands()
+        {
+            return new LockstepCommand[0];
+        }
+
+        @Override
+        public void signalHandshakeFailure()
+        {
+        }
+
+        @Override
+        public void signalDisconnection(int remainingClients)
+        {
+        }
+
+        @Override
+        public void signalJoin(int partecipatingClients)
+        {
+            joins = partecipatingClients;
+        }
+    };
+
+    private static FrameInput[] frames(int first, int last)
+    {
+        FrameInput[] frames = new FrameInput[last - first + 1];
+        for(int i = 0; i < frames.length; i++)
+            frames[i] = new FrameInput(first + i, new Command(0, 0));
+        return frames;
+    }
+
+    @Test
+    public void joiningSenderIsAnnouncedUntilACKed()
+    {
+        TransmissionQueue queue = new TransmissionQueue(10, 7, false);
+        assertFalse(queue.isAnnounced());
+
+        queue.push(frames(10, 12));
+        queue.pop();
+        assertFalse(queue.isAnnounced());
+
+        queue.processACK(new FrameACK(9, null));
+        assertTrue(queue.isAnnounced());
+        assertTrue(new TransmissionQueue(1, 7).isAnnounced());
+    }
+
+    @Test
+    public void framesFromTheBarrierOnAreHeldBack()
+    {
+        FrameInput[] held = LockstepTransmitter.framesBeforeBarrier(frames(5, 9), 8);
+        assertEquals(3, held.length);
+        assertEquals(7, held[2].getFrameNumber());
+
+        assertEquals(0, LockstepTransmitter.framesBeforeBarrier(frames(8, 9), 8).length);
+        assertEquals(2, LockstepTransmitter.framesBeforeBarrier(frames(5, 6), 8).length);
+    }
+
+    @Test
+    public void pendingQueuesAreActivatedAtTheirFirstFrame()
+    {
+        LockstepClient client = new LockstepClient(new InetSocketAddress("localhost", 1), 60, 30, 10, 512, 100, 0, application);
+        client.executionSemaphore = new Semaphore(0);
+        client.executionFrameQueues = new ConcurrentSkipListMap<>();
+        client.pendingFrameQueues = new ConcurrentSkipListMap<>();
+        client.clientsNumber = 2;
+        client.currentExecutionFrame = 5;
+
+        ClientReceivingQueue joining = new ClientReceivingQueue(7, 42, new Semaphore(0));
+        joining.push(new FrameInput(7, new Command(0, 0)));
+        client.pendingFrameQueues.put(42, joining);
+
+        client.activatePendingQueues();
+        assertTrue(client.executionFrameQueues.isEmpty());
+
+        client.currentExecutionFrame = 7;
+        client.activatePendingQueues();
+        assertSame(joining, client.executionFrameQueues.get(42));
+        assertTrue(client.pendingFrameQueues.isEmpty());
+        assertEquals(3, joins);
+        assertEquals(1, client.executionSemaphore.availablePermits());
+    }
+
+    @Test
+    public void historyIsTrimmedToTheRetention()
+    {
+        LockstepServer server = LockstepServer.builder()
+                .clientsNumber(2)
+                .tickrate(30)
+                .maxUDPPayloadLength(512)
+                .lateJoin(true)
+                .maxHistoryFrames(3)
+                .build();
+        server.frameHistory.put(7, new ConcurrentSkipListMap<>());
+
+        for(FrameInput input : frames(1, 3))
+            server.recordHistory(7, input);
+        assertFalse(server.isHistoryTrimmed());
+
+        server.recordHistory(7, new FrameInput(4, new Command(0, 0)));
+        assertTrue(server.isHistoryTrimmed());
+        assertEquals(Integer.valueOf(2), server.frameHistory.get(7).firstKey());
+        assertEquals(3, server.frameHistory.get(7).size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void retentionMustNotBeNegative()
+    {
+        LockstepServer.builder()
+                .clientsNumber(2)
+                .tickrate(30)
+                .maxUDPPayloadLength(512)
+                .maxHistoryFrames(-1)
+                .build();
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep;
+
+import java.io.EOFException;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import lockstep.messages.simulation.DisconnectionSignal;
+import lockstep.messages.simulation.FrameACK;
+import lockstep.messages.simulation.InputMessage;
+import lockstep.messages.simulation.InputMessageArray;
+import lockstep.messages.simulation.LockstepCommand;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class MessageCodecTest {
+
+    public static class MoveCommand implements LockstepCommand, Externalizable
+    {
+        int dx;
+        String player;
+
+        public MoveCommand()
+        {
+        }
+
+        MoveCommand(int dx, String player)
+        {
+            this.dx = dx;
+            this.player = player;
+        }
+
+        @Override
+        public void writeExternal(ObjectOutput out) throws IOException
+        {
+            out.writeInt(dx);
+            out.writeUTF(player);
+        }
+
+        @Override
+        public void readExternal(ObjectInput in) throws IOException
+        {
+            dx = in.readInt();
+            player = in.readUTF();
+        }
+    }
+
+    @Test
+    public void inputsDecodedInPlace() throws Exception
+    {
+        FrameInput[] frames = {
+            new FrameInput(10, new MoveCommand(-3, "pilot \u00e8")),
+            new FrameInput(11, new MoveCommand(4, "pilot \u00e8")),
+            new FrameInput(12, new DisconnectionSignal())
+        };
+        ByteBuffer buffer = ByteBuffer.allocateDirect(MessageCodec.MAX_PAYLOAD_LENGTH);
+        MessageCodec.encode(new InputMessageArray(7, frames), buffer);
+        buffer.flip();
+
+        InputMessageArray decoded = (InputMessageArray) MessageCodec.decode(buffer, null);
+        assertEquals(7, decoded.senderID);
+        assertEquals(3, decoded.frames.length);
+        MoveCommand move = (MoveCommand) decoded.frames[0].getCommand();
+        assertEquals(-3, move.dx);
+        assertEquals("pilot \u00e8", move.player);
+        assertEquals(4, ((MoveCommand) decoded.frames[1].getCommand()).dx);
+        assertTrue(decoded.frames[2].getCommand() instanceof DisconnectionSignal);
+    }
+
+    @Test
+    public void ackDecodedInReusedInstance() throws Exception
+    {
+        byte[] payload = MessageCodec.encode(new FrameACK(7, 20, new int[] { 22, 25 }));
+        FrameACK reused = new FrameACK();
+
+        Object decoded = MessageCodec.decode(ByteBuffer.wrap(payload), reused);
+        assertSame(reused, decoded);
+        assertEquals(7, reused.senderID);
+        assertEquals(20, reused.cumulativeACK);
+        assertArrayEquals(new int[] { 22, 25 }, reused.selectiveACKs);
+    }
+
+    @Test
+    public void packetizedWithinMaxLength() throws Exception
+    {
+        FrameInput[] frames = new FrameInput[50];
+        for(int i = 0; i < frames.length; i++)
+            frames[i] = new FrameInput(i, new MoveCommand(i, "player"));
+
+        List<byte[]> payloads = MessageCodec.packetizeInputs(7, frames, 200);
+        assertTrue(payloads.size() > 1);
+
+        int nextFrame = 0;
+        for(byte[] payload : payloads)
+        {
+            assertTrue(payload.length <= 200);
+            InputMessageArray decoded = (InputMessageArray) MessageCodec.decode(payload, 0, payload.length);
+            for(FrameInput frame : decoded.frames)
+                assertEquals(nextFrame++, frame.getFrameNumber());
+        }
+        assertEquals(frames.length, nextFrame);
+    }
+
+    @Test
+    public void headerReadInPlace() throws Exception
+    {
+        FrameInput[] frames = new FrameInput[50];
+        for(int i = 0; i < frames.length; i++)
+            frames[i] = new FrameInput(100 + 2 * i, new MoveCommand(i, "player"));
+
+        List<byte[]> payloads = MessageCodec.packetizeInputs(7, frames, 200);
+        for(byte[] payload : payloads)
+        {
+            ByteBuffer buffer = ByteBuffer.wrap(payload);
+            assertTrue(MessageCodec.hasInputHeader(buffer));
+            InputMessageArray decoded = (InputMessageArray) MessageCodec.decode(payload, 0, payload.length);
+            assertEquals(7, MessageCodec.headerSenderID(buffer));
+            assertEquals(decoded.frames[0].getFrameNumber(), MessageCodec.headerFirstFrame(buffer));
+            assertEquals(decoded.frames[decoded.frames.length - 1].getFrameNumber(), MessageCodec.headerLastFrame(buffer));
+        }
+
+        ByteBuffer ack = ByteBuffer.wrap(MessageCodec.encode(new FrameACK(7, 20, null)));
+        assertFalse(MessageCodec.hasInputHeader(ack));
+    }
+
+    @Test
+    public void acksPiggybacked() throws Exception
+    {
+        FrameInput[] frames = { new FrameInput(10, new MoveCommand(1, "player")) };
+        List<FrameACK> acks = new ArrayList<>();
+        acks.add(new FrameACK(3, 20, null));
+        acks.add(new FrameACK(4, 30, new int[] { 32 }));
+        acks.add(new FrameACK(5, 40, new int[100]));
+
+        List<byte[]> payloads = MessageCodec.packetizeInputs(7, frames, acks, 200);
+        assertEquals(1, payloads.size());
+        //The last ACK exceeds the share of the payload left to ACKs
+        assertEquals(1, acks.size());
+        assertEquals(5, acks.get(0).senderID);
+
+        ByteBuffer buffer = ByteBuffer.wrap(payloads.get(0));
+        assertEquals(2, MessageCodec.headerACKsCount(buffer));
+        FrameACK ack = new FrameACK();
+        int offset = MessageCodec.readPiggybackedACK(buffer, MessageCodec.INPUT_HEADER_LENGTH, ack);
+        assertEquals(3, ack.senderID);
+        assertEquals(20, ack.cumulativeACK);
+        MessageCodec.readPiggybackedACK(buffer, offset, ack);
+        assertEquals(4, ack.senderID);
+        assertArrayEquals(new int[] { 32 }, ack.selectiveACKs);
+
+        InputMessage decoded = (InputMessage) MessageCodec.decode(buffer, null);
+        assertEquals(10, decoded.frame.getFrameNumber());
+    }
+
+    @Test(expected = EOFException.class)
+    public void truncatedPayloadRejected() throws Exception
+    {
+        FrameInput[] frames = { new FrameInput(10, new MoveCommand(1, "player")) };
+        byte[] payload = MessageCodec.encode(new InputMessageArray(7, frames));
+        MessageCodec.decode(payload, 0, payload.length - 3);
+    }
+
+    @Test(expected = ClassNotFoundException.class)
+    public void nonCommandClassRejected() throws Exception
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(100);
+        buffer.put(MessageCodec.INPUT).putInt(7).putInt(10).putInt(10).putShort((short) 1).put((byte) 0);
+        buffer.putInt(10).put((byte) 0);
+        buffer.put((byte) 1).putShort((short) 0);
+        ByteBufferObjectOutput output = new ByteBufferObjectOutput();
+        output.setBuffer(buffer);
+        output.writeUTF(String.class.getName());
+        buffer.flip();
+        MessageCodec.decode(buffer, null);
+    }
+}
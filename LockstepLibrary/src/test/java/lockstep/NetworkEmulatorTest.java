@@ -0,0 +1,122 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class NetworkEmulatorTest {
+    
+    DatagramChannel sender;
+    DatagramSocket recipient;
+    
+    @Before
+    public void setUp() throws IOException {
+        recipient = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        recipient.setSoTimeout(300);
+        sender = DatagramChannel.open();
+        sender.connect(recipient.getLocalSocketAddress());
+    }
+    
+    @After
+    public void tearDown() throws IOException {
+        sender.close();
+        recipient.close();
+    }
+    
+    @Test
+    public void totalLoss() throws IOException
+    {
+        NetworkEmulator emulator = new NetworkEmulator(sender, ImpairmentProfile.builder().loss(1).build(), "emulator");
+        sendAll(emulator, 10);
+        assertTrue("Check nothing is delivered", receiveAll().isEmpty());
+        emulator.close();
+    }
+    
+    @Test
+    public void burstLoss() throws IOException
+    {
+        ImpairmentProfile profile = ImpairmentProfile.builder().burstLoss(1, 0, 1).build();
+        NetworkEmulator emulator = new NetworkEmulator(sender, profile, "emulator");
+        sendAll(emulator, 10);
+        assertTrue("Check nothing is delivered in the bad state", receiveAll().isEmpty());
+        emulator.close();
+    }
+    
+    @Test
+    public void seededLoss() throws IOException
+    {
+        ImpairmentProfile profile = ImpairmentProfile.builder().seed(7).loss(0.5).build();
+        
+        NetworkEmulator emulator = new NetworkEmulator(sender, profile, "emulator");
+        sendAll(emulator, 50);
+        List<Integer> firstRun = receiveAll();
+        emulator.close();
+        
+        emulator = new NetworkEmulator(sender, profile, "emulator");
+        sendAll(emulator, 50);
+        List<Integer> secondRun = receiveAll();
+        emulator.close();
+        
+        assertTrue("Check some datagrams are lost", firstRun.size() < 50);
+        assertEquals("Check the same datagrams are lost", firstRun, secondRun);
+    }
+    
+    @Test
+    public void latency() throws IOException
+    {
+        NetworkEmulator emulator = new NetworkEmulator(sender, ImpairmentProfile.builder().latency(100).build(), "emulator");
+        long start = System.nanoTime();
+        sendAll(emulator, 1);
+        assertEquals("Check delivery", 1, receiveAll().size());
+        assertTrue("Check the delay", System.nanoTime() - start >= 100_000_000L);
+        emulator.close();
+    }
+    
+    @Test
+    public void duplication() throws IOException
+    {
+        NetworkEmulator emulator = new NetworkEmulator(sender, ImpairmentProfile.builder().duplication(1).build(), "emulator");
+        sendAll(emulator, 5);
+        assertEquals("Check each datagram is delivered twice", 10, receiveAll().size());
+        emulator.close();
+    }
+    
+    private void sendAll(NetworkEmulator emulator, int count) throws IOException
+    {
+        for(int i = 0; i < count; i++)
+            emulator.send(new byte[] { (byte) i });
+    }
+    
+    private List<Integer> receiveAll() throws IOException
+    {
+        List<Integer> received = new ArrayList<>();
+        byte[] buffer = new byte[16];
+        while(true)
+        {
+            try
+            {
+                DatagramPacket p = new DatagramPacket(buffer, buffer.length);
+                recipient.receive(p);
+                received.add((int) p.getData()[0]);
+            }
+            catch(SocketTimeoutException timeoutEx)
+            {
+                return received;
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep;
+
+import java.nio.ByteBuffer;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ParityFECTest {
+
+    private final ParityFEC encoder = new ParityFEC();
+    private final ParityFEC decoder = new ParityFEC();
+
+    @Test
+    public void lostDatagramRebuilt()
+    {
+        //The first group activates the decoder
+        assertNull(decoder.recover(ByteBuffer.wrap(sendGroup(0))));
+
+        byte[][] payloads = new byte[ParityFEC.DEFAULT_GROUP][];
+        byte[] parity = null;
+        for(int i = 0; i < payloads.length; i++)
+        {
+            payloads[i] = payload(100 + i, 20 + 3 * i);
+            parity = encoder.protect(payloads[i]);
+            if(i != 2)
+                decoder.received(ByteBuffer.wrap(payloads[i]));
+        }
+        assertNotNull(parity);
+
+        ByteBuffer recovered = decoder.recover(ByteBuffer.wrap(parity));
+        assertNotNull(recovered);
+        byte[] rebuilt = new byte[recovered.remaining()];
+        recovered.get(rebuilt);
+        assertArrayEquals(payloads[2], rebuilt);
+        assertEquals(1.0 / ParityFEC.DEFAULT_GROUP / 16, decoder.getIncomingLoss(), 1e-9);
+    }
+
+    @Test
+    public void twoLossesNotRebuilt()
+    {
+        decoder.recover(ByteBuffer.wrap(sendGroup(0)));
+
+        byte[] parity = null;
+        for(int i = 0; i < ParityFEC.DEFAULT_GROUP; i++)
+        {
+            byte[] payload = payload(200 + i, 30);
+            parity = encoder.protect(payload);
+            if(i > 1)
+                decoder.received(ByteBuffer.wrap(payload));
+        }
+        assertNull(decoder.recover(ByteBuffer.wrap(parity)));
+    }
+
+    @Test
+    public void groupFollowsReportedLoss()
+    {
+        assertEquals(ParityFEC.DEFAULT_GROUP, ParityFEC.groupSize(-1));
+        assertEquals(ParityFEC.MAX_GROUP, ParityFEC.groupSize(0));
+        assertEquals(5, ParityFEC.groupSize(0.02));
+        assertEquals(ParityFEC.MIN_GROUP, ParityFEC.groupSize(0.5));
+    }
+
+    private byte[] sendGroup(int seed)
+    {
+        byte[] parity = null;
+        for(int i = 0; parity == null; i++)
+            parity = encoder.protect(payload(seed + i, 16));
+        return parity;
+    }
+
+    private static byte[] payload(int seed, int length)
+    {
+        byte[] payload = new byte[length];
+        for(int i = 0; i < length; i++)
+            payload[i] = (byte) (seed * 31 + i * 7);
+        return payload;
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class PlayoutBufferTest {
+
+    private static final long PERIOD = TimeUnit.MILLISECONDS.toNanos(16);
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final PlayoutBuffer playoutBuffer = new PlayoutBuffer(PERIOD);
+
+    @Test
+    public void steadyArrivalsNeedNoDelay()
+    {
+        for(int frame = 0; frame < 100; frame++)
+            playoutBuffer.arrived(1, frames(frame), frame * PERIOD + 30 * MILLIS);
+
+        assertEquals(0, playoutBuffer.getTargetDelay());
+        assertEquals(PERIOD, playoutBuffer.correctPeriod(0, PERIOD));
+    }
+
+    @Test
+    public void jitterSetsTargetDelay()
+    {
+        //Every other frame 10 ms late
+        for(int frame = 0; frame < 200; frame++)
+            playoutBuffer.arrived(1, frames(frame), frame * PERIOD + (frame % 2) * 10 * MILLIS);
+        playoutBuffer.arrived(2, frames(199), 199 * PERIOD + 12 * MILLIS);
+
+        assertEquals(10 * MILLIS, playoutBuffer.getJitter(), MILLIS);
+        assertEquals(PlayoutBuffer.JITTER_MULTIPLIER * playoutBuffer.getJitter(), playoutBuffer.getTargetDelay());
+        assertEquals(199 * PERIOD + 12 * MILLIS, playoutBuffer.lastArrival(199));
+        assertEquals(Long.MIN_VALUE, playoutBuffer.lastArrival(200));
+
+        //Slows down when the buffer is short, speeds up gently when it's long
+        assertTrue(playoutBuffer.correctPeriod(0, PERIOD) > PERIOD);
+        assertTrue(playoutBuffer.correctPeriod(0, PERIOD) <= PERIOD * 3 / 2);
+        assertEquals((long) (PERIOD * (1 - PlayoutBuffer.MAX_SPEEDUP)), playoutBuffer.correctPeriod(1000 * MILLIS, PERIOD));
+    }
+
+    @Test
+    public void duplicatesAreIgnored()
+    {
+        playoutBuffer.arrived(1, frames(0, 1), 0);
+        playoutBuffer.arrived(1, frames(1), 500 * MILLIS);
+        assertEquals(0, playoutBuffer.lastArrival(1));
+        assertEquals(PERIOD / 16, playoutBuffer.getJitter());
+    }
+
+    private static FrameInput[] frames(int... frameNumbers)
+    {
+        FrameInput[] frames = new FrameInput[frameNumbers.length];
+        for(int i = 0; i < frameNumbers.length; i++)
+            frames[i] = new FrameInput(frameNumbers[i], null);
+        return frames;
+    }
+}
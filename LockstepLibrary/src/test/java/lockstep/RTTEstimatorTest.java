@@ -0,0 +1,68 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import lockstep.messages.simulation.KeepAlive;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class RTTEstimatorTest {
+
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long PEER_OFFSET = TimeUnit.SECONDS.toNanos(5);
+
+    private final RTTEstimator local = new RTTEstimator();
+    private final RTTEstimator peer = new RTTEstimator();
+
+    @Test
+    public void rttAndOffsetFromProbes() throws Exception
+    {
+        //10 ms each way, each probe held 3 ms before being echoed
+        assertEquals(-1, exchange(peer, local, PEER_OFFSET, 10 * MILLIS, -PEER_OFFSET));
+        assertEquals(20 * MILLIS, exchange(local, peer, 13 * MILLIS, 10 * MILLIS, PEER_OFFSET));
+        assertEquals(-PEER_OFFSET, peer.getClockOffset());
+
+        assertEquals(20 * MILLIS, exchange(peer, local, PEER_OFFSET + 26 * MILLIS, 10 * MILLIS, -PEER_OFFSET));
+        assertEquals(PEER_OFFSET, local.getClockOffset());
+    }
+
+    @Test
+    public void offsetFromLeastQueuedSample() throws Exception
+    {
+        long time = 0;
+        long[] extraDelays = { 0, 40 * MILLIS, 25 * MILLIS };
+        for(long extraDelay : extraDelays)
+        {
+            exchange(local, peer, time, 10 * MILLIS, PEER_OFFSET);
+            //Queueing on the way back only, which skews the offset
+            exchange(peer, local, time + 12 * MILLIS + PEER_OFFSET, 10 * MILLIS + extraDelay, -PEER_OFFSET);
+            time += 100 * MILLIS;
+        }
+        assertEquals(3, local.getSamples());
+        assertEquals(20 * MILLIS, local.getMinRTT());
+        assertEquals(PEER_OFFSET, local.getClockOffset());
+        assertTrue(local.getSmoothedRTT() > local.getMinRTT());
+        assertTrue(local.getRetransmissionTimeout() >= TimeUnit.MILLISECONDS.toNanos(200));
+    }
+
+    /**
+     * Sends a probe from one estimator to the other through the codec.
+     *
+     * @param sentNanos send time on the sender clock
+     * @param delay one way delay
+     * @param clockDelta receiver clock minus sender clock
+     * @return the RTT sampled by the receiver
+     */
+    private static long exchange(RTTEstimator sender, RTTEstimator receiver, long sentNanos, long delay, long clockDelta) throws Exception
+    {
+        KeepAlive probe = new KeepAlive();
+        sender.stamp(probe, sentNanos);
+        KeepAlive decoded = (KeepAlive) MessageCodec.decode(ByteBuffer.wrap(MessageCodec.encode(probe)), null);
+        return receiver.received(decoded, sentNanos + delay + clockDelta);
+    }
+}
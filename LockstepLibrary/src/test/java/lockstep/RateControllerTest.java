@@ -0,0 +1,55 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep;
+
+import java.util.concurrent.TimeUnit;
+import lockstep.messages.simulation.FrameACK;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class RateControllerTest {
+
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void heldBackBeyondDeadline() throws Exception
+    {
+        RateController controller = new RateController(RatePolicy.builder().initialRate(10000).build());
+        //The burst allowance plus 100 ms at 10 kB/s
+        controller.sent(RateController.BURST_BYTES + 1000 - RateController.DATAGRAM_OVERHEAD);
+        assertFalse(controller.awaitSlot(System.nanoTime() + MILLIS));
+    }
+
+    @Test
+    public void decreasedOnQueueingDelay()
+    {
+        RateController controller = new RateController(RatePolicy.builder().build());
+        long start = System.nanoTime();
+        controller.framesSent(7, 10, start);
+        controller.acked(new FrameACK(7, 10, null), start + 20 * MILLIS);
+        assertEquals(RatePolicy.builder().build().getInitialRate(), controller.getRate(), 0);
+
+        //Retransmitted frames aren't sampled
+        controller.framesSent(7, 10, start + 30 * MILLIS);
+        controller.acked(new FrameACK(7, 10, null), start + 2000 * MILLIS);
+        assertEquals(20 * MILLIS, controller.getSmoothedRTT());
+
+        controller.framesSent(7, 11, start + 40 * MILLIS);
+        controller.acked(new FrameACK(7, 11, null), start + 1040 * MILLIS);
+        assertEquals(64000 * 0.75, controller.getRate(), 1e-9);
+    }
+
+    @Test
+    public void lossWithoutDelayKeepsRate()
+    {
+        RateController controller = new RateController(RatePolicy.builder().build());
+        long start = System.nanoTime();
+        controller.framesSent(7, 10, start);
+        controller.acked(new FrameACK(7, 10, null), start + 20 * MILLIS);
+        controller.nacked(start + 200 * MILLIS);
+        assertEquals(64000, controller.getRate(), 0);
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import lockstep.messages.simulation.DisconnectionSignal;
+import lockstep.messages.simulation.FrameACK;
+import lockstep.messages.simulation.InputMessage;
+import lockstep.messages.simulation.InputMessageArray;
+import lockstep.messages.simulation.KeepAlive;
+import lockstep.messages.simulation.LockstepCommand;
+import lockstep.messages.simulation.SessionResume;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ResumableSessionTest {
+
+    private static final int CLIENT_ID = 7;
+    private static final long TOKEN = 0x5eed5eedL;
+    private static final int CONNECTION_TIMEOUT = 100;
+    private static final int TICKRATE = 100;
+    private static final int MAX_PACKET_LENGTH = 1024;
+
+    private static class Tick implements LockstepCommand
+    {
+    }
+
+    private final CountDownLatch disconnected = new CountDownLatch(1);
+    private volatile int disconnectedID;
+
+    private final LockstepCoreThread coreThread = new LockstepCoreThread()
+    {
+        @Override
+        public void disconnectTransmittingQueues(int nodeID)
+        {
+            disconnectedID = nodeID;
+            disconnected.countDown();
+        }
+
+        @Override
+        void disconnectReceivingQueues(int nodeID)
+        {
+        }
+
+        @Override
+        ReceivingQueue connectReceivingQueue(int nodeID, int firstFrameNumber)
+        {
+            return null;
+        }
+
+        @Override
+        public void abort()
+        {
+        }
+    };
+
+    private final ServerReceivingQueue receivingQueue = new ServerReceivingQueue(1, CLIENT_ID, new Semaphore(0));
+    private final ACKSet ackSet = new ACKSet();
+    private ResumableSession session;
+    private DatagramChannel serverChannel;
+    private DatagramChannel clientChannel;
+    private DatagramChannel roamingChannel;
+    private LockstepReceiver receiver;
+    private LockstepTransmitter transmitter;
+
+    private static DatagramChannel loopbackChannel() throws IOException
+    {
+        return DatagramChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    }
+
+    /**
+     * Starts a server side receiver connected to the client, and lets its
+     * connection time out.
+     */
+    private void suspendedSession(int resumeTimeout) throws Exception
+    {
+        serverChannel = loopbackChannel();
+        clientChannel = loopbackChannel();
+        roamingChannel = loopbackChannel();
+        serverChannel.connect(clientChannel.getLocalAddress());
+        clientChannel.connect(serverChannel.getLocalAddress());
+
+        ConcurrentMap<Integer, ReceivingQueue> receivingQueues = new ConcurrentHashMap<>();
+        receivingQueues.put(CLIENT_ID, receivingQueue);
+        session = new ResumableSession(CLIENT_ID, TOKEN, resumeTimeout, false);
+        receiver = LockstepReceiver.builder()
+                .dgramChannel(serverChannel)
+                .receivingQueues(receivingQueues)
+                .transmissionQueues(new ConcurrentHashMap<>())
+                .ackSet(ackSet)
+                .coreThread(coreThread)
+                .name("Receiver-test")
+                .receiverID(CLIENT_ID)
+                .connectionTimeout(CONNECTION_TIMEOUT)
+                .session(session)
+                .build();
+        receiver.start();
+
+        clientChannel.write(ByteBuffer.wrap(MessageCodec.encode(new KeepAlive())));
+        assertTrue(eventually(session::isSuspended));
+    }
+
+    private void sendResume(DatagramChannel channel, int clientID, long token) throws IOException
+    {
+        channel.send(ByteBuffer.wrap(MessageCodec.encode(new SessionResume(clientID, token))), serverChannel.getLocalAddress());
+    }
+
+    /**
+     * Receives through the socket adaptor, which honours the timeout.
+     */
+    private static Object receive(DatagramChannel channel) throws Exception
+    {
+        DatagramPacket p = new DatagramPacket(new byte[MAX_PACKET_LENGTH], MAX_PACKET_LENGTH);
+        channel.socket().receive(p);
+        return MessageCodec.decode(p.getData(), 0, p.getLength());
+    }
+
+    /**
+     * @return the frames carried by the next input message received, skipping
+     * the other messages
+     */
+    private static FrameInput[] receiveFrames(DatagramChannel channel) throws Exception
+    {
+        while(true)
+        {
+            Object message = receive(channel);
+            if(message instanceof InputMessage)
+                return new FrameInput[] { ((InputMessage) message).frame };
+            if(message instanceof InputMessageArray)
+                return ((InputMessageArray) message).frames;
+        }
+    }
+
+    private static boolean eventually(BooleanSupplier condition) throws InterruptedException
+    {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while(!condition.getAsBoolean())
+        {
+            if(System.nanoTime() - deadline >= 0)
+                return false;
+            Thread.sleep(5);
+        }
+        return true;
+    }
+
+    private static SocketAddress remoteAddress(DatagramChannel channel)
+    {
+        try
+        {
+            return channel.getRemoteAddress();
+        }
+        catch(IOException ioEx)
+        {
+            return null;
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        for(DatagramChannel channel : new DatagramChannel[] { serverChannel, clientChannel, roamingChannel })
+        {
+            if(channel != null)
+                channel.close();
+        }
+        for(Thread thread : new Thread[] { receiver, transmitter })
+        {
+            if(thread != null)
+            {
+                thread.interrupt();
+                thread.join(5000);
+            }
+        }
+    }
+
+    @Test
+    public void wrongTokenDoesntTakeOverTheSession() throws Exception
+    {
+        suspendedSession(5000);
+
+        sendResume(roamingChannel, CLIENT_ID, TOKEN + 1);
+        sendResume(roamingChannel, CLIENT_ID + 1, TOKEN);
+        roamingChannel.send(ByteBuffer.wrap(MessageCodec.encode(new KeepAlive())), serverChannel.getLocalAddress());
+        //Processed after the forged packets, as the socket keeps their order
+        clientChannel.write(ByteBuffer.wrap(MessageCodec.encode(new KeepAlive())));
+
+        assertTrue(eventually(() -> !session.isSuspended()));
+        assertEquals(clientChannel.getLocalAddress(), remoteAddress(serverChannel));
+        assertEquals(1, disconnected.getCount());
+    }
+
+    @Test
+    public void sessionIsDisconnectedAfterTheGracePeriod() throws Exception
+    {
+        suspendedSession(200);
+
+        assertTrue(disconnected.await(5, TimeUnit.SECONDS));
+        assertEquals(CLIENT_ID, disconnectedID);
+        assertFalse(serverChannel.isOpen());
+        assertTrue(receivingQueue.pop().getCommand() instanceof DisconnectionSignal);
+
+        //The receiver terminated, nothing resumes the session anymore
+        receiver.join(5000);
+        assertFalse(receiver.isAlive());
+    }
+
+    @Test
+    public void sessionResumesFromANewAddress() throws Exception
+    {
+        suspendedSession(5000);
+
+        sendResume(roamingChannel, CLIENT_ID, TOKEN);
+
+        assertTrue(eventually(() -> !session.isSuspended()));
+        assertEquals(roamingChannel.getLocalAddress(), remoteAddress(serverChannel));
+        //The sender continues from the last ACK
+        assertTrue(eventually(() -> ackSet.getACKs().length > 0));
+        assertEquals(1, disconnected.getCount());
+    }
+
+    @Test
+    public void suspendedClientRequestsResumeAndContinuesFromTheLastACK() throws Exception
+    {
+        serverChannel = loopbackChannel();
+        clientChannel = loopbackChannel();
+        serverChannel.connect(clientChannel.getLocalAddress());
+        clientChannel.connect(serverChannel.getLocalAddress());
+        serverChannel.socket().setSoTimeout(5000);
+
+        TransmissionQueue transmissionQueue = new TransmissionQueue(10, CLIENT_ID);
+        for(int frame = 10; frame < 15; frame++)
+            transmissionQueue.push(new FrameInput(frame, new Tick()));
+        ConcurrentMap<Integer, TransmissionQueue> transmissionQueues = new ConcurrentHashMap<>();
+        transmissionQueues.put(CLIENT_ID, transmissionQueue);
+        session = new ResumableSession(CLIENT_ID, TOKEN, 5000, true);
+        transmitter = LockstepTransmitter.builder()
+                .dgramChannel(clientChannel)
+                .tickrate(TICKRATE)
+                .maxUDPPayloadLength(MAX_PACKET_LENGTH)
+                .transmissionQueues(transmissionQueues)
+                .name("Transmitter-test")
+                .ackSet(new ACKSet())
+                .session(session)
+                .build();
+        transmitter.start();
+
+        assertEquals(10, receiveFrames(serverChannel)[0].getFrameNumber());
+        transmissionQueue.processACK(new FrameACK(12, null));
+        synchronized(session)
+        {
+            session.suspend();
+        }
+
+        //Only resume requests go out while suspended
+        Object message;
+        do
+        {
+            message = receive(serverChannel);
+        }while(!(message instanceof SessionResume));
+        SessionResume resume = (SessionResume) message;
+        assertTrue(session.matches(resume.clientID, resume.sessionToken));
+        assertTrue(receive(serverChannel) instanceof SessionResume);
+
+        session.resume();
+        FrameInput[] resent = receiveFrames(serverChannel);
+        assertEquals(13, resent[0].getFrameNumber());
+        assertEquals(14, resent[resent.length - 1].getFrameNumber());
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import lockstep.messages.simulation.FramePacing;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TimeDilationTest {
+
+    private static final long PERIOD = TimeUnit.MILLISECONDS.toNanos(16);
+
+    private final TimeDilation timeDilation = new TimeDilation();
+
+    @Test
+    public void lateClientShortensPeriod()
+    {
+        assertEquals(PERIOD, timeDilation.framePeriod(PERIOD));
+
+        timeDilation.setOffset(TimeUnit.MILLISECONDS.toNanos(40));
+        assertEquals(0.02, timeDilation.getDilation(), 1e-9);
+        assertTrue(timeDilation.framePeriod(PERIOD) < PERIOD);
+
+        timeDilation.setOffset(-TimeUnit.MILLISECONDS.toNanos(40));
+        assertTrue(timeDilation.framePeriod(PERIOD) > PERIOD);
+    }
+
+    @Test
+    public void dilationIsBounded()
+    {
+        timeDilation.setOffset(TimeUnit.SECONDS.toNanos(10));
+        assertEquals(TimeDilation.MAX_DILATION, timeDilation.getDilation(), 1e-9);
+
+        timeDilation.setOffset(-TimeUnit.SECONDS.toNanos(10));
+        assertEquals(-TimeDilation.MAX_DILATION, timeDilation.getDilation(), 1e-9);
+        assertEquals((long) (PERIOD * 1.05), timeDilation.framePeriod(PERIOD));
+    }
+
+    @Test
+    public void pacingRoundTrip() throws Exception
+    {
+        FramePacing pacing = new FramePacing(-1234);
+        FramePacing decoded = (FramePacing) MessageCodec.decode(ByteBuffer.wrap(MessageCodec.encode(pacing)), null);
+        assertEquals(-1234, decoded.offsetMicros);
+    }
+
+    @Test
+    public void offsetsFollowTheConnectedClients() throws Exception
+    {
+        LockstepServer server = LockstepServer.builder()
+                .clientsNumber(3)
+                .tickrate(30)
+                .maxUDPPayloadLength(512)
+                .build();
+        for(int clientID = 1; clientID <= 2; clientID++)
+        {
+            server.receivingQueues.put(clientID, new ServerReceivingQueue(1, clientID, server.executionSemaphore));
+            server.timeDilations.put(clientID, new TimeDilation());
+        }
+        TimeDilation first = server.timeDilations.get(1);
+        TimeDilation second = server.timeDilations.get(2);
+
+        server.recordLateness(1, 10);
+        Thread.sleep(2);
+        server.recordLateness(2, 10);
+        //Offsets are set at the next frame
+        assertEquals(0, second.getOffset());
+        server.recordLateness(1, 11);
+        assertTrue(first.getOffset() < 0);
+        assertTrue(second.getOffset() > 0);
+
+        server.disconnectReceivingQueues(2);
+        assertEquals(0, second.getOffset());
+        server.recordLateness(1, 12);
+        assertEquals(0, first.getOffset());
+    }
+}
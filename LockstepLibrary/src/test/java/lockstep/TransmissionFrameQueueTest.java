@@ -10,6 +10,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.concurrent.Semaphore;
 import lockstep.messages.simulation.FrameACK;
+import lockstep.metrics.DefaultLinkMetrics;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -90,6 +91,34 @@ public class TransmissionFrameQueueTest {
         assertArrayEquals("Check multiple push", new FrameInput[] { frames[1] }, popped);
     }
     
+    @Test
+    public void ackMetrics()
+    {
+        DefaultLinkMetrics metrics = new DefaultLinkMetrics();
+        tfq.attachMetrics(metrics);
+        tfq.push(frames);
+        tfq.pop();
+        tfq.pop();
+        tfq.processACK(new FrameACK(7, new int[] { 9 }));
+        tfq.processACK(new FrameACK(8, null));
+        
+        assertEquals("Check ACKed frames", 3, metrics.getTransmissionsPerFrame().getCount());
+        assertEquals("Check resends", 3, metrics.getResends());
+    }
+    
+    @Test
+    public void nackedFramesRetransmittedOnce()
+    {
+        tfq.push(frames);
+        assertTrue("Check NACK accepted", tfq.processNACK(new int[] { 8, 9 }));
+        assertArrayEquals("Check NACKed frames", new FrameInput[] { frames[1], frames[2] }, tfq.popNACKed());
+        assertFalse("Check NACK consumed", tfq.hasNACKedFrames());
+        
+        tfq.processNACK(new int[] { 8, 8 });
+        tfq.processACK(new FrameACK(8, null));
+        assertFalse("Check ACKed frames not retransmitted", tfq.hasNACKedFrames());
+    }
+    
     @Test
     public void emptyTFQ()
     {
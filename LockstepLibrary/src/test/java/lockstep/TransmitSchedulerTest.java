@@ -0,0 +1,83 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep;
+
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import lockstep.metrics.DefaultLockstepMetrics;
+import lockstep.metrics.LockstepMetrics;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TransmitSchedulerTest {
+
+    private static final long PERIOD = TimeUnit.MILLISECONDS.toNanos(50);
+
+    @Test
+    public void slotsSpreadEvenly()
+    {
+        TransmitScheduler scheduler = new TransmitScheduler(20, true, LockstepMetrics.NOOP);
+        long[] phases = new long[8];
+        for(int i = 0; i < phases.length; i++)
+            phases[i] = scheduler.phase(i);
+        Arrays.sort(phases);
+        for(int i = 0; i < phases.length; i++)
+            assertEquals(i * PERIOD / 8, phases[i]);
+    }
+
+    @Test
+    public void ticksFollowPhase() throws Exception
+    {
+        TransmitScheduler scheduler = new TransmitScheduler(20, true, LockstepMetrics.NOOP);
+        List<DatagramChannel> channels = new ArrayList<>();
+        try
+        {
+            LockstepTransmitter first = transmitter(channels);
+            LockstepTransmitter second = transmitter(channels);
+            assertEquals(0, scheduler.register(first));
+            long phase = scheduler.register(second);
+            assertEquals(PERIOD / 2, phase);
+
+            long now = System.nanoTime();
+            long deadline = scheduler.nextTick(phase, now);
+            assertTrue(deadline > now && deadline <= now + PERIOD);
+            assertEquals(deadline + PERIOD, scheduler.nextTick(phase, deadline));
+
+            //Freed slots are reused
+            scheduler.release(first);
+            assertEquals(0, scheduler.register(transmitter(channels)));
+        }
+        finally
+        {
+            for(DatagramChannel channel : channels)
+                channel.close();
+        }
+    }
+
+    @Test
+    public void burstsMergeTicksOfSameWindow()
+    {
+        DefaultLockstepMetrics metrics = new DefaultLockstepMetrics();
+        TransmitScheduler scheduler = new TransmitScheduler(20, false, metrics);
+        long now = System.nanoTime();
+        scheduler.transmitted(3, now);
+        scheduler.transmitted(2, now);
+        scheduler.transmitted(4, now + PERIOD);
+        assertEquals(1, metrics.getTransmitBursts().getCount());
+        assertEquals(5, metrics.getTransmitBursts().getMax());
+    }
+
+    private static LockstepTransmitter transmitter(List<DatagramChannel> channels) throws Exception
+    {
+        DatagramChannel channel = DatagramChannel.open();
+        channels.add(channel);
+        return new LockstepTransmitter(channel, 20, 300, new ConcurrentHashMap<>(), "Test", new ACKSet());
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class WaitStrategyTest {
+
+    private static final List<WaitStrategy> STRATEGIES = Arrays.asList(
+            WaitStrategy.blocking(),
+            WaitStrategy.parking(100, TimeUnit.MICROSECONDS),
+            WaitStrategy.yielding(),
+            WaitStrategy.busySpin());
+
+    @Test
+    public void permitsReleasedByAnotherThreadAreAcquired() throws Exception
+    {
+        for(WaitStrategy strategy : STRATEGIES)
+        {
+            Semaphore semaphore = new Semaphore(0);
+            WaitStrategy.Signal signal = WaitStrategy.Signal.of(semaphore, () -> 2);
+            Thread releaser = new Thread(() -> {
+                semaphore.release();
+                semaphore.release();
+            });
+            releaser.start();
+
+            strategy.await(signal);
+            releaser.join();
+            assertEquals(0, semaphore.availablePermits());
+        }
+    }
+
+    @Test
+    public void deadlinePasses() throws Exception
+    {
+        for(WaitStrategy strategy : STRATEGIES)
+        {
+            Semaphore semaphore = new Semaphore(1);
+            WaitStrategy.Signal signal = WaitStrategy.Signal.of(semaphore, () -> 2);
+            long start = System.nanoTime();
+            long deadline = start + TimeUnit.MILLISECONDS.toNanos(5);
+
+            assertFalse(strategy.await(signal, deadline));
+            assertTrue(System.nanoTime() - deadline >= 0);
+            assertEquals(1, semaphore.availablePermits());
+
+            strategy.sleepUntil(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(2));
+        }
+    }
+
+    @Test
+    public void transmitterWakeUpIsConsumedOnce() throws Exception
+    {
+        ACKSet ackSet = new ACKSet();
+        WaitStrategy.Signal signal = ackSet.wakeUpSignal();
+
+        ackSet.wakeTransmitter();
+        assertTrue(WaitStrategy.busySpin().await(signal, System.nanoTime() + TimeUnit.SECONDS.toNanos(1)));
+        assertFalse(signal.poll());
+        assertFalse(WaitStrategy.blocking().await(signal, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(1)));
+    }
+
+    @Test(expected = InterruptedException.class)
+    public void pollingIsInterruptible() throws Exception
+    {
+        Thread.currentThread().interrupt();
+        WaitStrategy.yielding().await(WaitStrategy.Signal.of(new Semaphore(0), () -> 1));
+    }
+
+    @Test
+    public void suspendedTransmitterSleepsUntilTheNextTick() throws Exception
+    {
+        List<Long> sleeps = Collections.synchronizedList(new ArrayList<>());
+        WaitStrategy recording = new WaitStrategy()
+        {
+            @Override
+            void await(Signal signal) throws InterruptedException
+            {
+                WaitStrategy.blocking().await(signal);
+            }
+
+            @Override
+            boolean await(Signal signal, long deadlineNanos) throws InterruptedException
+            {
+                return WaitStrategy.blocking().await(signal, deadlineNanos);
+            }
+
+            @Override
+            void sleepUntil(long deadlineNanos) throws InterruptedException
+            {
+                sleeps.add(deadlineNanos - System.nanoTime());
+                super.sleepUntil(deadlineNanos);
+            }
+        };
+        ResumableSession session = new ResumableSession(7, 1, 5000, false);
+        synchronized(session)
+        {
+            session.suspend();
+        }
+
+        try(DatagramChannel channel = DatagramChannel.open())
+        {
+            channel.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), 9));
+            //Above 1000 ticks per second, a period in milliseconds would be 0
+            LockstepTransmitter transmitter = LockstepTransmitter.builder()
+                    .dgramChannel(channel)
+                    .tickrate(2000)
+                    .maxUDPPayloadLength(512)
+                    .transmissionQueues(new HashMap<>())
+                    .ackSet(new ACKSet())
+                    .session(session)
+                    .waitStrategy(recording)
+                    .build();
+            transmitter.start();
+            Thread.sleep(100);
+            transmitter.interrupt();
+            channel.close();
+            transmitter.join(5000);
+        }
+
+        assertFalse(sleeps.isEmpty());
+        assertTrue(sleeps.size() < 400);
+        for(long sleep : sleeps)
+            assertTrue(sleep <= TimeUnit.MICROSECONDS.toNanos(500));
+        assertTrue(sleeps.stream().anyMatch((Long sleep) -> sleep > 0));
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep.jfr;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Assume;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class FrameEventsTest {
+
+    @Test
+    public void eventsAreRecordedOnlyWhenEnabled() throws IOException
+    {
+        Assume.assumeTrue(FrameEvents.isAvailable());
+
+        Path dump = Files.createTempFile("lockstep", ".jfr");
+        try(Recording recording = new Recording())
+        {
+            recording.enable("lockstep.InputCreated");
+            recording.start();
+
+            FrameEvents.inputCreated(3, 42);
+            FrameEvents.frameForwarded(3, 42, 2);
+
+            recording.stop();
+            recording.dump(dump);
+
+            List<RecordedEvent> events = RecordingFile.readAllEvents(dump);
+            assertEquals(1, events.size());
+            assertEquals("lockstep.InputCreated", events.get(0).getEventType().getName());
+            assertEquals(3, events.get(0).getInt("senderID"));
+            assertEquals(42, events.get(0).getInt("frameNumber"));
+        }
+        finally
+        {
+            Files.deleteIfExists(dump);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package lockstep.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class DefaultLockstepMetricsTest {
+    
+    DefaultLockstepMetrics metrics;
+    
+    @Before
+    public void setUp() {
+        metrics = new DefaultLockstepMetrics();
+    }
+    
+    @Test
+    public void histogramPercentiles()
+    {
+        ConcurrentHistogram histogram = new ConcurrentHistogram();
+        for(int i = 1; i <= 1000; i++)
+            histogram.record(i);
+        
+        assertEquals("Check count", 1000, histogram.getCount());
+        assertEquals("Check max", 1000, histogram.getMax());
+        assertEquals("Check mean", 500.5, histogram.getMean(), 0.001);
+        assertEquals("Check median within the bucket error", 500, histogram.getPercentile(50), 500 / 16);
+        assertEquals("Check p99 within the bucket error", 990, histogram.getPercentile(99), 990 / 16);
+        assertEquals("Check p100", 1000, histogram.getPercentile(100));
+    }
+    
+    @Test
+    public void linkCounters()
+    {
+        LinkMetrics link = metrics.link(3);
+        assertSame("Check the link recorder is reused", link, metrics.link(3));
+        
+        link.packetSent(MessageType.INPUT, 100);
+        link.packetSent(MessageType.INPUT, 50);
+        link.packetSent(MessageType.ACK, 20);
+        link.packetReceived(MessageType.KEEP_ALIVE, 10);
+        link.frameACKed(3, 2_000_000);
+        
+        DefaultLinkMetrics defaultLink = metrics.getLinks().get(3);
+        assertEquals("Check input packets", 2, defaultLink.getPacketsSent(MessageType.INPUT));
+        assertEquals("Check input bytes", 150, defaultLink.getBytesSent(MessageType.INPUT));
+        assertEquals("Check total bytes", 170, defaultLink.getBytesSent());
+        assertEquals("Check received packets", 1, defaultLink.getPacketsReceived());
+        assertEquals("Check resends", 2, defaultLink.getResends());
+        assertEquals("Check ACK latency in micros", 2000, defaultLink.getACKLatency().getMax());
+    }
+    
+    @Test
+    public void textExposition()
+    {
+        metrics.link(3).packetSent(MessageType.INPUT, 100);
+        metrics.frameExecuted();
+        
+        Map<String, Number> snapshot = metrics.snapshot();
+        assertEquals("Check link metric name", 100L, snapshot.get("link.3.bytesSent.input"));
+        assertEquals("Check node metric name", 1L, snapshot.get("framesExecuted"));
+        assertTrue("Check text format", metrics.toText().contains("link.3.bytesSent.input 100\n"));
+    }
+    
+    @Test
+    public void jmxExposition() throws JMException
+    {
+        metrics.stall(5_000_000);
+        ObjectName name = metrics.registerMBean("test");
+        try
+        {
+            Object value = ManagementFactory.getPlatformMBeanServer().getAttribute(name, "stallMicros.max");
+            assertEquals("Check attribute", 5000.0, value);
+        }
+        finally
+        {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+$scenarios = @(4, 8, 12);
+
+$serverPort = 8000;
+$clientFramerate = 60;
+$clientTickrate = 60;
+$serverTickrate = 20;
+$maxUDPPayloadLength = 300;
+$fillTimeout = 5000;
+$maxExecutionDistance = 30;
+$fillSize = 5;
+$connectionTimeout = 2000;
+$frameLimit = 900;
+
+$log = gci -Filter "logs";
+Remove-Item $log -Recurse;
+
+foreach($nClients in $scenarios)
+{
+    Write-Output "===== $nClients clients =====";
+    java "-Dlogfile=loadgenerator_$nClients" -jar .\target\loadgenerator.jar "--role=all" "--serverPort=$serverPort" "--nClients=$nClients" `
+     "--framerate=$clientFramerate" "--tickrate=$clientTickrate" "--serverTickrate=$serverTickrate" "--maxUDPPayloadLength=$maxUDPPayloadLength" `
+     "--fillTimeout=$fillTimeout" "--maxExecutionDistance=$maxExecutionDistance" "--fillSize=$fillSize" "--frameLimit=$frameLimit" `
+     "--connectionTimeout=$connectionTimeout";
+}
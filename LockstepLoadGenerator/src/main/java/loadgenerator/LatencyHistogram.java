@@ -0,0 +1,105 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package loadgenerator;
+
+/**
+ * Log-linear histogram of non negative values: each power of two is split in
+ * 16 buckets, which bounds the relative error of the percentiles to 1/16.
+ * Not thread safe, each client records in its own histograms which are merged
+ * once the run is over.
+ */
+public class LatencyHistogram
+{
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+    
+    private final long[] counts = new long[BUCKETS];
+    private long count;
+    private long sum;
+    private long max;
+    
+    public void record(long value)
+    {
+        if(value < 0)
+            value = 0;
+        
+        counts[indexOf(value)]++;
+        count++;
+        sum += value;
+        if(value > max)
+            max = value;
+    }
+    
+    public void merge(LatencyHistogram other)
+    {
+        for(int i = 0; i < BUCKETS; i++)
+            counts[i] += other.counts[i];
+        count += other.count;
+        sum += other.sum;
+        if(other.max > max)
+            max = other.max;
+    }
+    
+    public long getCount()
+    {
+        return count;
+    }
+    
+    public long getMax()
+    {
+        return max;
+    }
+    
+    public double getMean()
+    {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+    
+    /**
+     * @param percentile in the range [0, 100]
+     * @return the upper bound of the bucket holding the percentile, 0 if the
+     * histogram is empty
+     */
+    public long getPercentile(double percentile)
+    {
+        if(count == 0)
+            return 0;
+        
+        long rank = (long) Math.ceil(percentile / 100 * count);
+        if(rank < 1)
+            rank = 1;
+        
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; i++)
+        {
+            seen += counts[i];
+            if(seen >= rank)
+                return Math.min(upperBoundOf(i), max);
+        }
+        return max;
+    }
+    
+    static int indexOf(long value)
+    {
+        if(value < SUB_BUCKETS)
+            return (int) value;
+        
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+    
+    static long upperBoundOf(int index)
+    {
+        if(index < SUB_BUCKETS)
+            return index;
+        
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = index % SUB_BUCKETS;
+        return ((SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
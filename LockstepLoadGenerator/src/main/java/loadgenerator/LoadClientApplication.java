@@ -0,0 +1,261 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package loadgenerator;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import lockstep.LockstepApplication;
+import lockstep.messages.simulation.LockstepCommand;
+
+/**
+ * Headless application driving a synthetic client.
+ * Each frame it generates an input with the configured probability, a nop
+ * otherwise, and it measures how the session executes them.
+ * 
+ * The state hash covers, in execution order, the first frameLimit inputs of
+ * every partecipating client, so that it is equal for all the clients of a
+ * consistent session. Once they're all executed the client signals completion
+ * and stops measuring, but keeps running until the load generator stops it so
+ * that its peers can still receive its inputs.
+ */
+public class LoadClientApplication implements LockstepApplication
+{
+    /**
+     * Random identifier of this JVM, to find the commands whose origin
+     * timestamp is comparable with the local System.nanoTime()
+     */
+    static final long JVM_TOKEN = new Random().nextLong();
+    
+    private final long token;
+    private final Random rand;
+    private final double inputRatio;
+    private final int fillSize;
+    private final int frameLimit;
+    private final CountDownLatch completionLatch;
+    
+    private int inputSequence = 0;
+    private int partecipatingClients;
+    
+    private int stateHash = 17;
+    private long hashedInputs = 0;
+    private boolean completed = false;
+    
+    private final LatencyHistogram localLatency = new LatencyHistogram();
+    private final LatencyHistogram remoteLatency = new LatencyHistogram();
+    
+    private long executedFrames = 0;
+    private long executedCommands = 0;
+    private long firstExecutionNanos = 0;
+    private long lastExecutionNanos = 0;
+    
+    private long stalls = 0;
+    private long stallStartNanos;
+    private long stalledNanos = 0;
+    private int disconnections = 0;
+    private boolean handshakeFailed = false;
+
+    public LoadClientApplication(long seed, double inputRatio, int fillSize, int frameLimit, int partecipatingClients, CountDownLatch completionLatch)
+    {
+        if(inputRatio < 0 || inputRatio > 1)
+            throw new IllegalArgumentException("Input ratio must be in [0, 1]");
+        if(fillSize < 0)
+            throw new IllegalArgumentException("Fill size must be non negative");
+        if(frameLimit <= 0)
+            throw new IllegalArgumentException("Frame limit must be positive");
+        if(partecipatingClients <= 0)
+            throw new IllegalArgumentException("Partecipating clients must be positive");
+        
+        this.rand = new Random(seed);
+        this.token = rand.nextLong();
+        this.inputRatio = inputRatio;
+        this.fillSize = fillSize;
+        this.frameLimit = frameLimit;
+        this.partecipatingClients = partecipatingClients;
+        this.completionLatch = completionLatch;
+    }
+    
+    @Override
+    public LockstepCommand readInput()
+    {
+        boolean nop = rand.nextDouble() >= inputRatio;
+        return new SyntheticCommand(token, JVM_TOKEN, System.nanoTime(), inputSequence++, nop, rand.nextInt());
+    }
+
+    @Override
+    public void suspendSimulation()
+    {
+        if(completed)
+            return;
+        
+        stalls++;
+        stallStartNanos = System.nanoTime();
+    }
+
+    @Override
+    public void resumeSimulation()
+    {
+        if(completed)
+            return;
+        
+        stalledNanos += System.nanoTime() - stallStartNanos;
+    }
+
+    @Override
+    public void executeCommand(LockstepCommand c)
+    {
+        if(completed)
+            return;
+        
+        SyntheticCommand cmd = (SyntheticCommand) c;
+        long now = System.nanoTime();
+        
+        if(firstExecutionNanos == 0)
+            firstExecutionNanos = now;
+        lastExecutionNanos = now;
+        executedCommands++;
+        
+        boolean local = cmd.originToken == token;
+        if(local)
+            executedFrames++;
+        
+        if(cmd.isFiller())
+            return;
+        
+        if(cmd.originJVM == JVM_TOKEN)
+        {
+            long latencyMicros = TimeUnit.NANOSECONDS.toMicros(now - cmd.originNanos);
+            if(local)
+                localLatency.record(latencyMicros);
+            else
+                remoteLatency.record(latencyMicros);
+        }
+        
+        if(cmd.sequence < frameLimit)
+        {
+            stateHash = 31 * stateHash + Long.hashCode(cmd.originToken);
+            stateHash = 31 * stateHash + cmd.sequence;
+            stateHash = 31 * stateHash + (cmd.nop ? 0 : cmd.payload);
+            hashedInputs++;
+            
+            if(hashedInputs == (long) frameLimit * partecipatingClients)
+                complete();
+        }
+    }
+
+    @Override
+    public LockstepCommand[] fillCommands()
+    {
+        return nopCommands(fillSize);
+    }
+
+    @Override
+    public LockstepCommand[] bootstrapCommands()
+    {
+        return nopCommands(fillSize * 2);
+    }
+    
+    private LockstepCommand[] nopCommands(int size)
+    {
+        LockstepCommand[] fillers = new LockstepCommand[size];
+        for (int i = 0; i < fillers.length; i++)
+            fillers[i] = new SyntheticCommand(token, JVM_TOKEN, System.nanoTime(), SyntheticCommand.FILLER_SEQUENCE, true, 0);
+        return fillers;
+    }
+
+    @Override
+    public void signalHandshakeFailure()
+    {
+        handshakeFailed = true;
+        complete();
+    }
+
+    @Override
+    public void signalDisconnection(int remainingClients)
+    {
+        //The hash can't be compared anymore, as peers may have stopped at
+        //different frames
+        disconnections++;
+        complete();
+    }
+
+    @Override
+    public void signalJoin(int partecipatingClients)
+    {
+        this.partecipatingClients = partecipatingClients;
+    }
+    
+    private void complete()
+    {
+        if(!completed)
+        {
+            completed = true;
+            completionLatch.countDown();
+        }
+    }
+    
+    /**
+     * @return true if the client executed all the hashed inputs, without
+     * disconnections of its peers
+     */
+    public boolean isConsistent()
+    {
+        return completed && !handshakeFailed && disconnections == 0;
+    }
+    
+    public boolean isHandshakeFailed()
+    {
+        return handshakeFailed;
+    }
+
+    public int getStateHash()
+    {
+        return stateHash;
+    }
+
+    public LatencyHistogram getLocalLatency()
+    {
+        return localLatency;
+    }
+
+    public LatencyHistogram getRemoteLatency()
+    {
+        return remoteLatency;
+    }
+
+    public long getExecutedFrames()
+    {
+        return executedFrames;
+    }
+
+    public long getExecutedCommands()
+    {
+        return executedCommands;
+    }
+    
+    /**
+     * @return nanoseconds elapsed between the first and the last execution
+     */
+    public long getExecutionNanos()
+    {
+        return lastExecutionNanos - firstExecutionNanos;
+    }
+
+    public long getStalls()
+    {
+        return stalls;
+    }
+
+    public long getStalledNanos()
+    {
+        return stalledNanos;
+    }
+
+    public int getDisconnections()
+    {
+        return disconnections;
+    }
+}
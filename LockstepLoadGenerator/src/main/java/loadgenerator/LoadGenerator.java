@@ -0,0 +1,284 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package loadgenerator;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import lockstep.ImpairmentProfile;
+import lockstep.LagPolicy;
+import lockstep.LockstepClient;
+import lockstep.LockstepServer;
+import lockstep.RatePolicy;
+import lockstep.WaitStrategy;
+import lockstep.metrics.DefaultLockstepMetrics;
+import org.apache.commons.cli.*;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Headless load generator: runs a LockstepServer and/or a number of synthetic
+ * LockstepClients in this JVM and reports how the session performed.
+ * 
+ * With role "all" the whole session runs on loopback in one JVM; roles
+ * "server" and "clients" allow to split it across several JVMs or hosts.
+ * Latency is measured only between clients of the same JVM.
+ * Network conditions can be emulated on all the links of the hosted nodes.
+ */
+public class LoadGenerator
+{
+    static
+    {
+        if(System.getProperty("logfile") == null)
+            System.setProperty("logfile", "loadgenerator");
+        if(System.getProperty("log4j.configurationFile") == null)
+            System.setProperty("log4j.configurationFile", "loadgenerator-log4j2.yml");
+    }
+    
+    private static final Logger LOG = LogManager.getLogger(LoadGenerator.class);
+    
+    public static void main(String[] args) throws InterruptedException
+    {
+        Options opts = new Options();
+        opts.addOption("r", "role", true, "all (default), server or clients");
+        opts.addOption("a", "serverAddress", true, "Server address used by the clients (default localhost)");
+        opts.addOption("s", "serverPort", true, "Listening TCP port used to initiate handshakes (default 8000)");
+        opts.addOption("n", "nClients", true, "Number of clients partecipating in the session (default 4)");
+        opts.addOption("l", "localClients", true, "Number of clients to run in this JVM (default nClients)");
+        opts.addOption("f", "framerate", true, "Client frames per second (default 60)");
+        opts.addOption("t", "tickrate", true, "Client transmissions per second (default 60)");
+        opts.addOption("T", "serverTickrate", true, "Server transmissions per second (default 20)");
+        opts.addOption("m", "maxUDPPayloadLength", true, "Max number of bytes per UDP packet (default 300)");
+        opts.addOption("c", "connectionTimeout", true, "Timeout for UDP connections (default 2000)");
+        opts.addOption("F", "fillTimeout", true, "Client fill timeout in ms (default 5000)");
+        opts.addOption("S", "fillSize", true, "Number of fill commands (default 5)");
+        opts.addOption("d", "maxExecutionDistance", true, "Max frames the client can run ahead of execution (default 30)");
+        opts.addOption("L", "frameLimit", true, "Inputs per client covered by the run (default 900)");
+        opts.addOption("i", "inputRatio", true, "Fraction of frames carrying an input rather than a nop (default 1)");
+        opts.addOption("R", "seed", true, "Seed of the generated inputs (default 0)");
+        opts.addOption("w", "timeout", true, "Seconds to wait for the clients to complete (default 300)");
+        opts.addOption("g", "linger", true, "Milliseconds to keep the clients running after completion (default 2000)");
+        opts.addOption(null, "loss", true, "Emulated loss rate in both directions (default 0)");
+        opts.addOption(null, "latency", true, "Emulated one-way latency in ms (default 0)");
+        opts.addOption(null, "jitter", true, "Emulated uniform jitter in ms (default 0)");
+        opts.addOption(null, "duplication", true, "Emulated duplication rate (default 0)");
+        opts.addOption(null, "reorder", true, "Emulated rate of datagrams held back by the jitter bound (default 0)");
+        opts.addOption(null, "traceSampling", true, "Trace a frame every traceSampling inputs per client, 0 to disable (default 60)");
+        opts.addOption(null, "bandwidth", true, "Emulated link capacity in bytes per second (default unlimited)");
+        opts.addOption(null, "fec", false, "Protect the frame inputs with parity datagrams");
+        opts.addOption(null, "rateControl", false, "Control the sending rate of each link");
+        opts.addOption(null, "timeDilation", false, "Let the server dilate the frame period of the clients to keep them aligned");
+        opts.addOption(null, "playout", false, "Execute the frames through an adaptive playout buffer");
+        opts.addOption(null, "stagger", false, "Spread the transmissions of the server to the clients over its tick");
+        opts.addOption(null, "cutThrough", false, "Forward the frames on the receivers of the server as they arrive");
+        opts.addOption(null, "serverWait", true, "Wait strategy of the server loops: block, park, yield or spin (default block)");
+        opts.addOption(null, "clientWait", true, "Wait strategy of the client loops: block, park, yield or spin (default block)");
+        opts.addOption(null, "maxUnacked", true, "Max frames the server keeps unACKed per link, at least 60, 0 for unbounded (default 0)");
+        opts.addOption(null, "lagAction", true, "Action on the clients reaching maxUnacked: throttle, spectator or disconnect (default throttle)");
+        opts.addOption(null, "lagTimeout", true, "Milliseconds a link stays beyond maxUnacked before demoting or disconnecting (default 1000)");
+        opts.addOption(null, "maxHistory", true, "Frames of each client the server keeps for spectators, 0 for the whole session (default 0)");
+        
+        CommandLine commandLine = null;
+        try
+        {
+            commandLine = new DefaultParser().parse(opts, args);
+        } catch (ParseException ex)
+        {
+            System.err.println(ex.getMessage());
+            new HelpFormatter().printHelp("loadgenerator", opts);
+            System.exit(1);
+        }
+        
+        String role = commandLine.getOptionValue("role", "all");
+        String serverAddress = commandLine.getOptionValue("serverAddress", "localhost");
+        int serverPort = intOption(commandLine, "serverPort", 8000);
+        int nClients = intOption(commandLine, "nClients", 4);
+        int localClients = intOption(commandLine, "localClients", nClients);
+        int framerate = intOption(commandLine, "framerate", 60);
+        int tickrate = intOption(commandLine, "tickrate", 60);
+        int serverTickrate = intOption(commandLine, "serverTickrate", 20);
+        int maxUDPPayloadLength = intOption(commandLine, "maxUDPPayloadLength", 300);
+        int connectionTimeout = intOption(commandLine, "connectionTimeout", 2000);
+        int fillTimeout = intOption(commandLine, "fillTimeout", 5000);
+        int fillSize = intOption(commandLine, "fillSize", 5);
+        int maxExecutionDistance = intOption(commandLine, "maxExecutionDistance", 30);
+        int frameLimit = intOption(commandLine, "frameLimit", 900);
+        double inputRatio = Double.parseDouble(commandLine.getOptionValue("inputRatio", "1"));
+        long seed = Long.parseLong(commandLine.getOptionValue("seed", "0"));
+        int timeout = intOption(commandLine, "timeout", 300);
+        int linger = intOption(commandLine, "linger", 2000);
+        int traceSampling = intOption(commandLine, "traceSampling", 60);
+        boolean forwardErrorCorrection = commandLine.hasOption("fec");
+        RatePolicy ratePolicy = commandLine.hasOption("rateControl") ? RatePolicy.builder().build() : null;
+        boolean timeDilation = commandLine.hasOption("timeDilation");
+        boolean playoutBuffer = commandLine.hasOption("playout");
+        boolean staggeredTransmission = commandLine.hasOption("stagger");
+        boolean cutThroughForwarding = commandLine.hasOption("cutThrough");
+        WaitStrategy serverWait = waitOption(commandLine, "serverWait");
+        WaitStrategy clientWait = waitOption(commandLine, "clientWait");
+        LagPolicy lagPolicy = null;
+        if(intOption(commandLine, "maxUnacked", 0) > 0)
+        {
+            lagPolicy = LagPolicy.builder()
+                    .maxUnackedFrames(intOption(commandLine, "maxUnacked", 0))
+                    .lagTimeout(intOption(commandLine, "lagTimeout", 1000))
+                    .action(LagPolicy.Action.valueOf(commandLine.getOptionValue("lagAction", "throttle").toUpperCase(Locale.ROOT)))
+                    .build();
+        }
+        
+        ImpairmentProfile impairment = null;
+        if(commandLine.hasOption("loss") || commandLine.hasOption("latency") || commandLine.hasOption("jitter")
+                || commandLine.hasOption("duplication") || commandLine.hasOption("reorder") || commandLine.hasOption("bandwidth"))
+        {
+            int jitter = intOption(commandLine, "jitter", 0);
+            impairment = ImpairmentProfile.builder()
+                    .seed(seed)
+                    .loss(Double.parseDouble(commandLine.getOptionValue("loss", "0")))
+                    .latency(intOption(commandLine, "latency", 0))
+                    .jitter(jitter, ImpairmentProfile.JitterDistribution.UNIFORM)
+                    .duplication(Double.parseDouble(commandLine.getOptionValue("duplication", "0")))
+                    .reorder(Double.parseDouble(commandLine.getOptionValue("reorder", "0")), jitter)
+                    .bandwidth(Long.parseLong(commandLine.getOptionValue("bandwidth", "0")), 1000)
+                    .build();
+        }
+        
+        boolean runServer = "all".equals(role) || "server".equals(role);
+        boolean runClients = "all".equals(role) || "clients".equals(role);
+        if(!runServer && !runClients)
+        {
+            System.err.println("Unknown role: " + role);
+            System.exit(1);
+        }
+        
+        LockstepServer server = null;
+        DefaultLockstepMetrics serverMetrics = null;
+        if(runServer)
+        {
+            serverMetrics = new DefaultLockstepMetrics();
+            server = LockstepServer.builder()
+                    .clientsNumber(nClients)
+                    .tcpPort(serverPort)
+                    .tickrate(serverTickrate)
+                    .maxUDPPayloadLength(maxUDPPayloadLength)
+                    .connectionTimeout(connectionTimeout)
+                    .impairment(impairment)
+                    .metrics(serverMetrics)
+                    .forwardErrorCorrection(forwardErrorCorrection)
+                    .ratePolicy(ratePolicy)
+                    .staggeredTransmission(staggeredTransmission)
+                    .cutThroughForwarding(cutThroughForwarding)
+                    .executionWaitStrategy(serverWait)
+                    .transmitterWaitStrategy(serverWait)
+                    .lagPolicy(lagPolicy)
+                    .lateJoin(lagPolicy != null && lagPolicy.getAction() == LagPolicy.Action.SPECTATOR)
+                    .maxHistoryFrames(intOption(commandLine, "maxHistory", 0))
+                    .build();
+            server.setName("Main-server-thread");
+            server.start();
+            LOG.info("Server started");
+            
+            if(!runClients)
+            {
+                server.join();
+                return;
+            }
+            
+            //Let the server bind its handshake socket
+            Thread.sleep(500);
+        }
+        
+        CountDownLatch completionLatch = new CountDownLatch(localClients);
+        List<LoadClientApplication> applications = new ArrayList<>();
+        List<LockstepClient> clients = new ArrayList<>();
+        List<DefaultLockstepMetrics> clientMetrics = new ArrayList<>();
+        InetSocketAddress serverTCPAddress = new InetSocketAddress(serverAddress, serverPort);
+        
+        long startNanos = System.nanoTime();
+        for(int i = 0; i < localClients; i++)
+        {
+            LoadClientApplication application = new LoadClientApplication(seed + i, 
+                    inputRatio, fillSize, frameLimit, nClients, completionLatch);
+            DefaultLockstepMetrics metrics = new DefaultLockstepMetrics();
+            
+            LockstepClient client = LockstepClient.builder()
+                    .serverTCPAddress(serverTCPAddress)
+                    .framerate(framerate)
+                    .tickrate(tickrate)
+                    .maxUDPPayloadLength(maxUDPPayloadLength)
+                    .fillTimeout(fillTimeout)
+                    .maxExecutionDistance(maxExecutionDistance)
+                    .lockstepApplication(application)
+                    .connectionTimeout(connectionTimeout)
+                    .impairment(impairment != null ? impairment.withSeedOffset(-1 - i) : null)
+                    .metrics(metrics)
+                    .traceSampling(traceSampling)
+                    .forwardErrorCorrection(forwardErrorCorrection)
+                    .ratePolicy(ratePolicy)
+                    .timeDilation(timeDilation)
+                    .playoutBuffer(playoutBuffer)
+                    .executionWaitStrategy(clientWait)
+                    .transmitterWaitStrategy(clientWait)
+                    .build();
+            client.setName("main-client-thread-" + i);
+            
+            applications.add(application);
+            clientMetrics.add(metrics);
+            clients.add(client);
+            client.start();
+        }
+        
+        if(!completionLatch.await(timeout, TimeUnit.SECONDS))
+            LOG.warn("Timeout expired before all clients completed");
+        long wallNanos = System.nanoTime() - startNanos;
+        Traffic clientTraffic = Traffic.of(clientMetrics);
+        Traffic serverTraffic = serverMetrics != null ? Traffic.of(Collections.singletonList(serverMetrics)) : null;
+        
+        Thread.sleep(linger);
+        for(LockstepClient client : clients)
+            client.abort();
+        for(LockstepClient client : clients)
+            client.join();
+        
+        if(server != null)
+        {
+            server.abort();
+            server.join(connectionTimeout * 2);
+        }
+        
+        LoadReport report = new LoadReport(applications, wallNanos, clientTraffic, serverTraffic, clientMetrics, serverMetrics);
+        report.print(System.out);
+        
+        System.exit(report.isHashAgreement() ? 0 : 2);
+    }
+    
+    private static int intOption(CommandLine commandLine, String name, int defaultValue)
+    {
+        String value = commandLine.getOptionValue(name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+    
+    private static WaitStrategy waitOption(CommandLine commandLine, String name)
+    {
+        String value = commandLine.getOptionValue(name, "block");
+        switch(value)
+        {
+            case "block":
+                return WaitStrategy.blocking();
+            case "park":
+                return WaitStrategy.parking(50, TimeUnit.MICROSECONDS);
+            case "yield":
+                return WaitStrategy.yielding();
+            case "spin":
+                return WaitStrategy.busySpin();
+            default:
+                throw new IllegalArgumentException("Unknown wait strategy " + value);
+        }
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package loadgenerator;
+
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import lockstep.metrics.ConcurrentHistogram;
+import lockstep.metrics.DefaultLinkMetrics;
+import lockstep.metrics.DefaultLockstepMetrics;
+import lockstep.metrics.TraceStage;
+
+/**
+ * Summary of a load generator run over the clients hosted in this JVM.
+ */
+public class LoadReport
+{
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+    
+    private final List<LoadClientApplication> clients;
+    private final long wallNanos;
+    private final Traffic clientTraffic;
+    private final Traffic serverTraffic;
+    private final List<DefaultLockstepMetrics> clientMetrics;
+    private final DefaultLockstepMetrics serverMetrics;
+
+    /**
+     * Constructor.
+     * 
+     * @param clients applications of the clients hosted
+     * @param wallNanos duration of the run
+     * @param clientTraffic traffic of the clients hosted during the run
+     * @param serverTraffic traffic of the server during the run, or null if
+     * not hosted
+     * @param clientMetrics metrics of the clients hosted, for the stages of
+     * the traced frames and the stall attribution
+     * @param serverMetrics metrics of the server, for the lateness of the 
+     * clients, or null if not hosted
+     */
+    public LoadReport(List<LoadClientApplication> clients, long wallNanos, Traffic clientTraffic, Traffic serverTraffic, List<DefaultLockstepMetrics> clientMetrics, DefaultLockstepMetrics serverMetrics)
+    {
+        this.clients = clients;
+        this.wallNanos = wallNanos;
+        this.clientTraffic = clientTraffic;
+        this.serverTraffic = serverTraffic;
+        this.clientMetrics = clientMetrics;
+        this.serverMetrics = serverMetrics;
+    }
+    
+    /**
+     * @return true if every client completed and all the state hashes are equal
+     */
+    public boolean isHashAgreement()
+    {
+        if(clients.isEmpty())
+            return false;
+        
+        int hash = clients.get(0).getStateHash();
+        for(LoadClientApplication client : clients)
+        {
+            if(!client.isConsistent() || client.getStateHash() != hash)
+                return false;
+        }
+        return true;
+    }
+    
+    public void print(PrintStream out)
+    {
+        LatencyHistogram localLatency = new LatencyHistogram();
+        LatencyHistogram remoteLatency = new LatencyHistogram();
+        long frames = 0;
+        long stalls = 0;
+        long stalledNanos = 0;
+        
+        out.println(String.format(Locale.ROOT, "%-8s %10s %10s %8s %12s %12s %12s %12s",
+                "client", "frames", "frames/s", "stalls", "stalled ms", "p50 us", "p99 us", "hash"));
+        for(int i = 0; i < clients.size(); i++)
+        {
+            LoadClientApplication client = clients.get(i);
+            localLatency.merge(client.getLocalLatency());
+            remoteLatency.merge(client.getRemoteLatency());
+            frames += client.getExecutedFrames();
+            stalls += client.getStalls();
+            stalledNanos += client.getStalledNanos();
+            
+            out.println(String.format(Locale.ROOT, "%-8d %10d %10.1f %8d %12d %12d %12d %12s",
+                    i, client.getExecutedFrames(), perSecond(client.getExecutedFrames(), client.getExecutionNanos()),
+                    client.getStalls(), TimeUnit.NANOSECONDS.toMillis(client.getStalledNanos()),
+                    client.getRemoteLatency().getPercentile(50), client.getRemoteLatency().getPercentile(99),
+                    client.isConsistent() ? Integer.toHexString(client.getStateHash()) : "incomplete"));
+        }
+        
+        out.println();
+        out.println(String.format(Locale.ROOT, "Wall time: %.1f s", wallNanos / 1e9));
+        out.println(String.format(Locale.ROOT, "Frames executed: %d (%.1f frames/s over all clients)", frames, perSecond(frames, wallNanos)));
+        out.println(String.format(Locale.ROOT, "Stalls: %d, %d ms stalled", stalls, TimeUnit.NANOSECONDS.toMillis(stalledNanos)));
+        printLatency(out, "Input to execution latency, remote inputs", remoteLatency);
+        printLatency(out, "Input to execution latency, local inputs", localLatency);
+        printStallAttribution(out);
+        printTraceStages(out);
+        printLinkRTT(out);
+        printPlayoutDelay(out);
+        printTransmitBursts(out);
+        printLaggingClients(out);
+        printTraffic(out, "Clients traffic", clientTraffic);
+        if(serverTraffic != null)
+            printTraffic(out, "Server traffic", serverTraffic);
+        out.println("Hash agreement: " + (isHashAgreement() ? "yes" : "NO"));
+    }
+    
+    private static void printLatency(PrintStream out, String title, LatencyHistogram histogram)
+    {
+        StringBuilder line = new StringBuilder(title)
+                .append(String.format(Locale.ROOT, " (%d samples, us): mean %.0f", histogram.getCount(), histogram.getMean()));
+        for(double percentile : PERCENTILES)
+            line.append(String.format(Locale.ROOT, ", p%s %d", formatPercentile(percentile), histogram.getPercentile(percentile)));
+        line.append(", max ").append(histogram.getMax());
+        out.println(line);
+    }
+    
+    /**
+     * Prints, for each client, the stall time it caused on the clients hosted
+     * and its lateness on the server.
+     */
+    private void printStallAttribution(PrintStream out)
+    {
+        Map<Integer, ConcurrentHistogram> stallCauses = new TreeMap<>();
+        for(DefaultLockstepMetrics metrics : clientMetrics)
+        {
+            for(Entry<Integer, ConcurrentHistogram> stallCause : metrics.getStallCauses().entrySet())
+                stallCauses.computeIfAbsent(stallCause.getKey(), (Integer id) -> new ConcurrentHistogram()).merge(stallCause.getValue());
+        }
+        
+        for(Entry<Integer, ConcurrentHistogram> stallCause : stallCauses.entrySet())
+        {
+            ConcurrentHistogram stalls = stallCause.getValue();
+            out.println(String.format(Locale.ROOT, "Stalls caused by client %d: %d, %.0f ms, p99 %d us",
+                    stallCause.getKey(), stalls.getCount(), stalls.getCount() * stalls.getMean() / 1000, stalls.getPercentile(99)));
+        }
+        
+        if(serverMetrics == null)
+            return;
+        for(Entry<Integer, ConcurrentHistogram> clientLateness : new TreeMap<>(serverMetrics.getLateness()).entrySet())
+        {
+            ConcurrentHistogram lateness = clientLateness.getValue();
+            out.println(String.format(Locale.ROOT, "Lateness of client %d on the server (us): mean %.0f, p50 %d, p99 %d, max %d",
+                    clientLateness.getKey(), lateness.getMean(), lateness.getPercentile(50), lateness.getPercentile(99), lateness.getMax()));
+        }
+    }
+    
+    /**
+     * Prints the breakdown of the traced frames latency, merged over the 
+     * clients hosted. Stages crossing the network carry the clock offset 
+     * error of the clients.
+     */
+    private void printTraceStages(PrintStream out)
+    {
+        for(TraceStage stage : TraceStage.values())
+        {
+            ConcurrentHistogram merged = new ConcurrentHistogram();
+            for(DefaultLockstepMetrics metrics : clientMetrics)
+                merged.merge(metrics.getTraceStage(stage));
+            if(merged.getCount() == 0)
+                continue;
+            
+            StringBuilder line = new StringBuilder("Traced stage ").append(stage.metricName())
+                    .append(String.format(Locale.ROOT, " (%d samples, us): mean %.0f", merged.getCount(), merged.getMean()));
+            for(double percentile : PERCENTILES)
+                line.append(String.format(Locale.ROOT, ", p%s %d", formatPercentile(percentile), merged.getPercentile(percentile)));
+            line.append(", max ").append(merged.getMax());
+            out.println(line);
+        }
+    }
+    
+    /**
+     * Prints the round trip times sampled by the keep alives on the links of
+     * the clients hosted.
+     */
+    private void printLinkRTT(PrintStream out)
+    {
+        ConcurrentHistogram merged = new ConcurrentHistogram();
+        for(DefaultLockstepMetrics metrics : clientMetrics)
+        {
+            for(DefaultLinkMetrics link : metrics.getLinks().values())
+                merged.merge(link.getRTT());
+        }
+        if(merged.getCount() == 0)
+            return;
+        
+        out.println(String.format(Locale.ROOT, "Client link RTT (%d samples, us): mean %.0f, p50 %d, p99 %d, max %d",
+                merged.getCount(), merged.getMean(), merged.getPercentile(50), merged.getPercentile(99), merged.getMax()));
+    }
+    
+    /**
+     * Prints the time the frames were buffered by the playout buffers of the
+     * clients hosted, if enabled.
+     */
+    private void printPlayoutDelay(PrintStream out)
+    {
+        ConcurrentHistogram merged = new ConcurrentHistogram();
+        for(DefaultLockstepMetrics metrics : clientMetrics)
+            merged.merge(metrics.getPlayoutDelays());
+        if(merged.getCount() == 0)
+            return;
+        
+        out.println(String.format(Locale.ROOT, "Playout delay (%d frames, us): mean %.0f, p50 %d, p99 %d, max %d",
+                merged.getCount(), merged.getMean(), merged.getPercentile(50), merged.getPercentile(99), merged.getMax()));
+    }
+    
+    /**
+     * Prints the datagrams sent by the server within each millisecond with
+     * transmissions, if hosted.
+     */
+    private void printTransmitBursts(PrintStream out)
+    {
+        if(serverMetrics == null || serverMetrics.getTransmitBursts().getCount() == 0)
+            return;
+        
+        ConcurrentHistogram bursts = serverMetrics.getTransmitBursts();
+        out.println(String.format(Locale.ROOT, "Server transmit bursts (%d, datagrams per ms): mean %.1f, p50 %d, p99 %d, max %d",
+                bursts.getCount(), bursts.getMean(), bursts.getPercentile(50), bursts.getPercentile(99), bursts.getMax()));
+    }
+    
+    private void printLaggingClients(PrintStream out)
+    {
+        if(serverMetrics == null)
+            return;
+        
+        long throttled = serverMetrics.getFramesThrottled();
+        long demoted = serverMetrics.getSpectatorDemotions();
+        long disconnected = serverMetrics.getLaggingDisconnections();
+        if(throttled + demoted + disconnected > 0)
+            out.println(String.format(Locale.ROOT, "Lagging clients: %d frames throttled, %d demoted to spectators, %d disconnected",
+                    throttled, demoted, disconnected));
+    }
+    
+    private void printTraffic(PrintStream out, String title, Traffic traffic)
+    {
+        out.println(String.format(Locale.ROOT, "%s: out %.1f packets/s %.1f kB/s, in %.1f packets/s %.1f kB/s, %.1f duplicates/s dropped, %.1f packets/s recovered by parity, %.1f transmissions/s rate limited", title,
+                perSecond(traffic.packetsSent, wallNanos), perSecond(traffic.bytesSent, wallNanos) / 1000,
+                perSecond(traffic.packetsReceived, wallNanos), perSecond(traffic.bytesReceived, wallNanos) / 1000,
+                perSecond(traffic.duplicatesDropped, wallNanos), perSecond(traffic.parityRecovered, wallNanos),
+                perSecond(traffic.rateLimited, wallNanos)));
+    }
+    
+    private static String formatPercentile(double percentile)
+    {
+        return percentile == Math.rint(percentile) ? Integer.toString((int) percentile) : Double.toString(percentile);
+    }
+    
+    private static double perSecond(long count, long nanos)
+    {
+        return nanos > 0 ? count * 1e9 / nanos : 0;
+    }
+}
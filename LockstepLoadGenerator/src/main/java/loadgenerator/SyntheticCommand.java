@@ -0,0 +1,85 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package loadgenerator;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import lockstep.messages.simulation.LockstepCommand;
+
+/**
+ * Command generated by the load generator clients.
+ * It carries the instant it was read as input, so that the executing clients
+ * living in the same JVM can measure the input to execution latency.
+ */
+public class SyntheticCommand implements LockstepCommand, Externalizable
+{
+    static final int FILLER_SEQUENCE = -1;
+    
+    /**
+     * Identifies the client that generated the command
+     */
+    long originToken;
+    
+    /**
+     * Identifies the JVM of the client that generated the command, as
+     * System.nanoTime() values are comparable only within the same JVM
+     */
+    long originJVM;
+    
+    long originNanos;
+    
+    /**
+     * Number of the input among the ones generated by the client, or
+     * FILLER_SEQUENCE for fill and bootstrap commands
+     */
+    int sequence;
+    
+    boolean nop;
+    int payload;
+    
+    public SyntheticCommand()
+    {
+    }
+
+    public SyntheticCommand(long originToken, long originJVM, long originNanos, int sequence, boolean nop, int payload)
+    {
+        this.originToken = originToken;
+        this.originJVM = originJVM;
+        this.originNanos = originNanos;
+        this.sequence = sequence;
+        this.nop = nop;
+        this.payload = payload;
+    }
+    
+    public boolean isFiller()
+    {
+        return sequence == FILLER_SEQUENCE;
+    }
+    
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException
+    {
+        out.writeLong(originToken);
+        out.writeLong(originJVM);
+        out.writeLong(originNanos);
+        out.writeInt(sequence);
+        out.writeBoolean(nop);
+        out.writeInt(payload);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException
+    {
+        originToken = in.readLong();
+        originJVM = in.readLong();
+        originNanos = in.readLong();
+        sequence = in.readInt();
+        nop = in.readBoolean();
+        payload = in.readInt();
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package loadgenerator;
+
+import java.util.Collection;
+import lockstep.metrics.DefaultLinkMetrics;
+import lockstep.metrics.DefaultLockstepMetrics;
+
+/**
+ * Datagrams and bytes exchanged by a group of nodes, summed over all their
+ * links.
+ */
+public class Traffic
+{
+    final long packetsSent;
+    final long bytesSent;
+    final long packetsReceived;
+    final long bytesReceived;
+    final long duplicatesDropped;
+    final long parityRecovered;
+    final long rateLimited;
+
+    private Traffic(long packetsSent, long bytesSent, long packetsReceived, long bytesReceived, long duplicatesDropped, long parityRecovered, long rateLimited)
+    {
+        this.packetsSent = packetsSent;
+        this.bytesSent = bytesSent;
+        this.packetsReceived = packetsReceived;
+        this.bytesReceived = bytesReceived;
+        this.duplicatesDropped = duplicatesDropped;
+        this.parityRecovered = parityRecovered;
+        this.rateLimited = rateLimited;
+    }
+    
+    /**
+     * @param nodes metrics of the nodes
+     * @return the traffic recorded so far by the nodes
+     */
+    public static Traffic of(Collection<DefaultLockstepMetrics> nodes)
+    {
+        long packetsSent = 0, bytesSent = 0, packetsReceived = 0, bytesReceived = 0, duplicatesDropped = 0, parityRecovered = 0, rateLimited = 0;
+        for(DefaultLockstepMetrics node : nodes)
+        {
+            for(DefaultLinkMetrics link : node.getLinks().values())
+            {
+                packetsSent += link.getPacketsSent();
+                bytesSent += link.getBytesSent();
+                packetsReceived += link.getPacketsReceived();
+                bytesReceived += link.getBytesReceived();
+                duplicatesDropped += link.getDuplicatesDropped();
+                parityRecovered += link.getParityRecovered();
+                rateLimited += link.getRateLimited();
+            }
+        }
+        return new Traffic(packetsSent, bytesSent, packetsReceived, bytesReceived, duplicatesDropped, parityRecovered, rateLimited);
+    }
+}